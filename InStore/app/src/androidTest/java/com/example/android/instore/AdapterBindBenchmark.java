@@ -0,0 +1,125 @@
+package com.example.android.instore;
+
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import com.example.android.instore.data.TrackerContract.TrackerEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the time it takes to bind catalog rows with the old cursor adapter, kept as the
+ * {@link BaselineCursorAdapter}, against the {@link TrackerAdapter}. Both bind the same rows into a
+ * recycled view, the way a list does while scrolling.
+ * <p>
+ * Results are written to logcat under the {@link #LOG_TAG} tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AdapterBindBenchmark {
+
+    private static final String LOG_TAG = AdapterBindBenchmark.class.getSimpleName();
+
+    private static final int ROW_COUNT = 1000;
+
+    private static final int WARMUP_PASSES = 3;
+
+    private static final int MEASURED_PASSES = 10;
+
+    private static final String[] COLUMNS = {
+            TrackerEntry._ID,
+            TrackerEntry.COLUMN_TRACKER_NAME,
+            TrackerEntry.COLUMN_TRACKER_PRICE,
+            TrackerEntry.COLUMN_TRACKER_QUANTITY,
+            TrackerEntry.COLUMN_TRACKER_IMAGE_HASH
+    };
+
+    private Context mContext;
+
+    private FrameLayout mParent;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mParent = new FrameLayout(mContext);
+    }
+
+    @Test
+    public void compareBindTimes() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                long cursorAdapterNanos = benchmarkCursorAdapter();
+                long recyclerAdapterNanos = benchmarkRecyclerAdapter();
+                Log.i(LOG_TAG, "BaselineCursorAdapter nsPerBind=" + cursorAdapterNanos);
+                Log.i(LOG_TAG, "TrackerAdapter nsPerBind=" + recyclerAdapterNanos);
+            }
+        });
+    }
+
+    private long benchmarkCursorAdapter() {
+        BaselineCursorAdapter adapter = new BaselineCursorAdapter(mContext, createCursor());
+        assertEquals(ROW_COUNT, adapter.getCount());
+
+        View view = adapter.getView(0, null, mParent);
+        for (int pass = 0; pass < WARMUP_PASSES; pass++) {
+            for (int position = 0; position < ROW_COUNT; position++) {
+                adapter.getView(position, view, mParent);
+            }
+        }
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int pass = 0; pass < MEASURED_PASSES; pass++) {
+            for (int position = 0; position < ROW_COUNT; position++) {
+                adapter.getView(position, view, mParent);
+            }
+        }
+        return (SystemClock.elapsedRealtimeNanos() - start) / (MEASURED_PASSES * ROW_COUNT);
+    }
+
+    private long benchmarkRecyclerAdapter() {
+        TrackerAdapter adapter = new TrackerAdapter(mContext, new TrackerAdapter.OnTrackerClickListener() {
+            @Override
+            public void onTrackerClick(long id) {
+            }
+        });
+        // Copy the rows right away; swapCursor would copy them in the background
+        adapter.setRows(TrackerAdapter.readRows(createCursor()));
+        assertEquals(ROW_COUNT, adapter.getItemCount());
+
+        TrackerAdapter.ViewHolder holder = adapter.onCreateViewHolder(mParent, 0);
+        for (int pass = 0; pass < WARMUP_PASSES; pass++) {
+            for (int position = 0; position < ROW_COUNT; position++) {
+                adapter.onBindViewHolder(holder, position);
+            }
+        }
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int pass = 0; pass < MEASURED_PASSES; pass++) {
+            for (int position = 0; position < ROW_COUNT; position++) {
+                adapter.onBindViewHolder(holder, position);
+            }
+        }
+        return (SystemClock.elapsedRealtimeNanos() - start) / (MEASURED_PASSES * ROW_COUNT);
+    }
+
+    /**
+     * Build a synthetic catalog. The rows have no image, so no thumbnail load gets in the way.
+     */
+    private static MatrixCursor createCursor() {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, ROW_COUNT);
+        for (int i = 0; i < ROW_COUNT; i++) {
+            cursor.addRow(new Object[]{i + 1L, "Tracker " + i, 1000L + i, i % 50, null});
+        }
+        return cursor;
+    }
+}
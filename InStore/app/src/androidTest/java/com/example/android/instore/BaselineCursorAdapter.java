@@ -0,0 +1,69 @@
+package com.example.android.instore;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.CursorAdapter;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import com.example.android.instore.data.TrackerContract;
+
+/**
+ * The bind path of the CursorAdapter the catalog used before {@link TrackerAdapter}, kept as the
+ * baseline of the {@link AdapterBindBenchmark}. Every bind looks the views and the columns up
+ * again and reads the row from the cursor, as the old adapter did.
+ */
+class BaselineCursorAdapter extends CursorAdapter {
+
+    BaselineCursorAdapter(Context context, Cursor cursor) {
+        super(context, cursor, 0 /* flags */);
+    }
+
+    @Override
+    public View newView(Context context, Cursor cursor, ViewGroup parent) {
+        return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+    }
+
+    @Override
+    public void bindView(View view, Context context, Cursor cursor) {
+        TextView nameTextView = (TextView) view.findViewById(R.id.name);
+        TextView priceTextView = (TextView) view.findViewById(R.id.price);
+        TextView quantityTextView = (TextView) view.findViewById(R.id.quantity);
+        ImageView thumbnailView = (ImageView) view.findViewById(R.id.thumbnail);
+
+        int quantityColumnIndex = cursor.getColumnIndex(TrackerContract.TrackerEntry.COLUMN_TRACKER_QUANTITY);
+        final int quantity = cursor.getInt(quantityColumnIndex);
+        int idColumnIndex = cursor.getColumnIndex(TrackerContract.TrackerEntry._ID);
+        final long id = cursor.getLong(idColumnIndex);
+
+        // The old adapter set a new listener on every bind
+        Button sellButton = (Button) view.findViewById(R.id.sell);
+        sellButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                if (quantity > 0) {
+                    Bundle extras = new Bundle();
+                    extras.putLong(TrackerContract.EXTRA_ID, id);
+                    view.getContext().getContentResolver().call(TrackerContract.TrackerEntry.CONTENT_URI,
+                            TrackerContract.METHOD_RECORD_SALE, null, extras);
+                }
+            }
+        });
+
+        int nameColumnIndex = cursor.getColumnIndex(TrackerContract.TrackerEntry.COLUMN_TRACKER_NAME);
+        int priceColumnIndex = cursor.getColumnIndex(TrackerContract.TrackerEntry.COLUMN_TRACKER_PRICE);
+        int imageHashColumnIndex = cursor.getColumnIndex(TrackerContract.TrackerEntry.COLUMN_TRACKER_IMAGE_HASH);
+
+        nameTextView.setText(cursor.getString(nameColumnIndex));
+        priceTextView.setText("Price:" + TrackerContract.TrackerEntry.formatPrice(cursor.getLong(priceColumnIndex)));
+        quantityTextView.setText("Quantity:" + cursor.getString(quantityColumnIndex));
+
+        ThumbnailLoader.getInstance(context).load(thumbnailView, id, cursor.getString(imageHashColumnIndex),
+                context.getResources().getDimensionPixelSize(R.dimen.thumbnail_size));
+    }
+}
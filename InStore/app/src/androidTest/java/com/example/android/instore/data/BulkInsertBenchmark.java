@@ -0,0 +1,120 @@
+package com.example.android.instore.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.ProviderTestCase2;
+import android.util.Log;
+
+import com.example.android.instore.data.TrackerContract.TrackerEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the throughput of loading a catalog one {@link ContentResolver#insert} at a time
+ * against {@link TrackerProvider#bulkInsert} and {@link TrackerProvider#applyBatch}.
+ * <p>
+ * Results are written to logcat under the {@link #LOG_TAG} tag. The provider runs against an
+ * isolated database, so the app's own catalog is left alone.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BulkInsertBenchmark extends ProviderTestCase2<TrackerProvider> {
+
+    private static final String LOG_TAG = BulkInsertBenchmark.class.getSimpleName();
+
+    /**
+     * Catalog sizes to compare
+     */
+    private static final int[] ROW_COUNTS = {1000, 10000, 100000};
+
+    public BulkInsertBenchmark() {
+        super(TrackerProvider.class, TrackerContract.CONTENT_AUTHORITY);
+    }
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        setContext(InstrumentationRegistry.getTargetContext());
+        super.setUp();
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    @Test
+    public void compareInsertPaths() throws Exception {
+        ContentResolver resolver = getMockContentResolver();
+
+        for (int rowCount : ROW_COUNTS) {
+            ContentValues[] rows = createRows(rowCount);
+
+            // One implicit transaction per row
+            clearCatalog(resolver);
+            long start = SystemClock.elapsedRealtime();
+            for (ContentValues row : rows) {
+                resolver.insert(TrackerEntry.CONTENT_URI, row);
+            }
+            report("insert", rowCount, SystemClock.elapsedRealtime() - start);
+
+            // One transaction for the whole catalog
+            clearCatalog(resolver);
+            start = SystemClock.elapsedRealtime();
+            int inserted = resolver.bulkInsert(TrackerEntry.CONTENT_URI, rows);
+            report("bulkInsert", rowCount, SystemClock.elapsedRealtime() - start);
+            assertEquals(rowCount, inserted);
+
+            // One transaction for the whole catalog, expressed as individual operations
+            clearCatalog(resolver);
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>(rowCount);
+            for (ContentValues row : rows) {
+                operations.add(ContentProviderOperation.newInsert(TrackerEntry.CONTENT_URI)
+                        .withValues(row)
+                        .build());
+            }
+            start = SystemClock.elapsedRealtime();
+            resolver.applyBatch(TrackerContract.CONTENT_AUTHORITY, operations);
+            report("applyBatch", rowCount, SystemClock.elapsedRealtime() - start);
+        }
+
+        clearCatalog(resolver);
+    }
+
+    /**
+     * Build a synthetic catalog with the given number of rows.
+     */
+    private static ContentValues[] createRows(int rowCount) {
+        ContentValues[] rows = new ContentValues[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            ContentValues values = new ContentValues();
+            values.put(TrackerEntry.COLUMN_TRACKER_NAME, "Tracker " + i);
+            values.put(TrackerEntry.COLUMN_TRACKER_QUANTITY, i % 50);
+            values.put(TrackerEntry.COLUMN_TRACKER_PRICE, 1000 + i % 9000);
+            values.put(TrackerEntry.COLUMN_TRACKER_VENDOR, "vendor" + (i % 20) + "@example.com");
+            rows[i] = values;
+        }
+        return rows;
+    }
+
+    private static void clearCatalog(ContentResolver resolver) {
+        resolver.delete(TrackerEntry.CONTENT_URI, null, null);
+    }
+
+    private static void report(String path, int rowCount, long elapsedMs) {
+        long rowsPerSecond = elapsedMs == 0 ? rowCount * 1000L : rowCount * 1000L / elapsedMs;
+        Log.i(LOG_TAG, path + " rows=" + rowCount + " ms=" + elapsedMs
+                + " rowsPerSecond=" + rowsPerSecond);
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.android.instore.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.ProviderTestCase2;
+import android.util.Log;
+
+import com.example.android.instore.data.TrackerContract.TrackerEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the time it takes to get the first screenful of the catalog on a cold start: by
+ * opening the database and querying the first page, the way the catalog did before it had the
+ * {@link FirstPageFile}, against mapping and reading that file.
+ * <p>
+ * Every run opens a new {@link TrackerDbHelper} or {@link FirstPageFile}, so no connection or
+ * statement is reused between runs, but the files themselves may still be in the page cache of
+ * the system. The very first run of each path is reported on its own for that reason.
+ * <p>
+ * Results are written to logcat under the {@link #LOG_TAG} tag. The provider runs against an
+ * isolated database, so the app's own catalog is left alone.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ColdStartBenchmark extends ProviderTestCase2<TrackerProvider> {
+
+    private static final String LOG_TAG = ColdStartBenchmark.class.getSimpleName();
+
+    /**
+     * Size of the catalog the first page is read from
+     */
+    private static final int ROW_COUNT = 10000;
+
+    private static final int MEASURED_RUNS = 20;
+
+    public ColdStartBenchmark() {
+        super(TrackerProvider.class, TrackerContract.CONTENT_AUTHORITY);
+    }
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        setContext(InstrumentationRegistry.getTargetContext());
+        super.setUp();
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    @Test
+    public void compareColdStartPaths() throws Exception {
+        ContentResolver resolver = getMockContentResolver();
+        resolver.delete(TrackerEntry.CONTENT_URI, null, null);
+        assertEquals(ROW_COUNT, resolver.bulkInsert(TrackerEntry.CONTENT_URI, createRows(ROW_COUNT)));
+
+        // Leave the database closed, the way a new process finds it
+        getProvider().shutdown();
+        Context context = getMockContext();
+        TrackerDbHelper dbHelper = new TrackerDbHelper(context);
+        try {
+            Cursor firstPage = queryFirstPage(dbHelper.getReadableDatabase());
+            try {
+                new FirstPageFile(context).write(firstPage);
+            } finally {
+                firstPage.close();
+            }
+        } finally {
+            dbHelper.close();
+        }
+
+        long[] databaseNanos = new long[MEASURED_RUNS];
+        long[] fileNanos = new long[MEASURED_RUNS];
+        for (int run = 0; run < MEASURED_RUNS; run++) {
+            databaseNanos[run] = timeDatabasePath(context);
+            fileNanos[run] = timeFilePath(context);
+        }
+        report("database", databaseNanos);
+        report("file", fileNanos);
+
+        resolver.delete(TrackerEntry.CONTENT_URI, null, null);
+    }
+
+    /**
+     * Open the database and read the first screenful, as the first page loader would.
+     */
+    private static long timeDatabasePath(Context context) {
+        long start = System.nanoTime();
+        TrackerDbHelper dbHelper = new TrackerDbHelper(context);
+        try {
+            Cursor cursor = queryFirstPage(dbHelper.getReadableDatabase());
+            try {
+                assertEquals(FirstPageFile.ROWS, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+            return System.nanoTime() - start;
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    /**
+     * Map the first page file and read the first screenful from it.
+     */
+    private static long timeFilePath(Context context) {
+        long start = System.nanoTime();
+        Cursor cursor = new FirstPageFile(context).read();
+        try {
+            assertEquals(FirstPageFile.ROWS, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static Cursor queryFirstPage(SQLiteDatabase database) {
+        return database.query(TrackerEntry.TABLE_NAME, FirstPageFile.COLUMNS, null, null, null, null,
+                TrackerEntry.COLUMN_TRACKER_NAME + ", " + TrackerEntry._ID,
+                String.valueOf(FirstPageFile.ROWS));
+    }
+
+    /**
+     * Build a synthetic catalog with the given number of rows.
+     */
+    private static ContentValues[] createRows(int rowCount) {
+        ContentValues[] rows = new ContentValues[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            ContentValues values = new ContentValues();
+            values.put(TrackerEntry.COLUMN_TRACKER_NAME, "Tracker " + i);
+            values.put(TrackerEntry.COLUMN_TRACKER_QUANTITY, i % 50);
+            values.put(TrackerEntry.COLUMN_TRACKER_PRICE, 1000 + i % 9000);
+            values.put(TrackerEntry.COLUMN_TRACKER_VENDOR, "vendor" + (i % 20) + "@example.com");
+            rows[i] = values;
+        }
+        return rows;
+    }
+
+    private static void report(String path, long[] nanos) {
+        long total = 0;
+        for (int run = 1; run < nanos.length; run++) {
+            total += nanos[run];
+        }
+        Log.i(LOG_TAG, path + " firstRunUs=" + nanos[0] / 1000
+                + " meanUs=" + total / (nanos.length - 1) / 1000);
+    }
+}
@@ -0,0 +1,229 @@
+package com.example.android.instore.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.ProviderTestCase2;
+import android.util.Log;
+
+import com.example.android.instore.data.TrackerContract.TrackerEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures how catalog reads and stock updates slow each other down, with the default rollback
+ * journal and in write-ahead logging mode. N reader threads read the first catalog page over and
+ * over while M writer threads update the quantity of random trackers.
+ * <p>
+ * Results (p50 and p99 latency per operation) are written to logcat under the {@link #LOG_TAG}
+ * tag. The provider runs against an isolated database, so the app's own catalog is left alone.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ContentionBenchmark extends ProviderTestCase2<TrackerProvider> {
+
+    private static final String LOG_TAG = ContentionBenchmark.class.getSimpleName();
+
+    /**
+     * Number of trackers in the catalog
+     */
+    private static final int ROW_COUNT = 10000;
+
+    /**
+     * Reader and writer thread counts to compare, as {readers, writers}
+     */
+    private static final int[][] THREAD_COUNTS = {{1, 1}, {4, 1}, {4, 4}};
+
+    /**
+     * Operations each thread runs; the first {@link #WARMUP_OPERATIONS} are not measured
+     */
+    private static final int OPERATIONS = 500;
+
+    private static final int WARMUP_OPERATIONS = 50;
+
+    private static final int PAGE_SIZE = 50;
+
+    public ContentionBenchmark() {
+        super(TrackerProvider.class, TrackerContract.CONTENT_AUTHORITY);
+    }
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        setContext(InstrumentationRegistry.getTargetContext());
+        super.setUp();
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    @Test
+    public void compareJournalModes() throws Exception {
+        for (boolean writeAheadLogging : new boolean[]{false, true}) {
+            getProvider().setWriteAheadLogging(writeAheadLogging);
+            long[] ids = createCatalog(getMockContentResolver());
+
+            for (int[] threadCounts : THREAD_COUNTS) {
+                run(writeAheadLogging ? "wal" : "rollback", threadCounts[0], threadCounts[1], ids);
+            }
+        }
+    }
+
+    /**
+     * Run the given numbers of readers and writers at the same time, and report their latencies.
+     */
+    private void run(String mode, int readerCount, int writerCount, final long[] ids)
+            throws InterruptedException {
+        final ContentResolver resolver = getMockContentResolver();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Worker> readers = new ArrayList<>();
+        List<Worker> writers = new ArrayList<>();
+
+        for (int i = 0; i < readerCount; i++) {
+            readers.add(new Worker(start) {
+                @Override
+                void runOperation(int operation) {
+                    Cursor cursor = resolver.query(
+                            TrackerEntry.buildPageUri(TrackerEntry.COLUMN_TRACKER_NAME, PAGE_SIZE),
+                            new String[]{TrackerEntry._ID, TrackerEntry.COLUMN_TRACKER_NAME,
+                                    TrackerEntry.COLUMN_TRACKER_QUANTITY},
+                            null, null, null);
+                    try {
+                        // Filling the window is what actually runs the query
+                        assertEquals(PAGE_SIZE, cursor.getCount());
+                    } finally {
+                        cursor.close();
+                    }
+                }
+            });
+        }
+        for (int i = 0; i < writerCount; i++) {
+            final Random random = new Random(i);
+            writers.add(new Worker(start) {
+                @Override
+                void runOperation(int operation) {
+                    ContentValues values = new ContentValues();
+                    values.put(TrackerEntry.COLUMN_TRACKER_QUANTITY, random.nextInt(100));
+                    resolver.update(ContentUris.withAppendedId(TrackerEntry.CONTENT_URI,
+                            ids[random.nextInt(ids.length)]), values, null, null);
+                }
+            });
+        }
+
+        List<Worker> workers = new ArrayList<>(readers);
+        workers.addAll(writers);
+        for (Worker worker : workers) {
+            worker.start();
+        }
+        start.countDown();
+        for (Worker worker : workers) {
+            worker.join();
+        }
+
+        report(mode, "read", readerCount, writerCount, readers);
+        report(mode, "write", readerCount, writerCount, writers);
+    }
+
+    /**
+     * Fill the catalog with synthetic trackers, and return their IDs.
+     */
+    private static long[] createCatalog(ContentResolver resolver) {
+        resolver.delete(TrackerEntry.CONTENT_URI, null, null);
+
+        ContentValues[] rows = new ContentValues[ROW_COUNT];
+        for (int i = 0; i < ROW_COUNT; i++) {
+            ContentValues values = new ContentValues();
+            values.put(TrackerEntry.COLUMN_TRACKER_NAME, "Tracker " + i);
+            values.put(TrackerEntry.COLUMN_TRACKER_QUANTITY, i % 50);
+            values.put(TrackerEntry.COLUMN_TRACKER_PRICE, 1000 + i % 9000);
+            values.put(TrackerEntry.COLUMN_TRACKER_VENDOR, "vendor" + (i % 20) + "@example.com");
+            rows[i] = values;
+        }
+        assertEquals(ROW_COUNT, resolver.bulkInsert(TrackerEntry.CONTENT_URI, rows));
+
+        Cursor cursor = resolver.query(TrackerEntry.CONTENT_URI, new String[]{TrackerEntry._ID},
+                null, null, null);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void report(String mode, String role, int readerCount, int writerCount,
+                               List<Worker> workers) {
+        if (workers.isEmpty()) {
+            return;
+        }
+
+        int measured = OPERATIONS - WARMUP_OPERATIONS;
+        long[] latencies = new long[workers.size() * measured];
+        for (int i = 0; i < workers.size(); i++) {
+            System.arraycopy(workers.get(i).mLatencies, 0, latencies, i * measured, measured);
+        }
+        Arrays.sort(latencies);
+
+        Log.i(LOG_TAG, "mode=" + mode + " role=" + role + " readers=" + readerCount
+                + " writers=" + writerCount
+                + " p50us=" + latencies[latencies.length / 2] / 1000
+                + " p99us=" + latencies[latencies.length * 99 / 100] / 1000);
+    }
+
+    /**
+     * Thread that runs one kind of operation over and over, and records the latency of each.
+     */
+    private abstract static class Worker extends Thread {
+
+        private final CountDownLatch mStart;
+
+        /**
+         * Latencies of the measured operations, in nanoseconds
+         */
+        final long[] mLatencies = new long[OPERATIONS - WARMUP_OPERATIONS];
+
+        Worker(CountDownLatch start) {
+            mStart = start;
+        }
+
+        abstract void runOperation(int operation);
+
+        @Override
+        public void run() {
+            try {
+                mStart.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            for (int operation = 0; operation < OPERATIONS; operation++) {
+                long begin = SystemClock.elapsedRealtimeNanos();
+                runOperation(operation);
+                long latency = SystemClock.elapsedRealtimeNanos() - begin;
+                if (operation >= WARMUP_OPERATIONS) {
+                    mLatencies[operation - WARMUP_OPERATIONS] = latency;
+                }
+            }
+        }
+    }
+}
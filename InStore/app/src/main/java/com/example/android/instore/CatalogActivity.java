@@ -1,39 +1,212 @@
 package com.example.android.instore;
 
+import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.AsyncQueryHandler;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.CursorLoader;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.database.MergeCursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.Snackbar;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.support.v7.widget.Toolbar;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.View;
 import android.view.Menu;
 import android.view.MenuItem;
-import android.widget.AdapterView;
-import android.widget.ListView;
 
+import com.example.android.instore.data.FirstPageFile;
 import com.example.android.instore.data.TrackerContract;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
 public class CatalogActivity extends AppCompatActivity implements
         LoaderManager.LoaderCallbacks<Cursor> {
 
     /**
-     * Identifier for the tracker data loader
+     * Identifier for the loader of the first page of tracker data. Page n is loaded by the
+     * loader with ID TRACKER_LOADER + n.
      */
     private static final int TRACKER_LOADER = 0;
 
     /**
-     * Adapter for the ListView
+     * Number of trackers loaded per page
+     */
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * Start loading the next page when the user scrolls to within this many rows of the end
+     */
+    private static final int PREFETCH_DISTANCE = PAGE_SIZE / 2;
+
+    /**
+     * Most pages whose cursors are kept, and shown, at once. Scrolling on past them releases the
+     * page at the other end, and scrolling back loads it again.
+     */
+    private static final int MAX_LOADED_PAGES = 5;
+
+    /**
+     * Identifier for the loader of the search results
+     */
+    private static final int SEARCH_LOADER = -1;
+
+    /**
+     * Maximum number of search results shown
+     */
+    private static final int SEARCH_LIMIT = 100;
+
+    /**
+     * Request code of the file picker for the catalog import
+     */
+    private static final int PICK_CATALOG_REQUEST = 1;
+
+    /**
+     * Request code of the file picker for the destination of a backup
+     */
+    private static final int PICK_BACKUP_DESTINATION_REQUEST = 2;
+
+    /**
+     * Request code of the file picker for the backup to restore
+     */
+    private static final int PICK_BACKUP_REQUEST = 3;
+
+    /**
+     * Type of the backup files
+     */
+    private static final String BACKUP_MIME_TYPE = "application/zip";
+
+    /**
+     * Types of files offered for a catalog import
+     */
+    private static final String[] CATALOG_MIME_TYPES = {
+            "text/csv",
+            "text/comma-separated-values",
+            "text/plain",
+            "application/json"
+    };
+
+    private static final String ARG_SEARCH_TEXT = "search_text";
+
+    private static final String ARG_AFTER_KEY = "after_key";
+
+    private static final String ARG_AFTER_ID = "after_id";
+
+    private static final String STATE_CATALOG_VIEW = "catalog_view";
+
+    /**
+     * The ways the catalog can be sorted and filtered, in the order of R.array.catalog_views
+     */
+    private static final CatalogView[] CATALOG_VIEWS = {
+            new CatalogView(TrackerContract.TrackerEntry.COLUMN_TRACKER_NAME, false, null, null),
+            new CatalogView(TrackerContract.TrackerEntry.COLUMN_TRACKER_PRICE, false, null, null),
+            new CatalogView(TrackerContract.TrackerEntry.COLUMN_TRACKER_PRICE, true, null, null),
+            new CatalogView(TrackerContract.TrackerEntry.COLUMN_TRACKER_QUANTITY, false, null, null),
+            new CatalogView(TrackerContract.TrackerEntry.COLUMN_TRACKER_NAME, false,
+                    TrackerContract.QUERY_PARAMETER_MAX_QUANTITY, "0"),
+            new CatalogView(TrackerContract.TrackerEntry.COLUMN_TRACKER_NAME, false,
+                    TrackerContract.QUERY_PARAMETER_MIN_QUANTITY, "1")
+    };
+
+    /**
+     * Columns of the trackers shown in the list
+     */
+    private static final String[] TRACKER_PROJECTION = {
+            TrackerContract.TrackerEntry._ID,
+            TrackerContract.TrackerEntry.COLUMN_TRACKER_NAME,
+            TrackerContract.TrackerEntry.COLUMN_TRACKER_PRICE,
+            TrackerContract.TrackerEntry.COLUMN_TRACKER_QUANTITY,
+            TrackerContract.TrackerEntry.COLUMN_TRACKER_IMAGE_HASH,
+    };
+
+    /**
+     * Columns of the pages: those shown, and the stored sort key the next page starts after. The
+     * quantity shown has the pending sales subtracted, so it can't be used as that key.
+     */
+    private static final String[] PAGE_PROJECTION = {
+            TrackerContract.TrackerEntry._ID,
+            TrackerContract.TrackerEntry.COLUMN_TRACKER_NAME,
+            TrackerContract.TrackerEntry.COLUMN_TRACKER_PRICE,
+            TrackerContract.TrackerEntry.COLUMN_TRACKER_QUANTITY,
+            TrackerContract.TrackerEntry.COLUMN_TRACKER_IMAGE_HASH,
+            TrackerContract.TrackerEntry.COLUMN_PAGE_KEY,
+    };
+
+    /**
+     * Cursors of the pages loaded so far. An entry is null while its page is loading, and for the
+     * pages before {@link #mFirstPage}, which were released.
+     */
+    private final List<Cursor> mPages = new ArrayList<>();
+
+    /**
+     * Arguments each page was loaded with: where the page starts. They are kept for the released
+     * pages too, so those can be loaded again.
+     */
+    private final List<Bundle> mPageArgs = new ArrayList<>();
+
+    /**
+     * The first page that is loaded or loading. The pages from it to the last one are shown.
+     */
+    private int mFirstPage;
+
+    /**
+     * Arguments of the page after each page: where it starts, read when the page was loaded. An
+     * entry is null while its page is loading, and for a page that ends the catalog. The page
+     * cursors are read by the adapter in the background, so they aren't moved afterwards.
+     */
+    private final List<Bundle> mNextPageArgs = new ArrayList<>();
+
+    /**
+     * Copy of the first screenful shown on a cold start until the first page is loaded, or null
+     */
+    private Cursor mFirstPageCopy;
+
+    /**
+     * Text the user is searching for, or null while the whole catalog is shown
+     */
+    private String mSearchText;
+
+    /**
+     * Index in {@link #CATALOG_VIEWS} of the way the catalog is sorted and filtered
+     */
+    private int mCatalogView;
+
+    /**
+     * Adapter for the RecyclerView
+     */
+    TrackerAdapter mAdapter;
+
+    /**
+     * Reads single trackers that changed in place, in the background
+     */
+    private AsyncQueryHandler mPatchQueryHandler;
+
+    /**
+     * Incremented every time the pages are loaded again. A patch query that was started before
+     * that is dropped, because the reloaded pages may be newer than it.
+     */
+    private int mPatchGeneration;
+
+    /**
+     * Follows the changes of every tracker. The page cursors don't follow them themselves, so a
+     * tracker whose values changed in place is patched in the list instead of reloading every page.
      */
-    TrackerCursorAdapter mCursorAdapter;
+    private ContentObserver mTrackerObserver;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -51,22 +224,17 @@ public class CatalogActivity extends AppCompatActivity implements
         });
 
 
-        // Find the ListView which will be populated with the tracker data
-        ListView trackerListView = (ListView) findViewById(R.id.list);
-
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        trackerListView.setEmptyView(emptyView);
-
-        // Setup an Adapter to create a list item for each row of pet data in the Cursor.
-        // There is no tracker data yet (until the loader finishes) so pass in null for the Cursor.
-        mCursorAdapter = new TrackerCursorAdapter(this, null);
-        trackerListView.setAdapter(mCursorAdapter);
+        // Find the RecyclerView which will be populated with the tracker data
+        RecyclerView trackerListView = (RecyclerView) findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        trackerListView.setLayoutManager(layoutManager);
 
-        // Setup the item click listener
-        trackerListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Setup an Adapter to create a list item for each row of tracker data.
+        // There is no tracker data yet (until the loader finishes). The item click listener
+        // opens the clicked tracker in the editor.
+        mAdapter = new TrackerAdapter(this, new TrackerAdapter.OnTrackerClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onTrackerClick(long id) {
                 // Create new intent to go to {@link EditorActivity}
                 Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
 
@@ -84,11 +252,135 @@ public class CatalogActivity extends AppCompatActivity implements
                 startActivity(intent);
             }
         });
+        trackerListView.setAdapter(mAdapter);
+
+        // Show the empty view only while the list has 0 items
+        final View emptyView = findViewById(R.id.empty_view);
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                emptyView.setVisibility(mAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                onChanged();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                onChanged();
+            }
+        });
+
+        // Load the next page as the user scrolls towards the end of the pages loaded so far, and
+        // the page before them again as the user scrolls back towards their start
+        trackerListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (dy >= 0 && layoutManager.findLastVisibleItemPosition()
+                        >= mAdapter.getItemCount() - 1 - PREFETCH_DISTANCE) {
+                    loadNextPage();
+                } else if (dy < 0 && layoutManager.findFirstVisibleItemPosition() <= PREFETCH_DISTANCE) {
+                    loadPreviousPage();
+                }
+            }
+        });
+
+        // Patch the single trackers that changed in place
+        mPatchQueryHandler = new AsyncQueryHandler(getContentResolver()) {
+            @Override
+            protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+                if (cursor == null) {
+                    return;
+                }
+                try {
+                    if (token == mPatchGeneration && cursor.moveToFirst()) {
+                        mAdapter.patchRow(cursor);
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+        };
+        mTrackerObserver = new ContentObserver(new Handler()) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
 
-        // Kick off the loader
-        getLoaderManager().initLoader(TRACKER_LOADER, null, this);
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                onTrackerChanged(uri);
+            }
+        };
+        getContentResolver().registerContentObserver(
+                TrackerContract.TrackerEntry.CONTENT_URI, true, mTrackerObserver);
+
+        if (savedInstanceState != null) {
+            mCatalogView = savedInstanceState.getInt(STATE_CATALOG_VIEW);
+        } else {
+            // On a cold start, show the copy of the first screenful right away; the first page
+            // from the database replaces it once it is loaded, only rebinding the rows that differ
+            mFirstPageCopy = new FirstPageFile(this).read();
+            if (mFirstPageCopy != null) {
+                // The adapter reads it in the background; it is closed once the pages replace it
+                mAdapter.swapCursor(mFirstPageCopy);
+            }
+        }
+
+        // Kick off the loader of the first page
+        mPages.add(null);
+        mPageArgs.add(null);
+        mNextPageArgs.add(null);
+        startPageLoader(0, null);
+
+
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putInt(STATE_CATALOG_VIEW, mCatalogView);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        getContentResolver().unregisterContentObserver(mTrackerObserver);
+        mPatchQueryHandler.cancelOperation(mPatchGeneration);
+        closeFirstPageCopy();
+    }
 
+    /**
+     * Called when trackers changed. A tracker that kept its place in the list (it was updated, but
+     * not in a column the list is sorted or filtered by) is read again on its own and patched in.
+     * Anything else, an insert, a delete, a rename or a change of many rows at once, reloads the
+     * pages.
+     */
+    private void onTrackerChanged(Uri uri) {
+        String change = TrackerContract.TrackerEntry.getChange(uri);
+        if (TrackerContract.CHANGE_UPDATE.equals(change)) {
+            Set<String> columns = TrackerContract.TrackerEntry.getChangedColumns(uri);
+            if (!columns.isEmpty() && !columns.contains(TrackerContract.TrackerEntry.COLUMN_TRACKER_NAME)
+                    && !CATALOG_VIEWS[mCatalogView].dependsOnAny(columns)) {
+                Uri trackerUri = ContentUris.withAppendedId(TrackerContract.TrackerEntry.CONTENT_URI,
+                        ContentUris.parseId(uri));
+                mPatchQueryHandler.startQuery(mPatchGeneration, null, trackerUri, TRACKER_PROJECTION,
+                        null, null, null);
+                return;
+            }
+        }
 
+        // The reloaded pages will hold every change up to now, so earlier patches are obsolete
+        mPatchGeneration++;
+        mAdapter.clearPatches();
+        for (int page = 0; page < mPages.size(); page++) {
+            Loader<Cursor> loader = getLoaderManager().getLoader(TRACKER_LOADER + page);
+            if (loader != null) {
+                loader.onContentChanged();
+            }
+        }
     }
 
 
@@ -100,8 +392,8 @@ public class CatalogActivity extends AppCompatActivity implements
         // and tracker attributes are the values.
         ContentValues values = new ContentValues();
         values.put(TrackerContract.TrackerEntry.COLUMN_TRACKER_NAME, "FitBit Alta");
-        values.put(TrackerContract.TrackerEntry.COLUMN_TRACKER_PRICE, "$129");
-        values.put(TrackerContract.TrackerEntry.COLUMN_TRACKER_QUANTITY, "3");
+        values.put(TrackerContract.TrackerEntry.COLUMN_TRACKER_PRICE, 12900);
+        values.put(TrackerContract.TrackerEntry.COLUMN_TRACKER_QUANTITY, 3);
         values.put(TrackerContract.TrackerEntry.COLUMN_TRACKER_VENDOR, "supportfitbitcom");
 
 
@@ -125,17 +417,69 @@ public class CatalogActivity extends AppCompatActivity implements
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.menu_main, menu);
+
+        // Search as the user types
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(menu.findItem(R.id.action_search));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                search(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                search(newText);
+                return true;
+            }
+        });
         return true;
     }
 
+    /**
+     * Show the trackers matching the given text, or the whole catalog again if the text is empty.
+     */
+    private void search(String text) {
+        if (TextUtils.isEmpty(text.trim())) {
+            if (mSearchText != null) {
+                mSearchText = null;
+                showPages();
+                getLoaderManager().destroyLoader(SEARCH_LOADER);
+            }
+            return;
+        }
+
+        // Restarting the loader cancels the search for the previous keystroke
+        mSearchText = text;
+        Bundle args = new Bundle();
+        args.putString(ARG_SEARCH_TEXT, text);
+        getLoaderManager().restartLoader(SEARCH_LOADER, args, this);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId()) {
+            // Respond to a click on the "Sort & filter" menu option
+            case R.id.action_sort_filter:
+                showCatalogViewDialog();
+                return true;
             // Respond to a click on the "Insert dummy data" menu option
             case R.id.action_insert_dummy_data:
                 insertTracker();
                 return true;
+            // Respond to a click on the "Import catalog" menu option
+            case R.id.action_import_catalog:
+                pickCatalog();
+                return true;
+            // Respond to a click on the "Back up catalog" menu option
+            case R.id.action_backup_catalog:
+                pickBackupDestination();
+                return true;
+            // Respond to a click on the "Restore catalog" menu option
+            case R.id.action_restore_catalog:
+                showRestoreConfirmationDialog();
+                return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
                 deleteAllTrackers();
@@ -144,35 +488,389 @@ public class CatalogActivity extends AppCompatActivity implements
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Let the user pick how the catalog is sorted and filtered.
+     */
+    private void showCatalogViewDialog() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.action_sort_filter);
+        builder.setSingleChoiceItems(R.array.catalog_views, mCatalogView, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int which) {
+                dialog.dismiss();
+                showCatalogView(which);
+            }
+        });
+        builder.create().show();
+    }
+
+    /**
+     * Sort and filter the catalog the given way. The provider does the sorting and filtering, so
+     * the pages are loaded again from the first one.
+     */
+    private void showCatalogView(int catalogView) {
+        if (catalogView == mCatalogView) {
+            return;
+        }
+        mCatalogView = catalogView;
+
+        // The first page keeps showing until its reload finishes; the pages after it no longer
+        // follow on from it
+        mPatchGeneration++;
+        mAdapter.clearPatches();
+        dropPagesAfter(0);
+        mFirstPage = 0;
+        showPages();
+        getLoaderManager().restartLoader(TRACKER_LOADER, null, this);
+    }
+
+    /**
+     * Let the user pick a CSV or JSON file to import trackers from.
+     */
+    private void pickCatalog() {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("*/*");
+        intent.putExtra(Intent.EXTRA_MIME_TYPES, CATALOG_MIME_TYPES);
+        startActivityForResult(intent, PICK_CATALOG_REQUEST);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+
+        if (requestCode == PICK_CATALOG_REQUEST && resultCode == RESULT_OK && data != null) {
+            Uri catalogUri = data.getData();
+            // Keep access to the file, so an import that gets interrupted can still continue
+            try {
+                getContentResolver().takePersistableUriPermission(catalogUri,
+                        Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            } catch (SecurityException e) {
+                Log.w("CatalogActivity", "No lasting access to " + catalogUri, e);
+            }
+            CatalogImportService.startImport(this, catalogUri);
+        } else if (requestCode == PICK_BACKUP_DESTINATION_REQUEST && resultCode == RESULT_OK
+                && data != null) {
+            CatalogBackupService.startBackup(this, data.getData());
+        } else if (requestCode == PICK_BACKUP_REQUEST && resultCode == RESULT_OK && data != null) {
+            CatalogBackupService.startRestore(this, data.getData());
+        }
+    }
+
+    /**
+     * Let the user pick the file to back the catalog up to.
+     */
+    private void pickBackupDestination() {
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType(BACKUP_MIME_TYPE);
+        intent.putExtra(Intent.EXTRA_TITLE, getString(R.string.backup_file_name));
+        startActivityForResult(intent, PICK_BACKUP_DESTINATION_REQUEST);
+    }
+
+    /**
+     * Prompt the user to confirm that they want to replace the catalog with a backup, and then let
+     * them pick the backup.
+     */
+    private void showRestoreConfirmationDialog() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(R.string.restore_dialog_msg);
+        builder.setPositiveButton(R.string.action_restore_catalog, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                intent.setType(BACKUP_MIME_TYPE);
+                startActivityForResult(intent, PICK_BACKUP_REQUEST);
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                if (dialog != null) {
+                    dialog.dismiss();
+                }
+            }
+        });
+        builder.create().show();
+    }
+
+    /**
+     * Start loading the page after the last one, unless it is already loading or the last page
+     * showed that there is nothing left.
+     */
+    private void loadNextPage() {
+        if (mSearchText != null) {
+            return;
+        }
+
+        int lastPage = mPages.size() - 1;
+        Bundle args = mNextPageArgs.get(lastPage);
+        if (args == null) {
+            return;
+        }
+
+        mPages.add(null);
+        mPageArgs.add(args);
+        mNextPageArgs.add(null);
+        startPageLoader(lastPage + 1, args);
+
+        // Keep the number of pages held in check by releasing the first one; its arguments are
+        // kept, to load it again when the user scrolls back
+        if (mPages.size() - mFirstPage > MAX_LOADED_PAGES) {
+            int released = mFirstPage++;
+            mPages.set(released, null);
+            mNextPageArgs.set(released, null);
+            getLoaderManager().destroyLoader(TRACKER_LOADER + released);
+            showPages();
+        }
+    }
+
+    /**
+     * Load the page before the first one shown again, unless the first page is still loading or
+     * is the start of the catalog. The last page is released if that makes too many.
+     */
+    private void loadPreviousPage() {
+        if (mSearchText != null || mFirstPage == 0 || mPages.get(mFirstPage) == null) {
+            return;
+        }
+
+        mFirstPage--;
+        startPageLoader(mFirstPage, mPageArgs.get(mFirstPage));
+        if (mPages.size() - mFirstPage > MAX_LOADED_PAGES) {
+            dropPagesAfter(mPages.size() - 2);
+            showPages();
+        }
+    }
+
+    /**
+     * Start the loader of the given page, reusing the one that already runs with the same
+     * arguments, such as a loader kept across a configuration change. A loader with the same ID
+     * but other arguments is restarted, since its results would start at the wrong row.
+     */
+    private void startPageLoader(int page, Bundle args) {
+        int id = TRACKER_LOADER + page;
+        Loader<Cursor> loader = getLoaderManager().getLoader(id);
+        if (loader == null || (loader instanceof CursorLoader
+                && buildPageUri(args).equals(((CursorLoader) loader).getUri()))) {
+            getLoaderManager().initLoader(id, args, this);
+        } else {
+            getLoaderManager().restartLoader(id, args, this);
+        }
+    }
+
+    /**
+     * Return the loader arguments of the page that follows the given page, or null if the page
+     * ends the catalog.
+     */
+    private Bundle createNextPageArgs(Cursor page) {
+        if (page.getCount() < PAGE_SIZE) {
+            return null;
+        }
+        page.moveToLast();
+        Bundle args = new Bundle();
+        args.putString(ARG_AFTER_KEY, page.getString(
+                page.getColumnIndex(TrackerContract.TrackerEntry.COLUMN_PAGE_KEY)));
+        args.putLong(ARG_AFTER_ID, page.getLong(
+                page.getColumnIndex(TrackerContract.TrackerEntry._ID)));
+        return args;
+    }
+
+    /**
+     * Show the pages that are loaded, from the first one that is, up to the next one that is still
+     * loading. A page loaded again before them is added at the top once it is there.
+     */
+    private void showPages() {
+        if (mSearchText != null) {
+            return;
+        }
+
+        List<Cursor> loaded = new ArrayList<>();
+        for (int i = mFirstPage; i < mPages.size(); i++) {
+            Cursor page = mPages.get(i);
+            if (page != null) {
+                loaded.add(page);
+            } else if (!loaded.isEmpty()) {
+                break;
+            }
+        }
+
+        // The page cursors are owned by their loaders, so the merged cursor that is swapped out
+        // must not be closed
+        mAdapter.swapCursor(loaded.isEmpty()
+                ? null : new MergeCursor(loaded.toArray(new Cursor[loaded.size()])));
+
+        // The adapter no longer reads the copy of the first screenful
+        closeFirstPageCopy();
+    }
+
+    private void closeFirstPageCopy() {
+        if (mFirstPageCopy != null) {
+            mFirstPageCopy.close();
+            mFirstPageCopy = null;
+        }
+    }
+
+    /**
+     * Forget the pages after the given one and stop their loaders.
+     */
+    private void dropPagesAfter(int page) {
+        for (int i = mPages.size() - 1; i > page; i--) {
+            mPages.remove(i);
+            mPageArgs.remove(i);
+            mNextPageArgs.remove(i);
+            getLoaderManager().destroyLoader(TRACKER_LOADER + i);
+        }
+    }
+
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                TrackerContract.TrackerEntry._ID,
-                TrackerContract.TrackerEntry.COLUMN_TRACKER_NAME,
-                TrackerContract.TrackerEntry.COLUMN_TRACKER_PRICE,
-                TrackerContract.TrackerEntry.COLUMN_TRACKER_QUANTITY,
-        };
+        if (i == SEARCH_LOADER) {
+            // The search loader reads the best matches for the text the user typed
+            return new CursorLoader(this,
+                    TrackerContract.TrackerEntry.buildSearchUri(bundle.getString(ARG_SEARCH_TEXT), SEARCH_LIMIT),
+                    TRACKER_PROJECTION,
+                    null,
+                    null,
+                    null);
+        }
 
         // This loader will execute the ContentProvider's query method on a background thread
         return new CursorLoader(this,   // Parent activity context
-                TrackerContract.TrackerEntry.CONTENT_URI,   // Provider content URI to query
-                projection,             // Columns to include in the resulting Cursor
+                buildPageUri(bundle),   // Provider content URI to query
+                PAGE_PROJECTION,        // Columns to include in the resulting Cursor
                 null,                   // No selection clause
                 null,                   // No selection arguments
                 null);                  // Default sort order
     }
 
+    /**
+     * Return the URI of the page that starts where the given loader arguments say, or of the first
+     * page if they are null.
+     */
+    private Uri buildPageUri(Bundle args) {
+        // Every loader reads a single page, starting right after the last row of the page before
+        Uri pageUri = CATALOG_VIEWS[mCatalogView].buildPageUri(PAGE_SIZE);
+        if (args != null) {
+            pageUri = TrackerContract.TrackerEntry.buildNextPageUri(pageUri,
+                    args.getString(ARG_AFTER_KEY), args.getLong(ARG_AFTER_ID));
+        }
+
+        // The pages don't requery themselves on every change; {@link #mTrackerObserver} decides
+        // whether a change can be patched in or needs them reloaded
+        return pageUri.buildUpon()
+                .appendQueryParameter(TrackerContract.QUERY_PARAMETER_NOTIFY, "false")
+                .build();
+    }
+
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update {@link PetCursorAdapter} with this new cursor containing updated pet data
-        mCursorAdapter.swapCursor(data);
+        if (loader.getId() == SEARCH_LOADER) {
+            if (mSearchText != null) {
+                mAdapter.swapCursor(data);
+            }
+            return;
+        }
+
+        int page = loader.getId() - TRACKER_LOADER;
+        if (page >= mPages.size() || page < mFirstPage) {
+            // A loader left over from before a configuration change, or of a released page; its
+            // page isn't shown
+            return;
+        }
+        mPages.set(page, data);
+        Bundle nextArgs = createNextPageArgs(data);
+        mNextPageArgs.set(page, nextArgs);
+
+        // A change may have moved rows across the end of this page. In that case the next page has
+        // to start after this page's new last row, or a row would be shown twice or not at all.
+        if (page + 1 < mPages.size()) {
+            if (nextArgs == null) {
+                dropPagesAfter(page);
+            } else {
+                Bundle currentArgs = mPageArgs.get(page + 1);
+                if (nextArgs.getLong(ARG_AFTER_ID) != currentArgs.getLong(ARG_AFTER_ID)
+                        || !nextArgs.getString(ARG_AFTER_KEY).equals(currentArgs.getString(ARG_AFTER_KEY))) {
+                    mPageArgs.set(page + 1, nextArgs);
+                    getLoaderManager().restartLoader(TRACKER_LOADER + page + 1, nextArgs, this);
+                }
+            }
+        }
+
+        // Update {@link TrackerAdapter} with the pages loaded so far
+        showPages();
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
         // Callback called when the data needs to be deleted
-        mCursorAdapter.swapCursor(null);
+        if (loader.getId() == SEARCH_LOADER) {
+            if (mSearchText != null) {
+                mAdapter.swapCursor(null);
+            }
+            return;
+        }
+
+        int page = loader.getId() - TRACKER_LOADER;
+        if (page < mFirstPage || page >= mPages.size()) {
+            // A page that was released or dropped, which isn't shown anymore
+            return;
+        }
+        mPages.set(page, null);
+        mNextPageArgs.set(page, null);
+        showPages();
     }
 
+    /**
+     * A way to sort and filter the catalog: the column it is sorted by, and at most one filter.
+     */
+    private static class CatalogView {
+
+        private final String mSortColumn;
+
+        private final boolean mDescending;
+
+        /**
+         * Query parameter of the filter and its value, or null for the whole catalog
+         */
+        private final String mFilterParameter;
+
+        private final String mFilterValue;
+
+        CatalogView(String sortColumn, boolean descending, String filterParameter, String filterValue) {
+            mSortColumn = sortColumn;
+            mDescending = descending;
+            mFilterParameter = filterParameter;
+            mFilterValue = filterValue;
+        }
+
+        /**
+         * Return the URI of the first page of the catalog sorted and filtered this way.
+         */
+        Uri buildPageUri(int pageSize) {
+            Uri pageUri = TrackerContract.TrackerEntry.buildPageUri(mSortColumn, mDescending, pageSize);
+            if (mFilterParameter == null) {
+                return pageUri;
+            }
+            return pageUri.buildUpon()
+                    .appendQueryParameter(mFilterParameter, mFilterValue)
+                    .build();
+        }
+
+        /**
+         * Return whether a change of any of the given columns can move a tracker within the list
+         * or in or out of it.
+         */
+        boolean dependsOnAny(Set<String> columns) {
+            if (columns.contains(mSortColumn)) {
+                return true;
+            }
+            if (TrackerContract.QUERY_PARAMETER_MIN_QUANTITY.equals(mFilterParameter)
+                    || TrackerContract.QUERY_PARAMETER_MAX_QUANTITY.equals(mFilterParameter)) {
+                return columns.contains(TrackerContract.TrackerEntry.COLUMN_TRACKER_QUANTITY);
+            }
+            if (TrackerContract.QUERY_PARAMETER_MIN_PRICE.equals(mFilterParameter)
+                    || TrackerContract.QUERY_PARAMETER_MAX_PRICE.equals(mFilterParameter)) {
+                return columns.contains(TrackerContract.TrackerEntry.COLUMN_TRACKER_PRICE);
+            }
+            return false;
+        }
+    }
 }
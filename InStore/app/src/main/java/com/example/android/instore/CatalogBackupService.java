@@ -0,0 +1,82 @@
+package com.example.android.instore;
+
+import android.app.IntentService;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+
+import com.example.android.instore.data.TrackerContract;
+
+/**
+ * Backs the catalog up to a file, or restores it from one, in the background, with
+ * {@link TrackerContract#METHOD_BACKUP} and {@link TrackerContract#METHOD_RESTORE}. A notification
+ * shows that it is running, and then how it went.
+ */
+public class CatalogBackupService extends IntentService {
+
+    public static final String LOG_TAG = CatalogBackupService.class.getSimpleName();
+
+    private static final String ACTION_BACKUP = "com.example.android.instore.action.BACKUP";
+
+    private static final String ACTION_RESTORE = "com.example.android.instore.action.RESTORE";
+
+    private static final int NOTIFICATION_ID = 2;
+
+    public CatalogBackupService() {
+        super(LOG_TAG);
+    }
+
+    /**
+     * Start backing the catalog up to the given file.
+     */
+    public static void startBackup(Context context, Uri destination) {
+        context.startService(new Intent(ACTION_BACKUP, destination, context, CatalogBackupService.class));
+    }
+
+    /**
+     * Start replacing the catalog with the backup in the given file.
+     */
+    public static void startRestore(Context context, Uri source) {
+        context.startService(new Intent(ACTION_RESTORE, source, context, CatalogBackupService.class));
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        boolean backup = ACTION_BACKUP.equals(intent.getAction());
+        String method = backup ? TrackerContract.METHOD_BACKUP : TrackerContract.METHOD_RESTORE;
+        int title = backup ? R.string.backup_title : R.string.restore_title;
+
+        startForeground(NOTIFICATION_ID, new NotificationCompat.Builder(this)
+                .setSmallIcon(android.R.drawable.stat_sys_upload)
+                .setContentTitle(getString(title))
+                .setOngoing(true)
+                .setProgress(0, 0, true)
+                .build());
+
+        String message;
+        try {
+            Bundle extras = new Bundle();
+            extras.putParcelable(TrackerContract.EXTRA_URI, intent.getData());
+            Bundle result = getContentResolver().call(TrackerContract.BASE_CONTENT_URI, method,
+                    null, extras);
+            message = getString(backup ? R.string.backup_finished : R.string.restore_finished,
+                    result.getInt(TrackerContract.EXTRA_TRACKER_COUNT),
+                    result.getInt(TrackerContract.EXTRA_IMAGE_COUNT));
+        } catch (IllegalArgumentException | IllegalStateException | SecurityException e) {
+            Log.e(LOG_TAG, "Failed to " + method + " " + intent.getData(), e);
+            message = getString(backup ? R.string.backup_failed : R.string.restore_failed);
+        }
+
+        stopForeground(true);
+        ((NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE)).notify(NOTIFICATION_ID,
+                new NotificationCompat.Builder(this)
+                        .setSmallIcon(android.R.drawable.stat_sys_upload_done)
+                        .setContentTitle(getString(title))
+                        .setContentText(message)
+                        .build());
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.android.instore;
+
+import android.app.IntentService;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+
+import com.example.android.instore.data.CatalogImporter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Imports a catalog file in the background with a {@link CatalogImporter}, showing its progress in
+ * a notification. Records that were rejected are written to {@link #ERRORS_FILE_NAME} in the
+ * app's files directory, one line each.
+ * <p>
+ * The import survives the process being killed: the intent is redelivered, and the importer picks
+ * up after the last chunk it committed.
+ */
+public class CatalogImportService extends IntentService {
+
+    public static final String LOG_TAG = CatalogImportService.class.getSimpleName();
+
+    /**
+     * Extra with the number of records to commit in one transaction, an int
+     */
+    public static final String EXTRA_CHUNK_SIZE = "chunk_size";
+
+    /**
+     * Name of the file the rejected records of the last import are written to. An import that
+     * starts from the top empties it first; one that picks up where it was interrupted adds to it.
+     */
+    public static final String ERRORS_FILE_NAME = "import_errors.txt";
+
+    private static final int NOTIFICATION_ID = 1;
+
+    /**
+     * Scale of the progress bar, for files whose size isn't known and whose progress can't be shown
+     */
+    private static final int PROGRESS_MAX = 1000;
+
+    public CatalogImportService() {
+        super(LOG_TAG);
+    }
+
+    /**
+     * Start importing the catalog in the given file.
+     */
+    public static void startImport(Context context, Uri source) {
+        context.startService(new Intent(context, CatalogImportService.class).setData(source));
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // If the process dies mid-import the intent comes back, and the import continues
+        setIntentRedelivery(true);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        Uri source = intent.getData();
+        if (source == null) {
+            return;
+        }
+        int chunkSize = intent.getIntExtra(EXTRA_CHUNK_SIZE, CatalogImporter.DEFAULT_CHUNK_SIZE);
+
+        final NotificationCompat.Builder notification = new NotificationCompat.Builder(this)
+                .setSmallIcon(android.R.drawable.stat_sys_download)
+                .setContentTitle(getString(R.string.import_title))
+                .setOngoing(true)
+                .setProgress(0, 0, true);
+        startForeground(NOTIFICATION_ID, notification.build());
+        final NotificationManager manager =
+                (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+
+        final ErrorsFile errors = new ErrorsFile(new File(getFilesDir(), ERRORS_FILE_NAME), source);
+        String message;
+        try {
+            CatalogImporter importer = new CatalogImporter(getContentResolver(), chunkSize,
+                    new CatalogImporter.Listener() {
+                        @Override
+                        public void onProgress(int position, int imported, int failed,
+                                               long bytesRead, long totalBytes) {
+                            errors.open(position);
+                            if (totalBytes > 0) {
+                                notification.setProgress(PROGRESS_MAX,
+                                        (int) (PROGRESS_MAX * Math.min(bytesRead, totalBytes) / totalBytes),
+                                        false);
+                            }
+                            notification.setContentText(
+                                    getString(R.string.import_progress, imported, failed));
+                            manager.notify(NOTIFICATION_ID, notification.build());
+                        }
+
+                        @Override
+                        public void onRecordFailed(int record, String message) {
+                            errors.write(record + ": " + message);
+                        }
+                    });
+            CatalogImporter.Result result = importer.importCatalog(source);
+            message = getString(R.string.import_finished, result.imported, result.failed);
+        } catch (IOException | SecurityException e) {
+            Log.e(LOG_TAG, "Failed to import " + source, e);
+            message = getString(R.string.import_failed);
+        } finally {
+            errors.close();
+        }
+
+        // Leave a notification with the outcome once the service is gone
+        stopForeground(true);
+        manager.notify(NOTIFICATION_ID, new NotificationCompat.Builder(this)
+                .setSmallIcon(android.R.drawable.stat_sys_download_done)
+                .setContentTitle(getString(R.string.import_title))
+                .setContentText(message)
+                .build());
+    }
+
+    /**
+     * The file the rejected records of an import are written to, opened when the importer
+     * reports where the import starts. Failures to write it are logged, and don't stop the import.
+     */
+    private static class ErrorsFile {
+
+        private final File mFile;
+
+        private final Uri mSource;
+
+        private Writer mWriter;
+
+        ErrorsFile(File file, Uri source) {
+            mFile = file;
+            mSource = source;
+        }
+
+        /**
+         * Open the file, unless it is open already: emptied if the import starts at the first
+         * record, or to add to if it picks up at the given later one.
+         */
+        void open(int position) {
+            if (mWriter != null) {
+                return;
+            }
+            try {
+                mWriter = new OutputStreamWriter(new FileOutputStream(mFile, position > 0),
+                        Charset.forName("UTF-8"));
+                String header = "# " + mSource;
+                if (position > 0) {
+                    header += " from record " + (position + 1);
+                }
+                mWriter.write(header + "\n");
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to write the import errors", e);
+            }
+        }
+
+        void write(String line) {
+            if (mWriter == null) {
+                return;
+            }
+            try {
+                mWriter.write(line + "\n");
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to write the import errors", e);
+            }
+        }
+
+        void close() {
+            if (mWriter == null) {
+                return;
+            }
+            try {
+                mWriter.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to write the import errors", e);
+            }
+        }
+    }
+}
@@ -2,21 +2,20 @@ package com.example.android.instore;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.drawable.BitmapDrawable;
 import android.net.Uri;
 import android.os.Bundle;
-import android.provider.MediaStore;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
 import android.text.TextUtils;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
@@ -27,10 +26,13 @@ import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.Toast;
 
+import com.example.android.instore.data.TrackerContract.ReorderEntry;
 import com.example.android.instore.data.TrackerContract.TrackerEntry;
 
-import java.io.ByteArrayOutputStream;
-import java.sql.Blob;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 /**
  * Allows user to create a new tracker or edit an existing one.
@@ -38,6 +40,11 @@ import java.sql.Blob;
 public class EditorActivity extends AppCompatActivity implements
         LoaderManager.LoaderCallbacks<Cursor> {
 
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = EditorActivity.class.getSimpleName();
+
     /**
      * Identifier for the tracker data loader
      */
@@ -45,6 +52,8 @@ public class EditorActivity extends AppCompatActivity implements
 
     private static final int PICK_IMAGE_REQUEST = 1;
 
+    private static final String STATE_PICKED_IMAGE_URI = "picked_image_uri";
+
 
     /**
      * Content URI for the existing tracker (null if it's a new tracker)
@@ -71,17 +80,52 @@ public class EditorActivity extends AppCompatActivity implements
      */
     private EditText mVendorEditText;
 
+    /**
+     * EditText field to enter the quantity at or below which the tracker needs reordering
+     */
+    private EditText mReorderThresholdEditText;
+
     /**
      * EditText field to enter the tracker's picture info
      */
     private ImageView mPictureImageView = null;
 
+    /**
+     * Decodes the pictures shown in {@link #mPictureImageView} in the background
+     */
+    private ImageLoader mImageLoader;
+
+    /**
+     * URI of the picture the user picked, until it is saved; null if the picture wasn't changed.
+     * The view only shows a downsampled copy, so the picture is read from here when saving.
+     */
+    private Uri mPickedImageUri;
+
+    /**
+     * Values of the tracker as last loaded from the provider, so a reload after a change only
+     * touches the fields whose values changed
+     */
+    private final ContentValues mLoadedValues = new ContentValues();
+
 
     /**
      * Boolean flag that keeps track of whether the tracker has been edited (true) or not (false)
      */
     private boolean mTrackerHasChanged = false;
 
+    /**
+     * Tells the user when a picture can't be shown
+     */
+    private final ImageLoader.Callback mImageLoadCallback = new ImageLoader.Callback() {
+        @Override
+        public void onLoadFailed(Uri uri) {
+            if (uri.equals(mPickedImageUri)) {
+                mPickedImageUri = null;
+            }
+            Toast.makeText(EditorActivity.this, R.string.editor_image_failed, Toast.LENGTH_SHORT).show();
+        }
+    };
+
     /**
      * OnTouchListener that listens for any user touches on a View, implying that they are modifying
      * the view, and we change the mPetHasChanged boolean to true.
@@ -127,7 +171,9 @@ public class EditorActivity extends AppCompatActivity implements
         mQuantityEditText = (EditText) findViewById(R.id.edit_quantity);
         mPriceEditText = (EditText) findViewById(R.id.edit_price);
         mVendorEditText = (EditText) findViewById(R.id.edit_vendor);
+        mReorderThresholdEditText = (EditText) findViewById(R.id.edit_reorder_threshold);
         mPictureImageView = (ImageView) findViewById(R.id.image);
+        mImageLoader = new ImageLoader(getContentResolver(), mPictureImageView);
 
         // Setup OnTouchListeners on all the input fields, so we can determine if the user
         // has touched or modified them. This will let us know if there are unsaved changes
@@ -136,13 +182,34 @@ public class EditorActivity extends AppCompatActivity implements
         mQuantityEditText.setOnTouchListener(mTouchListener);
         mPriceEditText.setOnTouchListener(mTouchListener);
         mVendorEditText.setOnTouchListener(mTouchListener);
+        mReorderThresholdEditText.setOnTouchListener(mTouchListener);
         mPictureImageView.setOnTouchListener(mTouchListener);
 
+        // Show the picture picked before the activity was recreated
+        if (savedInstanceState != null) {
+            mPickedImageUri = savedInstanceState.getParcelable(STATE_PICKED_IMAGE_URI);
+            if (mPickedImageUri != null) {
+                mImageLoader.load(mPickedImageUri, mImageLoadCallback);
+            }
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putParcelable(STATE_PICKED_IMAGE_URI, mPickedImageUri);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mImageLoader.cancel();
     }
 
 
     /**
-     * This method is called when the order button is clicked.
+     * This method is called when the order button is clicked. The order covers this tracker and
+     * every other tracker of the same vendor that is at or below its reorder threshold.
      */
     public void submitOrder(View view) {
 
@@ -152,11 +219,27 @@ public class EditorActivity extends AppCompatActivity implements
         EditText trackerEditText = (EditText) findViewById(R.id.edit_name);
         String trackerName = trackerEditText.getText().toString();
 
+        // The watchlist is indexed by vendor, so this only reads the vendor's low trackers
+        Set<String> trackerNames = new LinkedHashSet<>();
+        trackerNames.add(trackerName);
+        Cursor cursor = getContentResolver().query(ReorderEntry.CONTENT_URI,
+                new String[]{TrackerEntry.COLUMN_TRACKER_NAME}, ReorderEntry.COLUMN_VENDOR + "=?",
+                new String[]{vendorEmail.trim()}, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    trackerNames.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
         Intent intent = new Intent(Intent.ACTION_SENDTO);
         intent.setData(Uri.parse("mailto:")); // only email apps should handle this
         intent.putExtra(Intent.EXTRA_EMAIL, new String[]{vendorEmail}); //get email from db vendor id
-        intent.putExtra(Intent.EXTRA_SUBJECT, "Ordering more of " + trackerName); // get name of the tracker
-        intent.putExtra(Intent.EXTRA_TEXT, "Hello, We need more of" + trackerName); // body of the email
+        intent.putExtra(Intent.EXTRA_SUBJECT, "Ordering more of " + TextUtils.join(", ", trackerNames)); // names of the trackers
+        intent.putExtra(Intent.EXTRA_TEXT, "Hello, We need more of:\n" + TextUtils.join("\n", trackerNames)); // body of the email
 
         if (intent.resolveActivity(getPackageManager()) != null) {
 
@@ -172,75 +255,103 @@ public class EditorActivity extends AppCompatActivity implements
     }
 
     /**
-     * Get user input from editor and save tracker into database.
+     * Get user input from editor and queue the tracker to be saved into the database. The save
+     * runs in the background and its outcome is shown as a toast, even once the editor is gone.
+     * Return false if the input isn't valid, and nothing was queued.
      */
-    private void saveTracker() {
+    private boolean saveTracker() {
         // Read from input fields
         // Use trim to eliminate leading or trailing white space
         String nameString = mNameEditText.getText().toString().trim();
         String quantityString = mQuantityEditText.getText().toString().trim();
         String priceString = mPriceEditText.getText().toString().trim();
         String vendorString = mVendorEditText.getText().toString().trim();
-
+        String reorderThresholdString = mReorderThresholdEditText.getText().toString().trim();
+
+
+        // Parse the quantity, and the price into cents; anything that isn't a number is invalid.
+        // A blank reorder threshold means the default one.
+        int quantity;
+        long price;
+        int reorderThreshold;
+        try {
+            quantity = Integer.parseInt(quantityString);
+            price = TrackerEntry.parsePrice(priceString);
+            reorderThreshold = TextUtils.isEmpty(reorderThresholdString)
+                    ? TrackerEntry.DEFAULT_REORDER_THRESHOLD : Integer.parseInt(reorderThresholdString);
+        } catch (NumberFormatException e) {
+            quantity = -1;
+            price = -1;
+            reorderThreshold = -1;
+        }
 
         // Check if this is supposed to be a new tracker
         // and check if all the fields in the editor are blank
-        if (TextUtils.isEmpty(nameString) || Integer.valueOf(quantityString) < 0 || Double.valueOf(priceString) < 0.00 || TextUtils.isEmpty(vendorString) || mPictureImageView.getDrawable() == null) {
+        boolean hasImage = mPickedImageUri != null
+                || mLoadedValues.getAsString(TrackerEntry.COLUMN_TRACKER_IMAGE_HASH) != null;
+        if (TextUtils.isEmpty(nameString) || quantity < 0 || price < 0 || reorderThreshold < 0
+                || TextUtils.isEmpty(vendorString) || !hasImage) {
             // Since no fields were modified, we can return early without creating a new tracker.
             // No need to create ContentValues and no need to do any ContentProvider operations.
             Toast.makeText(this, "Please add a valid entry", Toast.LENGTH_SHORT).show();
 
-            return;
+            return false;
         }
 
-        Bitmap imageBitMap = ((BitmapDrawable) mPictureImageView.getDrawable()).getBitmap();
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        imageBitMap.compress(Bitmap.CompressFormat.PNG, 100, outputStream);
-        byte[] imageByteArray = outputStream.toByteArray();
+        // Store the picture as it was picked; an unchanged picture isn't sent again. The picture
+        // is opened now, while this activity may still read it, and read by the save queue.
+        InputStream image = null;
+        if (mPickedImageUri != null) {
+            try {
+                image = getContentResolver().openInputStream(mPickedImageUri);
+            } catch (IOException | SecurityException e) {
+                Log.e(LOG_TAG, "Failed to open image " + mPickedImageUri, e);
+            }
+            if (image == null) {
+                Toast.makeText(this, R.string.editor_image_failed, Toast.LENGTH_SHORT).show();
+                return false;
+            }
+        }
 
         // Create a ContentValues object where column names are the keys,
         // and tracker attributes from the editor are the values.
         ContentValues values = new ContentValues();
         values.put(TrackerEntry.COLUMN_TRACKER_NAME, nameString);
-        values.put(TrackerEntry.COLUMN_TRACKER_PRICE, priceString);
-        values.put(TrackerEntry.COLUMN_TRACKER_QUANTITY, quantityString);
+        values.put(TrackerEntry.COLUMN_TRACKER_PRICE, price);
+        values.put(TrackerEntry.COLUMN_TRACKER_QUANTITY, quantity);
         values.put(TrackerEntry.COLUMN_TRACKER_VENDOR, vendorString);
-        values.put(TrackerEntry.COLUMN_TRACKER_IMAGE, imageByteArray);
+        values.put(TrackerEntry.COLUMN_TRACKER_REORDER_THRESHOLD, reorderThreshold);
 
 
-        // Determine if this is a new or existing tracker by checking if mCurrentTrackerUri is null or not
-        if (mCurrentTrackerUri == null) {
-            // This is a NEW tracker, so insert a new tracker into the provider,
-            // returning the content URI for the new tracker.
-            Uri newUri = getContentResolver().insert(TrackerEntry.CONTENT_URI, values);
-
-            // Show a toast message depending on whether or not the insertion was successful.
-            if (newUri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, getString(R.string.editor_insert_tracker_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_tracker_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
-        } else {
-            // Otherwise this is an EXISTING tracker, so update the tracker with content URI: mCurrentPetUri
-            // and pass in the new ContentValues. Pass in null for the selection and selection args
-            // because mCurrentPetUri will already identify the correct row in the database that
-            // we want to modify.
-            int rowsAffected = getContentResolver().update(mCurrentTrackerUri, values, null, null);
-
-            // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText(this, getString(R.string.editor_update_tracker_failed),
-                        Toast.LENGTH_SHORT).show();
+        // A null URI inserts a new tracker; otherwise the existing tracker is updated
+        TrackerSaveQueue.getInstance(this).save(mCurrentTrackerUri, values, image,
+                new SaveToast(getApplicationContext()));
+        return true;
+    }
+
+    /**
+     * Shows the outcome of a save. Holds on to the application only, since the editor is usually
+     * gone by the time the save finished.
+     */
+    private static class SaveToast implements TrackerSaveQueue.Callback {
+
+        private final Context mContext;
+
+        SaveToast(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        public void onSaveFinished(Uri trackerUri, boolean inserted) {
+            int message;
+            if (inserted) {
+                message = trackerUri == null
+                        ? R.string.editor_insert_tracker_failed : R.string.editor_insert_tracker_successful;
             } else {
-                // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_update_tracker_successful),
-                        Toast.LENGTH_SHORT).show();
+                message = trackerUri == null
+                        ? R.string.editor_update_tracker_failed : R.string.editor_update_tracker_successful;
             }
+            Toast.makeText(mContext, message, Toast.LENGTH_SHORT).show();
         }
     }
 
@@ -250,14 +361,9 @@ public class EditorActivity extends AppCompatActivity implements
 
         if (requestCode == PICK_IMAGE_REQUEST) {
             if (resultCode == RESULT_OK) {
-                try {
-                    Uri imageUri = data.getData();
-                    Bitmap bitmap = MediaStore.Images.Media.getBitmap(getContentResolver(), imageUri);
-                    mPictureImageView.setImageBitmap(bitmap);
-
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+                mPickedImageUri = data.getData();
+                mTrackerHasChanged = true;
+                mImageLoader.load(mPickedImageUri, mImageLoadCallback);
             }
         }
     }
@@ -291,10 +397,10 @@ public class EditorActivity extends AppCompatActivity implements
         switch (item.getItemId()) {
             // Respond to a click on the "Save" menu option
             case R.id.action_save:
-                // Save tracker to database
-                saveTracker();
-                // Exit activity
-                finish();
+                // Queue the tracker to be saved, and exit the activity unless the entry is invalid
+                if (saveTracker()) {
+                    finish();
+                }
                 return true;
             // Respond to a click on the "Delete" menu option
             case R.id.action_delete:
@@ -365,7 +471,8 @@ public class EditorActivity extends AppCompatActivity implements
                 TrackerEntry.COLUMN_TRACKER_QUANTITY,
                 TrackerEntry.COLUMN_TRACKER_VENDOR,
                 TrackerEntry.COLUMN_TRACKER_PRICE,
-                TrackerEntry.COLUMN_TRACKER_IMAGE
+                TrackerEntry.COLUMN_TRACKER_REORDER_THRESHOLD,
+                TrackerEntry.COLUMN_TRACKER_IMAGE_HASH
         };
 
         // This loader will execute the ContentProvider's query method on a background thread
@@ -392,27 +499,64 @@ public class EditorActivity extends AppCompatActivity implements
             int quantityColumnIndex = cursor.getColumnIndex(TrackerEntry.COLUMN_TRACKER_QUANTITY);
             int priceColumnIndex = cursor.getColumnIndex(TrackerEntry.COLUMN_TRACKER_PRICE);
             int vendorColumnIndex = cursor.getColumnIndex(TrackerEntry.COLUMN_TRACKER_VENDOR);
-            int pictureColumnIndex = cursor.getColumnIndex(TrackerEntry.COLUMN_TRACKER_IMAGE);
+            int reorderThresholdColumnIndex = cursor.getColumnIndex(TrackerEntry.COLUMN_TRACKER_REORDER_THRESHOLD);
+            int pictureColumnIndex = cursor.getColumnIndex(TrackerEntry.COLUMN_TRACKER_IMAGE_HASH);
 
 
             // Extract out the value from the Cursor for the given column index
             String name = cursor.getString(nameColumnIndex);
             String quantity = cursor.getString(quantityColumnIndex);
-            String price = cursor.getString(priceColumnIndex);
+            String price = TrackerEntry.formatPrice(cursor.getLong(priceColumnIndex));
             String vendor = cursor.getString(vendorColumnIndex);
-            byte[] pictureByte = cursor.getBlob(pictureColumnIndex);
-
-            Bitmap pictureBitmap = BitmapFactory.decodeByteArray(pictureByte, 0, pictureByte.length);
-
+            String reorderThreshold = cursor.getString(reorderThresholdColumnIndex);
+
+            String pictureHash = cursor.getString(pictureColumnIndex);
+
+            // Update the views on the screen with the values from the database. The loader runs
+            // again whenever this tracker changes, for instance when a unit is sold from the
+            // catalog; only the fields that changed, and that the user hasn't edited, are touched.
+            patchField(mNameEditText, TrackerEntry.COLUMN_TRACKER_NAME, name);
+            patchField(mQuantityEditText, TrackerEntry.COLUMN_TRACKER_QUANTITY, quantity);
+            patchField(mPriceEditText, TrackerEntry.COLUMN_TRACKER_PRICE, price);
+            patchField(mVendorEditText, TrackerEntry.COLUMN_TRACKER_VENDOR, vendor);
+            patchField(mReorderThresholdEditText, TrackerEntry.COLUMN_TRACKER_REORDER_THRESHOLD, reorderThreshold);
+
+            // The image itself is not part of the cursor; decode it from the provider in the
+            // background instead, and only when it is a different image than the one shown. A
+            // picture the user picked stays until it is saved.
+            if (!mLoadedValues.containsKey(TrackerEntry.COLUMN_TRACKER_IMAGE_HASH)
+                    || !TextUtils.equals(pictureHash, mLoadedValues.getAsString(TrackerEntry.COLUMN_TRACKER_IMAGE_HASH))) {
+                if (mPickedImageUri == null) {
+                    mImageLoader.load(pictureHash == null ? null
+                            : TrackerEntry.buildImageUri(ContentUris.parseId(mCurrentTrackerUri)),
+                            mImageLoadCallback);
+                }
+                mLoadedValues.put(TrackerEntry.COLUMN_TRACKER_IMAGE_HASH, pictureHash);
+            }
 
-            // Update the views on the screen with the values from the database
-            mNameEditText.setText(name);
-            mQuantityEditText.setText(quantity);
-            mPriceEditText.setText(price);
-            mVendorEditText.setText(vendor);
-            mPictureImageView.setImageBitmap(pictureBitmap);
+        }
+    }
 
+    /**
+     * Show the given value of the given column in the given field, unless it is the value that
+     * was loaded last time, or the user has edited the field since. An edit of the user wins over
+     * a change made elsewhere; the new value is still remembered, so the field follows the
+     * tracker again once the user's text matches it.
+     */
+    private void patchField(EditText field, String column, String value) {
+        if (mLoadedValues.containsKey(column)) {
+            String loaded = mLoadedValues.getAsString(column);
+            if (TextUtils.equals(value, loaded)) {
+                return;
+            }
+            // A field shows a null value as empty text
+            if (!TextUtils.equals(field.getText().toString(), loaded == null ? "" : loaded)) {
+                mLoadedValues.put(column, value);
+                return;
+            }
         }
+        field.setText(value);
+        mLoadedValues.put(column, value);
     }
 
     @Override
@@ -422,7 +566,9 @@ public class EditorActivity extends AppCompatActivity implements
         mQuantityEditText.setText("");
         mPriceEditText.setText("");
         mVendorEditText.setText("");
-        mPictureImageView.setImageBitmap(null);
+        mReorderThresholdEditText.setText("");
+        mImageLoader.load(null, null);
+        mLoadedValues.clear();
 
     }
 
@@ -0,0 +1,252 @@
+package com.example.android.instore;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.BitmapDrawable;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads a full-size image into a single ImageView off the main thread.
+ * <p>
+ * The image's bounds are read first, and it is decoded with the largest power-of-two sample size
+ * that still covers the view, so a photo of tens of megapixels only takes the memory of the
+ * view. The bitmap the view showed before is reused for the next decode when it is big enough.
+ * Only the latest request counts: starting a new one cancels the one before, and a result that
+ * arrives late is dropped.
+ */
+public class ImageLoader {
+
+    private static final String LOG_TAG = ImageLoader.class.getSimpleName();
+
+    /**
+     * Decodes for every editor, one at a time; there is hardly ever more than one waiting
+     */
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    private final ContentResolver mContentResolver;
+
+    private final ImageView mView;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Request running or waiting, or null. Only touched on the main thread.
+     */
+    private Request mRequest;
+
+    /**
+     * Bitmap that no view shows anymore, which the next decode may reuse. Guarded by this.
+     */
+    private Bitmap mReusableBitmap;
+
+    /**
+     * Receives the outcome of a load, on the main thread.
+     */
+    public interface Callback {
+
+        /**
+         * Called when the image could not be read or decoded. The view is left as it was.
+         */
+        void onLoadFailed(Uri uri);
+    }
+
+    /**
+     * @param view the view to show the images in
+     */
+    public ImageLoader(ContentResolver contentResolver, ImageView view) {
+        mContentResolver = contentResolver;
+        mView = view;
+    }
+
+    /**
+     * Show the image at the given URI in the view, or clear the view if the URI is null. Cancels
+     * the load started before, if it hasn't finished yet. Must be called on the main thread.
+     */
+    public void load(Uri uri, Callback callback) {
+        cancel();
+
+        if (uri == null) {
+            show(null);
+            return;
+        }
+
+        mRequest = new Request(uri, getTargetSize(true), getTargetSize(false), callback);
+        mRequest.mFuture = sExecutor.submit(mRequest);
+    }
+
+    /**
+     * Return the width or height the view shows images at. If the view isn't laid out yet, that
+     * is the size in its layout parameters, or else the size of the screen, which bounds it anyway.
+     */
+    private int getTargetSize(boolean width) {
+        int size = width ? mView.getWidth() : mView.getHeight();
+        if (size > 0) {
+            return size;
+        }
+        ViewGroup.LayoutParams params = mView.getLayoutParams();
+        size = params == null ? 0 : width ? params.width : params.height;
+        if (size > 0) {
+            return size;
+        }
+        DisplayMetrics metrics = mView.getResources().getDisplayMetrics();
+        return width ? metrics.widthPixels : metrics.heightPixels;
+    }
+
+    /**
+     * Cancel the load in progress, if any. Call this when the view goes away.
+     */
+    public void cancel() {
+        if (mRequest != null) {
+            mRequest.mFuture.cancel(true);
+            mRequest = null;
+        }
+    }
+
+    /**
+     * Show the given bitmap, and keep the one it replaces for reuse.
+     */
+    private void show(Bitmap bitmap) {
+        Bitmap previous = null;
+        if (mView.getDrawable() instanceof BitmapDrawable) {
+            previous = ((BitmapDrawable) mView.getDrawable()).getBitmap();
+        }
+        mView.setImageBitmap(bitmap);
+        if (previous != null && previous != bitmap && previous.isMutable()) {
+            synchronized (this) {
+                mReusableBitmap = previous;
+            }
+        }
+    }
+
+    /**
+     * Take the bitmap kept for reuse, if it can hold an image of the given size.
+     */
+    private synchronized Bitmap takeReusableBitmap(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = mReusableBitmap;
+        if (bitmap == null || bitmap.isRecycled()) {
+            return null;
+        }
+        // Since KitKat a bitmap can be reused for any image that fits in its allocation
+        int bytesPerPixel = config == Bitmap.Config.ARGB_8888 || config == null ? 4 : 2;
+        if ((long) width * height * bytesPerPixel > bitmap.getAllocationByteCount()) {
+            return null;
+        }
+        mReusableBitmap = null;
+        return bitmap;
+    }
+
+    /**
+     * Return the largest power of two by which the given image can be scaled down and still cover
+     * the given size.
+     */
+    static int calculateSampleSize(int imageWidth, int imageHeight, int width, int height) {
+        int sampleSize = 1;
+        while (imageWidth / (sampleSize * 2) >= width && imageHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Reads and decodes a single image.
+     */
+    private class Request implements Runnable {
+
+        private final Uri mUri;
+
+        private final int mWidth;
+
+        private final int mHeight;
+
+        private final Callback mCallback;
+
+        private Future<?> mFuture;
+
+        Request(Uri uri, int width, int height, Callback callback) {
+            mUri = uri;
+            mWidth = width;
+            mHeight = height;
+            mCallback = callback;
+        }
+
+        @Override
+        public void run() {
+            Bitmap bitmap = null;
+            try {
+                bitmap = decode();
+            } catch (IOException | SecurityException e) {
+                Log.e(LOG_TAG, "Failed to load image " + mUri, e);
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+
+            final Bitmap result = bitmap;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // A newer request took over while this one was decoding
+                    if (mRequest != Request.this) {
+                        return;
+                    }
+                    mRequest = null;
+                    if (result != null) {
+                        show(result);
+                    } else if (mCallback != null) {
+                        mCallback.onLoadFailed(mUri);
+                    }
+                }
+            });
+        }
+
+        private Bitmap decode() throws IOException {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            decodeStream(options);
+            if (options.outWidth <= 0 || options.outHeight <= 0
+                    || Thread.currentThread().isInterrupted()) {
+                return null;
+            }
+
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = calculateSampleSize(options.outWidth, options.outHeight,
+                    mWidth, mHeight);
+            options.inMutable = true;
+            int width = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+            int height = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+            options.inBitmap = takeReusableBitmap(width, height, options.inPreferredConfig);
+            try {
+                return decodeStream(options);
+            } catch (IllegalArgumentException e) {
+                // The decoder couldn't reuse the bitmap after all
+                options.inBitmap = null;
+                return decodeStream(options);
+            }
+        }
+
+        private Bitmap decodeStream(BitmapFactory.Options options) throws IOException {
+            InputStream in = mContentResolver.openInputStream(mUri);
+            if (in == null) {
+                throw new IOException("Cannot open " + mUri);
+            }
+            try {
+                return BitmapFactory.decodeStream(in, null, options);
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.android.instore;
+
+import android.app.ActivityManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.android.instore.data.TrackerContract;
+import com.example.android.instore.data.TrackerContract.TrackerEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads tracker thumbnails into ImageViews off the main thread.
+ * <p>
+ * Decoded thumbnails are kept in a memory cache with a byte budget; on a miss the thumbnail is
+ * read from the provider, which keeps its own disk cache. A request is cancelled as soon as its
+ * ImageView is bound to a different tracker, so a fast fling never decodes rows that are gone.
+ */
+public class ThumbnailLoader {
+
+    private static final String LOG_TAG = ThumbnailLoader.class.getSimpleName();
+
+    /**
+     * Fraction of the app's memory class that the memory cache may use
+     */
+    private static final int MEMORY_CACHE_DIVIDER = 8;
+
+    private static final int THREAD_COUNT = 2;
+
+    private static ThumbnailLoader sInstance;
+
+    private final ContentResolver mContentResolver;
+
+    /**
+     * Decoded thumbnails, keyed by image hash and size
+     */
+    private final LruCache<String, Bitmap> mMemoryCache;
+
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(THREAD_COUNT);
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Return the loader shared by the whole app.
+     */
+    public static synchronized ThumbnailLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ThumbnailLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ThumbnailLoader(Context context) {
+        mContentResolver = context.getContentResolver();
+
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int maxBytes = activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CACHE_DIVIDER;
+        mMemoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Show the thumbnail of the given tracker in the given view, cancelling whatever the view was
+     * loading before.
+     *
+     * @param view the view to show the thumbnail in
+     * @param id   ID of the tracker
+     * @param hash hash of the tracker's image, or null if it has no image
+     * @param size size of the view in pixels
+     */
+    public void load(ImageView view, long id, String hash, int size) {
+        cancel(view);
+
+        if (hash == null) {
+            view.setImageDrawable(null);
+            return;
+        }
+
+        Uri uri = TrackerEntry.buildThumbnailUri(id, size);
+        String key = hash + "_" + uri.getQueryParameter(TrackerContract.QUERY_PARAMETER_SIZE);
+        Bitmap cached = mMemoryCache.get(key);
+        if (cached != null) {
+            view.setImageBitmap(cached);
+            return;
+        }
+
+        view.setImageDrawable(null);
+        Request request = new Request(view, uri, key);
+        view.setTag(request);
+        request.mFuture = mExecutor.submit(request);
+    }
+
+    /**
+     * Cancel the thumbnail the given view is loading, if any. Call this when the view is recycled.
+     */
+    public void cancel(ImageView view) {
+        Object tag = view.getTag();
+        if (tag instanceof Request) {
+            ((Request) tag).mFuture.cancel(true);
+            view.setTag(null);
+        }
+    }
+
+    /**
+     * Reads and decodes a single thumbnail.
+     */
+    private class Request implements Runnable {
+
+        private final ImageView mView;
+
+        private final Uri mUri;
+
+        private final String mKey;
+
+        private Future<?> mFuture;
+
+        Request(ImageView view, Uri uri, String key) {
+            mView = view;
+            mUri = uri;
+            mKey = key;
+        }
+
+        @Override
+        public void run() {
+            final Bitmap bitmap = decode();
+            if (bitmap == null || Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            mMemoryCache.put(mKey, bitmap);
+
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // The view may have moved on to another tracker while we were decoding
+                    if (mView.getTag() == Request.this) {
+                        mView.setTag(null);
+                        mView.setImageBitmap(bitmap);
+                    }
+                }
+            });
+        }
+
+        private Bitmap decode() {
+            try {
+                InputStream in = mContentResolver.openInputStream(mUri);
+                try {
+                    return BitmapFactory.decodeStream(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to load thumbnail " + mUri, e);
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,442 @@
+package com.example.android.instore;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.util.LongSparseArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import com.example.android.instore.data.TrackerContract;
+import com.example.android.instore.data.TrackerContract.TrackerEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link RecyclerView.Adapter} for the catalog list.
+ * <p>
+ * Every cursor handed to {@link #swapCursor(Cursor)} is copied into a list of small immutable
+ * rows, looking up its column indices only once. The copy, and the difference between the old and
+ * the new rows, are made on a background thread, so a large list doesn't hold up the main thread
+ * and a change to a single tracker only rebinds that tracker's row instead of the whole screen.
+ * <p>
+ * A tracker that changed in place can also be patched with {@link #patchRow(Cursor)}, without
+ * handing over the whole list again. Patches are kept until {@link #clearPatches()}, and win over
+ * the (older) rows of the cursors swapped in meanwhile.
+ */
+public class TrackerAdapter extends RecyclerView.Adapter<TrackerAdapter.ViewHolder> {
+
+    /**
+     * Called when the user clicks on a tracker in the list.
+     */
+    public interface OnTrackerClickListener {
+        void onTrackerClick(long id);
+    }
+
+    /**
+     * Thread that computes the differences between two versions of the list
+     */
+    private static final ExecutorService sDiffExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final Context mContext;
+
+    private final OnTrackerClickListener mClickListener;
+
+    private final int mThumbnailSize;
+
+    /**
+     * Rows currently shown
+     */
+    private List<Row> mRows = Collections.emptyList();
+
+    /**
+     * Incremented for every swap, so the result of an outdated diff is thrown away
+     */
+    private int mGeneration;
+
+    /**
+     * Rows patched since the last {@link #clearPatches()}, keyed by tracker ID
+     */
+    private final LongSparseArray<Row> mPatchedRows = new LongSparseArray<>();
+
+    /**
+     * Guards {@link #mCopyingCursor}, and is held while a row of it is read
+     */
+    private final Object mCopyLock = new Object();
+
+    /**
+     * Cursor the background thread is copying, or null once it is copied or was swapped out
+     */
+    private Cursor mCopyingCursor;
+
+    /**
+     * Constructs a new {@link TrackerAdapter}.
+     *
+     * @param context       The context
+     * @param clickListener Listener for clicks on a tracker
+     */
+    public TrackerAdapter(Context context, OnTrackerClickListener clickListener) {
+        mContext = context;
+        mClickListener = clickListener;
+        mThumbnailSize = context.getResources().getDimensionPixelSize(R.dimen.thumbnail_size);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Show the trackers in the given cursor, or nothing if it is null.
+     * <p>
+     * The cursor is read on a background thread, so its owner has to keep it open, and leave its
+     * position alone, until the next call, the way a loader keeps the cursor it delivered until it
+     * delivers the next one. The next call stops the copy, waiting at most for the row being read.
+     */
+    public void swapCursor(final Cursor cursor) {
+        synchronized (mCopyLock) {
+            mCopyingCursor = cursor;
+        }
+        final List<Row> oldRows = mRows;
+        final LongSparseArray<Row> patchedRows = mPatchedRows.clone();
+        final int generation = ++mGeneration;
+
+        if (cursor == null) {
+            mRows = Collections.emptyList();
+            notifyDataSetChanged();
+            return;
+        }
+
+        sDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Row> newRows = copyRows(cursor, patchedRows);
+                if (newRows == null) {
+                    return;
+                }
+
+                // Nothing to compare against (or nothing left), so don't bother computing a diff
+                final DiffUtil.DiffResult diff = oldRows.isEmpty() || newRows.isEmpty()
+                        ? null : DiffUtil.calculateDiff(new RowDiff(oldRows, newRows));
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mRows = newRows;
+                        if (diff == null) {
+                            notifyDataSetChanged();
+                        } else {
+                            diff.dispatchUpdatesTo(TrackerAdapter.this);
+                        }
+
+                        // Rows patched while the copy was being made aren't in it
+                        for (int i = 0; i < mPatchedRows.size(); i++) {
+                            replaceRow(mPatchedRows.valueAt(i));
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Show the given rows right away, without a diff.
+     */
+    void setRows(List<Row> rows) {
+        synchronized (mCopyLock) {
+            mCopyingCursor = null;
+        }
+        mGeneration++;
+        mRows = rows;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Show the new values of a single tracker that changed in place, read from the current row of
+     * the given cursor. Nothing happens if the tracker is not in the list.
+     */
+    public void patchRow(Cursor cursor) {
+        Row row = readRow(cursor, new ColumnIndices(cursor));
+        mPatchedRows.put(row.id, row);
+        replaceRow(row);
+    }
+
+    /**
+     * Forget the patched rows. Call this before swapping in cursors that were queried after the
+     * patches, and therefore already hold the patched values.
+     */
+    public void clearPatches() {
+        mPatchedRows.clear();
+    }
+
+    /**
+     * Replace the row of the same tracker with the given row, and rebind it.
+     */
+    private void replaceRow(Row row) {
+        for (int position = 0; position < mRows.size(); position++) {
+            Row oldRow = mRows.get(position);
+            if (oldRow.id == row.id) {
+                if (!oldRow.hasSameContents(row)) {
+                    // Copy the list rather than changing it, since a diff may still be reading it
+                    List<Row> rows = new ArrayList<>(mRows);
+                    rows.set(position, row);
+                    mRows = rows;
+                    notifyItemChanged(position);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Copy the rows of the given cursor, taking the patched version of a row where there is one.
+     * Return null if the cursor was swapped out before it was copied; its owner may close it from
+     * then on, so it isn't read anymore.
+     */
+    private List<Row> copyRows(Cursor cursor, LongSparseArray<Row> patchedRows) {
+        List<Row> rows = new ArrayList<>();
+        ColumnIndices columns = null;
+        for (int position = 0; ; position++) {
+            synchronized (mCopyLock) {
+                if (mCopyingCursor != cursor) {
+                    return null;
+                }
+                if (!cursor.moveToPosition(position)) {
+                    mCopyingCursor = null;
+                    return rows;
+                }
+
+                // Look up the column indices once per cursor, not once per row
+                if (columns == null) {
+                    columns = new ColumnIndices(cursor);
+                }
+                Row patchedRow = patchedRows.get(cursor.getLong(columns.id));
+                rows.add(patchedRow != null ? patchedRow : readRow(cursor, columns));
+            }
+        }
+    }
+
+    /**
+     * Copy the rows of the given cursor, on the calling thread.
+     */
+    static List<Row> readRows(Cursor cursor) {
+        List<Row> rows = new ArrayList<>(cursor.getCount());
+        if (cursor.getCount() == 0) {
+            return rows;
+        }
+        ColumnIndices columns = new ColumnIndices(cursor);
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            rows.add(readRow(cursor, columns));
+        }
+        return rows;
+    }
+
+    private static Row readRow(Cursor cursor, ColumnIndices columns) {
+        return new Row(cursor.getLong(columns.id),
+                cursor.getString(columns.name),
+                cursor.getLong(columns.price),
+                cursor.getInt(columns.quantity),
+                cursor.getString(columns.imageHash));
+    }
+
+    @Override
+    public int getItemCount() {
+        return mRows.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mRows.get(position).id;
+    }
+
+    /**
+     * Makes a new list item view with its holder. The views are looked up once, here, and the
+     * holder's click listeners read whatever tracker the holder is bound to at click time.
+     */
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item, parent, false);
+        return new ViewHolder(view);
+    }
+
+    /**
+     * Binds the tracker at the given position to the holder's views.
+     */
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        Row row = mRows.get(position);
+        holder.mRow = row;
+        holder.mNameTextView.setText(row.name);
+        holder.mPriceTextView.setText("Price:" + TrackerEntry.formatPrice(row.price));
+        holder.mQuantityTextView.setText("Quantity:" + row.quantity);
+
+        // Load the thumbnail in the background; this also cancels the load of the row that used
+        // this holder before
+        ThumbnailLoader.getInstance(mContext).load(holder.mThumbnailView, row.id, row.imageHash,
+                mThumbnailSize);
+    }
+
+    @Override
+    public void onViewRecycled(ViewHolder holder) {
+        // Stop loading the thumbnail as soon as the row scrolls off the screen
+        ThumbnailLoader.getInstance(mContext).cancel(holder.mThumbnailView);
+    }
+
+    /**
+     * Holds the views of a single list item, and the tracker it is bound to.
+     */
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        final TextView mNameTextView;
+
+        final TextView mPriceTextView;
+
+        final TextView mQuantityTextView;
+
+        final ImageView mThumbnailView;
+
+        final Button mSellButton;
+
+        /**
+         * Tracker the holder is bound to
+         */
+        Row mRow;
+
+        ViewHolder(View view) {
+            super(view);
+            mNameTextView = (TextView) view.findViewById(R.id.name);
+            mPriceTextView = (TextView) view.findViewById(R.id.price);
+            mQuantityTextView = (TextView) view.findViewById(R.id.quantity);
+            mThumbnailView = (ImageView) view.findViewById(R.id.thumbnail);
+            mSellButton = (Button) view.findViewById(R.id.sell);
+
+            view.setOnClickListener(this);
+            mSellButton.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            if (mRow == null) {
+                return;
+            }
+
+            if (view == mSellButton) {
+                if (mRow.quantity > 0) {
+                    // The provider journals the sale and returns right away; the stock is
+                    // updated in the background, together with the other sales of a rush.
+                    // The provider notifies the listeners itself.
+                    Bundle extras = new Bundle();
+                    extras.putLong(TrackerContract.EXTRA_ID, mRow.id);
+                    view.getContext().getContentResolver().call(
+                            TrackerEntry.CONTENT_URI, TrackerContract.METHOD_RECORD_SALE, null, extras);
+                }
+            } else {
+                mClickListener.onTrackerClick(mRow.id);
+            }
+        }
+    }
+
+    /**
+     * The values of a single tracker, as shown in the list.
+     */
+    static class Row {
+
+        final long id;
+
+        final String name;
+
+        final long price;
+
+        final int quantity;
+
+        final String imageHash;
+
+        Row(long id, String name, long price, int quantity, String imageHash) {
+            this.id = id;
+            this.name = name;
+            this.price = price;
+            this.quantity = quantity;
+            this.imageHash = imageHash;
+        }
+
+        boolean hasSameContents(Row other) {
+            return price == other.price
+                    && quantity == other.quantity
+                    && TextUtils.equals(name, other.name)
+                    && TextUtils.equals(imageHash, other.imageHash);
+        }
+    }
+
+    /**
+     * Indices of the columns the list reads from a cursor.
+     */
+    private static class ColumnIndices {
+
+        final int id;
+
+        final int name;
+
+        final int price;
+
+        final int quantity;
+
+        final int imageHash;
+
+        ColumnIndices(Cursor cursor) {
+            id = cursor.getColumnIndexOrThrow(TrackerEntry._ID);
+            name = cursor.getColumnIndexOrThrow(TrackerEntry.COLUMN_TRACKER_NAME);
+            price = cursor.getColumnIndexOrThrow(TrackerEntry.COLUMN_TRACKER_PRICE);
+            quantity = cursor.getColumnIndexOrThrow(TrackerEntry.COLUMN_TRACKER_QUANTITY);
+            imageHash = cursor.getColumnIndexOrThrow(TrackerEntry.COLUMN_TRACKER_IMAGE_HASH);
+        }
+    }
+
+    /**
+     * Compares two versions of the list, matching the rows by tracker ID.
+     */
+    private static class RowDiff extends DiffUtil.Callback {
+
+        private final List<Row> mOldRows;
+
+        private final List<Row> mNewRows;
+
+        RowDiff(List<Row> oldRows, List<Row> newRows) {
+            mOldRows = oldRows;
+            mNewRows = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldRows.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewRows.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldRows.get(oldItemPosition).id == mNewRows.get(newItemPosition).id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldRows.get(oldItemPosition).hasSameContents(mNewRows.get(newItemPosition));
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.android.instore;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.SQLException;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.android.instore.data.ImageStore;
+import com.example.android.instore.data.TrackerContract.TrackerEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Saves trackers in the background, one write at a time, in the order they were asked for.
+ * <p>
+ * The queue belongs to the app rather than to an activity, so the editor can close as soon as the
+ * user taps Save and the write still happens. A save of a tracker that is still waiting its turn
+ * is merged into the waiting one, so saving the same tracker repeatedly costs a single write. The
+ * outcome of every save is reported on the main thread.
+ * <p>
+ * A new image is streamed straight into the {@link ImageStore}, which hashes it while copying, so
+ * a photo is never held in memory; the write only hands the provider its hash.
+ */
+public class TrackerSaveQueue {
+
+    private static final String LOG_TAG = TrackerSaveQueue.class.getSimpleName();
+
+    private static TrackerSaveQueue sInstance;
+
+    private final ContentResolver mContentResolver;
+
+    private final ImageStore mImageStore;
+
+    /**
+     * The single writer; a single thread keeps the writes in order
+     */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Saves of existing trackers that haven't started yet, keyed by tracker URI. Guarded by this.
+     */
+    private final Map<Uri, Save> mWaitingSaves = new HashMap<>();
+
+    /**
+     * Receives the outcome of a save.
+     */
+    public interface Callback {
+
+        /**
+         * Called on the main thread once the save ran.
+         *
+         * @param trackerUri URI of the tracker that was saved, or null if the save failed
+         * @param inserted   whether the save was meant to create a new tracker
+         */
+        void onSaveFinished(Uri trackerUri, boolean inserted);
+    }
+
+    /**
+     * Return the queue shared by the whole app.
+     */
+    public static synchronized TrackerSaveQueue getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TrackerSaveQueue(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private TrackerSaveQueue(Context context) {
+        mContentResolver = context.getContentResolver();
+        mImageStore = new ImageStore(context);
+    }
+
+    /**
+     * Queue a save of the given values.
+     *
+     * @param trackerUri URI of the tracker to update, or null to insert a new tracker
+     * @param values     the values to write
+     * @param image      stream of a new image for the tracker, which the queue reads and closes,
+     *                   or null to leave the image as it is
+     * @param callback   receives the outcome, or null
+     */
+    public void save(Uri trackerUri, ContentValues values, InputStream image, Callback callback) {
+        synchronized (this) {
+            Save waiting = trackerUri == null ? null : mWaitingSaves.get(trackerUri);
+            if (waiting != null) {
+                waiting.merge(values, image, callback);
+                return;
+            }
+
+            Save save = new Save(trackerUri, values, image, callback);
+            if (trackerUri != null) {
+                mWaitingSaves.put(trackerUri, save);
+            }
+            mExecutor.execute(save);
+        }
+    }
+
+    /**
+     * A single write, with everything merged into it while it waited.
+     */
+    private class Save implements Runnable {
+
+        private final Uri mTrackerUri;
+
+        private final ContentValues mValues;
+
+        private InputStream mImage;
+
+        private final List<Callback> mCallbacks = new ArrayList<>();
+
+        Save(Uri trackerUri, ContentValues values, InputStream image, Callback callback) {
+            mTrackerUri = trackerUri;
+            mValues = new ContentValues(values);
+            mImage = image;
+            if (callback != null) {
+                mCallbacks.add(callback);
+            }
+        }
+
+        /**
+         * Merge a later save of the same tracker into this one: its values win, and so does its
+         * image, if it has one. Called with the queue locked.
+         */
+        void merge(ContentValues values, InputStream image, Callback callback) {
+            mValues.putAll(values);
+            if (image != null) {
+                close(mImage);
+                mImage = image;
+            }
+            if (callback != null) {
+                mCallbacks.add(callback);
+            }
+        }
+
+        @Override
+        public void run() {
+            // From now on a save of this tracker waits for its own turn
+            synchronized (TrackerSaveQueue.this) {
+                if (mTrackerUri != null) {
+                    mWaitingSaves.remove(mTrackerUri);
+                }
+            }
+
+            Uri savedUri = null;
+            try {
+                if (mImage != null) {
+                    mValues.put(TrackerEntry.COLUMN_TRACKER_IMAGE_HASH, mImageStore.put(mImage));
+                }
+                if (mTrackerUri == null) {
+                    savedUri = mContentResolver.insert(TrackerEntry.CONTENT_URI, mValues);
+                } else if (mContentResolver.update(mTrackerUri, mValues, null, null) > 0) {
+                    savedUri = mTrackerUri;
+                }
+            } catch (IOException | IllegalArgumentException | SQLException e) {
+                // Whatever went wrong, the callbacks still hear that the save failed
+                Log.e(LOG_TAG, "Failed to save tracker " + mTrackerUri, e);
+            } finally {
+                close(mImage);
+            }
+
+            final Uri result = savedUri;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (Callback callback : mCallbacks) {
+                        callback.onSaveFinished(result, mTrackerUri == null);
+                    }
+                }
+            });
+        }
+    }
+
+    private static void close(InputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to close image", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package com.example.android.instore.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import com.example.android.instore.data.TrackerContract.TrackerEntry;
+import com.example.android.instore.data.TrackerContract.VendorEntry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Backs the catalog up into a ZIP archive, and restores it from one.
+ * <p>
+ * The archive holds, in this order:
+ * <ul>
+ * <li>{@link #CATALOG_ENTRY}, the vendors and trackers as JSON,</li>
+ * <li>one {@link #IMAGES_DIRECTORY} entry for every image file, named after its SHA-256 hash,</li>
+ * <li>{@link #CHECKSUMS_ENTRY}, the SHA-256 hash of the catalog entry, in the format of
+ * sha256sum.</li>
+ * </ul>
+ * Besides the CRC-32 that the ZIP format keeps for every entry, the catalog is checked against
+ * its hash and every image against its name, so a restore notices any corruption.
+ * <p>
+ * Rows are read in pages and images are copied through a small buffer, both ways, so the memory
+ * used doesn't depend on the size of the catalog.
+ */
+class CatalogBackup {
+
+    /**
+     * Name of the entry with the vendors and trackers
+     */
+    static final String CATALOG_ENTRY = "catalog.json";
+
+    /**
+     * Prefix of the entries with the images
+     */
+    static final String IMAGES_DIRECTORY = "images/";
+
+    /**
+     * Name of the entry with the checksums, written last
+     */
+    static final String CHECKSUMS_ENTRY = "checksums";
+
+    /**
+     * Version of the layout of the archive
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    private static final String KEY_FORMAT = "format";
+
+    private static final String KEY_DATABASE_VERSION = "database_version";
+
+    private static final String KEY_VENDORS = "vendors";
+
+    private static final String KEY_TRACKERS = "trackers";
+
+    /**
+     * Number of rows read from the database at a time
+     */
+    private static final int PAGE_SIZE = 1000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Number of trackers and images backed up or restored.
+     */
+    static class Result {
+
+        final int trackers;
+
+        final int images;
+
+        Result(int trackers, int images) {
+            this.trackers = trackers;
+            this.images = images;
+        }
+    }
+
+    private CatalogBackup() {
+    }
+
+    /**
+     * Write a backup of the catalog in the given database and image store to the given stream, and
+     * close it.
+     * <p>
+     * The rows are copied into a temporary file inside a transaction, so they are a consistent
+     * snapshot. Writers wait for the transaction, and without write-ahead logging, where it holds
+     * the only connection, so do readers; sales, which are journaled, go on. The transaction only
+     * lasts as long as writing the rows to local storage takes: the archive, whose destination
+     * may be a lot slower, is written once it has ended. The image store is pinned before the
+     * transaction ends, so none of the images of the snapshot can be deleted before they were
+     * copied too. Images stored after the snapshot may end up in the archive as well; restoring
+     * drops whatever the trackers don't reference.
+     *
+     * @param temporaryDirectory where the copy of the rows is kept until it is in the archive
+     */
+    static Result backup(SQLiteDatabase database, ImageStore imageStore, File temporaryDirectory,
+                         OutputStream out) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        File catalogFile = null;
+        try {
+            catalogFile = File.createTempFile("catalog", ".json", temporaryDirectory);
+            MessageDigest digest = ImageStore.newDigest();
+            int trackers;
+            boolean pinned = false;
+            try {
+                database.beginTransactionNonExclusive();
+                try {
+                    OutputStream catalog = new BufferedOutputStream(
+                            new FileOutputStream(catalogFile), BUFFER_SIZE);
+                    try {
+                        trackers = writeCatalog(database, new DigestOutputStream(catalog, digest));
+                    } finally {
+                        catalog.close();
+                    }
+
+                    imageStore.pin();
+                    pinned = true;
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+
+                byte[] buffer = new byte[BUFFER_SIZE];
+                zip.putNextEntry(new ZipEntry(CATALOG_ENTRY));
+                copy(catalogFile, zip, buffer);
+                zip.closeEntry();
+
+                // The images are compressed already, so deflating them again would only cost time
+                zip.setLevel(Deflater.NO_COMPRESSION);
+                String[] hashes = imageStore.listHashes();
+                for (String hash : hashes) {
+                    zip.putNextEntry(new ZipEntry(IMAGES_DIRECTORY + hash));
+                    copy(imageStore.getFile(hash), zip, buffer);
+                    zip.closeEntry();
+                }
+                zip.setLevel(Deflater.DEFAULT_COMPRESSION);
+
+                zip.putNextEntry(new ZipEntry(CHECKSUMS_ENTRY));
+                zip.write((ImageStore.toHex(digest.digest()) + "  " + CATALOG_ENTRY + "\n")
+                        .getBytes(UTF_8));
+                zip.closeEntry();
+                zip.finish();
+                return new Result(trackers, hashes.length);
+            } finally {
+                if (pinned) {
+                    imageStore.unpin();
+                }
+            }
+        } finally {
+            zip.close();
+            if (catalogFile != null) {
+                catalogFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Copy the given file to the given stream, which is left open, through the given buffer.
+     */
+    private static void copy(File file, OutputStream out, byte[] buffer) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Replace the catalog in the given database with the one in the backup read from the given
+     * stream, and close it. The images are added to the image store.
+     * <p>
+     * The whole restore is one transaction, which only commits once every checksum matched. If it
+     * doesn't, the catalog stays as it was, but the images stored meanwhile stay in the image
+     * store: the caller should drop those that aren't referenced, whether the restore succeeded or
+     * not.
+     *
+     * @throws IOException if the backup can't be read, or isn't a complete and intact backup of
+     *                     a catalog of this app
+     */
+    static Result restore(SQLiteDatabase database, ImageStore imageStore, InputStream in)
+            throws IOException {
+        ZipInputStream zip = new ZipInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+        try {
+            ZipEntry entry = zip.getNextEntry();
+            if (entry == null || !CATALOG_ENTRY.equals(entry.getName())) {
+                throw new IOException("Not a catalog backup");
+            }
+
+            database.beginTransaction();
+            try {
+                database.delete(TrackerEntry.TABLE_NAME, null, null);
+                database.delete(VendorEntry.TABLE_NAME, null, null);
+
+                MessageDigest digest = ImageStore.newDigest();
+                DigestInputStream catalog = new DigestInputStream(zip, digest);
+                int trackers = readCatalog(database, catalog);
+                // The hash covers the whole entry, including whatever the parser didn't need
+                byte[] buffer = new byte[BUFFER_SIZE];
+                while (catalog.read(buffer) != -1) {
+                    // Only hashing
+                }
+                String catalogHash = ImageStore.toHex(digest.digest());
+
+                int images = 0;
+                String expectedCatalogHash = null;
+                while ((entry = zip.getNextEntry()) != null) {
+                    String name = entry.getName();
+                    if (name.startsWith(IMAGES_DIRECTORY)) {
+                        String hash = imageStore.put(zip);
+                        if (!hash.equals(name.substring(IMAGES_DIRECTORY.length()))) {
+                            throw new IOException("Image " + name + " is corrupt");
+                        }
+                        images++;
+                    } else if (CHECKSUMS_ENTRY.equals(name)) {
+                        expectedCatalogHash = readChecksums(zip).get(CATALOG_ENTRY);
+                    }
+                }
+
+                if (expectedCatalogHash == null) {
+                    throw new IOException("Backup is incomplete");
+                }
+                if (!expectedCatalogHash.equals(catalogHash)) {
+                    throw new IOException("Catalog in the backup is corrupt");
+                }
+                database.setTransactionSuccessful();
+                return new Result(trackers, images);
+            } catch (SQLiteException e) {
+                throw new IOException("Backup doesn't fit the catalog", e);
+            } finally {
+                database.endTransaction();
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * Write the vendors and the trackers as JSON to the given stream, which is flushed but left
+     * open. Return the number of trackers.
+     */
+    private static int writeCatalog(SQLiteDatabase database, OutputStream out) throws IOException {
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, UTF_8));
+        writer.beginObject();
+        writer.name(KEY_FORMAT).value(FORMAT_VERSION);
+        writer.name(KEY_DATABASE_VERSION).value(database.getVersion());
+        writer.name(KEY_VENDORS);
+        writeRows(database, VendorEntry.TABLE_NAME, writer);
+        writer.name(KEY_TRACKERS);
+        int trackers = writeRows(database, TrackerEntry.TABLE_NAME, writer);
+        writer.endObject();
+        writer.flush();
+        return trackers;
+    }
+
+    /**
+     * Write every row of the given table as an array of JSON objects, and return their number.
+     * The rows are read a page at a time, in the order of their IDs, each page starting right
+     * after the last ID of the one before.
+     */
+    private static int writeRows(SQLiteDatabase database, String table, JsonWriter writer)
+            throws IOException {
+        writer.beginArray();
+        int rows = 0;
+        long lastId = Long.MIN_VALUE;
+        int pageRows;
+        do {
+            Cursor cursor = database.query(table, null, "_id>?",
+                    new String[]{String.valueOf(lastId)}, null, null, "_id",
+                    String.valueOf(PAGE_SIZE));
+            try {
+                pageRows = cursor.getCount();
+                int idColumnIndex = cursor.getColumnIndexOrThrow("_id");
+                while (cursor.moveToNext()) {
+                    writer.beginObject();
+                    for (int i = 0; i < cursor.getColumnCount(); i++) {
+                        writer.name(cursor.getColumnName(i));
+                        switch (cursor.getType(i)) {
+                            case Cursor.FIELD_TYPE_NULL:
+                                writer.nullValue();
+                                break;
+                            case Cursor.FIELD_TYPE_INTEGER:
+                                writer.value(cursor.getLong(i));
+                                break;
+                            case Cursor.FIELD_TYPE_FLOAT:
+                                writer.value(cursor.getDouble(i));
+                                break;
+                            case Cursor.FIELD_TYPE_STRING:
+                                writer.value(cursor.getString(i));
+                                break;
+                            default:
+                                throw new IOException("Cannot back up column " + table + "."
+                                        + cursor.getColumnName(i));
+                        }
+                    }
+                    writer.endObject();
+                    lastId = cursor.getLong(idColumnIndex);
+                    rows++;
+                }
+            } finally {
+                cursor.close();
+            }
+        } while (pageRows == PAGE_SIZE);
+        writer.endArray();
+        return rows;
+    }
+
+    /**
+     * Insert the vendors and the trackers read as JSON from the given stream, which is left open,
+     * and return the number of trackers.
+     */
+    private static int readCatalog(SQLiteDatabase database, InputStream in) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, UTF_8));
+        int trackers = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case KEY_FORMAT:
+                    int format = reader.nextInt();
+                    if (format != FORMAT_VERSION) {
+                        throw new IOException("Unsupported backup format " + format);
+                    }
+                    break;
+                case KEY_DATABASE_VERSION:
+                    int version = reader.nextInt();
+                    if (version > database.getVersion()) {
+                        throw new IOException("Backup was made by a newer version of the app");
+                    }
+                    break;
+                case KEY_VENDORS:
+                    readRows(database, VendorEntry.TABLE_NAME, reader);
+                    break;
+                case KEY_TRACKERS:
+                    trackers = readRows(database, TrackerEntry.TABLE_NAME, reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return trackers;
+    }
+
+    /**
+     * Insert the rows of the given table read from an array of JSON objects, and return their
+     * number. Only the columns the table has are accepted.
+     */
+    private static int readRows(SQLiteDatabase database, String table, JsonReader reader)
+            throws IOException {
+        Set<String> columns = queryColumns(database, table);
+        ContentValues values = new ContentValues();
+        int rows = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            values.clear();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String column = reader.nextName();
+                if (!columns.contains(column)) {
+                    throw new IOException("Unknown column " + table + "." + column);
+                }
+                JsonToken token = reader.peek();
+                if (token == JsonToken.NULL) {
+                    reader.nextNull();
+                    values.putNull(column);
+                } else if (token == JsonToken.NUMBER) {
+                    String number = reader.nextString();
+                    try {
+                        values.put(column, Long.parseLong(number));
+                    } catch (NumberFormatException e) {
+                        values.put(column, Double.parseDouble(number));
+                    }
+                } else {
+                    values.put(column, reader.nextString());
+                }
+            }
+            reader.endObject();
+            database.insertOrThrow(table, null, values);
+            rows++;
+        }
+        reader.endArray();
+        return rows;
+    }
+
+    /**
+     * Return the names of the columns of the given table.
+     */
+    private static Set<String> queryColumns(SQLiteDatabase database, String table) {
+        Set<String> columns = new HashSet<>();
+        Cursor cursor = database.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int nameColumnIndex = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(nameColumnIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+
+    /**
+     * Read the hashes in the format of sha256sum, keyed by entry name.
+     */
+    private static Map<String, String> readChecksums(InputStream in) throws IOException {
+        Map<String, String> checksums = new HashMap<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int separator = line.indexOf("  ");
+            if (separator != -1) {
+                checksums.put(line.substring(separator + 2), line.substring(0, separator));
+            }
+        }
+        return checksums;
+    }
+}
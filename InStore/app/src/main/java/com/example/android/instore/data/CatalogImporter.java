@@ -0,0 +1,545 @@
+package com.example.android.instore.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.example.android.instore.data.TrackerContract.ImportEntry;
+import com.example.android.instore.data.TrackerContract.TrackerEntry;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Imports a catalog of trackers from a CSV or JSON file.
+ * <p>
+ * The file is read as a stream, one record at a time, and the trackers are inserted in chunks:
+ * each chunk goes through {@link ContentResolver#applyBatch} together with an update of the
+ * import's row in {@link ImportEntry}, so a chunk and the record of its progress commit or roll
+ * back together. An import that was interrupted is picked up with the first record that wasn't
+ * committed, and no tracker is imported twice. Only the current chunk is held in memory, so the
+ * memory used doesn't grow with the size of the file.
+ * <p>
+ * A CSV file starts with a header row naming the columns; a JSON file is an array of objects.
+ * Either way a record has a name, a quantity, a price (like "12.50" or "$1,299") and a vendor
+ * email, and optionally a reorder_threshold. Records are checked with the same rules as
+ * {@link TrackerProvider#insert}, and those that fail are reported and skipped. So is a tracker
+ * the provider fails to insert: the rest of its chunk is imported all the same.
+ */
+public class CatalogImporter {
+
+    /**
+     * Number of records committed in one transaction, unless another is given
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Receives the progress of an import. Called on the importing thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called after every chunk was committed, and once when the import starts, with the
+         * position it picks up from.
+         *
+         * @param position   number of records dealt with so far, imported or rejected
+         * @param imported   number of trackers imported so far
+         * @param failed     number of records rejected so far
+         * @param bytesRead  number of bytes of the file read so far in this run
+         * @param totalBytes size of the file in bytes, or -1 if it isn't known
+         */
+        void onProgress(int position, int imported, int failed, long bytesRead, long totalBytes);
+
+        /**
+         * Called for every record that was rejected.
+         *
+         * @param record  number of the record in the file, counting from 1
+         * @param message why the record was rejected
+         */
+        void onRecordFailed(int record, String message);
+    }
+
+    /**
+     * Outcome of a completed import.
+     */
+    public static class Result {
+
+        public final int imported;
+
+        public final int failed;
+
+        Result(int imported, int failed) {
+            this.imported = imported;
+            this.failed = failed;
+        }
+    }
+
+    /**
+     * A tracker of the chunk being imported.
+     */
+    private static class ChunkRecord {
+
+        /**
+         * Number of the record in the file, counting from 1
+         */
+        final int number;
+
+        /**
+         * Number of records rejected before this one
+         */
+        final int failedBefore;
+
+        final ContentProviderOperation insert;
+
+        ChunkRecord(int number, int failedBefore, ContentProviderOperation insert) {
+            this.number = number;
+            this.failedBefore = failedBefore;
+            this.insert = insert;
+        }
+    }
+
+    /**
+     * Source of the records of a file, whatever its format.
+     */
+    private interface RecordReader extends Closeable {
+
+        /**
+         * Read the next record into the given map, keyed by lower case column name. Return false at
+         * the end of the file.
+         */
+        boolean readRecord(Map<String, String> record) throws IOException;
+    }
+
+    private final ContentResolver mResolver;
+
+    private final int mChunkSize;
+
+    private final Listener mListener;
+
+    /**
+     * @param chunkSize number of records committed in one transaction
+     */
+    public CatalogImporter(ContentResolver resolver, int chunkSize, Listener listener) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        mResolver = resolver;
+        mChunkSize = chunkSize;
+        mListener = listener;
+    }
+
+    /**
+     * Import the catalog in the given file, picking up where an interrupted import of the same
+     * file stopped. A file that was already imported completely is imported again.
+     *
+     * @throws IOException if the file can't be read or isn't a catalog, or the trackers can't be
+     *                     stored. Whatever was committed until then stays, and importing the
+     *                     file again continues from there.
+     */
+    public Result importCatalog(Uri source) throws IOException {
+        String sourceString = source.toString();
+        Uri importUri = null;
+        int position = 0;
+        int imported = 0;
+        int failed = 0;
+
+        Cursor cursor = mResolver.query(ImportEntry.CONTENT_URI,
+                new String[]{ImportEntry._ID, ImportEntry.COLUMN_POSITION,
+                        ImportEntry.COLUMN_IMPORTED, ImportEntry.COLUMN_FAILED,
+                        ImportEntry.COLUMN_FINISHED},
+                ImportEntry.COLUMN_SOURCE + "=?", new String[]{sourceString}, null);
+        if (cursor != null) {
+            try {
+                if (cursor.moveToFirst()) {
+                    importUri = ContentUris.withAppendedId(ImportEntry.CONTENT_URI, cursor.getLong(0));
+                    if (cursor.getInt(4) == 0) {
+                        position = cursor.getInt(1);
+                        imported = cursor.getInt(2);
+                        failed = cursor.getInt(3);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        ContentValues progress = new ContentValues();
+        progress.put(ImportEntry.COLUMN_POSITION, position);
+        progress.put(ImportEntry.COLUMN_IMPORTED, imported);
+        progress.put(ImportEntry.COLUMN_FAILED, failed);
+        progress.put(ImportEntry.COLUMN_FINISHED, 0);
+        if (importUri == null) {
+            progress.put(ImportEntry.COLUMN_SOURCE, sourceString);
+            importUri = mResolver.insert(ImportEntry.CONTENT_URI, progress);
+            if (importUri == null) {
+                throw new IOException("Failed to record the import of " + source);
+            }
+        } else {
+            mResolver.update(importUri, progress, null, null);
+        }
+
+        long totalBytes = getLength(source);
+        InputStream input = mResolver.openInputStream(source);
+        if (input == null) {
+            throw new IOException("Failed to open " + source);
+        }
+        CountingInputStream counter = new CountingInputStream(input);
+        RecordReader reader = null;
+        try {
+            reader = openRecordReader(counter);
+            mListener.onProgress(position, imported, failed, 0, totalBytes);
+
+            Map<String, String> record = new HashMap<>();
+            List<ChunkRecord> chunk = new ArrayList<>(mChunkSize);
+            int records = 0;
+            int chunkRecords = 0;
+            while (reader.readRecord(record)) {
+                records++;
+                // Records up to the position were committed by an earlier run
+                if (records <= position) {
+                    continue;
+                }
+                chunkRecords++;
+                try {
+                    chunk.add(new ChunkRecord(records, failed,
+                            ContentProviderOperation.newInsert(TrackerEntry.CONTENT_URI)
+                                    .withValues(toTrackerValues(record))
+                                    .build()));
+                } catch (IllegalArgumentException e) {
+                    // NumberFormatException is one too
+                    failed++;
+                    mListener.onRecordFailed(records, e.getMessage());
+                }
+
+                if (chunkRecords == mChunkSize) {
+                    position = records;
+                    int insertFailures = commitChunk(chunk, importUri, position, imported, failed,
+                            false);
+                    imported += chunk.size() - insertFailures;
+                    failed += insertFailures;
+                    chunk.clear();
+                    chunkRecords = 0;
+                    mListener.onProgress(position, imported, failed, counter.getCount(), totalBytes);
+                }
+            }
+
+            // The last chunk also marks the import as finished, even if it has no trackers
+            position = Math.max(position, records);
+            int insertFailures = commitChunk(chunk, importUri, position, imported, failed, true);
+            imported += chunk.size() - insertFailures;
+            failed += insertFailures;
+            mListener.onProgress(position, imported, failed, counter.getCount(), totalBytes);
+            return new Result(imported, failed);
+        } finally {
+            if (reader != null) {
+                reader.close();
+            } else {
+                counter.close();
+            }
+        }
+    }
+
+    /**
+     * Insert a chunk of trackers and record the progress of the import, in one transaction.
+     * <p>
+     * If the provider fails to insert any of the trackers, the chunk is inserted again a tracker
+     * at a time, each in a transaction with the progress up to it, so the trackers that fail can
+     * be reported and skipped. Return the number of them.
+     *
+     * @param position the position after the chunk
+     * @param imported the number of trackers imported before the chunk
+     * @param failed   the number of records rejected up to the position, before inserting
+     */
+    private int commitChunk(List<ChunkRecord> chunk, Uri importUri, int position, int imported,
+                            int failed, boolean finished) throws IOException {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(chunk.size() + 1);
+        for (ChunkRecord record : chunk) {
+            operations.add(record.insert);
+        }
+        operations.add(newProgressUpdate(importUri, position, imported + chunk.size(), failed,
+                finished));
+        try {
+            applyBatch(operations);
+            return 0;
+        } catch (OperationApplicationException | IllegalArgumentException | SQLException e) {
+            if (chunk.isEmpty()) {
+                throw new IOException("Failed to record the progress of the import", e);
+            }
+        }
+
+        int insertFailures = 0;
+        for (ChunkRecord record : chunk) {
+            operations.clear();
+            operations.add(record.insert);
+            operations.add(newProgressUpdate(importUri, record.number, imported + 1,
+                    record.failedBefore + insertFailures, false));
+            try {
+                applyBatch(operations);
+                imported++;
+            } catch (OperationApplicationException | IllegalArgumentException | SQLException e) {
+                insertFailures++;
+                mListener.onRecordFailed(record.number, e.getMessage());
+            }
+        }
+
+        operations.clear();
+        operations.add(newProgressUpdate(importUri, position, imported, failed + insertFailures,
+                finished));
+        try {
+            applyBatch(operations);
+        } catch (OperationApplicationException | IllegalArgumentException | SQLException e) {
+            throw new IOException("Failed to record the progress of the import", e);
+        }
+        return insertFailures;
+    }
+
+    /**
+     * Return the operation that records the given progress of the import.
+     */
+    private static ContentProviderOperation newProgressUpdate(Uri importUri, int position,
+                                                              int imported, int failed,
+                                                              boolean finished) {
+        return ContentProviderOperation.newUpdate(importUri)
+                .withValue(ImportEntry.COLUMN_POSITION, position)
+                .withValue(ImportEntry.COLUMN_IMPORTED, imported)
+                .withValue(ImportEntry.COLUMN_FAILED, failed)
+                .withValue(ImportEntry.COLUMN_FINISHED, finished ? 1 : 0)
+                .build();
+    }
+
+    private void applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws IOException, OperationApplicationException {
+        try {
+            mResolver.applyBatch(TrackerContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException e) {
+            throw new IOException("Failed to store a chunk of trackers", e);
+        }
+    }
+
+    /**
+     * Convert a record into the values of a new tracker, and check them.
+     *
+     * @throws IllegalArgumentException if the record isn't a valid tracker
+     */
+    static ContentValues toTrackerValues(Map<String, String> record) {
+        ContentValues values = new ContentValues();
+        String name = record.get(TrackerEntry.COLUMN_TRACKER_NAME);
+        if (name != null && !name.trim().isEmpty()) {
+            values.put(TrackerEntry.COLUMN_TRACKER_NAME, name.trim());
+        }
+        String quantity = record.get(TrackerEntry.COLUMN_TRACKER_QUANTITY);
+        if (quantity != null) {
+            values.put(TrackerEntry.COLUMN_TRACKER_QUANTITY, Integer.parseInt(quantity.trim()));
+        }
+        String price = record.get(TrackerEntry.COLUMN_TRACKER_PRICE);
+        if (price != null) {
+            values.put(TrackerEntry.COLUMN_TRACKER_PRICE, TrackerEntry.parsePrice(price));
+        }
+        String vendor = record.get(TrackerEntry.COLUMN_TRACKER_VENDOR);
+        if (vendor != null && !vendor.trim().isEmpty()) {
+            values.put(TrackerEntry.COLUMN_TRACKER_VENDOR, vendor.trim());
+        }
+        String threshold = record.get(TrackerEntry.COLUMN_TRACKER_REORDER_THRESHOLD);
+        if (threshold != null && !threshold.trim().isEmpty()) {
+            values.put(TrackerEntry.COLUMN_TRACKER_REORDER_THRESHOLD, Integer.parseInt(threshold.trim()));
+        }
+        TrackerProvider.checkNewTracker(values);
+        return values;
+    }
+
+    /**
+     * Return the size of the given file, or -1 if it isn't known.
+     */
+    private long getLength(Uri source) {
+        AssetFileDescriptor descriptor = null;
+        try {
+            descriptor = mResolver.openAssetFileDescriptor(source, "r");
+            return descriptor == null ? -1 : descriptor.getLength();
+        } catch (IOException | SecurityException e) {
+            return -1;
+        } finally {
+            if (descriptor != null) {
+                try {
+                    descriptor.close();
+                } catch (IOException e) {
+                    // Only the length was needed
+                }
+            }
+        }
+    }
+
+    /**
+     * Return a reader of the records in the given stream. The format is told apart by the first
+     * character: a JSON catalog starts with '[', anything else is read as CSV.
+     */
+    private static RecordReader openRecordReader(InputStream input) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(input);
+        buffered.mark(16);
+        int c;
+        do {
+            c = buffered.read();
+            // Skip whitespace and the UTF-8 byte order mark
+        } while (c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == 0xEF || c == 0xBB || c == 0xBF);
+        buffered.reset();
+
+        Reader reader = new InputStreamReader(buffered, UTF_8);
+        return c == '[' ? new JsonRecordReader(reader) : new CsvRecordReader(reader);
+    }
+
+    /**
+     * Reads the records of a CSV file, named by its header row.
+     */
+    private static class CsvRecordReader implements RecordReader {
+
+        private final CsvReader mReader;
+
+        private final List<String> mFields = new ArrayList<>();
+
+        private final List<String> mColumns = new ArrayList<>();
+
+        CsvRecordReader(Reader reader) throws IOException {
+            mReader = new CsvReader(reader);
+            if (!mReader.readRecord(mFields)) {
+                throw new IOException("The catalog is empty");
+            }
+            for (String column : mFields) {
+                mColumns.add(column.trim().toLowerCase(Locale.US));
+            }
+            if (!mColumns.contains(TrackerEntry.COLUMN_TRACKER_NAME)) {
+                throw new IOException("The catalog has no " + TrackerEntry.COLUMN_TRACKER_NAME + " column");
+            }
+        }
+
+        @Override
+        public boolean readRecord(Map<String, String> record) throws IOException {
+            record.clear();
+            if (!mReader.readRecord(mFields)) {
+                return false;
+            }
+            for (int i = 0; i < mFields.size() && i < mColumns.size(); i++) {
+                record.put(mColumns.get(i), mFields.get(i));
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mReader.close();
+        }
+    }
+
+    /**
+     * Reads the records of a JSON file, an array of objects. Strings, numbers and booleans are
+     * read as text; nulls, nested arrays and nested objects are left out.
+     */
+    private static class JsonRecordReader implements RecordReader {
+
+        private final JsonReader mReader;
+
+        JsonRecordReader(Reader reader) throws IOException {
+            mReader = new JsonReader(reader);
+            mReader.beginArray();
+        }
+
+        @Override
+        public boolean readRecord(Map<String, String> record) throws IOException {
+            record.clear();
+            if (!mReader.hasNext()) {
+                mReader.endArray();
+                return false;
+            }
+            if (mReader.peek() != JsonToken.BEGIN_OBJECT) {
+                // Counts as a record, which fails for having no name
+                mReader.skipValue();
+                return true;
+            }
+
+            mReader.beginObject();
+            while (mReader.hasNext()) {
+                String name = mReader.nextName().trim().toLowerCase(Locale.US);
+                switch (mReader.peek()) {
+                    case STRING:
+                    case NUMBER:
+                        record.put(name, mReader.nextString());
+                        break;
+                    case BOOLEAN:
+                        record.put(name, String.valueOf(mReader.nextBoolean()));
+                        break;
+                    default:
+                        mReader.skipValue();
+                        break;
+                }
+            }
+            mReader.endObject();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mReader.close();
+        }
+    }
+
+    /**
+     * Stream that counts the bytes read through it, for the progress.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,514 @@
+package com.example.android.instore.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.instore.data.TrackerContract.TrackerEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The columns of every tracker that the catalog list shows, kept in memory in parallel arrays
+ * sorted by name and ID, so a page of the list is a binary search and a copy of a few rows
+ * instead of a query. Names and image hashes are kept once each in a table of strings, and the
+ * arrays hold their index in it.
+ * <p>
+ * The provider reads the snapshot from the database on a background thread when it starts, with
+ * {@link #prepare}, or else it is read the first time a page is asked for. From then on the
+ * provider tells it which trackers changed with {@link #invalidate}, or that any of them may
+ * have, with {@link #invalidateAll}, and it reads them again before it serves the next page. A
+ * tracker that kept its name is updated in place; only a new, renamed or deleted one moves the
+ * trackers after it.
+ * Like with the {@link TrackerRowCache}, a change has to be told both when it is written and once
+ * it has committed, so a read that raced with the write is read again.
+ */
+class CatalogSnapshot {
+
+    /**
+     * The columns that pages can be served with
+     */
+    static final String[] COLUMNS = {
+            TrackerEntry._ID,
+            TrackerEntry.COLUMN_TRACKER_NAME,
+            TrackerEntry.COLUMN_TRACKER_PRICE,
+            TrackerEntry.COLUMN_TRACKER_QUANTITY,
+            TrackerEntry.COLUMN_TRACKER_IMAGE_HASH
+    };
+
+    private static final int COLUMN_ID = 0;
+
+    private static final int COLUMN_NAME = 1;
+
+    private static final int COLUMN_PRICE = 2;
+
+    private static final int COLUMN_QUANTITY = 3;
+
+    private static final int COLUMN_IMAGE_HASH = 4;
+
+    /**
+     * Most trackers read again with a single query; SQLite allows 999 arguments
+     */
+    private static final int MAX_IDS_PER_QUERY = 500;
+
+    /**
+     * The trackers, in the order of the list: by name, then by ID. Index i of every array is the
+     * i-th tracker. The arrays and the string table are guarded by this.
+     */
+    private long[] mIds = new long[0];
+
+    private int[] mNames = new int[0];
+
+    private long[] mPrices = new long[0];
+
+    private int[] mQuantities = new int[0];
+
+    /**
+     * Index of the image hash in the string table, or -1 for no image
+     */
+    private int[] mImageHashes = new int[0];
+
+    private int mCount;
+
+    /**
+     * Every distinct name and image hash, and the index of each
+     */
+    private final List<String> mStrings = new ArrayList<>();
+
+    private final Map<String, Integer> mStringIndexes = new HashMap<>();
+
+    /**
+     * Index of the name of every tracker in the string table, keyed by ID, so a tracker is found
+     * with a binary search of its name instead of a scan of the IDs
+     */
+    private final Map<Long, Integer> mNamesById = new HashMap<>();
+
+    /**
+     * Guards the changes the snapshot hasn't caught up with yet, separately from the arrays, so
+     * writers don't wait for a snapshot being read
+     */
+    private final Object mChangesLock = new Object();
+
+    /**
+     * Whether all of the snapshot has to be read again
+     */
+    private boolean mStale = true;
+
+    /**
+     * IDs of the trackers that have to be read again
+     */
+    private Set<Long> mChangedIds = new HashSet<>();
+
+    /**
+     * Read the tracker with the given ID again before the next page is served.
+     */
+    void invalidate(long id) {
+        synchronized (mChangesLock) {
+            if (!mStale) {
+                mChangedIds.add(id);
+            }
+        }
+    }
+
+    /**
+     * Read every tracker again before the next page is served.
+     */
+    void invalidateAll() {
+        synchronized (mChangesLock) {
+            mStale = true;
+            mChangedIds.clear();
+        }
+    }
+
+    /**
+     * Read whatever the snapshot has to catch up with, so the next page is served without
+     * waiting for it. Meant to run on a background thread.
+     */
+    synchronized void prepare(SQLiteDatabase database) {
+        catchUp(database);
+    }
+
+    /**
+     * Return the given columns of a page of at most the given number of trackers, ordered by name
+     * and ID, starting right after the given name and ID, or at the first tracker if the name is
+     * null. Return null if the projection asks for anything but {@link #COLUMNS} and the page key,
+     * which is the name, since the snapshot only serves pages ordered by name.
+     */
+    synchronized Cursor queryPage(SQLiteDatabase database, String[] projection, int pageSize,
+                                  String afterName, long afterId) {
+        if (projection == null) {
+            return null;
+        }
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = TrackerEntry.COLUMN_PAGE_KEY.equals(projection[i])
+                    ? COLUMN_NAME : Arrays.asList(COLUMNS).indexOf(projection[i]);
+            if (columns[i] == -1) {
+                return null;
+            }
+        }
+
+        catchUp(database);
+
+        int start = afterName == null ? 0 : findPosition(afterName, afterId);
+        if (start < mCount && afterName != null && mIds[start] == afterId
+                && compareText(afterName, mStrings.get(mNames[start])) == 0) {
+            start++;
+        }
+        int end = Math.min(mCount, start + pageSize);
+        return new PageCursor(this, projection, columns, start, end);
+    }
+
+    /**
+     * Read again what changed since the last page was served. Called with this held.
+     */
+    private void catchUp(SQLiteDatabase database) {
+        boolean stale;
+        Set<Long> changedIds;
+        synchronized (mChangesLock) {
+            stale = mStale;
+            changedIds = mChangedIds;
+            mStale = false;
+            mChangedIds = new HashSet<>();
+        }
+
+        try {
+            if (stale) {
+                load(database);
+            } else {
+                reload(database, changedIds);
+            }
+        } catch (RuntimeException e) {
+            // Whatever was read so far can't be trusted
+            invalidateAll();
+            throw e;
+        }
+    }
+
+    /**
+     * Read the given trackers again, and drop the ones that are gone. Called with this held.
+     */
+    private void reload(SQLiteDatabase database, Set<Long> changedIds) {
+        Iterator<Long> ids = changedIds.iterator();
+        while (ids.hasNext()) {
+            StringBuilder selection = new StringBuilder(TrackerEntry._ID + " IN (");
+            List<String> selectionArgs = new ArrayList<>();
+            Set<Long> goneIds = new HashSet<>();
+            while (ids.hasNext() && selectionArgs.size() < MAX_IDS_PER_QUERY) {
+                long id = ids.next();
+                selection.append(selectionArgs.isEmpty() ? "?" : ",?");
+                selectionArgs.add(String.valueOf(id));
+                goneIds.add(id);
+            }
+            selection.append(')');
+
+            Cursor cursor = database.query(TrackerEntry.TABLE_NAME, COLUMNS, selection.toString(),
+                    selectionArgs.toArray(new String[selectionArgs.size()]), null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    long id = cursor.getLong(COLUMN_ID);
+                    String name = cursor.getString(COLUMN_NAME);
+                    goneIds.remove(id);
+
+                    // A tracker that kept its name keeps its place, so only its values change
+                    int position = indexOfId(id);
+                    if (position != -1 && mStrings.get(mNames[position]).equals(name)) {
+                        set(position, cursor);
+                        continue;
+                    }
+                    if (position != -1) {
+                        remove(position);
+                    }
+                    insert(findPosition(name, id), cursor);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            for (long id : goneIds) {
+                int position = indexOfId(id);
+                if (position != -1) {
+                    remove(position);
+                }
+            }
+        }
+
+        // Renames leave names behind in the string table; start over once they pile up
+        if (mStrings.size() > 2 * mCount + 64) {
+            load(database);
+        }
+    }
+
+    /**
+     * Read all of the snapshot from the database. Called with this held.
+     */
+    private void load(SQLiteDatabase database) {
+        mCount = 0;
+        mStrings.clear();
+        mStringIndexes.clear();
+        mNamesById.clear();
+
+        Cursor cursor = database.query(TrackerEntry.TABLE_NAME, COLUMNS, null, null, null, null,
+                TrackerEntry.COLUMN_TRACKER_NAME + ", " + TrackerEntry._ID);
+        try {
+            ensureCapacity(cursor.getCount());
+            while (cursor.moveToNext()) {
+                insert(mCount, cursor);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the position of the first tracker after the given name and ID, or of the tracker
+     * with that name and ID if there is one.
+     */
+    private int findPosition(String name, long id) {
+        int low = 0;
+        int high = mCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int order = compareText(mStrings.get(mNames[middle]), name);
+            if (order == 0) {
+                order = mIds[middle] < id ? -1 : mIds[middle] == id ? 0 : 1;
+            }
+            if (order < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Return the position of the tracker with the given ID, or -1 if it isn't in the snapshot.
+     */
+    private int indexOfId(long id) {
+        Integer name = mNamesById.get(id);
+        if (name == null) {
+            return -1;
+        }
+        int position = findPosition(mStrings.get(name), id);
+        return position < mCount && mIds[position] == id ? position : -1;
+    }
+
+    /**
+     * Insert the current row of the given cursor, which has the {@link #COLUMNS}, at the given
+     * position.
+     */
+    private void insert(int position, Cursor cursor) {
+        ensureCapacity(mCount + 1);
+        int moved = mCount - position;
+        System.arraycopy(mIds, position, mIds, position + 1, moved);
+        System.arraycopy(mNames, position, mNames, position + 1, moved);
+        System.arraycopy(mPrices, position, mPrices, position + 1, moved);
+        System.arraycopy(mQuantities, position, mQuantities, position + 1, moved);
+        System.arraycopy(mImageHashes, position, mImageHashes, position + 1, moved);
+
+        mIds[position] = cursor.getLong(COLUMN_ID);
+        mNames[position] = intern(cursor.getString(COLUMN_NAME));
+        mNamesById.put(mIds[position], mNames[position]);
+        mCount++;
+        set(position, cursor);
+    }
+
+    /**
+     * Overwrite the columns that don't decide the order of the tracker at the given position with
+     * the current row of the given cursor, which has the {@link #COLUMNS}.
+     */
+    private void set(int position, Cursor cursor) {
+        mPrices[position] = cursor.getLong(COLUMN_PRICE);
+        mQuantities[position] = cursor.getInt(COLUMN_QUANTITY);
+        mImageHashes[position] = cursor.isNull(COLUMN_IMAGE_HASH)
+                ? -1 : intern(cursor.getString(COLUMN_IMAGE_HASH));
+    }
+
+    private void remove(int position) {
+        mNamesById.remove(mIds[position]);
+        int moved = mCount - position - 1;
+        System.arraycopy(mIds, position + 1, mIds, position, moved);
+        System.arraycopy(mNames, position + 1, mNames, position, moved);
+        System.arraycopy(mPrices, position + 1, mPrices, position, moved);
+        System.arraycopy(mQuantities, position + 1, mQuantities, position, moved);
+        System.arraycopy(mImageHashes, position + 1, mImageHashes, position, moved);
+        mCount--;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mIds.length) {
+            return;
+        }
+        capacity = Math.max(capacity, mIds.length * 3 / 2 + 16);
+        mIds = Arrays.copyOf(mIds, capacity);
+        mNames = Arrays.copyOf(mNames, capacity);
+        mPrices = Arrays.copyOf(mPrices, capacity);
+        mQuantities = Arrays.copyOf(mQuantities, capacity);
+        mImageHashes = Arrays.copyOf(mImageHashes, capacity);
+    }
+
+    /**
+     * Return the index of the given string in the string table, adding it if it isn't there yet.
+     */
+    private int intern(String string) {
+        Integer index = mStringIndexes.get(string);
+        if (index == null) {
+            index = mStrings.size();
+            mStrings.add(string);
+            mStringIndexes.put(string, index);
+        }
+        return index;
+    }
+
+    /**
+     * Compare two strings the way SQLite compares text by default, byte by byte in UTF-8, which
+     * is the order of their code points. String.compareTo compares UTF-16 code units, which puts
+     * characters beyond U+FFFF before some of the ones below.
+     */
+    static int compareText(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char ca = a.charAt(i);
+            char cb = b.charAt(i);
+            if (ca != cb) {
+                if (Character.isSurrogate(ca) || Character.isSurrogate(cb)) {
+                    return Integer.compare(a.codePointAt(i), b.codePointAt(i));
+                }
+                return ca - cb;
+            }
+        }
+        return a.length() - b.length();
+    }
+
+    /**
+     * A page of the snapshot. The rows are copied out when the page is created, so later changes
+     * to the snapshot don't show through; the strings are shared with the string table.
+     */
+    private static class PageCursor extends AbstractCursor {
+
+        private final String[] mColumnNames;
+
+        /**
+         * Which of the {@link #COLUMNS} each column of the page is
+         */
+        private final int[] mColumns;
+
+        private final long[] mIds;
+
+        private final String[] mNames;
+
+        private final long[] mPrices;
+
+        private final int[] mQuantities;
+
+        private final String[] mImageHashes;
+
+        PageCursor(CatalogSnapshot snapshot, String[] columnNames, int[] columns, int start, int end) {
+            mColumnNames = columnNames;
+            mColumns = columns;
+            mIds = Arrays.copyOfRange(snapshot.mIds, start, end);
+            mPrices = Arrays.copyOfRange(snapshot.mPrices, start, end);
+            mQuantities = Arrays.copyOfRange(snapshot.mQuantities, start, end);
+            mNames = new String[end - start];
+            mImageHashes = new String[end - start];
+            for (int i = start; i < end; i++) {
+                mNames[i - start] = snapshot.mStrings.get(snapshot.mNames[i]);
+                int imageHash = snapshot.mImageHashes[i];
+                mImageHashes[i - start] = imageHash == -1 ? null : snapshot.mStrings.get(imageHash);
+            }
+        }
+
+        @Override
+        public int getCount() {
+            return mIds.length;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mColumnNames;
+        }
+
+        @Override
+        public int getType(int column) {
+            switch (mColumns[column]) {
+                case COLUMN_NAME:
+                    return FIELD_TYPE_STRING;
+                case COLUMN_IMAGE_HASH:
+                    return isNull(column) ? FIELD_TYPE_NULL : FIELD_TYPE_STRING;
+                default:
+                    return FIELD_TYPE_INTEGER;
+            }
+        }
+
+        @Override
+        public String getString(int column) {
+            switch (mColumns[column]) {
+                case COLUMN_NAME:
+                    return mNames[getPosition()];
+                case COLUMN_IMAGE_HASH:
+                    return mImageHashes[getPosition()];
+                default:
+                    return String.valueOf(getLong(column));
+            }
+        }
+
+        @Override
+        public long getLong(int column) {
+            switch (mColumns[column]) {
+                case COLUMN_ID:
+                    return mIds[getPosition()];
+                case COLUMN_PRICE:
+                    return mPrices[getPosition()];
+                case COLUMN_QUANTITY:
+                    return mQuantities[getPosition()];
+                default:
+                    // Text read as a number: its value if it is one, or else 0
+                    return (long) getDouble(column);
+            }
+        }
+
+        @Override
+        public double getDouble(int column) {
+            switch (mColumns[column]) {
+                case COLUMN_NAME:
+                case COLUMN_IMAGE_HASH:
+                    String text = getString(column);
+                    try {
+                        return text == null ? 0 : Double.parseDouble(text.trim());
+                    } catch (NumberFormatException e) {
+                        return 0;
+                    }
+                default:
+                    return getLong(column);
+            }
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return mColumns[column] == COLUMN_IMAGE_HASH && mImageHashes[getPosition()] == null;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.android.instore.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Reads comma-separated values one record at a time, as described in RFC 4180: fields may be
+ * quoted, quoted fields may hold commas, line breaks and doubled quotes, and records end with
+ * CRLF, LF or CR. Blank lines are skipped.
+ * <p>
+ * Only the current record is held in memory, no field may be longer than
+ * {@link #MAX_FIELD_LENGTH} and no record have more than {@link #MAX_FIELDS}, so a file of any
+ * size is read in constant memory.
+ */
+class CsvReader implements Closeable {
+
+    /**
+     * Longest field accepted, in characters. A longer one means the file isn't what it claims to
+     * be, for instance a quote that is never closed.
+     */
+    static final int MAX_FIELD_LENGTH = 64 * 1024;
+
+    /**
+     * Most fields accepted in a record. A catalog has a handful of columns; a line of thousands of
+     * commas is not a catalog.
+     */
+    static final int MAX_FIELDS = 256;
+
+    private static final int END = -1;
+
+    private final Reader mReader;
+
+    private final StringBuilder mField = new StringBuilder();
+
+    /**
+     * Character read ahead, or {@link #NONE}
+     */
+    private int mPeeked = NONE;
+
+    private static final int NONE = -2;
+
+    /**
+     * Line the current record started on, counting from 1
+     */
+    private int mRecordLine;
+
+    private int mLine = 1;
+
+    private boolean mStarted;
+
+    CsvReader(Reader reader) {
+        mReader = reader;
+    }
+
+    /**
+     * Read the next record into the given list, replacing what it held. Return false at the end of
+     * the input.
+     */
+    boolean readRecord(List<String> fields) throws IOException {
+        fields.clear();
+        if (!mStarted) {
+            mStarted = true;
+            // Skip the byte order mark some spreadsheets write
+            if (peek() == '\uFEFF') {
+                read();
+            }
+        }
+
+        // Skip blank lines
+        int c;
+        while ((c = peek()) == '\r' || c == '\n') {
+            readLineBreak();
+        }
+        if (c == END) {
+            return false;
+        }
+
+        mRecordLine = mLine;
+        while (true) {
+            if (fields.size() == MAX_FIELDS) {
+                throw new IOException("Record on line " + mRecordLine + " has more than "
+                        + MAX_FIELDS + " fields");
+            }
+            fields.add(readField());
+            c = read();
+            if (c == ',') {
+                continue;
+            }
+            if (c == '\r' || c == '\n') {
+                unread(c);
+                readLineBreak();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Return the line the last record read started on, counting from 1.
+     */
+    int getRecordLine() {
+        return mRecordLine;
+    }
+
+    private String readField() throws IOException {
+        mField.setLength(0);
+        if (peek() != '"') {
+            int c;
+            while ((c = peek()) != ',' && c != '\r' && c != '\n' && c != END) {
+                append(read());
+            }
+            return mField.toString();
+        }
+
+        read();
+        while (true) {
+            int c = read();
+            if (c == END) {
+                throw new IOException("Quoted field starting on line " + mRecordLine + " never ends");
+            }
+            if (c == '"') {
+                if (peek() != '"') {
+                    break;
+                }
+                read();
+            } else if (c == '\n' || (c == '\r' && peek() != '\n')) {
+                mLine++;
+            }
+            append(c);
+        }
+
+        // Tolerate text between the closing quote and the next separator, as spreadsheets do
+        int c;
+        while ((c = peek()) != ',' && c != '\r' && c != '\n' && c != END) {
+            append(read());
+        }
+        return mField.toString();
+    }
+
+    private void append(int c) throws IOException {
+        if (mField.length() == MAX_FIELD_LENGTH) {
+            throw new IOException("Field on line " + mLine + " is longer than " + MAX_FIELD_LENGTH
+                    + " characters");
+        }
+        mField.append((char) c);
+    }
+
+    private void readLineBreak() throws IOException {
+        if (read() == '\r' && peek() == '\n') {
+            read();
+        }
+        mLine++;
+    }
+
+    private int peek() throws IOException {
+        if (mPeeked == NONE) {
+            mPeeked = mReader.read();
+        }
+        return mPeeked;
+    }
+
+    private int read() throws IOException {
+        int c = peek();
+        mPeeked = NONE;
+        return c;
+    }
+
+    private void unread(int c) {
+        mPeeked = c;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+}
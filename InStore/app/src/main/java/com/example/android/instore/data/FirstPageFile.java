@@ -0,0 +1,188 @@
+package com.example.android.instore.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.Log;
+
+import com.example.android.instore.data.TrackerContract.TrackerEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * A copy of the first screenful of the catalog, by name, in a small binary file, so the catalog
+ * can be shown on a cold start before the database is even opened.
+ * <p>
+ * The provider writes the file again shortly after every change of the catalog. The catalog maps
+ * it into memory and shows its rows until the first page comes from the database. The file is
+ * replaced with a rename, so a reader sees either the old or the new version; a file that is
+ * missing, or from another version of the app, is simply not shown.
+ * <p>
+ * The file holds a header of {@link #MAGIC}, {@link #FORMAT_VERSION} and the number of rows,
+ * followed by the rows: the ID, the name, the price, the quantity and the image hash, where every
+ * text is its length in UTF-8 bytes, or -1 for null, followed by those bytes.
+ */
+public class FirstPageFile {
+
+    public static final String LOG_TAG = FirstPageFile.class.getSimpleName();
+
+    /**
+     * Columns of the rows in the file, the ones the catalog list shows
+     */
+    public static final String[] COLUMNS = {
+            TrackerEntry._ID,
+            TrackerEntry.COLUMN_TRACKER_NAME,
+            TrackerEntry.COLUMN_TRACKER_PRICE,
+            TrackerEntry.COLUMN_TRACKER_QUANTITY,
+            TrackerEntry.COLUMN_TRACKER_IMAGE_HASH
+    };
+
+    /**
+     * Number of rows kept, enough to fill the screen of a large phone
+     */
+    public static final int ROWS = 20;
+
+    /**
+     * Name of the file, inside the app's cache directory
+     */
+    private static final String FILE_NAME = "first_page";
+
+    private static final int MAGIC = 0x49534650;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+
+    /**
+     * Constructs a new {@link FirstPageFile}.
+     *
+     * @param context of the app
+     */
+    public FirstPageFile(Context context) {
+        mFile = new File(context.getCacheDir(), FILE_NAME);
+    }
+
+    /**
+     * Return whether the file exists.
+     */
+    boolean exists() {
+        return mFile.exists();
+    }
+
+    /**
+     * Return a cursor over the rows of the file, with the {@link #COLUMNS}, or null if there is
+     * no file or it can't be read. The file is small and mapped into memory, so this is meant to
+     * run on the main thread, before anything else of the catalog is ready.
+     */
+    public Cursor read() {
+        MappedByteBuffer buffer;
+        try {
+            RandomAccessFile file = new RandomAccessFile(mFile, "r");
+            try {
+                FileChannel channel = file.getChannel();
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                file.close();
+            }
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to map " + mFile, e);
+            return null;
+        }
+
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            int rows = buffer.getInt();
+            if (rows < 0 || rows > ROWS) {
+                return null;
+            }
+            MatrixCursor cursor = new MatrixCursor(COLUMNS, rows);
+            for (int i = 0; i < rows; i++) {
+                long id = buffer.getLong();
+                String name = getString(buffer);
+                long price = buffer.getLong();
+                long quantity = buffer.getLong();
+                String imageHash = getString(buffer);
+                cursor.addRow(new Object[]{id, name, price, quantity, imageHash});
+            }
+            return cursor;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // Cut short, or not written by this class
+            Log.w(LOG_TAG, "Ignoring damaged " + mFile);
+            return null;
+        }
+    }
+
+    private static String getString(MappedByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid text length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Replace the file with the first {@link #ROWS} rows of the given cursor, which must have the
+     * {@link #COLUMNS}.
+     */
+    void write(Cursor cursor) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int rows = Math.min(cursor.getCount(), ROWS);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(rows);
+        cursor.moveToPosition(-1);
+        for (int i = 0; i < rows && cursor.moveToNext(); i++) {
+            out.writeLong(cursor.getLong(cursor.getColumnIndexOrThrow(TrackerEntry._ID)));
+            writeString(out, cursor.getString(cursor.getColumnIndexOrThrow(TrackerEntry.COLUMN_TRACKER_NAME)));
+            out.writeLong(cursor.getLong(cursor.getColumnIndexOrThrow(TrackerEntry.COLUMN_TRACKER_PRICE)));
+            out.writeLong(cursor.getLong(cursor.getColumnIndexOrThrow(TrackerEntry.COLUMN_TRACKER_QUANTITY)));
+            writeString(out, cursor.getString(cursor.getColumnIndexOrThrow(TrackerEntry.COLUMN_TRACKER_IMAGE_HASH)));
+        }
+        out.flush();
+
+        // Written next to the file and renamed over it, so a reader never sees half a file
+        File temporary = new File(mFile.getPath() + ".tmp");
+        FileOutputStream file = new FileOutputStream(temporary);
+        try {
+            bytes.writeTo(file);
+        } finally {
+            file.close();
+        }
+        if (!temporary.renameTo(mFile)) {
+            temporary.delete();
+            throw new IOException("Cannot replace " + mFile);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.android.instore.data;
+
+import android.content.Context;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Content-addressed store for product images.
+ * <p>
+ * Every image is kept in its own file, named after the SHA-256 hash of its bytes, so storing the
+ * same photo twice only keeps one copy. The trackers table only keeps the hash; deciding when a
+ * file is no longer referenced is up to {@link TrackerProvider}.
+ * <p>
+ * While the store is pinned, for instance by a backup that still has to copy the images it took
+ * a snapshot of, no image is deleted; the deletions wait until the last pin is released.
+ */
+public class ImageStore {
+
+    /**
+     * Name of the directory (inside the app's files directory) that holds the images
+     */
+    private static final String DIRECTORY_NAME = "images";
+
+    /**
+     * Suffix of the files that are still being written
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Directory that holds the images
+     */
+    private final File mDirectory;
+
+    /**
+     * Number of pins held, see {@link #pin()}
+     */
+    private int mPins;
+
+    /**
+     * Images whose deletion waits for the pins to be released
+     */
+    private final Set<String> mDeferredDeletes = new HashSet<>();
+
+    /**
+     * Constructs a new {@link ImageStore}.
+     *
+     * @param context of the app
+     */
+    public ImageStore(Context context) {
+        mDirectory = new File(context.getFilesDir(), DIRECTORY_NAME);
+    }
+
+    /**
+     * Store the given image bytes and return their hash.
+     */
+    public String put(byte[] image) throws IOException {
+        return put(new ByteArrayInputStream(image));
+    }
+
+    /**
+     * Store the image read from the given stream and return its hash. The stream is read to the
+     * end but not closed. If an image with the same hash is already stored it is left untouched.
+     */
+    public String put(InputStream in) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create image directory " + mDirectory);
+        }
+
+        MessageDigest digest = newDigest();
+        File temp = File.createTempFile("image", TEMP_SUFFIX, mDirectory);
+        try {
+            OutputStream out = new DigestOutputStream(new FileOutputStream(temp), digest);
+            try {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+            } finally {
+                out.close();
+            }
+
+            String hash = toHex(digest.digest());
+            File target = getFile(hash);
+
+            // Only the first copy of an image is kept; a duplicate is simply thrown away
+            if (!target.exists() && !temp.renameTo(target)) {
+                throw new IOException("Cannot store image " + hash);
+            }
+            return hash;
+        } finally {
+            if (temp.exists()) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Return the file that holds the image with the given hash. The file might not exist.
+     */
+    public File getFile(String hash) {
+        if (!isValidHash(hash)) {
+            throw new IllegalArgumentException("Invalid image hash " + hash);
+        }
+        return new File(mDirectory, hash);
+    }
+
+    /**
+     * Delete the image with the given hash. Return true if a file was removed. While the store is
+     * pinned nothing is removed; the hash is kept for {@link #takeDeferredDeletes()} instead.
+     */
+    public synchronized boolean delete(String hash) {
+        File file = getFile(hash);
+        if (mPins > 0) {
+            mDeferredDeletes.add(hash);
+            return false;
+        }
+        return file.delete();
+    }
+
+    /**
+     * Keep every image that is stored now from being deleted until {@link #unpin()}.
+     */
+    public synchronized void pin() {
+        mPins++;
+    }
+
+    /**
+     * Release a pin taken with {@link #pin()}.
+     */
+    public synchronized void unpin() {
+        if (mPins == 0) {
+            throw new IllegalStateException("Image store is not pinned");
+        }
+        mPins--;
+    }
+
+    /**
+     * Return the images whose deletion was deferred by a pin, once no pin is held anymore, and
+     * forget them. They may have been referenced again meanwhile, so check before deleting them.
+     */
+    public synchronized Set<String> takeDeferredDeletes() {
+        if (mPins > 0 || mDeferredDeletes.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<String> hashes = new HashSet<>(mDeferredDeletes);
+        mDeferredDeletes.clear();
+        return hashes;
+    }
+
+    /**
+     * Return the hashes of all the stored images.
+     */
+    public String[] listHashes() {
+        String[] names = mDirectory.list();
+        if (names == null) {
+            return new String[0];
+        }
+        int count = 0;
+        for (String name : names) {
+            // Leave out the files that are still being written
+            if (isValidHash(name)) {
+                names[count++] = name;
+            }
+        }
+        String[] hashes = new String[count];
+        System.arraycopy(names, 0, hashes, 0, count);
+        return hashes;
+    }
+
+    /**
+     * A hash is exactly 64 lower-case hex digits, which also keeps it from escaping the directory.
+     */
+    private static boolean isValidHash(String hash) {
+        if (hash == null || hash.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < hash.length(); i++) {
+            char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return a new digest of the hash that names the images.
+     */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android release ships SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Return the given digest as lower-case hex digits, as in the names of the images.
+     */
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
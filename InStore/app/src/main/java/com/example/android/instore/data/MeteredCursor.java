@@ -0,0 +1,117 @@
+package com.example.android.instore.data;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+/**
+ * Cursor that records its query in the {@link ProviderMetrics} once the rows are first asked for.
+ * <p>
+ * A query only runs once its cursor is counted or moved, and whoever gets the cursor may do that
+ * on another thread or not at all, so counting it in the provider would run every query early.
+ * This cursor waits for the first count or move instead, and records the time the provider took
+ * plus the time that first count took, leaving out the time the cursor lay unused in between. A
+ * cursor that is closed without ever being read is recorded as returning no rows.
+ */
+class MeteredCursor extends CursorWrapper {
+
+    private final ProviderMetrics mMetrics;
+
+    private final int mMatch;
+
+    /**
+     * {@link System#nanoTime()} when the query started
+     */
+    private final long mStartNanos;
+
+    /**
+     * {@link System#nanoTime()} when the provider handed the cursor out
+     */
+    private final long mReturnedNanos;
+
+    private boolean mRecorded;
+
+    /**
+     * @param cursor     the cursor the provider returns
+     * @param metrics    where to record the query
+     * @param match      the match code of the URI it ran on
+     * @param startNanos {@link System#nanoTime()} when it started
+     */
+    MeteredCursor(Cursor cursor, ProviderMetrics metrics, int match, long startNanos) {
+        super(cursor);
+        mMetrics = metrics;
+        mMatch = match;
+        mStartNanos = startNanos;
+        mReturnedNanos = System.nanoTime();
+    }
+
+    /**
+     * Count the rows, which runs the query, and record it, the first time it is called.
+     */
+    private void record() {
+        if (mRecorded) {
+            return;
+        }
+        mRecorded = true;
+        long countNanos = System.nanoTime();
+        int rows = -1;
+        try {
+            rows = getWrappedCursor().getCount();
+        } finally {
+            // Shift the start by the time the cursor lay unused, so only the work is counted
+            mMetrics.record(ProviderMetrics.OPERATION_QUERY, mMatch,
+                    mStartNanos + (countNanos - mReturnedNanos), rows, 0);
+        }
+    }
+
+    @Override
+    public int getCount() {
+        record();
+        return super.getCount();
+    }
+
+    @Override
+    public boolean move(int offset) {
+        record();
+        return super.move(offset);
+    }
+
+    @Override
+    public boolean moveToPosition(int position) {
+        record();
+        return super.moveToPosition(position);
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        record();
+        return super.moveToFirst();
+    }
+
+    @Override
+    public boolean moveToLast() {
+        record();
+        return super.moveToLast();
+    }
+
+    @Override
+    public boolean moveToNext() {
+        record();
+        return super.moveToNext();
+    }
+
+    @Override
+    public boolean moveToPrevious() {
+        record();
+        return super.moveToPrevious();
+    }
+
+    @Override
+    public void close() {
+        if (!mRecorded) {
+            mRecorded = true;
+            mMetrics.record(ProviderMetrics.OPERATION_QUERY, mMatch,
+                    mStartNanos + (System.nanoTime() - mReturnedNanos), 0, 0);
+        }
+        super.close();
+    }
+}
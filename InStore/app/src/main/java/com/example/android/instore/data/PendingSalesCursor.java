@@ -0,0 +1,90 @@
+package com.example.android.instore.data;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+import com.example.android.instore.data.TrackerContract.TrackerEntry;
+
+import java.util.Map;
+
+/**
+ * Cursor over trackers that shows the quantities net of the sales still waiting in the
+ * {@link SalesJournal}, so a sale is visible the moment it is accepted.
+ */
+class PendingSalesCursor extends CursorWrapper {
+
+    /**
+     * Units sold per tracker ID that the table doesn't reflect yet
+     */
+    private final Map<Long, Integer> mPendingSales;
+
+    private final int mIdColumnIndex;
+
+    private final int mQuantityColumnIndex;
+
+    /**
+     * Return the given cursor with the given pending sales subtracted from its quantities. The
+     * cursor is returned as it is if there is nothing to subtract, or if it lacks the ID or the
+     * quantity column.
+     */
+    static Cursor wrap(Cursor cursor, Map<Long, Integer> pendingSales) {
+        if (pendingSales == null || pendingSales.isEmpty()) {
+            return cursor;
+        }
+        int idColumnIndex = cursor.getColumnIndex(TrackerEntry._ID);
+        int quantityColumnIndex = cursor.getColumnIndex(TrackerEntry.COLUMN_TRACKER_QUANTITY);
+        if (idColumnIndex == -1 || quantityColumnIndex == -1) {
+            return cursor;
+        }
+        return new PendingSalesCursor(cursor, pendingSales, idColumnIndex, quantityColumnIndex);
+    }
+
+    private PendingSalesCursor(Cursor cursor, Map<Long, Integer> pendingSales, int idColumnIndex,
+                               int quantityColumnIndex) {
+        super(cursor);
+        mPendingSales = pendingSales;
+        mIdColumnIndex = idColumnIndex;
+        mQuantityColumnIndex = quantityColumnIndex;
+    }
+
+    /**
+     * Return the quantity of the current row, net of its pending sales. Never negative, like the
+     * stored quantity.
+     */
+    private long getNetQuantity() {
+        long quantity = super.getLong(mQuantityColumnIndex);
+        Integer pending = mPendingSales.get(super.getLong(mIdColumnIndex));
+        return pending == null ? quantity : Math.max(0, quantity - pending);
+    }
+
+    @Override
+    public short getShort(int columnIndex) {
+        return columnIndex == mQuantityColumnIndex ? (short) getNetQuantity() : super.getShort(columnIndex);
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return columnIndex == mQuantityColumnIndex ? (int) getNetQuantity() : super.getInt(columnIndex);
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        return columnIndex == mQuantityColumnIndex ? getNetQuantity() : super.getLong(columnIndex);
+    }
+
+    @Override
+    public float getFloat(int columnIndex) {
+        return columnIndex == mQuantityColumnIndex ? getNetQuantity() : super.getFloat(columnIndex);
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+        return columnIndex == mQuantityColumnIndex ? getNetQuantity() : super.getDouble(columnIndex);
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        return columnIndex == mQuantityColumnIndex
+                ? String.valueOf(getNetQuantity()) : super.getString(columnIndex);
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.android.instore.data;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the operations of the provider and how long they took, per operation and per URI match
+ * code: how many ran, how many failed, the rows they affected or returned, the bytes they
+ * returned, their total and longest latency, and a histogram of their latencies.
+ * <p>
+ * Recording an operation is a handful of atomic additions into arrays that are allocated up front,
+ * so it doesn't allocate or take a lock and can stay on in the field. The figures are read, and
+ * optionally reset, with {@link #read}. Figures recorded while they are read may land in either
+ * the figures read or the ones after the reset, but none are lost.
+ */
+class ProviderMetrics {
+
+    static final int OPERATION_QUERY = 0;
+
+    static final int OPERATION_INSERT = 1;
+
+    static final int OPERATION_UPDATE = 2;
+
+    static final int OPERATION_DELETE = 3;
+
+    static final int OPERATION_OPEN_FILE = 4;
+
+    private static final String[] OPERATION_NAMES = {"query", "insert", "update", "delete", "open_file"};
+
+    /**
+     * Number of buckets of every latency histogram. Bucket 0 counts the operations that took less
+     * than a microsecond, bucket i the ones that took from 2^(i-1) up to 2^i microseconds, and the
+     * last bucket everything from 2^22 microseconds on, about 4 seconds.
+     */
+    static final int HISTOGRAM_BUCKETS = TrackerContract.METRICS_HISTOGRAM_BUCKETS;
+
+    /**
+     * Name of the series of the operations on a URI that matched none of the match codes
+     */
+    static final String UNMATCHED_NAME = "unmatched";
+
+    /**
+     * The match codes the figures are kept for, in ascending order, and their names. The slot
+     * after the last code holds the operations on any other code.
+     */
+    private final int[] mMatchCodes;
+
+    private final String[] mMatchNames;
+
+    private final AtomicLongArray mCounts;
+
+    private final AtomicLongArray mErrors;
+
+    private final AtomicLongArray mRows;
+
+    private final AtomicLongArray mBytes;
+
+    private final AtomicLongArray mTotalNanos;
+
+    private final AtomicLongArray mMaxNanos;
+
+    private final AtomicLongArray mHistograms;
+
+    /**
+     * When the figures started counting, in {@link SystemClock#elapsedRealtime()} milliseconds
+     */
+    private final AtomicLong mStartTime = new AtomicLong(SystemClock.elapsedRealtime());
+
+    /**
+     * @param matchCodes the match codes to keep figures for, in ascending order. Operations on
+     *                   any other code, such as {@link android.content.UriMatcher#NO_MATCH}, are
+     *                   counted apart, under {@link #UNMATCHED_NAME}.
+     * @param matchNames the names of the match codes, in the same order
+     */
+    ProviderMetrics(int[] matchCodes, String[] matchNames) {
+        if (matchCodes.length != matchNames.length) {
+            throw new IllegalArgumentException("Every match code requires a name");
+        }
+        mMatchCodes = matchCodes.clone();
+        mMatchNames = Arrays.copyOf(matchNames, matchNames.length + 1);
+        mMatchNames[matchNames.length] = UNMATCHED_NAME;
+
+        int series = mMatchNames.length * OPERATION_NAMES.length;
+        mCounts = new AtomicLongArray(series);
+        mErrors = new AtomicLongArray(series);
+        mRows = new AtomicLongArray(series);
+        mBytes = new AtomicLongArray(series);
+        mTotalNanos = new AtomicLongArray(series);
+        mMaxNanos = new AtomicLongArray(series);
+        mHistograms = new AtomicLongArray(series * HISTOGRAM_BUCKETS);
+    }
+
+    /**
+     * Record an operation that has just finished.
+     *
+     * @param operation  one of the OPERATION_ constants
+     * @param match      the match code of the URI it ran on
+     * @param startNanos {@link System#nanoTime()} when it started
+     * @param rows       the rows it affected or returned, or a negative number if it failed
+     * @param bytes      the bytes it returned, if any
+     */
+    void record(int operation, int match, long startNanos, long rows, long bytes) {
+        long nanos = System.nanoTime() - startNanos;
+        int slot = Arrays.binarySearch(mMatchCodes, match);
+        if (slot < 0) {
+            slot = mMatchCodes.length;
+        }
+        int series = slot * OPERATION_NAMES.length + operation;
+
+        mCounts.incrementAndGet(series);
+        if (rows < 0) {
+            mErrors.incrementAndGet(series);
+        } else {
+            mRows.addAndGet(series, rows);
+        }
+        mBytes.addAndGet(series, bytes);
+        mTotalNanos.addAndGet(series, nanos);
+        long max;
+        do {
+            max = mMaxNanos.get(series);
+        } while (nanos > max && !mMaxNanos.compareAndSet(series, max, nanos));
+        mHistograms.incrementAndGet(series * HISTOGRAM_BUCKETS + getBucket(nanos));
+    }
+
+    /**
+     * Return the histogram bucket of the given latency.
+     */
+    static int getBucket(long nanos) {
+        long micros = nanos / 1000;
+        return Math.min(64 - Long.numberOfLeadingZeros(micros), HISTOGRAM_BUCKETS - 1);
+    }
+
+    /**
+     * Return the figures of every operation that ran at least once, as described by
+     * {@link TrackerContract#METHOD_METRICS}, and start counting from zero if asked to.
+     */
+    Bundle read(boolean reset) {
+        long now = SystemClock.elapsedRealtime();
+        long startTime = reset ? mStartTime.getAndSet(now) : mStartTime.get();
+
+        List<Integer> used = new ArrayList<>();
+        for (int series = 0; series < mCounts.length(); series++) {
+            if (mCounts.get(series) != 0) {
+                used.add(series);
+            }
+        }
+
+        int size = used.size();
+        String[] names = new String[size];
+        long[] counts = new long[size];
+        long[] errors = new long[size];
+        long[] rows = new long[size];
+        long[] bytes = new long[size];
+        long[] totalNanos = new long[size];
+        long[] maxNanos = new long[size];
+        long[] histograms = new long[size * HISTOGRAM_BUCKETS];
+        for (int i = 0; i < size; i++) {
+            int series = used.get(i);
+            names[i] = getName(series);
+            counts[i] = read(mCounts, series, reset);
+            errors[i] = read(mErrors, series, reset);
+            rows[i] = read(mRows, series, reset);
+            bytes[i] = read(mBytes, series, reset);
+            totalNanos[i] = read(mTotalNanos, series, reset);
+            maxNanos[i] = read(mMaxNanos, series, reset);
+            for (int bucket = 0; bucket < HISTOGRAM_BUCKETS; bucket++) {
+                histograms[i * HISTOGRAM_BUCKETS + bucket] =
+                        read(mHistograms, series * HISTOGRAM_BUCKETS + bucket, reset);
+            }
+        }
+
+        Bundle bundle = new Bundle();
+        bundle.putLong(TrackerContract.EXTRA_METRICS_DURATION_MS, now - startTime);
+        bundle.putStringArray(TrackerContract.EXTRA_METRICS_NAMES, names);
+        bundle.putLongArray(TrackerContract.EXTRA_METRICS_COUNTS, counts);
+        bundle.putLongArray(TrackerContract.EXTRA_METRICS_ERRORS, errors);
+        bundle.putLongArray(TrackerContract.EXTRA_METRICS_ROWS, rows);
+        bundle.putLongArray(TrackerContract.EXTRA_METRICS_BYTES, bytes);
+        bundle.putLongArray(TrackerContract.EXTRA_METRICS_TOTAL_NANOS, totalNanos);
+        bundle.putLongArray(TrackerContract.EXTRA_METRICS_MAX_NANOS, maxNanos);
+        bundle.putLongArray(TrackerContract.EXTRA_METRICS_HISTOGRAMS, histograms);
+        return bundle;
+    }
+
+    private static long read(AtomicLongArray array, int index, boolean reset) {
+        return reset ? array.getAndSet(index, 0) : array.get(index);
+    }
+
+    /**
+     * Return the name of the given series, such as "query trackers/#".
+     */
+    private String getName(int series) {
+        return OPERATION_NAMES[series % OPERATION_NAMES.length] + " "
+                + mMatchNames[series / OPERATION_NAMES.length];
+    }
+
+    /**
+     * Print the figures of every operation that ran at least once, a line each, with the mean and
+     * the longest latency in milliseconds.
+     */
+    void dump(PrintWriter writer) {
+        writer.println("Operations in the last "
+                + (SystemClock.elapsedRealtime() - mStartTime.get()) + " ms:");
+        for (int series = 0; series < mCounts.length(); series++) {
+            long count = mCounts.get(series);
+            if (count == 0) {
+                continue;
+            }
+            writer.printf("  %-28s count=%d errors=%d rows=%d bytes=%d mean=%.3fms max=%.3fms%n",
+                    getName(series), count, mErrors.get(series), mRows.get(series),
+                    mBytes.get(series), mTotalNanos.get(series) / 1e6 / count,
+                    mMaxNanos.get(series) / 1e6);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.android.instore.data;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the sales that have been accepted but not yet applied to the trackers table.
+ * <p>
+ * Appending a sale is a single write into the file, which survives the process dying right
+ * after. Forcing the file to the disk is left to {@link #sync()}, so a burst of sales shares one
+ * fsync. Every record carries a sequence number and a checksum; a record that was only partly
+ * written when the process died fails its checksum and is dropped, together with anything after
+ * it, when the journal is read back.
+ */
+public class SalesJournal {
+
+    public static final String LOG_TAG = SalesJournal.class.getSimpleName();
+
+    /**
+     * Size of a record: sequence number (8 bytes), tracker ID (8), count (4) and checksum (4)
+     */
+    private static final int RECORD_SIZE = 24;
+
+    /**
+     * A single sale read back from the journal.
+     */
+    public static class Sale {
+
+        public final long sequence;
+
+        public final long id;
+
+        public final int count;
+
+        Sale(long sequence, long id, int count) {
+            this.sequence = sequence;
+            this.id = id;
+            this.count = count;
+        }
+    }
+
+    private final RandomAccessFile mFile;
+
+    private final ByteBuffer mRecord = ByteBuffer.allocate(RECORD_SIZE);
+
+    private final CRC32 mChecksum = new CRC32();
+
+    /**
+     * Sequence number of the last record appended, or read back
+     */
+    private long mLastSequence;
+
+    /**
+     * Opens the journal in the given file, creating it if needed.
+     */
+    public SalesJournal(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "rw");
+    }
+
+    /**
+     * Read back every complete record, and cut off whatever follows the last one. Must be called
+     * once, before the first {@link #append}.
+     *
+     * @param appliedSequence the sequence number up to which the sales were already applied;
+     *                        new records continue after it
+     */
+    public synchronized List<Sale> readAll(long appliedSequence) throws IOException {
+        List<Sale> sales = new ArrayList<>();
+        mLastSequence = appliedSequence;
+
+        byte[] bytes = new byte[RECORD_SIZE];
+        long length = 0;
+        mFile.seek(0);
+        while (length + RECORD_SIZE <= mFile.length()) {
+            mFile.readFully(bytes);
+            ByteBuffer record = ByteBuffer.wrap(bytes);
+            long sequence = record.getLong();
+            long id = record.getLong();
+            int count = record.getInt();
+            if (record.getInt() != checksum(bytes)) {
+                Log.w(LOG_TAG, "Dropping torn journal record at " + length);
+                break;
+            }
+            sales.add(new Sale(sequence, id, count));
+            mLastSequence = Math.max(mLastSequence, sequence);
+            length += RECORD_SIZE;
+        }
+
+        // Drop the torn tail, so new records follow the last complete one
+        mFile.setLength(length);
+        mFile.seek(length);
+        return sales;
+    }
+
+    /**
+     * Append a sale and return its sequence number. The record is in the file when this returns.
+     */
+    public synchronized long append(long id, int count) throws IOException {
+        long sequence = mLastSequence + 1;
+        mRecord.clear();
+        mRecord.putLong(sequence).putLong(id).putInt(count);
+        mRecord.putInt(checksum(mRecord.array()));
+        mFile.write(mRecord.array());
+        mLastSequence = sequence;
+        return sequence;
+    }
+
+    /**
+     * Return the sequence number of the last record.
+     */
+    public synchronized long getLastSequence() {
+        return mLastSequence;
+    }
+
+    /**
+     * Force the records appended so far to the disk.
+     */
+    public void sync() throws IOException {
+        mFile.getFD().sync();
+    }
+
+    /**
+     * Drop every record, if the last one has the given sequence number. Called once all of them
+     * were applied; if a sale was appended in the meantime the records stay until the next time.
+     */
+    public synchronized void truncate(long lastAppliedSequence) throws IOException {
+        if (mLastSequence == lastAppliedSequence) {
+            mFile.setLength(0);
+            mFile.seek(0);
+        }
+    }
+
+    /**
+     * Checksum of the record in the given bytes, leaving out the checksum itself.
+     */
+    private int checksum(byte[] record) {
+        mChecksum.reset();
+        mChecksum.update(record, 0, RECORD_SIZE - 4);
+        return (int) mChecksum.getValue();
+    }
+}
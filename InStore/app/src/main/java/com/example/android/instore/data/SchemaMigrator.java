@@ -0,0 +1,465 @@
+package com.example.android.instore.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Upgrades the database through an ordered list of versioned steps.
+ * <p>
+ * Most steps are quick schema changes, which run inside the upgrade, on whatever thread opens the
+ * database. A step that would have to rewrite a lot of data is a {@link BackgroundStep} instead:
+ * the upgrade only runs its quick part and records it as pending, and the rest runs afterwards on
+ * a background thread, a chunk of a bounded number of rows per transaction, with a pause between
+ * two chunks. Every chunk commits together with the position to continue from, in the migrations
+ * table, so a migration that is cut short, even by the process dying, continues where it left off
+ * the next time the database is opened. Until a background step is done, the database still has
+ * the layout from before it, which the provider keeps reading and writing.
+ * <p>
+ * The writes of the app wait for at most one chunk. So do the queries without write-ahead
+ * logging, where there is a single connection; with it, they keep reading the last committed
+ * state on connections of their own.
+ * <p>
+ * A background step is finished on the spot before any later step runs, so every step finds the
+ * database as the steps before it left it. Only the last steps of an upgrade are ever left to the
+ * background, so a step can only be a background step if the provider of its version can work
+ * with the layout from before it.
+ */
+class SchemaMigrator {
+
+    private static final String LOG_TAG = SchemaMigrator.class.getSimpleName();
+
+    /**
+     * Name of the table that holds the background steps that are still pending, a row each
+     */
+    static final String MIGRATIONS_TABLE_NAME = "migrations";
+
+    /**
+     * Name of the pending step, see {@link BackgroundStep#getName()}.
+     * <p>
+     * Type: TEXT
+     */
+    static final String COLUMN_NAME = "name";
+
+    /**
+     * Position the pending step continues from, which only the step itself interprets.
+     * <p>
+     * Type: INTEGER
+     */
+    static final String COLUMN_POSITION = "position";
+
+    /**
+     * Returned by {@link BackgroundStep#migrateChunk} once there is nothing left to do
+     */
+    static final long DONE = -1;
+
+    /**
+     * How long the background thread pauses between two chunks, so the writes of the app don't
+     * have to wait for a whole migration
+     */
+    private static final long CHUNK_PAUSE_MS = 50;
+
+    /**
+     * A step of the upgrade to a version of the database.
+     */
+    abstract static class Step {
+
+        private final int mVersion;
+
+        /**
+         * @param version the version of the database the step upgrades to
+         */
+        Step(int version) {
+            mVersion = version;
+        }
+
+        int getVersion() {
+            return mVersion;
+        }
+
+        /**
+         * Make the changes of this version. Runs inside the upgrade's transaction.
+         */
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    /**
+     * A step whose expensive part runs in the background, after the upgrade, in chunks.
+     * {@link #migrate} runs the quick part, if any, inside the upgrade. Most steps that rewrite
+     * rows are a {@link TableRebuildStep}.
+     */
+    abstract static class BackgroundStep extends Step {
+
+        private final String mName;
+
+        /**
+         * @param version the version of the database the step upgrades to
+         * @param name    the name the step's progress is kept under; it must never change once
+         *                the step has shipped
+         */
+        BackgroundStep(int version, String name) {
+            super(version);
+            mName = name;
+        }
+
+        String getName() {
+            return mName;
+        }
+
+        @Override
+        void migrate(SQLiteDatabase db) {
+        }
+
+        /**
+         * Do the next chunk of the step. Runs inside a transaction, which also records the
+         * position returned, so the chunk must only write to the database. A chunk must stay
+         * small enough that the writes of the app can wait for it, and must leave the database
+         * usable by both the old and the new code.
+         *
+         * @param position 0 for the first chunk, and then what the chunk before returned
+         * @return the position of the next chunk, or {@link #DONE} if this was the last one
+         */
+        abstract long migrateChunk(SQLiteDatabase db, long position);
+    }
+
+    /**
+     * A background step that rebuilds a table into a copy with a new definition, such as other
+     * indexes, a bounded number of rows per chunk, and swaps the copy in with the last chunk.
+     * <p>
+     * The quick part creates the empty copy with all of its indexes, and triggers that repeat
+     * every write of the app to the table on the copy. Every chunk then copies the next rows in
+     * the order of their IDs, skipping the ones a trigger already copied, and returns the ID the
+     * next chunk starts at. An index of the copy grows by the rows of each chunk rather than being
+     * built in one go. The last chunk copies what is left, drops the table and gives the copy its
+     * name, which only touches the schema and frees the pages of the old table.
+     * <p>
+     * The app keeps writing rows of the old definition until then, so the copy must be able to
+     * hold them as they are.
+     */
+    abstract static class TableRebuildStep extends BackgroundStep {
+
+        private final String mTable;
+
+        private final String mCopy;
+
+        private final String mIdColumn;
+
+        private final int mChunkRows;
+
+        /**
+         * @param version   the version of the database the step upgrades to
+         * @param name      the name the step's progress is kept under
+         * @param table     the table to rebuild
+         * @param idColumn  the INTEGER PRIMARY KEY column of the table
+         * @param chunkRows the number of rows a chunk copies
+         */
+        TableRebuildStep(int version, String name, String table, String idColumn, int chunkRows) {
+            super(version, name);
+            mTable = table;
+            mCopy = table + "_copy";
+            mIdColumn = idColumn;
+            mChunkRows = chunkRows;
+        }
+
+        /**
+         * Create the copy, under the given name, with the new definition and all of its indexes.
+         */
+        abstract void createCopy(SQLiteDatabase db, String copy);
+
+        /**
+         * Return the columns of the table, which the copy has as well, the ID among them.
+         */
+        abstract String[] getColumns();
+
+        /**
+         * Drop the table, give the copy, which has every row by now, the table's name, and
+         * create again what went away with the table, such as its triggers.
+         */
+        abstract void replaceTable(SQLiteDatabase db, String copy);
+
+        @Override
+        void migrate(SQLiteDatabase db) {
+            createCopy(db, mCopy);
+
+            // A row the app inserts is copied right away, and an update or a delete is repeated
+            // on the copy, where it only finds the rows that were copied already
+            String[] columns = getColumns();
+            StringBuilder newValues = new StringBuilder();
+            StringBuilder assignments = new StringBuilder();
+            for (String column : columns) {
+                if (newValues.length() > 0) {
+                    newValues.append(", ");
+                    assignments.append(", ");
+                }
+                newValues.append("new.").append(column);
+                assignments.append(column).append(" = new.").append(column);
+            }
+            db.execSQL("CREATE TRIGGER " + mCopy + "_insert AFTER INSERT ON " + mTable + " BEGIN "
+                    + "INSERT INTO " + mCopy + " (" + TextUtils.join(", ", columns) + ") VALUES ("
+                    + newValues + "); END");
+            db.execSQL("CREATE TRIGGER " + mCopy + "_update AFTER UPDATE ON " + mTable + " BEGIN "
+                    + "UPDATE " + mCopy + " SET " + assignments + " WHERE " + mIdColumn + " = old."
+                    + mIdColumn + "; END");
+            db.execSQL("CREATE TRIGGER " + mCopy + "_delete AFTER DELETE ON " + mTable + " BEGIN "
+                    + "DELETE FROM " + mCopy + " WHERE " + mIdColumn + " = old." + mIdColumn + "; END");
+        }
+
+        @Override
+        long migrateChunk(SQLiteDatabase db, long position) {
+            // The chunk ends where the one after it starts, unless fewer rows than a chunk are left
+            long next = DONE;
+            Cursor cursor = db.rawQuery("SELECT " + mIdColumn + " FROM " + mTable + " WHERE "
+                    + mIdColumn + " >= ? ORDER BY " + mIdColumn + " LIMIT 1 OFFSET " + mChunkRows,
+                    new String[]{String.valueOf(position)});
+            try {
+                if (cursor.moveToFirst()) {
+                    next = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            String columns = TextUtils.join(", ", getColumns());
+            String range = mIdColumn + " >= " + position
+                    + (next == DONE ? "" : " AND " + mIdColumn + " < " + next);
+            db.execSQL("INSERT INTO " + mCopy + " (" + columns + ") SELECT " + columns + " FROM "
+                    + mTable + " WHERE " + range + " AND NOT EXISTS (SELECT 1 FROM " + mCopy
+                    + " WHERE " + mCopy + "." + mIdColumn + " = " + mTable + "." + mIdColumn + ")");
+
+            if (next == DONE) {
+                db.execSQL("DROP TRIGGER " + mCopy + "_insert");
+                db.execSQL("DROP TRIGGER " + mCopy + "_update");
+                db.execSQL("DROP TRIGGER " + mCopy + "_delete");
+                replaceTable(db, mCopy);
+            }
+            return next;
+        }
+    }
+
+    private final List<Step> mSteps;
+
+    /**
+     * The background steps, keyed by name
+     */
+    private final Map<String, BackgroundStep> mBackgroundSteps = new HashMap<>();
+
+    /**
+     * Runs the background steps, one at a time
+     */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Whether the background steps were looked for since the database was opened. Guarded by this.
+     */
+    private boolean mResumed;
+
+    /**
+     * @param steps every step, in ascending order of version
+     */
+    SchemaMigrator(Step... steps) {
+        mSteps = Arrays.asList(steps);
+        int version = 0;
+        for (Step step : mSteps) {
+            if (step.getVersion() <= version) {
+                throw new IllegalArgumentException("Steps must be in ascending order of version");
+            }
+            version = step.getVersion();
+            if (step instanceof BackgroundStep) {
+                BackgroundStep backgroundStep = (BackgroundStep) step;
+                mBackgroundSteps.put(backgroundStep.getName(), backgroundStep);
+            }
+        }
+    }
+
+    /**
+     * Create the migrations table of a new database, which has nothing pending.
+     */
+    static void createMigrationsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + MIGRATIONS_TABLE_NAME + " ("
+                + COLUMN_NAME + " TEXT PRIMARY KEY, "
+                + COLUMN_POSITION + " INTEGER NOT NULL DEFAULT 0);");
+    }
+
+    /**
+     * Run the steps from the given version up, and record the background steps among them as
+     * pending. Called from {@link SQLiteOpenHelper#onUpgrade}.
+     */
+    void upgrade(SQLiteDatabase db, int oldVersion) {
+        createMigrationsTable(db);
+        for (Step step : mSteps) {
+            if (step.getVersion() <= oldVersion) {
+                continue;
+            }
+
+            // A step expects the steps before it to be done
+            finishPending(db);
+            step.migrate(db);
+            if (step instanceof BackgroundStep) {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_NAME, ((BackgroundStep) step).getName());
+                values.put(COLUMN_POSITION, 0);
+                db.insertWithOnConflict(MIGRATIONS_TABLE_NAME, null, values,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+            }
+        }
+    }
+
+    /**
+     * Run what is left of every pending background step right away.
+     */
+    private void finishPending(SQLiteDatabase db) {
+        for (Map.Entry<String, Long> pending : readPending(db).entrySet()) {
+            BackgroundStep step = mBackgroundSteps.get(pending.getKey());
+            finish(db, step, pending.getValue());
+            db.delete(MIGRATIONS_TABLE_NAME, COLUMN_NAME + "=?", new String[]{step.getName()});
+        }
+    }
+
+    /**
+     * Run the given background step from the given position to the end, within the transaction
+     * of the caller.
+     */
+    private static void finish(SQLiteDatabase db, BackgroundStep step, long position) {
+        while (position != DONE) {
+            position = step.migrateChunk(db, position);
+        }
+    }
+
+    /**
+     * Continue the pending background steps, if any, in the background. Called from
+     * {@link SQLiteOpenHelper#onOpen}, so the steps pick up where they left off every time the
+     * database is opened.
+     */
+    void resume(final SQLiteOpenHelper helper, SQLiteDatabase db) {
+        synchronized (this) {
+            if (mResumed) {
+                return;
+            }
+            mResumed = true;
+        }
+        if (readPending(db).isEmpty()) {
+            return;
+        }
+
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runPending(helper.getWritableDatabase());
+                    } catch (SQLiteException e) {
+                        // Left pending, to be continued the next time the database is opened
+                        Log.e(LOG_TAG, "Failed to migrate the database", e);
+                    } catch (InterruptedException e) {
+                        // The database is being closed; the steps continue the next time it opens
+                    } finally {
+                        synchronized (SchemaMigrator.this) {
+                            mResumed = false;
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The database is being closed
+        }
+    }
+
+    /**
+     * Run every pending background step, a chunk per transaction.
+     */
+    void runPending(SQLiteDatabase db) throws InterruptedException {
+        for (Map.Entry<String, Long> pending : readPending(db).entrySet()) {
+            BackgroundStep step = mBackgroundSteps.get(pending.getKey());
+            String[] whereArgs = {step.getName()};
+            long position = pending.getValue();
+            long startMillis = System.currentTimeMillis();
+            int chunks = 0;
+            while (position != DONE) {
+                db.beginTransaction();
+                try {
+                    position = step.migrateChunk(db, position);
+                    if (position == DONE) {
+                        db.delete(MIGRATIONS_TABLE_NAME, COLUMN_NAME + "=?", whereArgs);
+                    } else {
+                        ContentValues values = new ContentValues();
+                        values.put(COLUMN_POSITION, position);
+                        db.update(MIGRATIONS_TABLE_NAME, values, COLUMN_NAME + "=?", whereArgs);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                chunks++;
+
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (position != DONE) {
+                    Thread.sleep(CHUNK_PAUSE_MS);
+                }
+            }
+            Log.v(LOG_TAG, "Migrated " + step.getName() + " in " + chunks + " chunks and "
+                    + (System.currentTimeMillis() - startMillis) + " ms");
+        }
+    }
+
+    /**
+     * Return the position of every pending background step, keyed by name, in the order of their
+     * versions.
+     */
+    private Map<String, Long> readPending(SQLiteDatabase db) {
+        Map<String, Long> positions = new HashMap<>();
+        Cursor cursor = db.query(MIGRATIONS_TABLE_NAME, new String[]{COLUMN_NAME, COLUMN_POSITION},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                positions.put(cursor.getString(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Map<String, Long> pending = new LinkedHashMap<>();
+        for (Step step : mSteps) {
+            if (step instanceof BackgroundStep) {
+                String name = ((BackgroundStep) step).getName();
+                if (positions.containsKey(name)) {
+                    pending.put(name, positions.remove(name));
+                }
+            }
+        }
+        if (!positions.isEmpty()) {
+            Log.w(LOG_TAG, "Ignoring unknown migrations " + positions.keySet());
+        }
+        return pending;
+    }
+
+    /**
+     * Return the names of the background steps that are still pending, for diagnostics.
+     */
+    List<String> getPending(SQLiteDatabase db) {
+        return new ArrayList<>(readPending(db).keySet());
+    }
+
+    /**
+     * Stop running background steps. A chunk that is running is rolled back, or commits and is
+     * the last one; either way its step continues the next time the database is opened.
+     */
+    void shutdown() {
+        mExecutor.shutdownNow();
+    }
+}
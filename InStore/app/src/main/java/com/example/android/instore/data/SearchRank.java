@@ -0,0 +1,55 @@
+package com.example.android.instore.data;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Relevance of a row that matched a full-text query, computed from the matchinfo() of the row.
+ * <p>
+ * Every word of the query adds, for every column it was found in, the number of times it was
+ * found in the row divided by the number of times it was found in all the rows. A row that
+ * matches more of the words, or matches a word that is rare in the catalog, scores higher.
+ * SQLite can't rank with a function of the app on Android, so the rank is computed here, from
+ * the matchinfo() read with {@link #MATCHINFO_FORMAT}.
+ */
+final class SearchRank {
+
+    /**
+     * The matchinfo() format the score is computed from: the number of phrases, the number of
+     * columns, and the hits of every phrase in every column
+     */
+    static final String MATCHINFO_FORMAT = "pcx";
+
+    private SearchRank() {
+    }
+
+    /**
+     * Return the score of the row with the given matchinfo(), at least 0.
+     *
+     * @throws IllegalArgumentException if the matchinfo() is not in {@link #MATCHINFO_FORMAT}
+     */
+    static double score(byte[] matchinfo) {
+        // matchinfo() is an array of unsigned 32-bit integers in the byte order of the device
+        IntBuffer values = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+        if (values.limit() < 2) {
+            throw new IllegalArgumentException("Invalid matchinfo of " + matchinfo.length + " bytes");
+        }
+        int phrases = values.get(0);
+        int columns = values.get(1);
+        if (values.limit() != 2 + 3 * phrases * columns) {
+            throw new IllegalArgumentException("Invalid matchinfo for " + phrases + " phrases in "
+                    + columns + " columns");
+        }
+
+        double score = 0;
+        for (int i = 0; i < phrases * columns; i++) {
+            int hitsInRow = values.get(2 + 3 * i);
+            int hitsInAllRows = values.get(3 + 3 * i);
+            if (hitsInRow > 0) {
+                score += (double) hitsInRow / hitsInAllRows;
+            }
+        }
+        return score;
+    }
+}
@@ -0,0 +1,256 @@
+package com.example.android.instore.data;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Size-bounded disk cache of product image thumbnails.
+ * <p>
+ * Thumbnails are derived from the originals in the {@link ImageStore}, so they live in the app's
+ * cache directory and are simply created again if they were evicted. When the cache grows past
+ * its byte budget the least recently used thumbnails are deleted.
+ * <p>
+ * Thumbnails are read and created on several threads at once. The slow part, decoding and
+ * compressing, runs unlocked into a temporary file; everything that touches the size or the
+ * use times of the published thumbnails runs while holding the lock of the cache.
+ */
+public class ThumbnailCache {
+
+    public static final String LOG_TAG = ThumbnailCache.class.getSimpleName();
+
+    /**
+     * Name of the directory (inside the app's cache directory) that holds the thumbnails
+     */
+    private static final String DIRECTORY_NAME = "thumbnails";
+
+    /**
+     * Byte budget of the cache
+     */
+    private static final long MAX_BYTES = 32L * 1024 * 1024;
+
+    private static final int JPEG_QUALITY = 85;
+
+    /**
+     * Suffix of the temporary files thumbnails are written into before they are published
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Directory that holds the thumbnails
+     */
+    private final File mDirectory;
+
+    /**
+     * Number of bytes used by the published thumbnails, or -1 until the directory has been
+     * scanned. Guarded by the lock of the cache.
+     */
+    private long mSize = -1;
+
+    /**
+     * Constructs a new {@link ThumbnailCache}.
+     *
+     * @param context of the app
+     */
+    public ThumbnailCache(Context context) {
+        mDirectory = new File(context.getCacheDir(), DIRECTORY_NAME);
+    }
+
+    /**
+     * Return the thumbnail of the given size for the image with the given hash, creating it from
+     * the original image file if it isn't cached. Return null if it can't be created.
+     */
+    public File get(String hash, int size, File original) {
+        File thumbnail = getFile(hash, size);
+        if (touch(thumbnail)) {
+            return thumbnail;
+        }
+        return create(hash, size, original) ? thumbnail : null;
+    }
+
+    /**
+     * Remember the use of the given thumbnail, so the least recently used thumbnails are evicted
+     * first. Return false if it isn't cached. Holding the lock keeps an eviction from deleting
+     * the thumbnail between the check and the update.
+     */
+    private synchronized boolean touch(File thumbnail) {
+        return thumbnail.exists() && thumbnail.setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * Create the thumbnails of every size in {@link TrackerContract#THUMBNAIL_SIZES} for the image
+     * with the given hash. The original is only decoded once.
+     */
+    public void createAll(String hash, File original) {
+        int largest = TrackerContract.THUMBNAIL_SIZES[TrackerContract.THUMBNAIL_SIZES.length - 1];
+        Bitmap source = decode(original, largest);
+        if (source == null) {
+            return;
+        }
+        for (int size : TrackerContract.THUMBNAIL_SIZES) {
+            if (!getFile(hash, size).exists()) {
+                write(hash, size, source);
+            }
+        }
+        source.recycle();
+    }
+
+    /**
+     * Delete the thumbnails of every size for the image with the given hash.
+     */
+    public synchronized void delete(String hash) {
+        for (int size : TrackerContract.THUMBNAIL_SIZES) {
+            File thumbnail = getFile(hash, size);
+            long length = thumbnail.length();
+            if (thumbnail.delete() && mSize != -1) {
+                mSize -= length;
+            }
+        }
+    }
+
+    private File getFile(String hash, int size) {
+        return new File(mDirectory, hash + "_" + size);
+    }
+
+    private boolean create(String hash, int size, File original) {
+        Bitmap source = decode(original, size);
+        if (source == null) {
+            return false;
+        }
+        boolean created = write(hash, size, source);
+        source.recycle();
+        return created;
+    }
+
+    /**
+     * Scale the given bitmap down to fit into a square of the given size, and write it into the
+     * cache. The file is written under a temporary name first, so readers never see half of it.
+     */
+    private boolean write(String hash, int size, Bitmap source) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Cannot create thumbnail directory " + mDirectory);
+            return false;
+        }
+
+        float scale = Math.min(1f, (float) size / Math.max(source.getWidth(), source.getHeight()));
+        Bitmap thumbnail = Bitmap.createScaledBitmap(source,
+                Math.max(1, Math.round(source.getWidth() * scale)),
+                Math.max(1, Math.round(source.getHeight() * scale)), true);
+
+        File target = getFile(hash, size);
+        try {
+            File temp = File.createTempFile(target.getName(), TEMP_SUFFIX, mDirectory);
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                thumbnail.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            } finally {
+                out.close();
+            }
+            return publish(temp, target);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to write thumbnail " + target, e);
+            return false;
+        } finally {
+            if (thumbnail != source) {
+                thumbnail.recycle();
+            }
+        }
+    }
+
+    /**
+     * Move the given temporary file into place as the given thumbnail, account for it, and evict
+     * the least recently used thumbnails if the cache went over its budget. If another thread
+     * published the same thumbnail first, the temporary file is dropped and it is counted once.
+     * Return whether the thumbnail is cached.
+     */
+    private synchronized boolean publish(File temp, File target) {
+        if (target.exists()) {
+            temp.delete();
+            return true;
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            Log.e(LOG_TAG, "Failed to publish thumbnail " + target);
+            return false;
+        }
+
+        if (mSize == -1) {
+            // The scan already includes the new thumbnail
+            mSize = 0;
+            for (File file : listThumbnails()) {
+                mSize += file.length();
+            }
+        } else {
+            mSize += target.length();
+        }
+
+        if (mSize <= MAX_BYTES) {
+            return true;
+        }
+
+        File[] files = listThumbnails();
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+
+        // Trim a little below the budget, so we don't have to sort the directory on every write
+        long trimmedSize = MAX_BYTES * 3 / 4;
+        for (int i = 0; i < files.length && mSize > trimmedSize; i++) {
+            long fileLength = files[i].length();
+            if (files[i].delete()) {
+                mSize -= fileLength;
+            }
+        }
+        return target.exists();
+    }
+
+    /**
+     * Return the published thumbnails, leaving out the temporary files that are still being
+     * written, which are neither counted nor evicted.
+     */
+    private File[] listThumbnails() {
+        File[] files = mDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File directory, String name) {
+                return !name.endsWith(TEMP_SUFFIX);
+            }
+        });
+        return files != null ? files : new File[0];
+    }
+
+    /**
+     * Decode the given image with the largest power-of-two sample size that still leaves it at
+     * least the given size, so a full-resolution photo never has to be held in memory.
+     */
+    private static Bitmap decode(File original, int size) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(original.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        int sampleSize = 1;
+        int longestSide = Math.max(options.outWidth, options.outHeight);
+        while (longestSide / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        return BitmapFactory.decodeFile(original.getPath(), options);
+    }
+}
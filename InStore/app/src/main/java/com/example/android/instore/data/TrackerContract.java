@@ -1,9 +1,19 @@
 package com.example.android.instore.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
 
 /**
  * Created by Preethi on 1/29/17.
@@ -31,6 +41,340 @@ public class TrackerContract {
      */
     public static final String PATH_TRACKERS = "trackers";
 
+    /**
+     * Path appended to the base content URI to reach the vendors, and appended to a single vendor
+     * URI followed by {@link #PATH_TRACKERS} to list the trackers of that vendor, for instance
+     * content://com.example.android.instore/vendors/2/trackers
+     */
+    public static final String PATH_VENDORS = "vendors";
+
+    /**
+     * Path appended to the base content URI to reach the progress of the catalog imports,
+     * content://com.example.android.instore/imports
+     */
+    public static final String PATH_IMPORTS = "imports";
+
+    /**
+     * Path appended to a single tracker URI to read the tracker's image as a file,
+     * for instance content://com.example.android.instore/trackers/3/image
+     */
+    public static final String PATH_IMAGE = "image";
+
+    /**
+     * Path appended to the trackers URI, followed by the text to search for, to search trackers
+     * by name and vendor, for instance content://com.example.android.instore/trackers/search/fit
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path appended to the trackers URI to read the inventory summary,
+     * content://com.example.android.instore/trackers/summary
+     */
+    public static final String PATH_SUMMARY = "summary";
+
+    /**
+     * Path appended to the trackers URI to read the trackers that need to be reordered,
+     * content://com.example.android.instore/trackers/reorder
+     */
+    public static final String PATH_REORDER = "reorder";
+
+    /**
+     * Query parameter of the summary and reorder URIs that asks for one row per value of the given
+     * column instead of a single row of totals, or a row per tracker. Only
+     * {@link SummaryEntry#COLUMN_VENDOR} is supported.
+     */
+    public static final String QUERY_PARAMETER_GROUP_BY = "group_by";
+
+    /**
+     * Query parameter that limits the number of search results
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /**
+     * Query parameter of an image URI that asks for a thumbnail of the given size instead of the
+     * original image, for instance content://com.example.android.instore/trackers/3/image?size=96
+     */
+    public static final String QUERY_PARAMETER_SIZE = "size";
+
+    /**
+     * Sizes (in pixels, along the longest side) in which thumbnails are available
+     */
+    public static final int[] THUMBNAIL_SIZES = {96, 192, 384};
+
+    /**
+     * Query parameter that limits a list query to a single page of at most this many trackers.
+     * Pages are ordered by {@link #QUERY_PARAMETER_SORT} and then by ID, both in the direction
+     * given by {@link #QUERY_PARAMETER_DESCENDING}.
+     */
+    public static final String QUERY_PARAMETER_PAGE_SIZE = "page_size";
+
+    /**
+     * Query parameter naming the column a list of trackers is ordered by, unless the query passes
+     * a sort order of its own. Supported columns are {@link TrackerEntry#COLUMN_TRACKER_NAME} (the
+     * default for pages), {@link TrackerEntry#COLUMN_TRACKER_PRICE},
+     * {@link TrackerEntry#COLUMN_TRACKER_QUANTITY} and {@link TrackerEntry#_ID}. Each of them is
+     * indexed together with the columns of the catalog list, so a page is read from the index
+     * alone.
+     */
+    public static final String QUERY_PARAMETER_SORT = "sort";
+
+    /**
+     * Query parameter of a list of trackers that, set to "true", reverses the order given by
+     * {@link #QUERY_PARAMETER_SORT}, for instance to list the most expensive trackers first
+     */
+    public static final String QUERY_PARAMETER_DESCENDING = "descending";
+
+    /**
+     * Query parameter that only lists the trackers whose name starts with the given text, with the
+     * same case
+     */
+    public static final String QUERY_PARAMETER_NAME_PREFIX = "name_prefix";
+
+    /**
+     * Query parameters that only list the trackers whose price, in cents, is at least or at most
+     * the given amount. Either can be given without the other.
+     */
+    public static final String QUERY_PARAMETER_MIN_PRICE = "min_price";
+
+    public static final String QUERY_PARAMETER_MAX_PRICE = "max_price";
+
+    /**
+     * Query parameters that only list the trackers with at least or at most the given quantity in
+     * stock, for instance max_quantity=0 for the trackers that are out of stock. Either can be
+     * given without the other.
+     */
+    public static final String QUERY_PARAMETER_MIN_QUANTITY = "min_quantity";
+
+    public static final String QUERY_PARAMETER_MAX_QUANTITY = "max_quantity";
+
+    /**
+     * Query parameter holding the sort key of the last tracker of the previous page
+     */
+    public static final String QUERY_PARAMETER_AFTER_KEY = "after_key";
+
+    /**
+     * Query parameter holding the ID of the last tracker of the previous page
+     */
+    public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+    /**
+     * Query parameter of a list query that, set to "false", leaves the returned cursor without a
+     * notification URI. Use it when you observe the row URIs yourself and patch your copy of the
+     * list, instead of having the whole list queried again after every change.
+     */
+    public static final String QUERY_PARAMETER_NOTIFY = "notify";
+
+    /**
+     * Query parameter of the URI passed to a {@link android.database.ContentObserver} that tells
+     * what happened to the row: {@link #CHANGE_INSERT}, {@link #CHANGE_UPDATE} or
+     * {@link #CHANGE_DELETE}. A notification without it, or for the whole
+     * {@link TrackerEntry#CONTENT_URI}, means that any number of rows may have changed.
+     */
+    public static final String QUERY_PARAMETER_CHANGE = "change";
+
+    /**
+     * Query parameter of an update notification listing the columns that were written,
+     * separated by commas
+     */
+    public static final String QUERY_PARAMETER_COLUMNS = "columns";
+
+    /**
+     * The row was inserted
+     */
+    public static final String CHANGE_INSERT = "insert";
+
+    /**
+     * Some columns of the row were updated, see {@link #QUERY_PARAMETER_COLUMNS}
+     */
+    public static final String CHANGE_UPDATE = "update";
+
+    /**
+     * The row was deleted
+     */
+    public static final String CHANGE_DELETE = "delete";
+
+    /**
+     * Provider method (see {@link ContentResolver#call}) that sells {@link #EXTRA_COUNT} units of
+     * the tracker {@link #EXTRA_ID}, in a single conditional update, if enough are in stock.
+     * The result holds {@link #EXTRA_SOLD} and the resulting {@link #EXTRA_QUANTITY}.
+     */
+    public static final String METHOD_SELL = "sell";
+
+    /**
+     * Provider method that sells a whole basket at once: {@link #EXTRA_COUNTS} units of each of the
+     * trackers {@link #EXTRA_IDS}. Either every item is sold or, if any of them is short of stock,
+     * none is. The result holds {@link #EXTRA_SOLD}, and either the resulting
+     * {@link #EXTRA_QUANTITIES} or the {@link #EXTRA_ID} of the item that was short.
+     */
+    public static final String METHOD_SELL_BASKET = "sell_basket";
+
+    /**
+     * Provider method that accepts the sale of {@link #EXTRA_COUNT} units of the tracker
+     * {@link #EXTRA_ID} right away and applies it to the stock a moment later, together with the
+     * other sales made meanwhile. The sale is journaled before the call returns, so it survives
+     * the process dying, and queries show the quantity net of it from then on. Like
+     * {@link #METHOD_SELL} it only sells if enough units are in stock, net of the sales still
+     * pending. The result holds {@link #EXTRA_SOLD} and the resulting {@link #EXTRA_QUANTITY}.
+     */
+    public static final String METHOD_RECORD_SALE = "record_sale";
+
+    /**
+     * Provider method that writes a backup of the whole catalog, images included, as a ZIP archive
+     * to the file at {@link #EXTRA_URI}. The trackers are a consistent snapshot, taken without
+     * holding up readers. The result holds {@link #EXTRA_TRACKER_COUNT} and
+     * {@link #EXTRA_IMAGE_COUNT}. Throws IllegalStateException if the backup can't be written.
+     * It can take a while: don't call it on the main thread.
+     */
+    public static final String METHOD_BACKUP = "backup";
+
+    /**
+     * Provider method that replaces the whole catalog with the backup in the file at
+     * {@link #EXTRA_URI}, written by {@link #METHOD_BACKUP}. Either all of the backup is restored
+     * or, if it is damaged or incomplete, nothing is. The result holds
+     * {@link #EXTRA_TRACKER_COUNT} and {@link #EXTRA_IMAGE_COUNT}. Throws IllegalArgumentException
+     * if the file can't be restored. It can take a while: don't call it on the main thread.
+     */
+    public static final String METHOD_RESTORE = "restore";
+
+    /**
+     * Provider method that reads the figures the provider keeps of its own operations since they
+     * were last reset, and resets them if {@link #EXTRA_RESET} is true. There is a series of
+     * figures for every operation (query, insert, update, delete or open_file) on every kind of
+     * URI that ran at least once, named after both, such as "query trackers/#". The result holds
+     * {@link #EXTRA_METRICS_DURATION_MS} and the arrays {@link #EXTRA_METRICS_NAMES},
+     * {@link #EXTRA_METRICS_COUNTS}, {@link #EXTRA_METRICS_ERRORS}, {@link #EXTRA_METRICS_ROWS},
+     * {@link #EXTRA_METRICS_BYTES}, {@link #EXTRA_METRICS_TOTAL_NANOS},
+     * {@link #EXTRA_METRICS_MAX_NANOS} and {@link #EXTRA_METRICS_HISTOGRAMS}, with an element for
+     * every series in the same order. It also holds the figures of the cache of recently read
+     * trackers: {@link #EXTRA_ROW_CACHE_HITS}, {@link #EXTRA_ROW_CACHE_MISSES} and
+     * {@link #EXTRA_ROW_CACHE_SIZE}.
+     */
+    public static final String METHOD_METRICS = "metrics";
+
+    /**
+     * ID of a single tracker. Type: long
+     */
+    public static final String EXTRA_ID = "id";
+
+    /**
+     * Number of units to sell of a single tracker; defaults to 1. Type: int
+     */
+    public static final String EXTRA_COUNT = "count";
+
+    /**
+     * IDs of the trackers in a basket. Type: long[]
+     */
+    public static final String EXTRA_IDS = "ids";
+
+    /**
+     * Number of units to sell of each tracker in a basket. Type: int[]
+     */
+    public static final String EXTRA_COUNTS = "counts";
+
+    /**
+     * Whether the sale went through. Type: boolean
+     */
+    public static final String EXTRA_SOLD = "sold";
+
+    /**
+     * Quantity in stock after the call, or -1 if the tracker doesn't exist. Type: int
+     */
+    public static final String EXTRA_QUANTITY = "quantity";
+
+    /**
+     * Quantities in stock after a basket was sold, in the order of {@link #EXTRA_IDS}. Type: int[]
+     */
+    public static final String EXTRA_QUANTITIES = "quantities";
+
+    /**
+     * URI of the file to back up to or restore from. Type: Uri
+     */
+    public static final String EXTRA_URI = "uri";
+
+    /**
+     * Number of trackers backed up or restored. Type: int
+     */
+    public static final String EXTRA_TRACKER_COUNT = "tracker_count";
+
+    /**
+     * Number of images backed up or restored. Type: int
+     */
+    public static final String EXTRA_IMAGE_COUNT = "image_count";
+
+    /**
+     * Whether to start the figures from zero once they are read; defaults to false. Type: boolean
+     */
+    public static final String EXTRA_RESET = "reset";
+
+    /**
+     * Milliseconds over which the figures were counted, to turn counts into rates. Type: long
+     */
+    public static final String EXTRA_METRICS_DURATION_MS = "metrics_duration_ms";
+
+    /**
+     * Name of every series of figures, the operation and the URI path. Type: String[]
+     */
+    public static final String EXTRA_METRICS_NAMES = "metrics_names";
+
+    /**
+     * Number of operations of every series, failed ones included. Type: long[]
+     */
+    public static final String EXTRA_METRICS_COUNTS = "metrics_counts";
+
+    /**
+     * Number of operations of every series that threw. Type: long[]
+     */
+    public static final String EXTRA_METRICS_ERRORS = "metrics_errors";
+
+    /**
+     * Rows returned, inserted, updated or deleted by every series. Type: long[]
+     */
+    public static final String EXTRA_METRICS_ROWS = "metrics_rows";
+
+    /**
+     * Bytes of the files opened by every series. Type: long[]
+     */
+    public static final String EXTRA_METRICS_BYTES = "metrics_bytes";
+
+    /**
+     * Total latency of the operations of every series, in nanoseconds. Type: long[]
+     */
+    public static final String EXTRA_METRICS_TOTAL_NANOS = "metrics_total_nanos";
+
+    /**
+     * Longest latency of an operation of every series, in nanoseconds. Type: long[]
+     */
+    public static final String EXTRA_METRICS_MAX_NANOS = "metrics_max_nanos";
+
+    /**
+     * Latency histogram of every series, one after the other, {@link #METRICS_HISTOGRAM_BUCKETS}
+     * counts each. Bucket 0 counts the operations that took less than a microsecond, and bucket i
+     * the ones that took from 2^(i-1) up to 2^i microseconds; the last bucket has no upper bound.
+     * Type: long[]
+     */
+    public static final String EXTRA_METRICS_HISTOGRAMS = "metrics_histograms";
+
+    /**
+     * Single tracker queries served from the provider's cache of recently read trackers. Type: long
+     */
+    public static final String EXTRA_ROW_CACHE_HITS = "row_cache_hits";
+
+    /**
+     * Single tracker queries that had to read the database. Type: long
+     */
+    public static final String EXTRA_ROW_CACHE_MISSES = "row_cache_misses";
+
+    /**
+     * Estimated bytes taken by the cached trackers, at most the size configured with
+     * {@code R.integer.tracker_row_cache_size}. Type: int
+     */
+    public static final String EXTRA_ROW_CACHE_SIZE = "row_cache_size";
+
+    /**
+     * Number of buckets of every histogram in {@link #EXTRA_METRICS_HISTOGRAMS}
+     */
+    public static final int METRICS_HISTOGRAM_BUCKETS = 24;
+
     /**
      * Inner class that defines constant values for the pets database table.
      * Each entry in the table represents a single pet.
@@ -54,11 +398,26 @@ public class TrackerContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_TRACKERS;
 
+        /**
+         * The MIME type of the image of a single tracker.
+         */
+        public static final String CONTENT_IMAGE_TYPE = "image/png";
+
+        /**
+         * The MIME type of a thumbnail of the image of a single tracker.
+         */
+        public static final String CONTENT_THUMBNAIL_TYPE = "image/jpeg";
+
         /**
          * Name of database table for fitness trackers
          */
         public final static String TABLE_NAME = "trackers";
 
+        /**
+         * Name of the full-text index over the names of the trackers
+         */
+        public final static String FTS_TABLE_NAME = "trackers_fts";
+
         /**
          * Unique ID number for the pet (only for use in the database table).
          * <p>
@@ -69,16 +428,515 @@ public class TrackerContract {
 
         public final static String COLUMN_TRACKER_NAME = "name";
 
+        /**
+         * Number of units in stock, never negative.
+         * <p>
+         * Type: INTEGER
+         */
         public final static String COLUMN_TRACKER_QUANTITY = "quantity";
 
+        /**
+         * Price in cents, never negative. Use {@link #parsePrice(String)} and
+         * {@link #formatPrice(long)} to convert from and to what the user types and reads.
+         * <p>
+         * Type: INTEGER
+         */
         public final static String COLUMN_TRACKER_PRICE = "price";
 
+        /**
+         * ID of the tracker's vendor in the vendors table, see {@link VendorEntry}.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TRACKER_VENDOR_ID = "vendor_id";
+
+        /**
+         * E-mail of the tracker's vendor. The trackers table doesn't store it; queries read it from
+         * the vendors table when it is part of the projection. When inserting or updating a tracker
+         * it can be given instead of {@link #COLUMN_TRACKER_VENDOR_ID}: the vendor with that e-mail
+         * is looked up, and added if there is none yet.
+         * <p>
+         * Type: TEXT
+         */
         public final static String COLUMN_TRACKER_VENDOR = "vendor";
 
+        /**
+         * Number of units at or below which the tracker needs to be reordered, never negative.
+         * Defaults to {@link #DEFAULT_REORDER_THRESHOLD}.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TRACKER_REORDER_THRESHOLD = "reorder_threshold";
+
+        /**
+         * Reorder threshold of the trackers that don't set their own
+         */
+        public static final int DEFAULT_REORDER_THRESHOLD = 5;
+
+        /**
+         * Raw image bytes. Only used to hand a new image to the provider, which moves it into the
+         * image store and keeps its hash in {@link #COLUMN_TRACKER_IMAGE_HASH} instead. Queries
+         * never return image bytes; read them from {@link #buildImageUri(long)}.
+         * <p>
+         * Type: BLOB
+         */
         public final static String COLUMN_TRACKER_IMAGE = "image";
 
+        /**
+         * Content hash of the tracker's image, or null if the tracker has no image. Writing a hash
+         * sets an image that is already in the image store, like one a caller streamed there with
+         * {@link ImageStore#put(java.io.InputStream)}; the write fails if the image isn't there.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_TRACKER_IMAGE_HASH = "image_hash";
+
+        /**
+         * Sort key of a tracker in a page, as it is stored. A quantity, for instance, is returned
+         * here without the pending sales subtracted from it like in
+         * {@link #COLUMN_TRACKER_QUANTITY}, which is what the next page has to start after. Only
+         * page queries, see {@link #buildPageUri(String, boolean, int)}, can return it; pass the
+         * value of the last tracker of a page to {@link #buildNextPageUri}.
+         * <p>
+         * Type: the type of the sort column
+         */
+        public final static String COLUMN_PAGE_KEY = "page_key";
+
+        /**
+         * Convert a price typed by the user, like "129", "$12.50" or "1,299.99", into cents.
+         *
+         * @throws NumberFormatException if the text is not an amount of money, or too large an
+         *                               amount to be stored
+         */
+        public static long parsePrice(String price) {
+            String amount = price.replace("$", "").replace(",", "").trim();
+            BigInteger cents = new BigDecimal(amount).setScale(2, RoundingMode.HALF_UP).unscaledValue();
+
+            // Checked by hand, since longValueExact() needs a newer API level; longValue() would
+            // silently wrap around to some other, possibly negative, price
+            if (cents.bitLength() > 63) {
+                throw new NumberFormatException("Price is too large: " + price);
+            }
+            return cents.longValue();
+        }
+
+        /**
+         * Format a price in cents for display, like "12.50".
+         */
+        public static String formatPrice(long cents) {
+            return BigDecimal.valueOf(cents, 2).toPlainString();
+        }
+
+        /**
+         * Return the URI from which the image of the tracker with the given ID can be opened.
+         */
+        public static Uri buildImageUri(long id) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(id))
+                    .appendPath(PATH_IMAGE)
+                    .build();
+        }
+
+        /**
+         * Return the URI that searches trackers whose name or vendor contains words starting with
+         * the words of the given text, best matches first.
+         */
+        public static Uri buildSearchUri(String text, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SEARCH)
+                    .appendPath(text)
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Return the URI of the first page of trackers, ordered by the given column.
+         */
+        public static Uri buildPageUri(String sortColumn, int pageSize) {
+            return buildPageUri(sortColumn, false, pageSize);
+        }
+
+        /**
+         * Return the URI of the first page of trackers, ordered by the given column in the given
+         * direction. Append filter parameters such as {@link #QUERY_PARAMETER_MAX_QUANTITY} to it
+         * to list only some of the trackers.
+         */
+        public static Uri buildPageUri(String sortColumn, boolean descending, int pageSize) {
+            Uri.Builder builder = CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SORT, sortColumn);
+            if (descending) {
+                builder.appendQueryParameter(QUERY_PARAMETER_DESCENDING, "true");
+            }
+            return builder.appendQueryParameter(QUERY_PARAMETER_PAGE_SIZE, String.valueOf(pageSize))
+                    .build();
+        }
+
+        /**
+         * Return the URI of the page that follows the given page, whose last tracker has the given
+         * sort key and ID. The next page starts right after that tracker, so it is found with an
+         * index seek however deep into the catalog it is.
+         */
+        public static Uri buildNextPageUri(Uri pageUri, String afterKey, long afterId) {
+            Uri.Builder builder = pageUri.buildUpon().clearQuery();
+            for (String name : pageUri.getQueryParameterNames()) {
+                if (!QUERY_PARAMETER_AFTER_KEY.equals(name) && !QUERY_PARAMETER_AFTER_ID.equals(name)) {
+                    builder.appendQueryParameter(name, pageUri.getQueryParameter(name));
+                }
+            }
+            return builder.appendQueryParameter(QUERY_PARAMETER_AFTER_KEY, afterKey)
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId))
+                    .build();
+        }
+
+        /**
+         * Return the URI the provider notifies when the tracker with the given ID changed. Observers
+         * registered on {@link #CONTENT_URI} with notifyForDescendants receive it, and can read
+         * the change back with {@link #getChange(Uri)} and {@link #getChangedColumns(Uri)}.
+         *
+         * @param change  one of {@link #CHANGE_INSERT}, {@link #CHANGE_UPDATE} or {@link #CHANGE_DELETE}
+         * @param columns the columns that were written by an update, or null
+         */
+        public static Uri buildChangeUri(long id, String change, Collection<String> columns) {
+            Uri.Builder builder = CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(id))
+                    .appendQueryParameter(QUERY_PARAMETER_CHANGE, change);
+            if (columns != null && !columns.isEmpty()) {
+                StringBuilder joined = new StringBuilder();
+                for (String column : columns) {
+                    if (joined.length() > 0) {
+                        joined.append(',');
+                    }
+                    joined.append(column);
+                }
+                builder.appendQueryParameter(QUERY_PARAMETER_COLUMNS, joined.toString());
+            }
+            return builder.build();
+        }
+
+        /**
+         * Return the kind of change described by a notification URI, or null if the notification
+         * doesn't describe a single row and anything may have changed.
+         */
+        public static String getChange(Uri uri) {
+            if (uri == null || uri.getPathSegments().size() != 2) {
+                return null;
+            }
+            return uri.getQueryParameter(QUERY_PARAMETER_CHANGE);
+        }
+
+        /**
+         * Return the columns written by the update described by a notification URI. The set is
+         * empty if the notification doesn't list them.
+         */
+        public static Set<String> getChangedColumns(Uri uri) {
+            String columns = uri == null ? null : uri.getQueryParameter(QUERY_PARAMETER_COLUMNS);
+            if (columns == null || columns.isEmpty()) {
+                return Collections.emptySet();
+            }
+            return new HashSet<>(Arrays.asList(columns.split(",")));
+        }
+
+        /**
+         * Return the URI from which a thumbnail of the image of the tracker with the given ID can be
+         * opened. The thumbnail is the smallest of the {@link #THUMBNAIL_SIZES} that still covers
+         * the requested size.
+         */
+        public static Uri buildThumbnailUri(long id, int size) {
+            int thumbnailSize = THUMBNAIL_SIZES[THUMBNAIL_SIZES.length - 1];
+            for (int available : THUMBNAIL_SIZES) {
+                if (available >= size) {
+                    thumbnailSize = available;
+                    break;
+                }
+            }
+            return buildImageUri(id).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SIZE, String.valueOf(thumbnailSize))
+                    .build();
+        }
 
     }
 
+    /**
+     * The vendors the trackers are ordered from, each stored once and referenced by the trackers
+     * through {@link TrackerEntry#COLUMN_TRACKER_VENDOR_ID}. Changing a vendor's e-mail is a
+     * single row update. A vendor can only be deleted once none of the trackers reference it.
+     */
+    public static final class VendorEntry implements BaseColumns {
+
+        /**
+         * The content URI to access the vendors in the provider
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_VENDORS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of vendors.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_VENDORS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single vendor.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_VENDORS;
+
+        /**
+         * Name of database table for vendors
+         */
+        public final static String TABLE_NAME = "vendors";
 
+        /**
+         * Name of the full-text index over the e-mails of the vendors
+         */
+        public final static String FTS_TABLE_NAME = "vendors_fts";
+
+        /**
+         * Unique ID number for the vendor.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * E-mail the vendor takes orders at, unique regardless of case.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_VENDOR_EMAIL = "email";
+
+        /**
+         * Return the URI that lists the trackers of the vendor with the given ID.
+         */
+        public static Uri buildTrackersUri(long vendorId) {
+            return ContentUris.withAppendedId(CONTENT_URI, vendorId).buildUpon()
+                    .appendPath(PATH_TRACKERS)
+                    .build();
+        }
+    }
+
+    /**
+     * Progress of the catalog imports, one row per imported file. An importer updates its row in
+     * the same transaction that inserts a chunk of trackers, so after an interruption it knows
+     * exactly where to pick up, without importing any tracker twice.
+     */
+    public static final class ImportEntry implements BaseColumns {
+
+        /**
+         * The content URI to access the imports in the provider
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_IMPORTS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of imports.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_IMPORTS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single import.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_IMPORTS;
+
+        /**
+         * Name of database table for imports
+         */
+        public final static String TABLE_NAME = "imports";
+
+        /**
+         * Unique ID number for the import.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * URI of the imported file, unique.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_SOURCE = "source";
+
+        /**
+         * Number of records of the file that were dealt with, imported or rejected. An interrupted
+         * import continues with the record after these.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_POSITION = "position";
+
+        /**
+         * Number of trackers imported so far.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_IMPORTED = "imported";
+
+        /**
+         * Number of records rejected so far.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_FAILED = "failed";
+
+        /**
+         * 1 once the whole file was read, 0 before. Importing the file again starts over.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_FINISHED = "finished";
+    }
+
+    /**
+     * Inventory figures of the whole catalog, or of every vendor, kept up to date by the database
+     * on every write. Reading them costs the same however many trackers there are. The figures
+     * include journaled sales only once they were applied, a moment after they were accepted.
+     */
+    public static final class SummaryEntry {
+
+        /**
+         * The content URI of the summary: a single row with the totals of the whole catalog
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(TrackerEntry.CONTENT_URI, PATH_SUMMARY);
+
+        /**
+         * The content URI of the summary of every vendor, one row per vendor ordered by vendor
+         */
+        public static final Uri CONTENT_VENDOR_URI = CONTENT_URI.buildUpon()
+                .appendQueryParameter(QUERY_PARAMETER_GROUP_BY, SummaryEntry.COLUMN_VENDOR)
+                .build();
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the summary.
+         */
+        public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/"
+                + CONTENT_AUTHORITY + "/" + PATH_TRACKERS + "/" + PATH_SUMMARY;
+
+        /**
+         * Name of the database table that holds the figures of every vendor
+         */
+        public final static String TABLE_NAME = "tracker_summary";
+
+        /**
+         * ID of the vendor the figures belong to. Only present when grouped by vendor.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_VENDOR_ID = "vendor_id";
+
+        /**
+         * E-mail of the vendor the figures belong to. Only present when grouped by vendor.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_VENDOR = "vendor";
+
+        /**
+         * Number of trackers.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_COUNT = "product_count";
+
+        /**
+         * Number of units in stock, over all trackers.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOTAL_UNITS = "total_units";
+
+        /**
+         * Value of the stock in cents: quantity times price, over all trackers.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_STOCK_VALUE = "stock_value";
+
+        /**
+         * Number of trackers with no units left.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_OUT_OF_STOCK_COUNT = "out_of_stock_count";
+
+        /**
+         * Number of trackers at or below their
+         * {@link TrackerEntry#COLUMN_TRACKER_REORDER_THRESHOLD reorder threshold}.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_LOW_STOCK_COUNT = "low_stock_count";
+    }
+
+    /**
+     * The trackers at or below their reorder threshold, kept in a small table of their own so they
+     * can be found without scanning the trackers table.
+     * <p>
+     * Read from {@link #CONTENT_URI} to get a row per tracker with the tracker columns
+     * {@link TrackerEntry#_ID}, name, quantity, reorder threshold, vendor ID and vendor, ordered by
+     * vendor and name. Read from {@link #CONTENT_VENDOR_URI} to get a row per vendor instead, with
+     * the {@link #COLUMN_VENDOR_ID}, {@link #COLUMN_VENDOR}, {@link #COLUMN_PRODUCT_COUNT} and
+     * {@link #COLUMN_NAMES} of its trackers, so a single order covers all of them.
+     */
+    public static final class ReorderEntry {
+
+        /**
+         * The content URI of the watchlist, a row per tracker
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(TrackerEntry.CONTENT_URI, PATH_REORDER);
+
+        /**
+         * The content URI of the watchlist grouped by vendor, a row per vendor ordered by vendor
+         */
+        public static final Uri CONTENT_VENDOR_URI = CONTENT_URI.buildUpon()
+                .appendQueryParameter(QUERY_PARAMETER_GROUP_BY, ReorderEntry.COLUMN_VENDOR)
+                .build();
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the watchlist.
+         */
+        public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/"
+                + CONTENT_AUTHORITY + "/" + PATH_TRACKERS + "/" + PATH_REORDER;
+
+        /**
+         * Name of the database table that holds a row per tracker to reorder
+         */
+        public final static String TABLE_NAME = "reorder_watchlist";
+
+        /**
+         * ID of the tracker to reorder.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TRACKER_ID = "tracker_id";
+
+        /**
+         * ID of the vendor of the tracker, or of the trackers when grouped by vendor.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_VENDOR_ID = "vendor_id";
+
+        /**
+         * E-mail of the vendor of the tracker, or of the trackers when grouped by vendor.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_VENDOR = "vendor";
+
+        /**
+         * Number of trackers of the vendor to reorder. Only present when grouped by vendor.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRODUCT_COUNT = "product_count";
+
+        /**
+         * Names of the vendor's trackers to reorder, one per line. Only present when grouped by
+         * vendor.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_NAMES = "names";
+    }
 }
@@ -1,8 +1,28 @@
 package com.example.android.instore.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.instore.data.TrackerContract.ImportEntry;
+import com.example.android.instore.data.TrackerContract.ReorderEntry;
+import com.example.android.instore.data.TrackerContract.SummaryEntry;
+import com.example.android.instore.data.TrackerContract.TrackerEntry;
+import com.example.android.instore.data.TrackerContract.VendorEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by Preethi on 2/4/17.
@@ -18,17 +38,285 @@ public class TrackerDbHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "trackers.db";
 
     /**
-     * Database version. If you change the database schema, you must increment the database version.
+     * Database version. If you change the database schema, you must increment the database version,
+     * and add the step that upgrades to it to {@link #mMigrator}.
      */
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 11;
 
     /**
-     * Constructs a new instance of {@link TrackerDbHelper}.
+     * The columns of the trackers table
+     */
+    private static final String[] TRACKER_COLUMNS = {
+            TrackerEntry._ID,
+            TrackerEntry.COLUMN_TRACKER_NAME,
+            TrackerEntry.COLUMN_TRACKER_QUANTITY,
+            TrackerEntry.COLUMN_TRACKER_PRICE,
+            TrackerEntry.COLUMN_TRACKER_IMAGE_HASH,
+            TrackerEntry.COLUMN_TRACKER_REORDER_THRESHOLD,
+            TrackerEntry.COLUMN_TRACKER_VENDOR_ID
+    };
+
+    /**
+     * The columns of the catalog list, which the sort indexes carry after their keys
+     */
+    private static final String LIST_COLUMNS = TrackerEntry.COLUMN_TRACKER_NAME + ", "
+            + TrackerEntry.COLUMN_TRACKER_PRICE + ", "
+            + TrackerEntry.COLUMN_TRACKER_QUANTITY + ", "
+            + TrackerEntry.COLUMN_TRACKER_IMAGE_HASH;
+
+    /**
+     * The number of trackers a chunk of the rebuild of the trackers table copies, see
+     * {@link SchemaMigrator.TableRebuildStep}
+     */
+    private static final int REBUILD_CHUNK_ROWS = 500;
+
+    /**
+     * Definition of the reorder threshold column, which version 8 adds to the existing table
+     */
+    private static final String REORDER_THRESHOLD_DEFINITION = TrackerEntry.COLUMN_TRACKER_REORDER_THRESHOLD
+            + " INTEGER NOT NULL DEFAULT " + TrackerEntry.DEFAULT_REORDER_THRESHOLD + " CHECK ("
+            + "typeof(" + TrackerEntry.COLUMN_TRACKER_REORDER_THRESHOLD + ") = 'integer' AND "
+            + TrackerEntry.COLUMN_TRACKER_REORDER_THRESHOLD + " >= 0)";
+
+    /**
+     * Name of the single-row table that remembers how far the sales journal has been applied
+     * (see {@link SalesJournal})
+     */
+    static final String SALES_JOURNAL_TABLE_NAME = "sales_journal";
+
+    /**
+     * Sequence number of the last journaled sale that was applied to the trackers table.
+     * <p>
+     * Type: INTEGER
+     */
+    static final String COLUMN_APPLIED_SEQUENCE = "applied_sequence";
+
+    /**
+     * Number of pages the write-ahead log may grow to before a commit checkpoints it. Larger than
+     * the platform default, so a burst of sales doesn't pay for a checkpoint every few commits;
+     * the log is checkpointed when the writes go idle instead.
+     */
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+
+    /**
+     * How long the database has to go without writes before the write-ahead log is checkpointed
+     */
+    private static final long IDLE_CHECKPOINT_DELAY_MS = 2000;
+
+    /**
+     * Context of the app, needed to reach the image store while upgrading
+     */
+    private final Context mContext;
+
+    /**
+     * Whether the database runs in write-ahead logging mode
+     */
+    private final boolean mWriteAheadLogging;
+
+    /**
+     * Thread that runs the idle-time checkpoints, or null without write-ahead logging
+     */
+    private final ScheduledExecutorService mCheckpointExecutor;
+
+    /**
+     * Guards {@link #mLastWriteMillis} and {@link #mCheckpointScheduled}
+     */
+    private final Object mCheckpointLock = new Object();
+
+    /**
+     * The steps that upgrade the database from any earlier version, in order
+     */
+    private final SchemaMigrator mMigrator = new SchemaMigrator(
+            new SchemaMigrator.Step(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    upgradeToVersion2(db);
+                }
+            },
+            new SchemaMigrator.Step(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Version 3 adds the index behind the paged catalog queries, which version 11
+                    // replaces
+                    db.execSQL("CREATE INDEX trackers_name ON " + TrackerEntry.TABLE_NAME + " ("
+                            + TrackerEntry.COLUMN_TRACKER_NAME + ");");
+                }
+            },
+            new SchemaMigrator.Step(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    upgradeToVersion4(db);
+                }
+            },
+            // Versions 5, 7 and 8 added the search index, the summary and the reorder watchlist,
+            // which version 9 rebuilds from scratch anyway
+            new SchemaMigrator.Step(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Version 6 applies sales through the write-behind sales journal
+                    createSalesJournalTable(db);
+                }
+            },
+            new SchemaMigrator.Step(8) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Version 8 adds the reorder threshold of every tracker
+                    db.execSQL("ALTER TABLE " + TrackerEntry.TABLE_NAME + " ADD COLUMN "
+                            + REORDER_THRESHOLD_DEFINITION + ";");
+                }
+            },
+            new SchemaMigrator.Step(9) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    upgradeToVersion9(db);
+                }
+            },
+            new SchemaMigrator.Step(10) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Version 10 keeps track of the catalog imports
+                    createImportsTable(db);
+                }
+            },
+            // Version 11 replaces the narrow name, price and quantity indexes by covering ones,
+            // which takes rebuilding the trackers table (see SchemaMigrator.TableRebuildStep). The
+            // provider works with either set of indexes, so the rebuild runs in the background.
+            new SchemaMigrator.TableRebuildStep(11, "covering_indexes", TrackerEntry.TABLE_NAME,
+                    TrackerEntry._ID, REBUILD_CHUNK_ROWS) {
+                @Override
+                void createCopy(SQLiteDatabase db, String copy) {
+                    createTrackersTable(db, copy);
+                    createTrackersIndexes(db, copy);
+                }
+
+                @Override
+                String[] getColumns() {
+                    return TRACKER_COLUMNS;
+                }
+
+                @Override
+                void replaceTable(SQLiteDatabase db, String copy) {
+                    // The old indexes and triggers go away with the old table
+                    replaceTrackersTable(db, copy);
+                    createTrackersTriggers(db);
+                }
+            });
+
+    /**
+     * Uptime of the last committed write
+     */
+    private long mLastWriteMillis;
+
+    /**
+     * Whether an idle-time checkpoint is waiting to run
+     */
+    private boolean mCheckpointScheduled;
+
+    /**
+     * Constructs a new instance of {@link TrackerDbHelper} with the default rollback journal.
      *
      * @param context of the app
      */
     public TrackerDbHelper(Context context) {
+        this(context, false);
+    }
+
+    /**
+     * Constructs a new instance of {@link TrackerDbHelper}.
+     * <p>
+     * In write-ahead logging mode readers don't wait for the writer, nor the writer for readers:
+     * the framework keeps a single connection for writes and a pool of connections for queries
+     * outside of a transaction, which read the last committed state while a write is going on.
+     *
+     * @param context           of the app
+     * @param writeAheadLogging whether to open the database in write-ahead logging mode
+     */
+    public TrackerDbHelper(Context context, boolean writeAheadLogging) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mContext = context;
+        mWriteAheadLogging = writeAheadLogging;
+        mCheckpointExecutor = writeAheadLogging ? Executors.newSingleThreadScheduledExecutor() : null;
+        setWriteAheadLoggingEnabled(writeAheadLogging);
+    }
+
+    /**
+     * Called when the database connection is being configured, before it is created or upgraded.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Make SQLite enforce that every tracker references an existing vendor
+        db.setForeignKeyConstraintsEnabled(true);
+        if (db.isWriteAheadLoggingEnabled()) {
+            // The pragma answers with the new setting, so it has to run as a query
+            DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint=" + WAL_AUTOCHECKPOINT_PAGES, null);
+        }
+    }
+
+    /**
+     * Called after every committed write. In write-ahead logging mode this (re)starts the idle
+     * timer, after which the log is checkpointed.
+     */
+    void onWriteCommitted() {
+        if (!mWriteAheadLogging || mCheckpointExecutor.isShutdown()) {
+            return;
+        }
+        synchronized (mCheckpointLock) {
+            mLastWriteMillis = SystemClock.uptimeMillis();
+            if (!mCheckpointScheduled) {
+                mCheckpointScheduled = true;
+                mCheckpointExecutor.schedule(mIdleCheckpoint, IDLE_CHECKPOINT_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Checkpoints the write-ahead log once the writes went idle. Rather than rescheduling itself on
+     * every write, the task checks when it runs whether there was a write in the meantime, and if
+     * so waits for the rest of the delay.
+     */
+    private final Runnable mIdleCheckpoint = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mCheckpointLock) {
+                long idleMillis = SystemClock.uptimeMillis() - mLastWriteMillis;
+                if (idleMillis < IDLE_CHECKPOINT_DELAY_MS) {
+                    mCheckpointExecutor.schedule(this, IDLE_CHECKPOINT_DELAY_MS - idleMillis,
+                            TimeUnit.MILLISECONDS);
+                    return;
+                }
+                mCheckpointScheduled = false;
+            }
+            checkpoint();
+        }
+    };
+
+    /**
+     * Copy as much of the write-ahead log into the database as possible without waiting for
+     * readers, so the log doesn't keep growing and queries don't have to search it.
+     */
+    private void checkpoint() {
+        try {
+            Cursor cursor = getWritableDatabase().rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+            try {
+                if (cursor.moveToFirst()) {
+                    Log.v(LOG_TAG, "Checkpoint busy=" + cursor.getInt(0) + " log=" + cursor.getInt(1)
+                            + " checkpointed=" + cursor.getInt(2));
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Failed to checkpoint the write-ahead log", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mCheckpointExecutor != null) {
+            mCheckpointExecutor.shutdownNow();
+        }
+        mMigrator.shutdown();
+        super.close();
     }
 
     /**
@@ -36,26 +324,582 @@ public class TrackerDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
-        // Create a String that contains the SQL statement to create the trackers table
-        String SQL_CREATE_TRACKERS_TABLE = "CREATE TABLE " + TrackerContract.TrackerEntry.TABLE_NAME + " ("
+        createVendorsTable(db);
+        createTrackersTable(db, TrackerEntry.TABLE_NAME);
+        createTrackersIndexes(db, TrackerEntry.TABLE_NAME);
+        createSalesJournalTable(db);
+        createDerivedTables(db);
+        createImportsTable(db);
+        SchemaMigrator.createMigrationsTable(db);
+    }
+
+    /**
+     * Create the vendors table. An e-mail is only stored once whatever its case, so "Sales@Acme"
+     * and "sales@acme" are the same vendor.
+     */
+    private static void createVendorsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + VendorEntry.TABLE_NAME + " ("
+                + VendorEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + VendorEntry.COLUMN_VENDOR_EMAIL + " TEXT NOT NULL UNIQUE COLLATE NOCASE);");
+    }
+
+    /**
+     * Create the tables that are computed from the trackers and vendors, and kept up to date by
+     * triggers: the search indexes, the summary and the reorder watchlist.
+     */
+    private static void createDerivedTables(SQLiteDatabase db) {
+        createSearchIndexes(db);
+        createSummaryTable(db);
+        createReorderWatchlist(db);
+        createTrackersTriggers(db);
+    }
+
+    /**
+     * Create the triggers on the trackers table that keep the derived tables up to date. They go
+     * away whenever the trackers table is rebuilt.
+     */
+    private static void createTrackersTriggers(SQLiteDatabase db) {
+        createSearchTriggers(db, TrackerEntry.FTS_TABLE_NAME, TrackerEntry.TABLE_NAME, TrackerEntry._ID,
+                TrackerEntry.COLUMN_TRACKER_NAME);
+        createSummaryTriggers(db);
+        createReorderTriggers(db);
+    }
+
+    /**
+     * Compute the derived tables from the existing trackers and vendors.
+     */
+    private static void fillDerivedTables(SQLiteDatabase db) {
+        fillSearchIndexes(db);
+        fillSummaryTable(db);
+        fillReorderWatchlist(db);
+    }
+
+    /**
+     * Create the table that remembers how far the sales journal has been applied, with its
+     * single row.
+     */
+    private static void createSalesJournalTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SALES_JOURNAL_TABLE_NAME + " ("
+                + COLUMN_APPLIED_SEQUENCE + " INTEGER NOT NULL);");
+        db.execSQL("INSERT INTO " + SALES_JOURNAL_TABLE_NAME + " ("
+                + COLUMN_APPLIED_SEQUENCE + ") VALUES (0);");
+    }
+
+    /**
+     * Create the table that tracks the progress of the catalog imports.
+     */
+    private static void createImportsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + ImportEntry.TABLE_NAME + " ("
+                + ImportEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ImportEntry.COLUMN_SOURCE + " TEXT NOT NULL UNIQUE, "
+                + ImportEntry.COLUMN_POSITION + " INTEGER NOT NULL DEFAULT 0, "
+                + ImportEntry.COLUMN_IMPORTED + " INTEGER NOT NULL DEFAULT 0, "
+                + ImportEntry.COLUMN_FAILED + " INTEGER NOT NULL DEFAULT 0, "
+                + ImportEntry.COLUMN_FINISHED + " INTEGER NOT NULL DEFAULT 0);");
+    }
+
+    /**
+     * Create the summary table, which has a row of figures per vendor.
+     */
+    private static void createSummaryTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SummaryEntry.TABLE_NAME + " ("
+                + SummaryEntry.COLUMN_VENDOR_ID + " INTEGER PRIMARY KEY, "
+                + SummaryEntry.COLUMN_PRODUCT_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + SummaryEntry.COLUMN_TOTAL_UNITS + " INTEGER NOT NULL DEFAULT 0, "
+                + SummaryEntry.COLUMN_STOCK_VALUE + " INTEGER NOT NULL DEFAULT 0, "
+                + SummaryEntry.COLUMN_OUT_OF_STOCK_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + SummaryEntry.COLUMN_LOW_STOCK_COUNT + " INTEGER NOT NULL DEFAULT 0);");
+    }
+
+    /**
+     * Create the triggers that keep the summary table up to date. Every write to the trackers
+     * table adjusts the figures of the vendors it touches by the difference it made, so keeping
+     * the summary costs a couple of primary key lookups per write.
+     */
+    private static void createSummaryTriggers(SQLiteDatabase db) {
+        String trackers = TrackerEntry.TABLE_NAME;
+        db.execSQL("CREATE TRIGGER " + SummaryEntry.TABLE_NAME + "_after_insert AFTER INSERT ON "
+                + trackers + " BEGIN " + addToSummary("new", "+") + " END");
+        db.execSQL("CREATE TRIGGER " + SummaryEntry.TABLE_NAME + "_after_update AFTER UPDATE OF "
+                + TrackerEntry.COLUMN_TRACKER_QUANTITY + ", " + TrackerEntry.COLUMN_TRACKER_PRICE + ", "
+                + TrackerEntry.COLUMN_TRACKER_VENDOR_ID + ", " + TrackerEntry.COLUMN_TRACKER_REORDER_THRESHOLD
+                + " ON " + trackers + " BEGIN "
+                + addToSummary("old", "-") + addToSummary("new", "+") + " END");
+        db.execSQL("CREATE TRIGGER " + SummaryEntry.TABLE_NAME + "_after_delete AFTER DELETE ON "
+                + trackers + " BEGIN " + addToSummary("old", "-") + " END");
+    }
+
+    /**
+     * Return the trigger statements that add the given row ("new" or "old") to, or subtract it
+     * from, the figures of its vendor. A vendor's row is created when its first tracker is added,
+     * and dropped when its last tracker is gone.
+     */
+    private static String addToSummary(String row, String sign) {
+        String quantity = row + "." + TrackerEntry.COLUMN_TRACKER_QUANTITY;
+        String vendorMatches = " WHERE " + SummaryEntry.COLUMN_VENDOR_ID + " = " + row + "."
+                + TrackerEntry.COLUMN_TRACKER_VENDOR_ID + ";";
+        return "INSERT OR IGNORE INTO " + SummaryEntry.TABLE_NAME + " (" + SummaryEntry.COLUMN_VENDOR_ID
+                + ") VALUES (" + row + "." + TrackerEntry.COLUMN_TRACKER_VENDOR_ID + ");"
+                + " UPDATE " + SummaryEntry.TABLE_NAME + " SET "
+                + SummaryEntry.COLUMN_PRODUCT_COUNT + " = " + SummaryEntry.COLUMN_PRODUCT_COUNT + sign + " 1, "
+                + SummaryEntry.COLUMN_TOTAL_UNITS + " = " + SummaryEntry.COLUMN_TOTAL_UNITS + sign + " " + quantity + ", "
+                + SummaryEntry.COLUMN_STOCK_VALUE + " = " + SummaryEntry.COLUMN_STOCK_VALUE + sign + " "
+                + quantity + " * " + row + "." + TrackerEntry.COLUMN_TRACKER_PRICE + ", "
+                + SummaryEntry.COLUMN_OUT_OF_STOCK_COUNT + " = " + SummaryEntry.COLUMN_OUT_OF_STOCK_COUNT
+                + sign + " (" + quantity + " = 0), "
+                + SummaryEntry.COLUMN_LOW_STOCK_COUNT + " = " + SummaryEntry.COLUMN_LOW_STOCK_COUNT
+                + sign + " (" + quantity + " <= " + row + "." + TrackerEntry.COLUMN_TRACKER_REORDER_THRESHOLD + ")"
+                + vendorMatches
+                + " DELETE FROM " + SummaryEntry.TABLE_NAME + vendorMatches.replace(";", "")
+                + " AND " + SummaryEntry.COLUMN_PRODUCT_COUNT + " = 0;";
+    }
+
+    /**
+     * Compute the summary of the existing trackers from scratch.
+     */
+    private static void fillSummaryTable(SQLiteDatabase db) {
+        String quantity = TrackerEntry.COLUMN_TRACKER_QUANTITY;
+        db.execSQL("INSERT INTO " + SummaryEntry.TABLE_NAME + " ("
+                + SummaryEntry.COLUMN_VENDOR_ID + ", " + SummaryEntry.COLUMN_PRODUCT_COUNT + ", "
+                + SummaryEntry.COLUMN_TOTAL_UNITS + ", " + SummaryEntry.COLUMN_STOCK_VALUE + ", "
+                + SummaryEntry.COLUMN_OUT_OF_STOCK_COUNT + ", " + SummaryEntry.COLUMN_LOW_STOCK_COUNT
+                + ") SELECT " + TrackerEntry.COLUMN_TRACKER_VENDOR_ID + ", COUNT(*), SUM(" + quantity
+                + "), SUM(" + quantity + " * " + TrackerEntry.COLUMN_TRACKER_PRICE + "), SUM("
+                + quantity + " = 0), SUM(" + quantity + " <= " + TrackerEntry.COLUMN_TRACKER_REORDER_THRESHOLD
+                + ") FROM " + TrackerEntry.TABLE_NAME + " GROUP BY " + TrackerEntry.COLUMN_TRACKER_VENDOR_ID);
+    }
+
+    /**
+     * Create the reorder watchlist and its index. {@link #createReorderTriggers} keeps it up to
+     * date.
+     * <p>
+     * The watchlist stands in for a partial index on the trackers at or below their reorder
+     * threshold, which the SQLite of older devices doesn't support. A tracker's row comes and goes
+     * as its quantity crosses the threshold, so finding what to reorder only reads the watchlist,
+     * and the index on the vendor hands it out one vendor at a time. A write that doesn't touch the
+     * quantity, threshold or vendor doesn't touch the watchlist either.
+     */
+    private static void createReorderWatchlist(SQLiteDatabase db) {
+        String watchlist = ReorderEntry.TABLE_NAME;
+        db.execSQL("CREATE TABLE " + watchlist + " ("
+                + ReorderEntry.COLUMN_TRACKER_ID + " INTEGER PRIMARY KEY, "
+                + ReorderEntry.COLUMN_VENDOR_ID + " INTEGER NOT NULL);");
+        db.execSQL("CREATE INDEX " + watchlist + "_vendor_id ON " + watchlist + " ("
+                + ReorderEntry.COLUMN_VENDOR_ID + ");");
+    }
+
+    /**
+     * Create the triggers that keep the reorder watchlist up to date.
+     */
+    private static void createReorderTriggers(SQLiteDatabase db) {
+        String watchlist = ReorderEntry.TABLE_NAME;
+        String trackers = TrackerEntry.TABLE_NAME;
+        String deleteOld = "DELETE FROM " + watchlist + " WHERE " + ReorderEntry.COLUMN_TRACKER_ID
+                + " = old." + TrackerEntry._ID + ";";
+        String insertNew = "INSERT INTO " + watchlist + " (" + ReorderEntry.COLUMN_TRACKER_ID + ", "
+                + ReorderEntry.COLUMN_VENDOR_ID + ") SELECT new." + TrackerEntry._ID + ", new."
+                + TrackerEntry.COLUMN_TRACKER_VENDOR_ID + " WHERE new." + TrackerEntry.COLUMN_TRACKER_QUANTITY
+                + " <= new." + TrackerEntry.COLUMN_TRACKER_REORDER_THRESHOLD + ";";
+        db.execSQL("CREATE TRIGGER " + watchlist + "_after_insert AFTER INSERT ON "
+                + trackers + " BEGIN " + insertNew + " END");
+        db.execSQL("CREATE TRIGGER " + watchlist + "_after_update AFTER UPDATE OF "
+                + TrackerEntry.COLUMN_TRACKER_QUANTITY + ", " + TrackerEntry.COLUMN_TRACKER_REORDER_THRESHOLD
+                + ", " + TrackerEntry.COLUMN_TRACKER_VENDOR_ID + " ON " + trackers + " BEGIN "
+                + deleteOld + " " + insertNew + " END");
+        db.execSQL("CREATE TRIGGER " + watchlist + "_after_delete AFTER DELETE ON "
+                + trackers + " BEGIN " + deleteOld + " END");
+    }
+
+    /**
+     * Put the existing trackers that are at or below their threshold on the watchlist.
+     */
+    private static void fillReorderWatchlist(SQLiteDatabase db) {
+        db.execSQL("INSERT INTO " + ReorderEntry.TABLE_NAME + " (" + ReorderEntry.COLUMN_TRACKER_ID
+                + ", " + ReorderEntry.COLUMN_VENDOR_ID + ") SELECT " + TrackerEntry._ID + ", "
+                + TrackerEntry.COLUMN_TRACKER_VENDOR_ID + " FROM " + TrackerEntry.TABLE_NAME + " WHERE "
+                + TrackerEntry.COLUMN_TRACKER_QUANTITY + " <= " + TrackerEntry.COLUMN_TRACKER_REORDER_THRESHOLD);
+    }
+
+    /**
+     * Create the trackers table under the given name.
+     */
+    private static void createTrackersTable(SQLiteDatabase db, String tableName) {
+        // Create a String that contains the SQL statement to create the trackers table.
+        // Quantity and price must be real non-negative integers (the price is in cents), so a
+        // value that doesn't convert to an integer is rejected instead of being stored as TEXT.
+        String SQL_CREATE_TRACKERS_TABLE = "CREATE TABLE " + tableName + " ("
                 + TrackerContract.TrackerEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                 + TrackerContract.TrackerEntry.COLUMN_TRACKER_NAME + " TEXT NOT NULL, "
-                + TrackerContract.TrackerEntry.COLUMN_TRACKER_QUANTITY + " INTEGER NOT NULL, "
-                + TrackerContract.TrackerEntry.COLUMN_TRACKER_PRICE + " INTEGER NOT NULL, "
-                + TrackerContract.TrackerEntry.COLUMN_TRACKER_IMAGE + " BLOB, "
-                + TrackerContract.TrackerEntry.COLUMN_TRACKER_VENDOR + " TEXT NOT NULL);";
+                + TrackerContract.TrackerEntry.COLUMN_TRACKER_QUANTITY + " INTEGER NOT NULL CHECK ("
+                + "typeof(" + TrackerContract.TrackerEntry.COLUMN_TRACKER_QUANTITY + ") = 'integer' AND "
+                + TrackerContract.TrackerEntry.COLUMN_TRACKER_QUANTITY + " >= 0), "
+                + TrackerContract.TrackerEntry.COLUMN_TRACKER_PRICE + " INTEGER NOT NULL CHECK ("
+                + "typeof(" + TrackerContract.TrackerEntry.COLUMN_TRACKER_PRICE + ") = 'integer' AND "
+                + TrackerContract.TrackerEntry.COLUMN_TRACKER_PRICE + " >= 0), "
+                + TrackerContract.TrackerEntry.COLUMN_TRACKER_IMAGE_HASH + " TEXT, "
+                + REORDER_THRESHOLD_DEFINITION + ", "
+                + TrackerContract.TrackerEntry.COLUMN_TRACKER_VENDOR_ID + " INTEGER NOT NULL REFERENCES "
+                + VendorEntry.TABLE_NAME + " (" + VendorEntry._ID + "));";
 
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_TRACKERS_TABLE);
     }
 
+    /**
+     * Create the indexes of the trackers table of the current version on the given table, which
+     * is the trackers table or the copy version 11 rebuilds it into. Their names differ from the
+     * indexes of the older versions, so both sets can exist while the table is rebuilt.
+     * <p>
+     * The image hashes are indexed, so counting the references to an image doesn't need a table
+     * scan, and so are the vendor IDs, so the trackers of a vendor can be listed, and a vendor
+     * checked for trackers before it is deleted, without a table scan.
+     * <p>
+     * The columns a list of trackers can be sorted and filtered by, name, price and quantity, have
+     * an index each that is ordered by the column and then by ID, the order of the pages, so a
+     * page is read with an index seek and no sort. The indexes also carry the other columns of the
+     * catalog list, so a page, and any range filter on those columns, is read from a single index
+     * without looking the rows up in the table.
+     */
+    private static void createTrackersIndexes(SQLiteDatabase db, String table) {
+        db.execSQL("CREATE INDEX trackers_by_image_hash ON " + table + " ("
+                + TrackerEntry.COLUMN_TRACKER_IMAGE_HASH + ");");
+        db.execSQL("CREATE INDEX trackers_by_vendor_id ON " + table + " ("
+                + TrackerEntry.COLUMN_TRACKER_VENDOR_ID + ");");
+        String[] sortColumns = {
+                TrackerEntry.COLUMN_TRACKER_NAME,
+                TrackerEntry.COLUMN_TRACKER_PRICE,
+                TrackerEntry.COLUMN_TRACKER_QUANTITY
+        };
+        for (String column : sortColumns) {
+            db.execSQL("CREATE INDEX trackers_by_" + column + " ON " + table + " (" + column + ", "
+                    + TrackerEntry._ID + ", " + LIST_COLUMNS + ");");
+        }
+    }
+
+    /**
+     * Create the indexes of the trackers table as they were from version 4 to 10, single column
+     * indexes on the image hash, name, price and quantity. The upgrades up to version 10 rebuild
+     * the table, and with it these indexes, as those versions had them, so the covering indexes
+     * are only built once, by the upgrade to version 11.
+     */
+    private static void createVersion4TrackersIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX trackers_image_hash ON " + TrackerEntry.TABLE_NAME + " ("
+                + TrackerEntry.COLUMN_TRACKER_IMAGE_HASH + ");");
+        db.execSQL("CREATE INDEX trackers_name ON " + TrackerEntry.TABLE_NAME + " ("
+                + TrackerEntry.COLUMN_TRACKER_NAME + ");");
+        db.execSQL("CREATE INDEX trackers_price ON " + TrackerEntry.TABLE_NAME + " ("
+                + TrackerEntry.COLUMN_TRACKER_PRICE + ");");
+        db.execSQL("CREATE INDEX trackers_quantity ON " + TrackerEntry.TABLE_NAME + " ("
+                + TrackerEntry.COLUMN_TRACKER_QUANTITY + ");");
+    }
+
     /**
      * This is called when the database needs to be upgraded.
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        mMigrator.upgrade(db, oldVersion);
+    }
+
+    /**
+     * This is called every time the database has been opened, after any upgrade. It continues
+     * the upgrade steps that were left to the background.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        mMigrator.resume(this, db);
+    }
+
+    /**
+     * Return the names of the upgrade steps that are still running in the background.
+     */
+    List<String> getPendingMigrations() {
+        return mMigrator.getPending(getReadableDatabase());
+    }
+
+    /**
+     * Version 9 moves the vendors into a table of their own, which the trackers reference by ID,
+     * and keys the summary and the watchlist by vendor ID.
+     * <p>
+     * Every distinct vendor e-mail becomes one vendor, ignoring case and surrounding white space,
+     * in the order the e-mails first appear. SQLite can't drop a column, so the trackers table is
+     * rebuilt without the vendor text; dropping the old table takes its indexes and triggers with
+     * it, so everything computed from it is created again.
+     */
+    private static void upgradeToVersion9(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS " + TrackerEntry.FTS_TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + SummaryEntry.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + ReorderEntry.TABLE_NAME);
+
+        String vendor = "TRIM(" + TrackerEntry.COLUMN_TRACKER_VENDOR + ")";
+        createVendorsTable(db);
+        db.execSQL("INSERT INTO " + VendorEntry.TABLE_NAME + " (" + VendorEntry.COLUMN_VENDOR_EMAIL
+                + ") SELECT " + vendor + " FROM " + TrackerEntry.TABLE_NAME + " GROUP BY " + vendor
+                + " COLLATE NOCASE ORDER BY MIN(" + TrackerEntry._ID + ")");
+
+        String newTable = TrackerEntry.TABLE_NAME + "_new";
+        createTrackersTable(db, newTable);
+        String columns = TrackerEntry._ID + ", "
+                + TrackerEntry.COLUMN_TRACKER_NAME + ", "
+                + TrackerEntry.COLUMN_TRACKER_QUANTITY + ", "
+                + TrackerEntry.COLUMN_TRACKER_PRICE + ", "
+                + TrackerEntry.COLUMN_TRACKER_IMAGE_HASH + ", "
+                + TrackerEntry.COLUMN_TRACKER_REORDER_THRESHOLD;
+        // The e-mail column compares without case, so every spelling finds its vendor
+        db.execSQL("INSERT INTO " + newTable + " (" + columns + ", " + TrackerEntry.COLUMN_TRACKER_VENDOR_ID
+                + ") SELECT " + columns.replace(TrackerEntry._ID + ",", "t." + TrackerEntry._ID + ",")
+                + ", v." + VendorEntry._ID + " FROM " + TrackerEntry.TABLE_NAME + " t JOIN "
+                + VendorEntry.TABLE_NAME + " v ON v." + VendorEntry.COLUMN_VENDOR_EMAIL + " = TRIM(t."
+                + TrackerEntry.COLUMN_TRACKER_VENDOR + ")");
+        replaceTrackersTable(db, newTable);
+
+        createVersion4TrackersIndexes(db);
+        db.execSQL("CREATE INDEX trackers_vendor_id ON " + TrackerEntry.TABLE_NAME + " ("
+                + TrackerEntry.COLUMN_TRACKER_VENDOR_ID + ");");
+        createDerivedTables(db);
+        fillDerivedTables(db);
+    }
+
+    /**
+     * Replace the trackers table by the given one, keeping the AUTOINCREMENT counter, so the IDs
+     * of deleted trackers are never handed out again.
+     */
+    private static void replaceTrackersTable(SQLiteDatabase db, String newTable) {
+        long sequence = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(seq), 0) FROM sqlite_sequence"
+                + " WHERE name IN (?, ?)", new String[]{TrackerEntry.TABLE_NAME, newTable});
+
+        db.execSQL("DROP TABLE " + TrackerEntry.TABLE_NAME);
+        db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + TrackerEntry.TABLE_NAME);
+        db.execSQL("DELETE FROM sqlite_sequence WHERE name = ?", new Object[]{TrackerEntry.TABLE_NAME});
+        db.execSQL("INSERT INTO sqlite_sequence (name, seq) VALUES (?, ?)",
+                new Object[]{TrackerEntry.TABLE_NAME, sequence});
+    }
+
+    /**
+     * Create the full-text indexes over the names of the trackers and the e-mails of the vendors.
+     * The triggers of the trackers index are created with the other triggers on the trackers
+     * table, those of the vendors index right away.
+     * <p>
+     * The indexes are external content FTS4 tables, so the text itself is only stored once, in the
+     * trackers and vendors tables. Prefix indexes for two and three characters make
+     * search-as-you-type queries cheap. The update triggers only fire when the indexed text
+     * changes, so a sale doesn't touch the index, and a new vendor e-mail only touches the
+     * vendor's own entry.
+     */
+    private static void createSearchIndexes(SQLiteDatabase db) {
+        createSearchIndex(db, TrackerEntry.FTS_TABLE_NAME, TrackerEntry.TABLE_NAME,
+                TrackerEntry.COLUMN_TRACKER_NAME);
+        createSearchIndex(db, VendorEntry.FTS_TABLE_NAME, VendorEntry.TABLE_NAME,
+                VendorEntry.COLUMN_VENDOR_EMAIL);
+        createSearchTriggers(db, VendorEntry.FTS_TABLE_NAME, VendorEntry.TABLE_NAME, VendorEntry._ID,
+                VendorEntry.COLUMN_VENDOR_EMAIL);
+    }
+
+    /**
+     * Create the full-text index of the given column of the given table, see
+     * {@link #createSearchIndexes(SQLiteDatabase)}.
+     */
+    private static void createSearchIndex(SQLiteDatabase db, String fts, String table, String column) {
+        db.execSQL("CREATE VIRTUAL TABLE " + fts + " USING fts4(content=\"" + table + "\", "
+                + column + ", prefix=\"2,3\")");
     }
 
+    /**
+     * Create the triggers that keep the full-text index of the given column of the given table in
+     * sync with the table.
+     */
+    private static void createSearchTriggers(SQLiteDatabase db, String fts, String table, String id,
+                                             String column) {
+        String deleteOld = "DELETE FROM " + fts + " WHERE docid = old." + id + "; END";
+        String insertNew = "INSERT INTO " + fts + " (docid, " + column + ") VALUES (new." + id
+                + ", new." + column + "); END";
+
+        db.execSQL("CREATE TRIGGER " + fts + "_after_insert AFTER INSERT ON "
+                + table + " BEGIN " + insertNew);
+        db.execSQL("CREATE TRIGGER " + fts + "_before_update BEFORE UPDATE OF " + column + " ON "
+                + table + " BEGIN " + deleteOld);
+        db.execSQL("CREATE TRIGGER " + fts + "_after_update AFTER UPDATE OF " + column + " ON "
+                + table + " BEGIN " + insertNew);
+        db.execSQL("CREATE TRIGGER " + fts + "_before_delete BEFORE DELETE ON "
+                + table + " BEGIN " + deleteOld);
+    }
+
+    /**
+     * Index the existing trackers and vendors.
+     */
+    private static void fillSearchIndexes(SQLiteDatabase db) {
+        db.execSQL("INSERT INTO " + TrackerEntry.FTS_TABLE_NAME + " (docid, "
+                + TrackerEntry.COLUMN_TRACKER_NAME + ") SELECT " + TrackerEntry._ID + ", "
+                + TrackerEntry.COLUMN_TRACKER_NAME + " FROM " + TrackerEntry.TABLE_NAME);
+        db.execSQL("INSERT INTO " + VendorEntry.FTS_TABLE_NAME + " (docid, "
+                + VendorEntry.COLUMN_VENDOR_EMAIL + ") SELECT " + VendorEntry._ID + ", "
+                + VendorEntry.COLUMN_VENDOR_EMAIL + " FROM " + VendorEntry.TABLE_NAME);
+    }
+
+    /**
+     * Version 4 stores the price as an integer number of cents, and adds CHECK constraints on
+     * quantity and price. Until now the price was whatever text was typed, like "$129" or "12.5",
+     * so it ended up with TEXT affinity and sorted and compared as a string.
+     * <p>
+     * SQLite can't add constraints to an existing table, so the table is rebuilt. This also drops
+     * the image column that version 2 emptied. The table is created as it was in version 4, so the
+     * later upgrades find what they expect.
+     */
+    private void upgradeToVersion4(SQLiteDatabase db) {
+        String newTable = TrackerEntry.TABLE_NAME + "_new";
+        db.execSQL("CREATE TABLE " + newTable + " ("
+                + TrackerEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + TrackerEntry.COLUMN_TRACKER_NAME + " TEXT NOT NULL, "
+                + TrackerEntry.COLUMN_TRACKER_QUANTITY + " INTEGER NOT NULL CHECK ("
+                + "typeof(" + TrackerEntry.COLUMN_TRACKER_QUANTITY + ") = 'integer' AND "
+                + TrackerEntry.COLUMN_TRACKER_QUANTITY + " >= 0), "
+                + TrackerEntry.COLUMN_TRACKER_PRICE + " INTEGER NOT NULL CHECK ("
+                + "typeof(" + TrackerEntry.COLUMN_TRACKER_PRICE + ") = 'integer' AND "
+                + TrackerEntry.COLUMN_TRACKER_PRICE + " >= 0), "
+                + TrackerEntry.COLUMN_TRACKER_IMAGE_HASH + " TEXT, "
+                + TrackerEntry.COLUMN_TRACKER_VENDOR + " TEXT NOT NULL);");
+
+        // Strip currency symbols and thousands separators, and convert the amount of dollars into
+        // cents. Quantities that were stored below zero are clamped to satisfy the new constraint.
+        String price = "REPLACE(REPLACE(TRIM(" + TrackerEntry.COLUMN_TRACKER_PRICE + "), '$', ''), ',', '')";
+        db.execSQL("INSERT INTO " + newTable + " ("
+                + TrackerEntry._ID + ", "
+                + TrackerEntry.COLUMN_TRACKER_NAME + ", "
+                + TrackerEntry.COLUMN_TRACKER_QUANTITY + ", "
+                + TrackerEntry.COLUMN_TRACKER_PRICE + ", "
+                + TrackerEntry.COLUMN_TRACKER_IMAGE_HASH + ", "
+                + TrackerEntry.COLUMN_TRACKER_VENDOR + ") SELECT "
+                + TrackerEntry._ID + ", "
+                + TrackerEntry.COLUMN_TRACKER_NAME + ", "
+                + "MAX(0, CAST(" + TrackerEntry.COLUMN_TRACKER_QUANTITY + " AS INTEGER)), "
+                + "MAX(0, CAST(ROUND(CAST(" + price + " AS REAL) * 100) AS INTEGER)), "
+                + TrackerEntry.COLUMN_TRACKER_IMAGE_HASH + ", "
+                + TrackerEntry.COLUMN_TRACKER_VENDOR + " FROM " + TrackerEntry.TABLE_NAME);
+        replaceTrackersTable(db, newTable);
 
+        // The indexes went away with the old table
+        createVersion4TrackersIndexes(db);
+    }
+
+    /**
+     * Version 2 moves the images out of the trackers table into the {@link ImageStore}, and only
+     * keeps their hash in the table.
+     */
+    private void upgradeToVersion2(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TrackerEntry.TABLE_NAME + " ADD COLUMN "
+                + TrackerEntry.COLUMN_TRACKER_IMAGE_HASH + " TEXT;");
+        db.execSQL("CREATE INDEX trackers_image_hash ON " + TrackerEntry.TABLE_NAME + " ("
+                + TrackerEntry.COLUMN_TRACKER_IMAGE_HASH + ");");
+
+        // Collect the rows that still have an image first, because they are updated as we go
+        List<Long> ids = new ArrayList<>();
+        Cursor cursor = db.query(TrackerEntry.TABLE_NAME, new String[]{TrackerEntry._ID},
+                TrackerEntry.COLUMN_TRACKER_IMAGE + " IS NOT NULL", null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        ImageStore imageStore = new ImageStore(mContext);
+        for (long id : ids) {
+            String hash;
+            InputStream in = new BlobInputStream(db, id);
+            try {
+                hash = imageStore.put(in);
+            } catch (IOException e) {
+                // Leave the database at version 1, so the move is tried again on the next open
+                throw new IllegalStateException("Cannot move the image of tracker " + id, e);
+            } finally {
+                closeQuietly(in);
+            }
+
+            ContentValues values = new ContentValues();
+            values.put(TrackerEntry.COLUMN_TRACKER_IMAGE_HASH, hash);
+            values.putNull(TrackerEntry.COLUMN_TRACKER_IMAGE);
+            db.update(TrackerEntry.TABLE_NAME, values, TrackerEntry._ID + "=?",
+                    new String[]{String.valueOf(id)});
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException ignored) {
+            // Nothing useful can be done about it
+        }
+    }
+
+    /**
+     * Reads the legacy image BLOB of a single tracker in small chunks. A large image does not fit
+     * into a CursorWindow, so it can't be read with a single {@link Cursor#getBlob(int)}.
+     */
+    private static class BlobInputStream extends InputStream {
+
+        private static final int CHUNK_SIZE = 256 * 1024;
+
+        private final SQLiteDatabase mDb;
+
+        private final String[] mSelectionArgs = new String[3];
+
+        private byte[] mChunk = new byte[0];
+
+        private int mChunkPosition;
+
+        /**
+         * 1-based offset of the next chunk, as expected by substr()
+         */
+        private long mOffset = 1;
+
+        BlobInputStream(SQLiteDatabase db, long id) {
+            mDb = db;
+            mSelectionArgs[2] = String.valueOf(id);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mChunkPosition == mChunk.length && !nextChunk()) {
+                return -1;
+            }
+            return mChunk[mChunkPosition++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (mChunkPosition == mChunk.length && !nextChunk()) {
+                return -1;
+            }
+            int count = Math.min(length, mChunk.length - mChunkPosition);
+            System.arraycopy(mChunk, mChunkPosition, buffer, offset, count);
+            mChunkPosition += count;
+            return count;
+        }
+
+        private boolean nextChunk() {
+            mSelectionArgs[0] = String.valueOf(mOffset);
+            mSelectionArgs[1] = String.valueOf(CHUNK_SIZE);
+            Cursor cursor = mDb.rawQuery("SELECT substr(" + TrackerEntry.COLUMN_TRACKER_IMAGE
+                    + ", ?, ?) FROM " + TrackerEntry.TABLE_NAME + " WHERE " + TrackerEntry._ID
+                    + " = ?", mSelectionArgs);
+            byte[] chunk;
+            try {
+                chunk = cursor.moveToFirst() ? cursor.getBlob(0) : null;
+            } finally {
+                cursor.close();
+            }
+
+            if (chunk == null || chunk.length == 0) {
+                return false;
+            }
+            mChunk = chunk;
+            mChunkPosition = 0;
+            mOffset += chunk.length;
+            return true;
+        }
+    }
 }
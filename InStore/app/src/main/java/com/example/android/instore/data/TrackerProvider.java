@@ -1,14 +1,59 @@
 package com.example.android.instore.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.example.android.instore.R;
+import com.example.android.instore.data.TrackerContract.ImportEntry;
+import com.example.android.instore.data.TrackerContract.ReorderEntry;
+import com.example.android.instore.data.TrackerContract.SummaryEntry;
+import com.example.android.instore.data.TrackerContract.TrackerEntry;
+import com.example.android.instore.data.TrackerContract.VendorEntry;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
 import static com.example.android.instore.R.id.price;
 import static com.example.android.instore.R.id.quantity;
 
@@ -34,6 +79,78 @@ public class TrackerProvider extends ContentProvider {
      */
     private static final int TRACKER_ID = 101;
 
+    /**
+     * URI matcher code for the content URI for the image of a single tracker
+     */
+    private static final int TRACKER_IMAGE = 102;
+
+    /**
+     * URI matcher code for the content URI that searches the trackers table
+     */
+    private static final int TRACKERS_SEARCH = 103;
+
+    /**
+     * URI matcher code for the content URI of the inventory summary
+     */
+    private static final int TRACKERS_SUMMARY = 104;
+
+    /**
+     * URI matcher code for the content URI of the reorder watchlist
+     */
+    private static final int TRACKERS_REORDER = 105;
+
+    /**
+     * URI matcher code for the content URI for the vendors table
+     */
+    private static final int VENDORS = 200;
+
+    /**
+     * URI matcher code for the content URI for a single vendor in the vendors table
+     */
+    private static final int VENDOR_ID = 201;
+
+    /**
+     * URI matcher code for the content URI for the trackers of a single vendor
+     */
+    private static final int VENDOR_TRACKERS = 202;
+
+    /**
+     * URI matcher code for the content URI for the imports table
+     */
+    private static final int IMPORTS = 300;
+
+    /**
+     * URI matcher code for the content URI for a single import in the imports table
+     */
+    private static final int IMPORT_ID = 301;
+
+    /**
+     * Most rows a single change notifies one by one. Beyond that, observers are told that the
+     * whole table changed, since they would query it again anyway.
+     */
+    private static final int MAX_ROW_NOTIFICATIONS = 100;
+
+    /**
+     * How much a search match in the vendor's e-mail counts, against a match in the tracker's name
+     */
+    private static final double VENDOR_SEARCH_WEIGHT = 0.5;
+
+    /**
+     * Name of the file (inside the app's files directory) that journals the pending sales
+     */
+    private static final String SALES_JOURNAL_FILE_NAME = "sales.journal";
+
+    /**
+     * How long a journaled sale may wait before it is applied to the trackers table, so the
+     * sales of a rush are applied together
+     */
+    private static final long SALES_FLUSH_DELAY_MS = 500;
+
+    /**
+     * How long {@link #shutdown()} waits for each background thread to finish its work
+     */
+    private static final long SHUTDOWN_TIMEOUT_MS = 5000;
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -60,6 +177,176 @@ public class TrackerProvider extends ContentProvider {
         // For example, "content://com.example.android.trackers/trackers/3" matches, but
         // "content://com.example.android.trackers/trackers" (without a number at the end) doesn't match.
         sUriMatcher.addURI(TrackerContract.CONTENT_AUTHORITY, TrackerContract.PATH_TRACKERS + "/#", TRACKER_ID);
+
+        // The content URI of the form "content://com.example.android.trackers/trackers/#/image" will map
+        // to the integer code {@link #TRACKER_IMAGE}. This URI is only used with openFile(), to stream
+        // the image of ONE single tracker.
+        sUriMatcher.addURI(TrackerContract.CONTENT_AUTHORITY,
+                TrackerContract.PATH_TRACKERS + "/#/" + TrackerContract.PATH_IMAGE, TRACKER_IMAGE);
+
+        // The content URI of the form "content://com.example.android.trackers/trackers/search/fit" will
+        // map to the integer code {@link #TRACKERS_SEARCH}. This URI is used to search the names and
+        // vendors of the trackers for the text in the last segment.
+        sUriMatcher.addURI(TrackerContract.CONTENT_AUTHORITY,
+                TrackerContract.PATH_TRACKERS + "/" + TrackerContract.PATH_SEARCH + "/*", TRACKERS_SEARCH);
+
+        // The content URI of the form "content://com.example.android.trackers/trackers/summary" will
+        // map to the integer code {@link #TRACKERS_SUMMARY}. This URI is used to read the inventory
+        // figures, in total or per vendor.
+        sUriMatcher.addURI(TrackerContract.CONTENT_AUTHORITY,
+                TrackerContract.PATH_TRACKERS + "/" + TrackerContract.PATH_SUMMARY, TRACKERS_SUMMARY);
+
+        // The content URI of the form "content://com.example.android.trackers/trackers/reorder" will
+        // map to the integer code {@link #TRACKERS_REORDER}. This URI is used to read the trackers
+        // at or below their reorder threshold, one by one or per vendor.
+        sUriMatcher.addURI(TrackerContract.CONTENT_AUTHORITY,
+                TrackerContract.PATH_TRACKERS + "/" + TrackerContract.PATH_REORDER, TRACKERS_REORDER);
+
+        // The content URIs of the form "content://com.example.android.trackers/vendors" and
+        // "content://com.example.android.trackers/vendors/#" will map to the integer codes
+        // {@link #VENDORS} and {@link #VENDOR_ID}, to access MULTIPLE or ONE single row of the
+        // vendors table.
+        sUriMatcher.addURI(TrackerContract.CONTENT_AUTHORITY, TrackerContract.PATH_VENDORS, VENDORS);
+        sUriMatcher.addURI(TrackerContract.CONTENT_AUTHORITY, TrackerContract.PATH_VENDORS + "/#", VENDOR_ID);
+
+        // The content URI of the form "content://com.example.android.trackers/vendors/#/trackers" will
+        // map to the integer code {@link #VENDOR_TRACKERS}. This URI is used to list the trackers of
+        // ONE single vendor.
+        sUriMatcher.addURI(TrackerContract.CONTENT_AUTHORITY,
+                TrackerContract.PATH_VENDORS + "/#/" + TrackerContract.PATH_TRACKERS, VENDOR_TRACKERS);
+
+        // The content URIs of the form "content://com.example.android.trackers/imports" and
+        // "content://com.example.android.trackers/imports/#" will map to the integer codes
+        // {@link #IMPORTS} and {@link #IMPORT_ID}, to access MULTIPLE or ONE single row of the
+        // imports table.
+        sUriMatcher.addURI(TrackerContract.CONTENT_AUTHORITY, TrackerContract.PATH_IMPORTS, IMPORTS);
+        sUriMatcher.addURI(TrackerContract.CONTENT_AUTHORITY, TrackerContract.PATH_IMPORTS + "/#", IMPORT_ID);
+    }
+
+    /**
+     * The match codes the provider keeps figures of its operations for, in ascending order, and
+     * the paths they stand for. Operations on URIs that match none are counted apart, as
+     * "unmatched".
+     */
+    private static final int[] METRICS_MATCH_CODES = {
+            TRACKERS, TRACKER_ID, TRACKER_IMAGE, TRACKERS_SEARCH, TRACKERS_SUMMARY, TRACKERS_REORDER,
+            VENDORS, VENDOR_ID, VENDOR_TRACKERS,
+            IMPORTS, IMPORT_ID
+    };
+
+    private static final String[] METRICS_MATCH_NAMES = {
+            TrackerContract.PATH_TRACKERS,
+            TrackerContract.PATH_TRACKERS + "/#",
+            TrackerContract.PATH_TRACKERS + "/#/" + TrackerContract.PATH_IMAGE,
+            TrackerContract.PATH_TRACKERS + "/" + TrackerContract.PATH_SEARCH + "/*",
+            TrackerContract.PATH_TRACKERS + "/" + TrackerContract.PATH_SUMMARY,
+            TrackerContract.PATH_TRACKERS + "/" + TrackerContract.PATH_REORDER,
+            TrackerContract.PATH_VENDORS,
+            TrackerContract.PATH_VENDORS + "/#",
+            TrackerContract.PATH_VENDORS + "/#/" + TrackerContract.PATH_TRACKERS,
+            TrackerContract.PATH_IMPORTS,
+            TrackerContract.PATH_IMPORTS + "/#"
+    };
+
+    /**
+     * Matches the vendor e-mail column of the trackers as a whole word, but not the vendor ID
+     * column or the vendors table
+     */
+    private static final Pattern VENDOR_COLUMN_PATTERN = Pattern.compile(
+            "\\b" + TrackerEntry.COLUMN_TRACKER_VENDOR + "\\b");
+
+    /**
+     * The trackers joined with their vendors, for queries that read the vendor's e-mail. Wrapped in
+     * a subquery, which SQLite flattens, so selections and sort orders can name the columns of
+     * the trackers table as they are.
+     */
+    private static final String TRACKERS_WITH_VENDOR_TABLES = "(SELECT " + TrackerEntry.TABLE_NAME
+            + ".*, " + VendorEntry.TABLE_NAME + "." + VendorEntry.COLUMN_VENDOR_EMAIL + " AS "
+            + TrackerEntry.COLUMN_TRACKER_VENDOR + " FROM " + TrackerEntry.TABLE_NAME + " JOIN "
+            + VendorEntry.TABLE_NAME + " ON " + VendorEntry.TABLE_NAME + "." + VendorEntry._ID + " = "
+            + TrackerEntry.TABLE_NAME + "." + TrackerEntry.COLUMN_TRACKER_VENDOR_ID + ")";
+
+    /**
+     * The summary of every vendor joined with the vendor's e-mail
+     */
+    private static final String SUMMARY_VENDOR_TABLES = "(SELECT " + SummaryEntry.TABLE_NAME
+            + ".*, " + VendorEntry.TABLE_NAME + "." + VendorEntry.COLUMN_VENDOR_EMAIL + " AS "
+            + SummaryEntry.COLUMN_VENDOR + " FROM " + SummaryEntry.TABLE_NAME + " JOIN "
+            + VendorEntry.TABLE_NAME + " ON " + VendorEntry.TABLE_NAME + "." + VendorEntry._ID + " = "
+            + SummaryEntry.TABLE_NAME + "." + SummaryEntry.COLUMN_VENDOR_ID + ")";
+
+    /**
+     * Columns of the summary of the whole catalog, each the total over all vendors
+     */
+    private static final Map<String, String> sSummaryTotalsProjection = new HashMap<>();
+
+    /**
+     * Columns of the summary of every vendor
+     */
+    private static final Map<String, String> sSummaryVendorProjection = new HashMap<>();
+
+    static {
+        String[] totals = {
+                SummaryEntry.COLUMN_PRODUCT_COUNT,
+                SummaryEntry.COLUMN_TOTAL_UNITS,
+                SummaryEntry.COLUMN_STOCK_VALUE,
+                SummaryEntry.COLUMN_OUT_OF_STOCK_COUNT,
+                SummaryEntry.COLUMN_LOW_STOCK_COUNT
+        };
+        for (String column : totals) {
+            sSummaryTotalsProjection.put(column, "IFNULL(SUM(" + column + "), 0) AS " + column);
+            sSummaryVendorProjection.put(column, column);
+        }
+        sSummaryVendorProjection.put(SummaryEntry.COLUMN_VENDOR_ID, SummaryEntry.COLUMN_VENDOR_ID);
+        sSummaryVendorProjection.put(SummaryEntry.COLUMN_VENDOR, SummaryEntry.COLUMN_VENDOR);
+    }
+
+    /**
+     * The watchlist joined with the trackers on it and their vendors. Wrapped in a subquery, which
+     * SQLite flattens, so selections can name the columns without saying which of the tables they
+     * come from.
+     */
+    private static final String REORDER_TABLES = "(SELECT "
+            + TrackerEntry.TABLE_NAME + "." + TrackerEntry._ID + " AS " + TrackerEntry._ID + ", "
+            + TrackerEntry.COLUMN_TRACKER_NAME + ", "
+            + TrackerEntry.COLUMN_TRACKER_QUANTITY + ", "
+            + TrackerEntry.COLUMN_TRACKER_REORDER_THRESHOLD + ", "
+            + ReorderEntry.TABLE_NAME + "." + ReorderEntry.COLUMN_VENDOR_ID + " AS " + ReorderEntry.COLUMN_VENDOR_ID + ", "
+            + VendorEntry.TABLE_NAME + "." + VendorEntry.COLUMN_VENDOR_EMAIL + " AS " + ReorderEntry.COLUMN_VENDOR
+            + " FROM " + ReorderEntry.TABLE_NAME + " JOIN " + TrackerEntry.TABLE_NAME + " ON "
+            + TrackerEntry.TABLE_NAME + "." + TrackerEntry._ID + " = "
+            + ReorderEntry.TABLE_NAME + "." + ReorderEntry.COLUMN_TRACKER_ID + " JOIN "
+            + VendorEntry.TABLE_NAME + " ON " + VendorEntry.TABLE_NAME + "." + VendorEntry._ID + " = "
+            + ReorderEntry.TABLE_NAME + "." + ReorderEntry.COLUMN_VENDOR_ID + ")";
+
+    /**
+     * Columns of the watchlist, a row per tracker
+     */
+    private static final Map<String, String> sReorderProjection = new HashMap<>();
+
+    /**
+     * Columns of the watchlist grouped by vendor
+     */
+    private static final Map<String, String> sReorderVendorProjection = new HashMap<>();
+
+    static {
+        String[] columns = {
+                TrackerEntry._ID,
+                TrackerEntry.COLUMN_TRACKER_NAME,
+                TrackerEntry.COLUMN_TRACKER_QUANTITY,
+                TrackerEntry.COLUMN_TRACKER_REORDER_THRESHOLD,
+                ReorderEntry.COLUMN_VENDOR_ID,
+                ReorderEntry.COLUMN_VENDOR
+        };
+        for (String column : columns) {
+            sReorderProjection.put(column, column);
+        }
+        sReorderVendorProjection.put(ReorderEntry.COLUMN_VENDOR_ID, ReorderEntry.COLUMN_VENDOR_ID);
+        sReorderVendorProjection.put(ReorderEntry.COLUMN_VENDOR, ReorderEntry.COLUMN_VENDOR);
+        sReorderVendorProjection.put(ReorderEntry.COLUMN_PRODUCT_COUNT,
+                "COUNT(*) AS " + ReorderEntry.COLUMN_PRODUCT_COUNT);
+        sReorderVendorProjection.put(ReorderEntry.COLUMN_NAMES, "GROUP_CONCAT("
+                + TrackerEntry.COLUMN_TRACKER_NAME + ", '\n') AS " + ReorderEntry.COLUMN_NAMES);
     }
 
     /**
@@ -67,122 +354,1523 @@ public class TrackerProvider extends ContentProvider {
      */
     private TrackerDbHelper mDbHelper;
 
+    /**
+     * Store that holds the image files of the trackers
+     */
+    private ImageStore mImageStore;
+
+    /**
+     * Disk cache of the thumbnails of the tracker images
+     */
+    private ThumbnailCache mThumbnailCache;
+
+    /**
+     * Recently read trackers, to serve single tracker queries without the database
+     */
+    private TrackerRowCache mRowCache;
+
+    /**
+     * The columns of the catalog list, to serve its pages without the database, or null if
+     * turned off with {@code R.bool.catalog_snapshot}
+     */
+    private CatalogSnapshot mSnapshot;
+
+    /**
+     * How long the catalog has to go without changes before the first page file is written
+     */
+    private static final long FIRST_PAGE_WRITE_DELAY_MS = 1000;
+
+    /**
+     * The first screenful of the catalog, written after every change, or null if turned off with
+     * {@code R.bool.first_page_file}
+     */
+    private FirstPageFile mFirstPageFile;
+
+    /**
+     * Background thread that reads the catalog snapshot when the provider starts, and writes the
+     * first page file. Also guards the two fields below.
+     */
+    private final ScheduledExecutorService mFirstPageExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * Whether a write of the first page file is scheduled
+     */
+    private boolean mFirstPageWriteScheduled;
+
+    /**
+     * Uptime of the last change of the catalog
+     */
+    private long mLastCatalogChangeMillis;
+
+    /**
+     * Background thread that creates the thumbnails of newly stored images
+     */
+    private final ExecutorService mThumbnailExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Journal of the sales accepted with {@link TrackerContract#METHOD_RECORD_SALE}, opened (and
+     * replayed) on first use
+     */
+    private SalesJournal mSalesJournal;
+
+    /**
+     * Units sold per tracker ID that are journaled but not yet applied to the trackers table.
+     * Also guards {@link #mSalesJournal} and the scheduling flags below.
+     */
+    private final Map<Long, Integer> mPendingSales = new HashMap<>();
+
+    /**
+     * Whether a sync of the journal, and an application of the pending sales, are scheduled
+     */
+    private boolean mSalesSyncScheduled;
+
+    private boolean mSalesFlushScheduled;
+
+    /**
+     * Background thread that syncs the journal and applies the pending sales
+     */
+    private final ScheduledExecutorService mSalesExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * Held for reading by queries and for writing while pending sales move into the table, so a
+     * query never sees a sale both in the table and still pending, or in neither
+     */
+    private final ReadWriteLock mSalesLock = new ReentrantReadWriteLock();
+
+    /**
+     * Work held back until the batch that the calling thread is running commits. Null when the
+     * thread is not inside {@link #bulkInsert} or {@link #applyBatch}.
+     */
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<>();
+
+    /**
+     * Figures of the operations of the provider, read with {@link TrackerContract#METHOD_METRICS}
+     */
+    private final ProviderMetrics mMetrics = new ProviderMetrics(METRICS_MATCH_CODES, METRICS_MATCH_NAMES);
+
+    /**
+     * Work that is held back until a batch commits.
+     */
+    private static class Batch {
+
+        /**
+         * URIs whose change notification has been held back
+         */
+        final Set<Uri> notifications = new LinkedHashSet<>();
+
+        /**
+         * Hashes of images that lost a reference during the batch
+         */
+        final Set<String> releasedImages = new HashSet<>();
+
+        /**
+         * Hashes of images that rows written during the batch reference, which lose that
+         * reference again if the batch rolls back
+         */
+        final Set<String> storedImages = new HashSet<>();
+    }
+
     @Override
     public boolean onCreate() {
-        mDbHelper = new TrackerDbHelper(getContext());
+        mDbHelper = new TrackerDbHelper(getContext(),
+                getContext().getResources().getBoolean(R.bool.write_ahead_logging));
+        mImageStore = new ImageStore(getContext());
+        mThumbnailCache = new ThumbnailCache(getContext());
+        mRowCache = new TrackerRowCache(
+                getContext().getResources().getInteger(R.integer.tracker_row_cache_size));
+        if (getContext().getResources().getBoolean(R.bool.catalog_snapshot)) {
+            mSnapshot = new CatalogSnapshot();
+            prepareSnapshot();
+        }
+        if (getContext().getResources().getBoolean(R.bool.first_page_file)) {
+            mFirstPageFile = new FirstPageFile(getContext());
+            if (!mFirstPageFile.exists()) {
+                scheduleFirstPageWrite();
+            }
+        }
         return true;
     }
 
+    /**
+     * Read the catalog snapshot in the background, so the first page of the catalog doesn't
+     * have to wait for all of it.
+     */
+    private void prepareSnapshot() {
+        mFirstPageExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mSnapshot.prepare(mDbHelper.getReadableDatabase());
+                } catch (RuntimeException e) {
+                    // The first page reads the snapshot itself then
+                    Log.e(LOG_TAG, "Failed to read the catalog snapshot", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reopen the database with or without write-ahead logging. Only meant for benchmarks that
+     * compare both modes on the same provider; the app picks its mode with
+     * {@code R.bool.write_ahead_logging}. Must not be called while the provider is in use.
+     */
+    void setWriteAheadLogging(boolean enabled) {
+        mDbHelper.close();
+        mDbHelper = new TrackerDbHelper(getContext(), enabled);
+    }
+
+    /**
+     * Stop the background threads and close the database. Only tests call this; the provider of
+     * the app lives as long as its process.
+     * <p>
+     * The threads are waited for before the database closes, so none of their work runs against
+     * a closed database, and the sales still pending are applied, so they aren't left to a replay
+     * of the journal.
+     */
+    @Override
+    public void shutdown() {
+        mFirstPageExecutor.shutdownNow();
+        mThumbnailExecutor.shutdownNow();
+
+        // Not shutdownNow(): interrupting a sync of the journal would close its channel. A flush
+        // that is scheduled still runs, and the one below applies whatever is left.
+        mSalesExecutor.shutdown();
+
+        awaitTermination(mFirstPageExecutor);
+        awaitTermination(mThumbnailExecutor);
+        awaitTermination(mSalesExecutor);
+        flushPendingSales();
+        mDbHelper.close();
+    }
+
+    /**
+     * Wait for the given executor, which has been shut down, to finish its work.
+     */
+    private static void awaitTermination(ExecutorService executor) {
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(LOG_TAG, "Background work still running at shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Print the figures of the operations of the provider, for
+     * {@code adb shell dumpsys activity provider TrackerProvider}.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mMetrics.dump(writer);
+        writer.println("Row cache: hits=" + mRowCache.getHits() + " misses=" + mRowCache.getMisses()
+                + " size=" + mRowCache.getSize());
+        writer.println("Pending migrations: " + mDbHelper.getPendingMigrations());
+    }
+
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long startNanos = System.nanoTime();
+        int match = sUriMatcher.match(uri);
+        Cursor cursor = null;
+        try {
+            cursor = query(uri, match, projection, selection, selectionArgs, sortOrder);
+        } finally {
+            if (cursor == null) {
+                mMetrics.record(ProviderMetrics.OPERATION_QUERY, match, startNanos, -1, 0);
+            }
+        }
+
+        // The query only runs once the rows are asked for, so it is recorded then, on whatever
+        // thread reads them, rather than run early here just to be timed
+        return new MeteredCursor(cursor, mMetrics, match, startNanos);
+    }
+
+    private Cursor query(Uri uri, int match, String[] projection, String selection,
+                         String[] selectionArgs, String sortOrder) {
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
         // This cursor will hold the result of the query
         Cursor cursor;
 
-        // Figure out if the URI matcher can match the URI to a specific code
-        int match = sUriMatcher.match(uri);
-        switch (match) {
-            case TRACKERS:
-                // For the TRACKERS code, query the trackers table directly with the given
-                // projection, selection, selection arguments, and sort order. The cursor
-                // could contain multiple rows of the trackers table.
-                cursor = database.query(TrackerContract.TrackerEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
-                break;
-            case TRACKER_ID:
-                // For the TRACKER_ID code, extract out the ID from the URI.
-                // For an example URI such as "content://com.example.android.trackers/trackers/3",
-                // the selection will be "_id=?" and the selection argument will be a
-                // String array containing the actual ID of 3 in this case.
-                //
-                // For every "?" in the selection, we need to have an element in the selection
-                // arguments that will fill in the "?". Since we have 1 question mark in the
-                // selection, we have 1 String in the selection arguments' String array.
-                selection = TrackerContract.TrackerEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+        // URI whose changes the cursor has to follow
+        Uri notificationUri = uri;
 
-                // This will perform a query on the trackers table where the _id equals 3 to return a
-                // Cursor containing that row of the table.
-                cursor = database.query(TrackerContract.TrackerEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
-                break;
-            default:
-                throw new IllegalArgumentException("Cannot query unknown URI " + uri);
+        // Sales that are accepted but not yet in the table
+        Map<Long, Integer> pendingSales;
+
+        mSalesLock.readLock().lock();
+        try {
+            pendingSales = getPendingSales();
+
+            switch (match) {
+                case TRACKERS:
+                    // If the URI asks for a single page, only read the rows of that page, from the
+                    // snapshot if it has them
+                    if (uri.getQueryParameter(TrackerContract.QUERY_PARAMETER_PAGE_SIZE) != null) {
+                        cursor = querySnapshotPage(database, uri, projection, selection);
+                        if (cursor == null) {
+                            cursor = queryPage(database, uri, projection, selection, selectionArgs);
+                        }
+                        break;
+                    }
+
+                    // For the TRACKERS code, query the trackers table directly with the given
+                    // projection, selection, selection arguments, and sort order, narrowed down and
+                    // ordered by the parameters of the URI. The cursor could contain multiple rows
+                    // of the trackers table.
+                    List<String> filterArgs = new ArrayList<>();
+                    if (selectionArgs != null) {
+                        filterArgs.addAll(Arrays.asList(selectionArgs));
+                    }
+                    selection = appendFilters(uri, selection, filterArgs);
+                    selectionArgs = filterArgs.toArray(new String[filterArgs.size()]);
+                    if (sortOrder == null && uri.getQueryParameter(TrackerContract.QUERY_PARAMETER_SORT) != null) {
+                        sortOrder = buildSortOrder(uri);
+                    }
+                    cursor = database.query(getTrackersTables(projection, selection, sortOrder),
+                            projection, selection, selectionArgs, null, null, sortOrder);
+                    break;
+                case TRACKER_ID:
+                    // For the TRACKER_ID code, extract out the ID from the URI.
+                    // For an example URI such as "content://com.example.android.trackers/trackers/3",
+                    // the selection will be "_id=?" and the selection argument will be a
+                    // String array containing the actual ID of 3 in this case.
+                    //
+                    // For every "?" in the selection, we need to have an element in the selection
+                    // arguments that will fill in the "?". Since we have 1 question mark in the
+                    // selection, we have 1 String in the selection arguments' String array.
+                    selection = TrackerContract.TrackerEntry._ID + "=?";
+                    selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+
+                    // Recently read trackers are served from memory
+                    cursor = queryCachedTracker(database, ContentUris.parseId(uri), projection);
+                    if (cursor != null) {
+                        break;
+                    }
+
+                    // This will perform a query on the trackers table where the _id equals 3 to return a
+                    // Cursor containing that row of the table.
+                    cursor = database.query(getTrackersTables(projection, selection, sortOrder),
+                            projection, selection, selectionArgs, null, null, sortOrder);
+                    break;
+                case TRACKERS_SEARCH:
+                    cursor = querySearch(database, uri, projection, selection, selectionArgs);
+
+                    // Any change to any tracker can change the results, so follow the whole table
+                    notificationUri = TrackerEntry.CONTENT_URI;
+                    break;
+                case TRACKERS_SUMMARY:
+                    cursor = querySummary(database, uri, projection, selection, selectionArgs, sortOrder);
+
+                    // Any change to any tracker can change the figures
+                    notificationUri = TrackerEntry.CONTENT_URI;
+                    break;
+                case TRACKERS_REORDER:
+                    cursor = queryReorder(database, uri, projection, selection, selectionArgs, sortOrder);
+
+                    // Any change to any tracker can move it on or off the watchlist
+                    notificationUri = TrackerEntry.CONTENT_URI;
+                    break;
+                case VENDORS:
+                    cursor = database.query(VendorEntry.TABLE_NAME, projection, selection, selectionArgs,
+                            null, null, sortOrder);
+                    break;
+                case VENDOR_ID:
+                    selection = VendorEntry._ID + "=?";
+                    selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                    cursor = database.query(VendorEntry.TABLE_NAME, projection, selection, selectionArgs,
+                            null, null, sortOrder);
+                    break;
+                case VENDOR_TRACKERS:
+                    // The trackers of the vendor are found through the index on the vendor ID
+                    selection = DatabaseUtils.concatenateWhere(selection,
+                            TrackerEntry.COLUMN_TRACKER_VENDOR_ID + "=?");
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                            new String[]{uri.getPathSegments().get(1)});
+                    cursor = database.query(getTrackersTables(projection, selection, sortOrder),
+                            projection, selection, selectionArgs, null, null, sortOrder);
+
+                    // Any of the trackers can change, or move to another vendor
+                    notificationUri = TrackerEntry.CONTENT_URI;
+                    break;
+                case IMPORTS:
+                    cursor = database.query(ImportEntry.TABLE_NAME, projection, selection, selectionArgs,
+                            null, null, sortOrder);
+                    break;
+                case IMPORT_ID:
+                    selection = ImportEntry._ID + "=?";
+                    selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                    cursor = database.query(ImportEntry.TABLE_NAME, projection, selection, selectionArgs,
+                            null, null, sortOrder);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Cannot query unknown URI " + uri);
+            }
+
+            // Read the rows while the pending sales can't move into the table
+            if (pendingSales != null) {
+                cursor.getCount();
+            }
+        } finally {
+            mSalesLock.readLock().unlock();
         }
+        cursor = PendingSalesCursor.wrap(cursor, pendingSales);
 
         // Set notification URI on the Cursor,
         // so we know what content URI the Cursor was created for.
         // If the data at this URI changes, then we know we need to update the Cursor.
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        // Callers that patch their copy of the rows from the row notifications opt out.
+        if (!"false".equals(uri.getQueryParameter(TrackerContract.QUERY_PARAMETER_NOTIFY))) {
+            cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
+        }
 
         // Return the cursor
         return cursor;
     }
 
-    @Override
-    public Uri insert(Uri uri, ContentValues contentValues) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case TRACKERS:
-                return insertTracker(uri, contentValues);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
-        }
-    }
-
     /**
-     * Insert a tracker into the database with the given content values. Return the new content URI
-     * for that specific row in the database.
+     * Query a single page of trackers. The page starts right after the (sort key, ID) given in the
+     * URI rather than at an OFFSET, so SQLite seeks straight to it in the index instead of
+     * stepping over every row of the previous pages.
      */
-    private Uri insertTracker(Uri uri, ContentValues values) {
-        // Check that the name is not null
-        String name = values.getAsString(TrackerContract.TrackerEntry.COLUMN_TRACKER_NAME);
-        if (name == null) {
-            throw new IllegalArgumentException("Tracker requires a name");
+    private static Cursor queryPage(SQLiteDatabase database, Uri uri, String[] projection,
+                                    String selection, String[] selectionArgs) {
+        String pageSize = uri.getQueryParameter(TrackerContract.QUERY_PARAMETER_PAGE_SIZE);
+        try {
+            if (Integer.parseInt(pageSize) < 1) {
+                throw new IllegalArgumentException("Page size must be positive in " + uri);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page size in " + uri);
         }
 
-        // Get writeable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
-
-        // Insert the new tracker with the given values
-        long id = database.insert(TrackerContract.TrackerEntry.TABLE_NAME, null, values);
-        // If the ID is -1, then the insertion failed. Log an error and return null.
-        if (id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+        List<String> args = new ArrayList<>();
+        if (selectionArgs != null) {
+            args.addAll(Arrays.asList(selectionArgs));
         }
+        selection = appendFilters(uri, selection, args);
 
-        // Notify all listeners that the data has changed for the tracker content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        String sortColumn = getSortColumn(uri);
+        String after = isDescending(uri) ? " < ?" : " > ?";
+        String afterId = uri.getQueryParameter(TrackerContract.QUERY_PARAMETER_AFTER_ID);
+        if (afterId != null) {
+            String afterKey = uri.getQueryParameter(TrackerContract.QUERY_PARAMETER_AFTER_KEY);
+            if (TrackerEntry._ID.equals(sortColumn)) {
+                selection = DatabaseUtils.concatenateWhere(selection, TrackerEntry._ID + after);
+                args.add(afterId);
+            } else {
+                if (afterKey == null) {
+                    throw new IllegalArgumentException("Page requires the key to start after in " + uri);
+                }
 
-        // Return the new URI with the ID (of the newly inserted row) appended at the end
-        return ContentUris.withAppendedId(uri, id);
+                // Spelled out instead of a row value comparison, which older SQLite releases lack
+                selection = DatabaseUtils.concatenateWhere(selection, sortColumn + after + " OR ("
+                        + sortColumn + " = ? AND " + TrackerEntry._ID + after + ")");
+                args.add(afterKey);
+                args.add(afterKey);
+                args.add(afterId);
+            }
+        }
+
+        String sortOrder = buildSortOrder(uri);
+        projection = selectPageKey(projection, sortColumn);
+        return database.query(getTrackersTables(projection, selection, sortOrder), projection,
+                selection, args.toArray(new String[args.size()]), null, null, sortOrder, pageSize);
     }
 
-    @Override
-    public int update(Uri uri, ContentValues contentValues, String selection,
-                      String[] selectionArgs) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case TRACKERS:
-                return updateTracker(uri, contentValues, selection, selectionArgs);
-            case TRACKER_ID:
-                // For the PET_ID code, extract out the ID from the URI,
-                // so we know which row to update. Selection will be "_id=?" and selection
-                // arguments will be a String array containing the actual ID.
-                selection = TrackerContract.TrackerEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                return updateTracker(uri, contentValues, selection, selectionArgs);
-            default:
-                throw new IllegalArgumentException("Update is not supported for " + uri);
+    /**
+     * Return the given projection with {@link TrackerEntry#COLUMN_PAGE_KEY} read from the given
+     * sort column. The pending sales are only subtracted from the quantity column afterwards, so
+     * the page key stays what the index, and the next page, compare.
+     */
+    private static String[] selectPageKey(String[] projection, String sortColumn) {
+        if (projection == null || !Arrays.asList(projection).contains(TrackerEntry.COLUMN_PAGE_KEY)) {
+            return projection;
+        }
+        String[] selected = projection.clone();
+        for (int i = 0; i < selected.length; i++) {
+            if (TrackerEntry.COLUMN_PAGE_KEY.equals(selected[i])) {
+                selected[i] = sortColumn + " AS " + TrackerEntry.COLUMN_PAGE_KEY;
+            }
         }
+        return selected;
     }
 
     /**
-     * Update trackers in the database with the given content values. Apply the changes to the rows
+     * Return the column the URI asks to sort trackers by, the name if it doesn't say.
+     */
+    private static String getSortColumn(Uri uri) {
+        String sortColumn = uri.getQueryParameter(TrackerContract.QUERY_PARAMETER_SORT);
+        if (sortColumn == null) {
+            return TrackerEntry.COLUMN_TRACKER_NAME;
+        }
+        if (!TrackerEntry.COLUMN_TRACKER_NAME.equals(sortColumn)
+                && !TrackerEntry.COLUMN_TRACKER_PRICE.equals(sortColumn)
+                && !TrackerEntry.COLUMN_TRACKER_QUANTITY.equals(sortColumn)
+                && !TrackerEntry._ID.equals(sortColumn)) {
+            throw new IllegalArgumentException("Cannot sort trackers by " + sortColumn);
+        }
+        return sortColumn;
+    }
+
+    private static boolean isDescending(Uri uri) {
+        return "true".equals(uri.getQueryParameter(TrackerContract.QUERY_PARAMETER_DESCENDING));
+    }
+
+    /**
+     * Return the sort order the URI asks for: by the sort column and then by ID, which is the
+     * order of the index on the sort column, so SQLite never has to sort.
+     */
+    private static String buildSortOrder(Uri uri) {
+        String sortColumn = getSortColumn(uri);
+        String direction = isDescending(uri) ? " DESC" : "";
+        if (TrackerEntry._ID.equals(sortColumn)) {
+            return TrackerEntry._ID + direction;
+        }
+        return sortColumn + direction + ", " + TrackerEntry._ID + direction;
+    }
+
+    /**
+     * Parameters of a list of trackers that filter it, see {@link #appendFilters}
+     */
+    private static final String[] FILTER_PARAMETERS = {
+            TrackerContract.QUERY_PARAMETER_NAME_PREFIX,
+            TrackerContract.QUERY_PARAMETER_MIN_PRICE,
+            TrackerContract.QUERY_PARAMETER_MAX_PRICE,
+            TrackerContract.QUERY_PARAMETER_MIN_QUANTITY,
+            TrackerContract.QUERY_PARAMETER_MAX_QUANTITY
+    };
+
+    /**
+     * Add the filters of the URI to the given selection, as range conditions with their values
+     * added to the selection arguments, and return the new selection. Every filter is a range of
+     * a column that one of the sort indexes starts with.
+     */
+    private static String appendFilters(Uri uri, String selection, List<String> selectionArgs) {
+        String prefix = uri.getQueryParameter(TrackerContract.QUERY_PARAMETER_NAME_PREFIX);
+        if (prefix != null && !prefix.isEmpty()) {
+            // Every name that starts with the prefix sorts between the prefix and the prefix with
+            // its last character incremented
+            selection = DatabaseUtils.concatenateWhere(selection,
+                    TrackerEntry.COLUMN_TRACKER_NAME + " >= ?");
+            selectionArgs.add(prefix);
+            int last = prefix.codePointBefore(prefix.length());
+            if (last < Character.MAX_CODE_POINT) {
+                selection = DatabaseUtils.concatenateWhere(selection,
+                        TrackerEntry.COLUMN_TRACKER_NAME + " < ?");
+                selectionArgs.add(prefix.substring(0, prefix.length() - Character.charCount(last))
+                        + new String(Character.toChars(last + 1)));
+            }
+        }
+
+        selection = appendBound(uri, TrackerContract.QUERY_PARAMETER_MIN_PRICE,
+                TrackerEntry.COLUMN_TRACKER_PRICE + " >= ?", selection, selectionArgs);
+        selection = appendBound(uri, TrackerContract.QUERY_PARAMETER_MAX_PRICE,
+                TrackerEntry.COLUMN_TRACKER_PRICE + " <= ?", selection, selectionArgs);
+        selection = appendBound(uri, TrackerContract.QUERY_PARAMETER_MIN_QUANTITY,
+                TrackerEntry.COLUMN_TRACKER_QUANTITY + " >= ?", selection, selectionArgs);
+        selection = appendBound(uri, TrackerContract.QUERY_PARAMETER_MAX_QUANTITY,
+                TrackerEntry.COLUMN_TRACKER_QUANTITY + " <= ?", selection, selectionArgs);
+        return selection;
+    }
+
+    /**
+     * Add the given condition to the selection if the URI has the given parameter, a whole number.
+     */
+    private static String appendBound(Uri uri, String parameter, String condition, String selection,
+                                      List<String> selectionArgs) {
+        String value = uri.getQueryParameter(parameter);
+        if (value == null) {
+            return selection;
+        }
+        try {
+            // Bound as a number, so SQLite compares it as one and can use the index
+            selectionArgs.add(String.valueOf(Long.parseLong(value)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + parameter + " in " + uri);
+        }
+        return DatabaseUtils.concatenateWhere(selection, condition);
+    }
+
+    /**
+     * Serve a page of trackers ordered by name from the {@link CatalogSnapshot}. Return null if
+     * the snapshot can't serve it: if it is turned off, or the page has a selection, a filter,
+     * another order, or columns the snapshot doesn't have. Invalid pages are left to
+     * {@link #queryPage} to reject.
+     */
+    private Cursor querySnapshotPage(SQLiteDatabase database, Uri uri, String[] projection,
+                                     String selection) {
+        String sortColumn = uri.getQueryParameter(TrackerContract.QUERY_PARAMETER_SORT);
+        if (mSnapshot == null || selection != null || isDescending(uri)
+                || (sortColumn != null && !TrackerEntry.COLUMN_TRACKER_NAME.equals(sortColumn))) {
+            return null;
+        }
+        for (String parameter : FILTER_PARAMETERS) {
+            if (uri.getQueryParameter(parameter) != null) {
+                return null;
+            }
+        }
+
+        int pageSize;
+        long afterId = 0;
+        String afterKey = uri.getQueryParameter(TrackerContract.QUERY_PARAMETER_AFTER_KEY);
+        String afterIdParameter = uri.getQueryParameter(TrackerContract.QUERY_PARAMETER_AFTER_ID);
+        try {
+            pageSize = Integer.parseInt(uri.getQueryParameter(TrackerContract.QUERY_PARAMETER_PAGE_SIZE));
+            if (afterIdParameter != null) {
+                afterId = Long.parseLong(afterIdParameter);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (pageSize < 1 || (afterIdParameter != null && afterKey == null)) {
+            return null;
+        }
+        if (afterIdParameter == null) {
+            // Like a query, a page without an ID to start after starts at the top
+            afterKey = null;
+        }
+        return mSnapshot.queryPage(database, projection, pageSize, afterKey, afterId);
+    }
+
+    /**
+     * Return a cursor over the given columns of a single tracker, from the row cache. If the
+     * tracker isn't cached yet, read all of its columns and cache them. Return null if the tracker
+     * doesn't exist, or if the projection asks for more than its columns.
+     */
+    private Cursor queryCachedTracker(SQLiteDatabase database, long id, String[] projection) {
+        TrackerRowCache.Row row = mRowCache.get(id);
+        if (row == null) {
+            long generation = mRowCache.getGeneration();
+            Cursor cursor = database.query(TRACKERS_WITH_VENDOR_TABLES, null, TrackerEntry._ID + "=?",
+                    new String[]{String.valueOf(id)}, null, null, null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    return null;
+                }
+                row = TrackerRowCache.Row.read(cursor);
+            } finally {
+                cursor.close();
+            }
+            mRowCache.put(id, row, generation);
+        }
+        return row.toCursor(projection);
+    }
+
+    /**
+     * Return the table to read trackers from with the given projection, selection and sort order:
+     * the trackers table, or the trackers joined with their vendors if any of them refers to the
+     * vendor's e-mail. The join costs a lookup per row, so it is left out when it isn't needed.
+     */
+    private static String getTrackersTables(String[] projection, String selection, String sortOrder) {
+        if (projection == null || Arrays.asList(projection).contains(TrackerEntry.COLUMN_TRACKER_VENDOR)
+                || refersToVendor(selection) || refersToVendor(sortOrder)) {
+            return TRACKERS_WITH_VENDOR_TABLES;
+        }
+        return TrackerEntry.TABLE_NAME;
+    }
+
+    /**
+     * Return whether the given clause names the vendor e-mail column of the trackers. Text that
+     * merely contains the name, in a literal for instance, counts as well, which only costs an
+     * unneeded join.
+     */
+    private static boolean refersToVendor(String clause) {
+        return clause != null && VENDOR_COLUMN_PATTERN.matcher(clause).find();
+    }
+
+    /**
+     * Search the trackers whose name, or whose vendor's e-mail, contain words starting with the
+     * words of the text in the URI, best matches first.
+     * <p>
+     * The matches are ranked from the full-text indexes of the names and the vendors alone, see
+     * {@link SearchRank}, with a match in the name counting for more than a match in the vendor.
+     * Only the best ones, as many as the limit in the URI asks for, are then read from the
+     * trackers table, through its primary key. Among trackers that score the same, those whose
+     * name starts with the text come first. The limit can only be applied before the trackers are
+     * read without a selection; with one, every match is read and the selection applied first.
+     */
+    private static Cursor querySearch(SQLiteDatabase database, Uri uri, String[] projection,
+                                      String selection, String[] selectionArgs) {
+        // Split the text into words, dropping everything the full-text query syntax would
+        // interpret, and turn every word into a prefix query
+        StringBuilder text = new StringBuilder();
+        StringBuilder match = new StringBuilder();
+        for (String word : uri.getLastPathSegment().split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (text.length() > 0) {
+                text.append(' ');
+                match.append(' ');
+            }
+            text.append(word);
+            match.append(word).append('*');
+        }
+
+        String limit = uri.getQueryParameter(TrackerContract.QUERY_PARAMETER_LIMIT);
+        if (limit != null && !limit.matches("\\d+")) {
+            throw new IllegalArgumentException("Invalid limit in " + uri);
+        }
+
+        List<Map.Entry<Long, Double>> ranked = rankSearch(database, match.toString());
+
+        // Without a selection to drop some of them, the best ones are all that will be read; keep
+        // those that score as well as the last of them too, so the name decides between them
+        int count = ranked.size();
+        if (selection == null && limit != null && Integer.parseInt(limit) < count) {
+            count = Math.max(Integer.parseInt(limit), 1);
+            double last = ranked.get(count - 1).getValue();
+            while (count < ranked.size() && ranked.get(count).getValue() == last) {
+                count++;
+            }
+        }
+
+        String sortOrder;
+        if (count == 0) {
+            // Nothing to search for, or nothing matches
+            selection = "0";
+            selectionArgs = null;
+            sortOrder = null;
+        } else {
+            // Order by the rank, which equal scores share
+            StringBuilder ids = new StringBuilder();
+            StringBuilder rank = new StringBuilder("CASE " + TrackerEntry._ID);
+            int position = 0;
+            for (int i = 0; i < count; i++) {
+                Map.Entry<Long, Double> entry = ranked.get(i);
+                if (i > 0 && entry.getValue() < ranked.get(i - 1).getValue()) {
+                    position = i;
+                }
+                if (i > 0) {
+                    ids.append(',');
+                }
+                ids.append(entry.getKey());
+                rank.append(" WHEN ").append(entry.getKey()).append(" THEN ").append(position);
+            }
+            rank.append(" END");
+
+            selection = DatabaseUtils.concatenateWhere(selection,
+                    TrackerEntry._ID + " IN (" + ids + ")");
+            sortOrder = rank + ", " + TrackerEntry.COLUMN_TRACKER_NAME + " LIKE "
+                    + DatabaseUtils.sqlEscapeString(text + "%") + " DESC, "
+                    + TrackerEntry.COLUMN_TRACKER_NAME + ", " + TrackerEntry._ID;
+        }
+        return database.query(getTrackersTables(projection, selection, sortOrder), projection,
+                selection, selectionArgs, null, null, sortOrder, limit);
+    }
+
+    /**
+     * Return the IDs and the scores of the trackers that match the given full-text query in their
+     * name or in the e-mail of their vendor, best first. Only the full-text indexes and the index
+     * on the vendor ID are read.
+     */
+    private static List<Map.Entry<Long, Double>> rankSearch(SQLiteDatabase database, String match) {
+        Map<Long, Double> scores = new HashMap<>();
+        if (match.isEmpty()) {
+            return new ArrayList<>(scores.entrySet());
+        }
+
+        readSearchScores(database, TrackerEntry.FTS_TABLE_NAME, match, scores);
+
+        Map<Long, Double> vendorScores = new HashMap<>();
+        readSearchScores(database, VendorEntry.FTS_TABLE_NAME, match, vendorScores);
+        if (!vendorScores.isEmpty()) {
+            Cursor cursor = database.query(TrackerEntry.TABLE_NAME,
+                    new String[]{TrackerEntry._ID, TrackerEntry.COLUMN_TRACKER_VENDOR_ID},
+                    TrackerEntry.COLUMN_TRACKER_VENDOR_ID + " IN (SELECT docid FROM "
+                            + VendorEntry.FTS_TABLE_NAME + " WHERE " + VendorEntry.FTS_TABLE_NAME
+                            + " MATCH ?)", new String[]{match}, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    long id = cursor.getLong(0);
+                    double score = VENDOR_SEARCH_WEIGHT * vendorScores.get(cursor.getLong(1));
+                    Double nameScore = scores.get(id);
+                    scores.put(id, nameScore == null ? score : nameScore + score);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        List<Map.Entry<Long, Double>> ranked = new ArrayList<>(scores.entrySet());
+        Collections.sort(ranked, new Comparator<Map.Entry<Long, Double>>() {
+            @Override
+            public int compare(Map.Entry<Long, Double> a, Map.Entry<Long, Double> b) {
+                int order = Double.compare(b.getValue(), a.getValue());
+                return order != 0 ? order : a.getKey().compareTo(b.getKey());
+            }
+        });
+        return ranked;
+    }
+
+    /**
+     * Put the score of every row of the given full-text index that matches the given query into
+     * the given map, by docid.
+     */
+    private static void readSearchScores(SQLiteDatabase database, String fts, String match,
+                                         Map<Long, Double> scores) {
+        Cursor cursor = database.rawQuery("SELECT docid, matchinfo(" + fts + ", '"
+                + SearchRank.MATCHINFO_FORMAT + "') FROM " + fts + " WHERE " + fts + " MATCH ?",
+                new String[]{match});
+        try {
+            while (cursor.moveToNext()) {
+                scores.put(cursor.getLong(0), SearchRank.score(cursor.getBlob(1)));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Read the inventory summary: a single row of totals, or a row per vendor if the URI asks to
+     * group by vendor. Either way only the summary table is read, which has a row per vendor,
+     * together with the e-mail of every vendor when grouped.
+     */
+    private static Cursor querySummary(SQLiteDatabase database, Uri uri, String[] projection,
+                                       String selection, String[] selectionArgs, String sortOrder) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setStrict(true);
+
+        String groupBy = uri.getQueryParameter(TrackerContract.QUERY_PARAMETER_GROUP_BY);
+        if (groupBy == null) {
+            builder.setTables(SummaryEntry.TABLE_NAME);
+            builder.setProjectionMap(sSummaryTotalsProjection);
+            sortOrder = null;
+        } else if (SummaryEntry.COLUMN_VENDOR.equals(groupBy)) {
+            builder.setTables(SUMMARY_VENDOR_TABLES);
+            builder.setProjectionMap(sSummaryVendorProjection);
+            if (sortOrder == null) {
+                sortOrder = SummaryEntry.COLUMN_VENDOR;
+            }
+        } else {
+            throw new IllegalArgumentException("Cannot group the summary by " + groupBy);
+        }
+
+        if (projection == null) {
+            Set<String> columns = (groupBy == null ? sSummaryTotalsProjection : sSummaryVendorProjection).keySet();
+            projection = columns.toArray(new String[columns.size()]);
+        }
+        return builder.query(database, projection, selection, selectionArgs, null, null, sortOrder);
+    }
+
+    /**
+     * Read the reorder watchlist: a row per tracker at or below its reorder threshold, or a row per
+     * vendor if the URI asks to group by vendor. Only the watchlist is scanned, through its index
+     * on the vendor, and the trackers on it are looked up by ID.
+     */
+    private static Cursor queryReorder(SQLiteDatabase database, Uri uri, String[] projection,
+                                       String selection, String[] selectionArgs, String sortOrder) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(REORDER_TABLES);
+        builder.setStrict(true);
+
+        String groupBy = uri.getQueryParameter(TrackerContract.QUERY_PARAMETER_GROUP_BY);
+        Map<String, String> projectionMap;
+        if (groupBy == null) {
+            projectionMap = sReorderProjection;
+            if (sortOrder == null) {
+                sortOrder = ReorderEntry.COLUMN_VENDOR + ", " + TrackerEntry.COLUMN_TRACKER_NAME;
+            }
+        } else if (ReorderEntry.COLUMN_VENDOR.equals(groupBy)) {
+            projectionMap = sReorderVendorProjection;
+            if (sortOrder == null) {
+                sortOrder = ReorderEntry.COLUMN_VENDOR;
+            }
+        } else {
+            throw new IllegalArgumentException("Cannot group the reorder watchlist by " + groupBy);
+        }
+        builder.setProjectionMap(projectionMap);
+
+        if (projection == null) {
+            projection = projectionMap.keySet().toArray(new String[projectionMap.size()]);
+        }
+        // Every vendor has a single e-mail, so grouping by its ID groups by e-mail too, through the
+        // index of the watchlist
+        return builder.query(database, projection, selection, selectionArgs,
+                groupBy == null ? null : ReorderEntry.COLUMN_VENDOR_ID, null, sortOrder);
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues contentValues) {
+        long startNanos = System.nanoTime();
+        int match = sUriMatcher.match(uri);
+        int rows = -1;
+        try {
+            Uri newUri = insert(uri, match, contentValues);
+            rows = newUri == null ? 0 : 1;
+            return newUri;
+        } finally {
+            mMetrics.record(ProviderMetrics.OPERATION_INSERT, match, startNanos, rows, 0);
+        }
+    }
+
+    private Uri insert(Uri uri, int match, ContentValues contentValues) {
+        switch (match) {
+            case TRACKERS:
+                return insertTracker(uri, contentValues);
+            case VENDORS:
+                return insertVendor(contentValues);
+            case IMPORTS:
+                return insertImport(contentValues);
+            default:
+                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+    }
+
+    /**
+     * Start keeping track of the import of the file in the given values.
+     */
+    private Uri insertImport(ContentValues values) {
+        if (values.getAsString(ImportEntry.COLUMN_SOURCE) == null) {
+            throw new IllegalArgumentException("Import requires a source");
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long id = database.insert(ImportEntry.TABLE_NAME, null, values);
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert import of " + values.getAsString(ImportEntry.COLUMN_SOURCE));
+            return null;
+        }
+
+        notifyChange(ImportEntry.CONTENT_URI);
+        return ContentUris.withAppendedId(ImportEntry.CONTENT_URI, id);
+    }
+
+    /**
+     * Add a vendor with the e-mail in the given values, unless there is one already. Return the
+     * content URI of the vendor either way.
+     */
+    private Uri insertVendor(ContentValues values) {
+        String email = checkVendorEmail(values.getAsString(VendorEntry.COLUMN_VENDOR_EMAIL));
+        if (values.size() != 1) {
+            throw new IllegalArgumentException("Vendor only has an e-mail");
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long id;
+        database.beginTransaction();
+        try {
+            id = findOrInsertVendor(database, email);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        notifyChange(VendorEntry.CONTENT_URI);
+        return ContentUris.withAppendedId(VendorEntry.CONTENT_URI, id);
+    }
+
+    /**
+     * Return the given vendor e-mail without surrounding white space.
+     *
+     * @throws IllegalArgumentException if there is no e-mail
+     */
+    private static String checkVendorEmail(String email) {
+        if (email == null || email.trim().isEmpty()) {
+            throw new IllegalArgumentException("Vendor requires an e-mail");
+        }
+        return email.trim();
+    }
+
+    /**
+     * Return the ID of the vendor with the given e-mail, adding the vendor if there is none yet.
+     * The e-mail is looked up through the unique index of the vendors table.
+     */
+    private static long findOrInsertVendor(SQLiteDatabase database, String email) {
+        Cursor cursor = database.query(VendorEntry.TABLE_NAME, new String[]{VendorEntry._ID},
+                VendorEntry.COLUMN_VENDOR_EMAIL + "=?", new String[]{email}, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(VendorEntry.COLUMN_VENDOR_EMAIL, email);
+        return database.insertOrThrow(VendorEntry.TABLE_NAME, null, values);
+    }
+
+    /**
+     * If the given tracker values name the vendor by its e-mail, return a copy that references
+     * the vendor by ID instead, adding the vendor if needed. Must be called in a transaction.
+     */
+    private static ContentValues resolveVendor(SQLiteDatabase database, ContentValues values) {
+        if (!values.containsKey(TrackerEntry.COLUMN_TRACKER_VENDOR)) {
+            return values;
+        }
+        String email = checkVendorEmail(values.getAsString(TrackerEntry.COLUMN_TRACKER_VENDOR));
+        ContentValues resolved = new ContentValues(values);
+        resolved.remove(TrackerEntry.COLUMN_TRACKER_VENDOR);
+        resolved.put(TrackerEntry.COLUMN_TRACKER_VENDOR_ID, findOrInsertVendor(database, email));
+        return resolved;
+    }
+
+    /**
+     * Insert a tracker into the database with the given content values. Return the new content URI
+     * for that specific row in the database.
+     */
+    private Uri insertTracker(Uri uri, ContentValues values) {
+        checkNewTracker(values);
+
+        // Get writeable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Store the image and insert the row that references it in one transaction, so the image
+        // can't be collected as unreferenced in between
+        long id = -1;
+        Set<String> storedImages = new HashSet<>();
+        database.beginTransaction();
+        try {
+            values = storeImage(resolveVendor(database, values), storedImages);
+
+            // Insert the new tracker with the given values
+            id = database.insert(TrackerContract.TrackerEntry.TABLE_NAME, null, values);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            releaseStoredImages(storedImages, id != -1);
+        }
+
+        // If the ID is -1, then the insertion failed. Log an error and return null.
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        // Notify all listeners that a tracker was inserted, with the URI of the new row, so
+        // observers of other rows aren't bothered
+        notifyChange(TrackerEntry.buildChangeUri(id, TrackerContract.CHANGE_INSERT, null));
+
+        // Return the new URI with the ID (of the newly inserted row) appended at the end
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        long startNanos = System.nanoTime();
+        int match = sUriMatcher.match(uri);
+        int rows = -1;
+        try {
+            switch (match) {
+                case TRACKERS:
+                    rows = bulkInsertTrackers(uri, values);
+                    return rows;
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+        } finally {
+            // The whole batch counts as one insert, of all of its rows
+            mMetrics.record(ProviderMetrics.OPERATION_INSERT, match, startNanos, rows, 0);
+        }
+    }
+
+    /**
+     * Insert all of the given trackers inside a single transaction, so the whole batch costs one
+     * journal commit instead of one per row. Every row goes through {@link #insertTracker} and is
+     * validated the same way as a single insert; listeners are notified once, after the commit.
+     * Return the number of rows that were inserted, which is only known once the transaction has
+     * committed: until then any of them may still be rolled back.
+     */
+    private int bulkInsertTrackers(Uri uri, ContentValues[] values) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        int rowsInserted;
+        beginBatch();
+        try {
+            int rowsWritten = 0;
+            database.beginTransaction();
+            try {
+                for (ContentValues value : values) {
+                    if (insertTracker(uri, value) != null) {
+                        rowsWritten++;
+                    }
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+
+            // The transaction has committed, so the rows are there and it is now safe to tell
+            // listeners about them
+            rowsInserted = rowsWritten;
+            sendPendingNotifications();
+        } finally {
+            endBatch();
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Apply all of the operations inside a single transaction. If any operation fails the whole
+     * batch is rolled back and no listener is notified.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // An update in the batch may overwrite a quantity, see {@link #updateTracker}. The sales
+        // can't be applied inside the batch's transaction, which may still roll back.
+        flushPendingSales();
+
+        ContentProviderResult[] results;
+        beginBatch();
+        try {
+            database.beginTransaction();
+            try {
+                results = super.applyBatch(operations);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+
+            // The transaction has committed, so it is now safe to tell listeners about it
+            sendPendingNotifications();
+        } finally {
+            endBatch();
+        }
+
+        return results;
+    }
+
+    /**
+     * Start holding back change notifications and image clean-up on the calling thread.
+     */
+    private void beginBatch() {
+        mBatch.set(new Batch());
+    }
+
+    /**
+     * Run the work held back by the current batch, once its transaction has committed: drop the
+     * images that nothing references anymore and send one notification for every distinct URI
+     * that changed.
+     */
+    private void sendPendingNotifications() {
+        Batch batch = mBatch.get();
+        mBatch.set(new Batch());
+
+        deleteUnreferencedImagesNow(batch.releasedImages);
+
+        mDbHelper.onWriteCommitted();
+
+        // A large batch is announced as a change of the whole table rather than row by row
+        if (batch.notifications.size() > MAX_ROW_NOTIFICATIONS) {
+            invalidateCaches(TrackerEntry.CONTENT_URI);
+            getContext().getContentResolver().notifyChange(TrackerEntry.CONTENT_URI, null);
+            return;
+        }
+        for (Uri uri : batch.notifications) {
+            // Again, now that the batch committed, in case a reader cached a row meanwhile
+            invalidateCaches(uri);
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Drop the cached trackers that the change notified with the given URI may have changed: a
+     * single tracker, or all of them for a change of the trackers table, or of the vendors, whose
+     * e-mails the cached rows include.
+     */
+    private void invalidateCaches(Uri uri) {
+        switch (sUriMatcher.match(uri)) {
+            case TRACKER_ID:
+                invalidateCaches(ContentUris.parseId(uri));
+                break;
+            case IMPORTS:
+            case IMPORT_ID:
+                break;
+            case VENDORS:
+            case VENDOR_ID:
+                // The snapshot and the first page file have no vendor columns
+                mRowCache.invalidateAll();
+                break;
+            default:
+                mRowCache.invalidateAll();
+                if (mSnapshot != null) {
+                    mSnapshot.invalidateAll();
+                }
+                scheduleFirstPageWrite();
+                break;
+        }
+    }
+
+    /**
+     * Drop the cached copies of the tracker with the given ID.
+     */
+    private void invalidateCaches(long id) {
+        mRowCache.invalidate(id);
+        if (mSnapshot != null) {
+            mSnapshot.invalidate(id);
+        }
+        scheduleFirstPageWrite();
+    }
+
+    /**
+     * Write the first page file again once the catalog went without changes for
+     * {@link #FIRST_PAGE_WRITE_DELAY_MS}, so a burst of changes costs a single write. Like the
+     * idle checkpoint of {@link TrackerDbHelper}, the write checks when it runs whether there was
+     * a change in the meantime.
+     */
+    private void scheduleFirstPageWrite() {
+        if (mFirstPageFile == null) {
+            return;
+        }
+        synchronized (mFirstPageExecutor) {
+            mLastCatalogChangeMillis = SystemClock.uptimeMillis();
+            if (mFirstPageWriteScheduled || mFirstPageExecutor.isShutdown()) {
+                return;
+            }
+            mFirstPageWriteScheduled = true;
+            mFirstPageExecutor.schedule(mFirstPageWrite, FIRST_PAGE_WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Reads the first page of the catalog the way the catalog list does, pending sales included,
+     * and writes it to the first page file.
+     */
+    private final Runnable mFirstPageWrite = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mFirstPageExecutor) {
+                long idleMillis = SystemClock.uptimeMillis() - mLastCatalogChangeMillis;
+                if (idleMillis < FIRST_PAGE_WRITE_DELAY_MS) {
+                    mFirstPageExecutor.schedule(this, FIRST_PAGE_WRITE_DELAY_MS - idleMillis,
+                            TimeUnit.MILLISECONDS);
+                    return;
+                }
+                mFirstPageWriteScheduled = false;
+            }
+
+            try {
+                Cursor cursor = query(TrackerEntry.buildPageUri(TrackerEntry.COLUMN_TRACKER_NAME,
+                        FirstPageFile.ROWS), FirstPageFile.COLUMNS, null, null, null);
+                try {
+                    mFirstPageFile.write(cursor);
+                } finally {
+                    cursor.close();
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.e(LOG_TAG, "Failed to write the first page file", e);
+            }
+        }
+    };
+
+    /**
+     * Stop holding back work on the calling thread. Anything still pending belongs to a batch
+     * that was rolled back, so it is dropped.
+     */
+    private void endBatch() {
+        Batch batch = mBatch.get();
+        mBatch.remove();
+
+        // Once the batch committed it was replaced by an empty one, so anything left belongs to a
+        // batch that rolled back: its rows are gone, and the images stored for them may be
+        // unreferenced now
+        if (batch != null) {
+            deleteUnreferencedImagesNow(batch.storedImages);
+        }
+    }
+
+    /**
+     * Notify listeners that the data at the given URI has changed, or remember the URI until the
+     * current batch commits if the calling thread is inside one.
+     */
+    private void notifyChange(Uri uri) {
+        invalidateCaches(uri);
+
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.notifications.add(uri);
+        } else {
+            mDbHelper.onWriteCommitted();
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Notify listeners that the given rows changed, with a URI per row that describes the change
+     * (see {@link TrackerEntry#buildChangeUri}). If there are too many rows, notify the whole
+     * table instead.
+     */
+    private void notifyRowChanges(long[] ids, String change, Collection<String> columns) {
+        if (ids.length > MAX_ROW_NOTIFICATIONS) {
+            notifyChange(TrackerEntry.CONTENT_URI);
+            return;
+        }
+        for (long id : ids) {
+            notifyChange(TrackerEntry.buildChangeUri(id, change, columns));
+        }
+    }
+
+    /**
+     * Return the IDs of the trackers matching the given selection, or of the tracker in the given
+     * URI if it is a single tracker URI. At most {@link #MAX_ROW_NOTIFICATIONS} + 1 IDs are read;
+     * more than that are notified as a change of the whole table anyway.
+     */
+    private static long[] queryIds(SQLiteDatabase database, Uri uri, String selection,
+                                   String[] selectionArgs) {
+        if (sUriMatcher.match(uri) == TRACKER_ID) {
+            return new long[]{ContentUris.parseId(uri)};
+        }
+
+        Cursor cursor = database.query(TrackerEntry.TABLE_NAME, new String[]{TrackerEntry._ID},
+                selection, selectionArgs, null, null, null, String.valueOf(MAX_ROW_NOTIFICATIONS + 1));
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * If the given values carry raw image bytes, move them into the image store and return a copy
+     * of the values that only references the image by its hash. If they reference an image that
+     * is already in the store by its hash instead, check that it is still there. Must run inside
+     * the write transaction, so the image can't be deleted as unreferenced before the row that
+     * references it is written.
+     * <p>
+     * If the image can't be stored or is gone, an exception is thrown rather than the write
+     * skipped: the write runs in a transaction nested in that of a batch, and a nested transaction
+     * that ends without success silently rolls the whole batch back, rows that were already
+     * counted and notified included. It is a {@link SQLException}, like a failed constraint, so
+     * the importer and the save queue handle it the same way.
+     * <p>
+     * The hash of the image is added to the given set, for {@link #releaseStoredImages} once the
+     * write is over: the file is already there, but the row that references it may not be.
+     */
+    private ContentValues storeImage(ContentValues values, Set<String> storedImages) {
+        if (!values.containsKey(TrackerEntry.COLUMN_TRACKER_IMAGE)) {
+            String hash = values.getAsString(TrackerEntry.COLUMN_TRACKER_IMAGE_HASH);
+            if (hash != null) {
+                // Images are only deleted inside a write transaction, so this stays true until
+                // the row is written
+                if (!mImageStore.getFile(hash).isFile()) {
+                    throw new SQLException("Image " + hash + " is not in the image store");
+                }
+                storedImages.add(hash);
+                createThumbnails(hash);
+            }
+            return values;
+        }
+
+        byte[] image = values.getAsByteArray(TrackerEntry.COLUMN_TRACKER_IMAGE);
+        ContentValues stored = new ContentValues(values);
+        stored.remove(TrackerEntry.COLUMN_TRACKER_IMAGE);
+        if (image == null) {
+            stored.putNull(TrackerEntry.COLUMN_TRACKER_IMAGE_HASH);
+            return stored;
+        }
+
+        String hash;
+        try {
+            hash = mImageStore.put(image);
+        } catch (IOException e) {
+            throw new SQLException("Failed to store image", e);
+        }
+        storedImages.add(hash);
+        stored.put(TrackerEntry.COLUMN_TRACKER_IMAGE_HASH, hash);
+        createThumbnails(hash);
+        return stored;
+    }
+
+    /**
+     * Create the thumbnails of the image with the given hash once, in the background, so the
+     * catalog list never has to decode the original image.
+     */
+    private void createThumbnails(final String hash) {
+        mThumbnailExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mThumbnailCache.createAll(hash, mImageStore.getFile(hash));
+            }
+        });
+    }
+
+    /**
+     * Return the distinct image hashes of the trackers matching the given selection.
+     */
+    private static Set<String> queryImageHashes(SQLiteDatabase database, String selection,
+                                                String[] selectionArgs) {
+        Set<String> hashes = new HashSet<>();
+        Cursor cursor = database.query(true, TrackerEntry.TABLE_NAME,
+                new String[]{TrackerEntry.COLUMN_TRACKER_IMAGE_HASH},
+                DatabaseUtils.concatenateWhere(selection, TrackerEntry.COLUMN_TRACKER_IMAGE_HASH + " IS NOT NULL"),
+                selectionArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                hashes.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return hashes;
+    }
+
+    /**
+     * Called when trackers stopped referencing the given images. The images are dropped as soon as
+     * nothing references them anymore, or once the current batch commits if the calling thread is
+     * inside one.
+     */
+    private void releaseImages(SQLiteDatabase database, Set<String> hashes) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.releasedImages.addAll(hashes);
+        } else {
+            deleteUnreferencedImages(database, hashes);
+        }
+    }
+
+    /**
+     * Called once a write that stored the given images, see {@link #storeImage}, is over. If it
+     * didn't write its row, the images are dropped again unless another tracker references them.
+     * Inside a batch that happens once it commits, and if the batch rolls back instead, the images
+     * stored by every write of the batch are dropped the same way.
+     */
+    private void releaseStoredImages(Set<String> hashes, boolean written) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            (written ? batch.storedImages : batch.releasedImages).addAll(hashes);
+        } else if (!written) {
+            deleteUnreferencedImagesNow(hashes);
+        }
+    }
+
+    /**
+     * Delete those of the given images that no tracker references anymore. Must run inside a
+     * write transaction, so no insert can start referencing an image while it is being deleted.
+     */
+    private void deleteUnreferencedImages(SQLiteDatabase database, Set<String> hashes) {
+        for (String hash : hashes) {
+            long references = DatabaseUtils.queryNumEntries(database, TrackerEntry.TABLE_NAME,
+                    TrackerEntry.COLUMN_TRACKER_IMAGE_HASH + "=?", new String[]{hash});
+            // While a backup has the images pinned, they and their thumbnails stay for now
+            if (references == 0 && mImageStore.delete(hash)) {
+                mThumbnailCache.delete(hash);
+            }
+        }
+    }
+
+    /**
+     * Delete those of the given images that no tracker references anymore, in a transaction of
+     * their own.
+     */
+    private void deleteUnreferencedImagesNow(Set<String> hashes) {
+        if (hashes.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            deleteUnreferencedImages(database, hashes);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues contentValues, String selection,
+                      String[] selectionArgs) {
+        long startNanos = System.nanoTime();
+        int match = sUriMatcher.match(uri);
+        int rows = -1;
+        try {
+            rows = update(uri, match, contentValues, selection, selectionArgs);
+            return rows;
+        } finally {
+            mMetrics.record(ProviderMetrics.OPERATION_UPDATE, match, startNanos, rows, 0);
+        }
+    }
+
+    private int update(Uri uri, int match, ContentValues contentValues, String selection,
+                       String[] selectionArgs) {
+        switch (match) {
+            case TRACKERS:
+                return updateTracker(uri, contentValues, selection, selectionArgs);
+            case TRACKER_ID:
+                // For the PET_ID code, extract out the ID from the URI,
+                // so we know which row to update. Selection will be "_id=?" and selection
+                // arguments will be a String array containing the actual ID.
+                selection = TrackerContract.TrackerEntry._ID + "=?";
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                return updateTracker(uri, contentValues, selection, selectionArgs);
+            case VENDORS:
+                return updateVendor(contentValues, selection, selectionArgs);
+            case VENDOR_ID:
+                selection = VendorEntry._ID + "=?";
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                return updateVendor(contentValues, selection, selectionArgs);
+            case IMPORT_ID:
+                selection = ImportEntry._ID + "=?";
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                return updateImports(contentValues, selection, selectionArgs);
+            default:
+                throw new IllegalArgumentException("Update is not supported for " + uri);
+        }
+    }
+
+    /**
+     * Record the progress of the selected imports.
+     */
+    private int updateImports(ContentValues values, String selection, String[] selectionArgs) {
+        if (values.containsKey(ImportEntry.COLUMN_SOURCE)) {
+            throw new IllegalArgumentException("The source of an import can't change");
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsUpdated = database.update(ImportEntry.TABLE_NAME, values, selection, selectionArgs);
+        if (rowsUpdated != 0) {
+            notifyChange(ImportEntry.CONTENT_URI);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Change the e-mail of the selected vendors. The trackers only reference their vendor, so
+     * this doesn't touch them, however many there are.
+     */
+    private int updateVendor(ContentValues values, String selection, String[] selectionArgs) {
+        String email = checkVendorEmail(values.getAsString(VendorEntry.COLUMN_VENDOR_EMAIL));
+        if (values.size() != 1) {
+            throw new IllegalArgumentException("Vendor only has an e-mail");
+        }
+        ContentValues trimmed = new ContentValues();
+        trimmed.put(VendorEntry.COLUMN_VENDOR_EMAIL, email);
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsUpdated;
+        database.beginTransaction();
+        try {
+            rowsUpdated = database.update(VendorEntry.TABLE_NAME, trimmed, selection, selectionArgs);
+            database.setTransactionSuccessful();
+        } catch (SQLiteConstraintException e) {
+            throw new IllegalArgumentException("Another vendor has the e-mail " + email, e);
+        } finally {
+            database.endTransaction();
+        }
+
+        // The vendor column of the vendor's trackers changes as well
+        if (rowsUpdated != 0) {
+            notifyChange(VendorEntry.CONTENT_URI);
+            notifyChange(TrackerEntry.CONTENT_URI);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Update trackers in the database with the given content values. Apply the changes to the rows
      * specified in the selection and selection arguments (which could be 0 or 1 or more trackers).
      * Return the number of rows that were successfully updated.
      */
@@ -196,24 +1884,17 @@ public class TrackerProvider extends ContentProvider {
             }
         }
 
-        // If the {@link TrackerEntry#COLUMN_PET_GENDER} key is present,
-        // check that the gender value is valid.
-        if (values.containsKey(TrackerContract.TrackerEntry.COLUMN_TRACKER_QUANTITY)) {
-            Integer quantity = values.getAsInteger(TrackerContract.TrackerEntry.COLUMN_TRACKER_QUANTITY);
-            if (quantity == null && quantity < 0) {
-                throw new IllegalArgumentException("Tracker requires valid quantity");
-            }
+        // If the {@link TrackerEntry#COLUMN_TRACKER_VENDOR} or the vendor ID key is present,
+        // check that the vendor value is not null.
+        if ((values.containsKey(TrackerEntry.COLUMN_TRACKER_VENDOR)
+                && values.getAsString(TrackerEntry.COLUMN_TRACKER_VENDOR) == null)
+                || (values.containsKey(TrackerEntry.COLUMN_TRACKER_VENDOR_ID)
+                && values.getAsLong(TrackerEntry.COLUMN_TRACKER_VENDOR_ID) == null)) {
+            throw new IllegalArgumentException("Tracker requires a vendor");
         }
 
-        // If the {@link TrackerEntry#COLUMN_TRACKER_WEIGHT} key is present,
-
-        if (values.containsKey(TrackerContract.TrackerEntry.COLUMN_TRACKER_PRICE)) {
-            // Check that the weight is greater than or equal to 0 kg
-            Integer price = values.getAsInteger(TrackerContract.TrackerEntry.COLUMN_TRACKER_PRICE);
-            if (price != null && price < 0) {
-                throw new IllegalArgumentException("Tracker requires valid price");
-            }
-        }
+        // If the quantity or price keys are present, check that their values are valid
+        checkQuantityAndPrice(values);
 
         // If there are no values to update, then don't try to update the database
         if (values.size() == 0) {
@@ -223,61 +1904,775 @@ public class TrackerProvider extends ContentProvider {
         // Otherwise, get writeable database to update the data
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(TrackerContract.TrackerEntry.TABLE_NAME, values, selection, selectionArgs);
+        // Quantities are read net of the pending sales and written back as they are, so the
+        // pending sales have to be in the table before a quantity overwrites it, or they would be
+        // subtracted again. A batch applies them before its transaction begins instead.
+        boolean flushSales = values.containsKey(TrackerEntry.COLUMN_TRACKER_QUANTITY)
+                && mBatch.get() == null;
+        if (flushSales) {
+            mSalesLock.writeLock().lock();
+        }
+        int rowsUpdated = 0;
+        long[] ids;
+        try {
+            if (flushSales) {
+                flushPendingSales();
+            }
+
+            Set<String> storedImages = new HashSet<>();
+            boolean written = false;
+            database.beginTransaction();
+            try {
+                values = storeImage(resolveVendor(database, values), storedImages);
+
+                // If the image changes, remember the images being replaced
+                Set<String> replacedImages = Collections.emptySet();
+                if (values.containsKey(TrackerEntry.COLUMN_TRACKER_IMAGE_HASH)) {
+                    replacedImages = queryImageHashes(database, selection, selectionArgs);
+                }
+
+                // Remember which rows are about to change, since the selection may not match them
+                // anymore afterwards
+                ids = queryIds(database, uri, selection, selectionArgs);
+
+                // Perform the update on the database and get the number of rows affected
+                rowsUpdated = database.update(TrackerContract.TrackerEntry.TABLE_NAME, values, selection, selectionArgs);
+
+                releaseImages(database, replacedImages);
+                database.setTransactionSuccessful();
+                written = rowsUpdated > 0;
+            } finally {
+                database.endTransaction();
+                releaseStoredImages(storedImages, written);
+            }
+        } finally {
+            if (flushSales) {
+                mSalesLock.writeLock().unlock();
+            }
+        }
 
-        // If 1 or more rows were updated, then notify all listeners that the data at the
-        // given URI has changed
+        // If 1 or more rows were updated, then notify the listeners of those rows, telling them
+        // which columns changed
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyRowChanges(ids, TrackerContract.CHANGE_UPDATE, new TreeSet<>(values.keySet()));
         }
 
         // Return the number of rows updated
         return rowsUpdated;
     }
 
+    /**
+     * Check that the given values describe a valid new tracker: a name, a vendor, and a valid
+     * quantity and price. This is what {@link #insert} checks, so importers can reject a bad
+     * record before it fails a whole batch.
+     *
+     * @throws IllegalArgumentException if the tracker isn't valid
+     */
+    static void checkNewTracker(ContentValues values) {
+        // Check that the name is not null
+        String name = values.getAsString(TrackerContract.TrackerEntry.COLUMN_TRACKER_NAME);
+        if (name == null) {
+            throw new IllegalArgumentException("Tracker requires a name");
+        }
+
+        // Check that the quantity, price and vendor are provided, and that they are valid
+        if (!values.containsKey(TrackerContract.TrackerEntry.COLUMN_TRACKER_QUANTITY)) {
+            throw new IllegalArgumentException("Tracker requires valid quantity");
+        }
+        if (!values.containsKey(TrackerContract.TrackerEntry.COLUMN_TRACKER_PRICE)) {
+            throw new IllegalArgumentException("Tracker requires valid price");
+        }
+        if (values.getAsString(TrackerEntry.COLUMN_TRACKER_VENDOR) == null
+                && values.getAsLong(TrackerEntry.COLUMN_TRACKER_VENDOR_ID) == null) {
+            throw new IllegalArgumentException("Tracker requires a vendor");
+        }
+        checkQuantityAndPrice(values);
+    }
+
+    /**
+     * If the given values contain a quantity, a price or a reorder threshold, check that it is a
+     * non-negative integer. The price is in cents, so text like "$129" or "12.50" is rejected
+     * rather than stored as TEXT, and so is a fractional number like 12.5 rather than cut to 12.
+     */
+    private static void checkQuantityAndPrice(ContentValues values) {
+        if (values.containsKey(TrackerContract.TrackerEntry.COLUMN_TRACKER_QUANTITY)) {
+            Long quantity = getAsWholeNumber(values, TrackerContract.TrackerEntry.COLUMN_TRACKER_QUANTITY);
+            if (quantity == null || quantity < 0 || quantity > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Tracker requires valid quantity");
+            }
+        }
+
+        if (values.containsKey(TrackerContract.TrackerEntry.COLUMN_TRACKER_PRICE)) {
+            Long price = getAsWholeNumber(values, TrackerContract.TrackerEntry.COLUMN_TRACKER_PRICE);
+            if (price == null || price < 0) {
+                throw new IllegalArgumentException("Tracker requires valid price");
+            }
+        }
+
+        if (values.containsKey(TrackerEntry.COLUMN_TRACKER_REORDER_THRESHOLD)) {
+            Long threshold = getAsWholeNumber(values, TrackerEntry.COLUMN_TRACKER_REORDER_THRESHOLD);
+            if (threshold == null || threshold < 0 || threshold > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Tracker requires valid reorder threshold");
+            }
+        }
+    }
+
+    /**
+     * Return the value of the given key as a whole number, or null if it isn't one. Unlike
+     * {@link ContentValues#getAsLong}, which cuts a Double like 12.5 down to 12, a number with a
+     * fraction is rejected. A whole Float or Double is put back as a Long, so the column gets an
+     * integer either way.
+     */
+    private static Long getAsWholeNumber(ContentValues values, String key) {
+        Object value = values.get(key);
+        if (value instanceof Float || value instanceof Double) {
+            double number = ((Number) value).doubleValue();
+            if (number != Math.rint(number) || number < Long.MIN_VALUE || number >= Long.MAX_VALUE) {
+                return null;
+            }
+            values.put(key, (long) number);
+            return (long) number;
+        }
+        return values.getAsLong(key);
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        long startNanos = System.nanoTime();
+        int match = sUriMatcher.match(uri);
+        int rows = -1;
+        try {
+            rows = delete(uri, match, selection, selectionArgs);
+            return rows;
+        } finally {
+            mMetrics.record(ProviderMetrics.OPERATION_DELETE, match, startNanos, rows, 0);
+        }
+    }
+
+    private int delete(Uri uri, int match, String selection, String[] selectionArgs) {
         // Get writeable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
         // Track the number of rows that were deleted
         int rowsDeleted;
 
-        final int match = sUriMatcher.match(uri);
         switch (match) {
             case TRACKERS:
                 // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(TrackerContract.TrackerEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             case TRACKER_ID:
                 // Delete a single row given by the ID in the URI
                 selection = TrackerContract.TrackerEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(TrackerContract.TrackerEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case VENDORS:
+                return deleteVendors(database, selection, selectionArgs);
+            case VENDOR_ID:
+                selection = VendorEntry._ID + "=?";
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                return deleteVendors(database, selection, selectionArgs);
+            case IMPORTS:
+                return deleteImports(database, selection, selectionArgs);
+            case IMPORT_ID:
+                selection = ImportEntry._ID + "=?";
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                return deleteImports(database, selection, selectionArgs);
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
 
-        // If 1 or more rows were deleted, then notify all listeners that the data at the
-        // given URI has changed
+        // Delete the rows and drop the images that nothing references anymore in one transaction
+        long[] ids;
+        database.beginTransaction();
+        try {
+            Set<String> deletedImages = queryImageHashes(database, selection, selectionArgs);
+            ids = queryIds(database, uri, selection, selectionArgs);
+            rowsDeleted = database.delete(TrackerContract.TrackerEntry.TABLE_NAME, selection, selectionArgs);
+            releaseImages(database, deletedImages);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // If 1 or more rows were deleted, then notify the listeners of those rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyRowChanges(ids, TrackerContract.CHANGE_DELETE, null);
         }
 
         // Return the number of rows deleted
         return rowsDeleted;
     }
 
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        switch (method) {
+            case TrackerContract.METHOD_SELL:
+                return sell(extras.getLong(TrackerContract.EXTRA_ID),
+                        extras.getInt(TrackerContract.EXTRA_COUNT, 1));
+            case TrackerContract.METHOD_SELL_BASKET:
+                return sellBasket(extras.getLongArray(TrackerContract.EXTRA_IDS),
+                        extras.getIntArray(TrackerContract.EXTRA_COUNTS));
+            case TrackerContract.METHOD_RECORD_SALE:
+                return recordSale(extras.getLong(TrackerContract.EXTRA_ID),
+                        extras.getInt(TrackerContract.EXTRA_COUNT, 1));
+            case TrackerContract.METHOD_BACKUP:
+                return backup((Uri) extras.getParcelable(TrackerContract.EXTRA_URI));
+            case TrackerContract.METHOD_RESTORE:
+                return restore((Uri) extras.getParcelable(TrackerContract.EXTRA_URI));
+            case TrackerContract.METHOD_METRICS:
+                return readMetrics(extras != null && extras.getBoolean(TrackerContract.EXTRA_RESET));
+            default:
+                return super.call(method, arg, extras);
+        }
+    }
+
+    /**
+     * Return the figures of the operations of the provider and of its row cache, and start them
+     * from zero if asked to.
+     */
+    private Bundle readMetrics(boolean reset) {
+        Bundle result = mMetrics.read(reset);
+        result.putLong(TrackerContract.EXTRA_ROW_CACHE_HITS, mRowCache.getHits());
+        result.putLong(TrackerContract.EXTRA_ROW_CACHE_MISSES, mRowCache.getMisses());
+        result.putInt(TrackerContract.EXTRA_ROW_CACHE_SIZE, mRowCache.getSize());
+        if (reset) {
+            mRowCache.resetCounts();
+        }
+        return result;
+    }
+
+    /**
+     * Write a backup of the catalog to the file at the given URI, see {@link CatalogBackup}.
+     */
+    private Bundle backup(Uri destination) {
+        if (destination == null) {
+            throw new IllegalArgumentException("Backup requires a destination");
+        }
+
+        // The backup has to include the sales that are only journaled so far
+        flushPendingSales();
+
+        CatalogBackup.Result result;
+        try {
+            OutputStream out = getContext().getContentResolver().openOutputStream(destination);
+            if (out == null) {
+                throw new FileNotFoundException("Cannot open " + destination);
+            }
+            result = CatalogBackup.backup(mDbHelper.getWritableDatabase(), mImageStore,
+                    getContext().getCacheDir(), out);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to back up the catalog to " + destination, e);
+        } finally {
+            // The images released while the backup had them pinned can go now
+            deleteUnreferencedImagesNow(mImageStore.takeDeferredDeletes());
+        }
+        return createBackupResult(result);
+    }
+
+    /**
+     * Replace the catalog with the backup in the file at the given URI, see {@link CatalogBackup}.
+     */
+    private Bundle restore(Uri source) {
+        if (source == null) {
+            throw new IllegalArgumentException("Restore requires a source");
+        }
+
+        // Journaled sales belong to the catalog being replaced, so apply them to it first. Sales
+        // accepted during the restore are applied to the restored catalog.
+        flushPendingSales();
+
+        CatalogBackup.Result result;
+        try {
+            InputStream in = getContext().getContentResolver().openInputStream(source);
+            if (in == null) {
+                throw new FileNotFoundException("Cannot open " + source);
+            }
+            result = CatalogBackup.restore(mDbHelper.getWritableDatabase(), mImageStore, in);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to restore the catalog from " + source, e);
+        } finally {
+            // Drop the images of the replaced catalog, or of a restore that failed halfway
+            deleteUnreferencedImagesNow(new HashSet<>(Arrays.asList(mImageStore.listHashes())));
+        }
+
+        // Anything may have changed
+        notifyChange(TrackerEntry.CONTENT_URI);
+        notifyChange(VendorEntry.CONTENT_URI);
+        return createBackupResult(result);
+    }
+
+    private static Bundle createBackupResult(CatalogBackup.Result result) {
+        Bundle bundle = new Bundle();
+        bundle.putInt(TrackerContract.EXTRA_TRACKER_COUNT, result.trackers);
+        bundle.putInt(TrackerContract.EXTRA_IMAGE_COUNT, result.images);
+        return bundle;
+    }
+
+    /**
+     * Sell the given number of units of a single tracker. The stock check and the decrement are a
+     * single UPDATE statement, so concurrent sales of the same tracker can't lose an update.
+     */
+    private Bundle sell(long id, int count) {
+        return sellBasket(new long[]{id}, new int[]{count});
+    }
+
+    /**
+     * Sell the given number of units of each of the given trackers in one transaction. If any of
+     * them doesn't have enough units in stock, nothing is sold.
+     */
+    private Bundle sellBasket(long[] ids, int[] counts) {
+        if (ids == null || counts == null || ids.length != counts.length) {
+            throw new IllegalArgumentException("Basket requires one count for every tracker");
+        }
+        for (int count : counts) {
+            if (count < 1) {
+                throw new IllegalArgumentException("Basket requires positive counts");
+            }
+        }
+
+        // The stock check has to take the journaled sales into account, and no sale may be
+        // journaled between the check and the update
+        mSalesLock.writeLock().lock();
+        try {
+            flushPendingSales();
+            return sellBasket(mDbHelper.getWritableDatabase(), ids, counts);
+        } finally {
+            mSalesLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sell a basket, see {@link #sellBasket(long[], int[])}, with no sales pending.
+     */
+    private Bundle sellBasket(SQLiteDatabase database, long[] ids, int[] counts) {
+        SQLiteStatement sellStatement = database.compileStatement("UPDATE "
+                + TrackerEntry.TABLE_NAME + " SET " + TrackerEntry.COLUMN_TRACKER_QUANTITY + " = "
+                + TrackerEntry.COLUMN_TRACKER_QUANTITY + " - ? WHERE " + TrackerEntry._ID
+                + " = ? AND " + TrackerEntry.COLUMN_TRACKER_QUANTITY + " >= ?");
+
+        Bundle result = new Bundle();
+        beginBatch();
+        try {
+            int[] quantities = new int[ids.length];
+            boolean sold = true;
+            database.beginTransaction();
+            try {
+                for (int i = 0; i < ids.length && sold; i++) {
+                    sellStatement.bindLong(1, counts[i]);
+                    sellStatement.bindLong(2, ids[i]);
+                    sellStatement.bindLong(3, counts[i]);
+                    if (sellStatement.executeUpdateDelete() == 1) {
+                        notifyChange(TrackerEntry.buildChangeUri(ids[i], TrackerContract.CHANGE_UPDATE,
+                                Collections.singleton(TrackerEntry.COLUMN_TRACKER_QUANTITY)));
+                    } else {
+                        sold = false;
+                        result.putLong(TrackerContract.EXTRA_ID, ids[i]);
+                    }
+                }
+
+                // Read the resulting quantities inside the same transaction, so they are exactly
+                // the ones our own updates left behind
+                for (int i = 0; i < ids.length; i++) {
+                    quantities[i] = queryQuantity(database, ids[i]);
+                }
+                if (sold) {
+                    database.setTransactionSuccessful();
+                }
+            } finally {
+                database.endTransaction();
+                sellStatement.close();
+            }
+
+            if (sold) {
+                sendPendingNotifications();
+            }
+            result.putBoolean(TrackerContract.EXTRA_SOLD, sold);
+            if (ids.length == 1) {
+                // A failed single sale changed nothing, so its quantity is still the current one
+                result.putInt(TrackerContract.EXTRA_QUANTITY, quantities[0]);
+            } else if (sold) {
+                result.putIntArray(TrackerContract.EXTRA_QUANTITIES, quantities);
+            }
+        } finally {
+            endBatch();
+        }
+        return result;
+    }
+
+    /**
+     * Accept a sale without waiting for the database: check it against the stock net of the
+     * sales still pending, journal it, count it as pending so queries show it right away, and
+     * leave applying it to the table to the background thread.
+     */
+    private Bundle recordSale(long id, int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Sale requires a positive count");
+        }
+
+        Bundle result = new Bundle();
+        boolean journaled = false;
+
+        // Holding the read lock keeps the pending sales from moving into the table, and the other
+        // writes of the stock from running, between the check and the journaling
+        mSalesLock.readLock().lock();
+        try {
+            synchronized (mPendingSales) {
+                SalesJournal journal = getSalesJournal();
+                int quantity = queryQuantity(mDbHelper.getReadableDatabase(), id);
+                Integer pending = mPendingSales.get(id);
+                int available = pending == null ? quantity : quantity - pending;
+                if (quantity < 0 || available < count) {
+                    result.putBoolean(TrackerContract.EXTRA_SOLD, false);
+                    result.putInt(TrackerContract.EXTRA_QUANTITY, Math.max(available, 0));
+                    return result;
+                }
+
+                try {
+                    journal.append(id, count);
+                    mPendingSales.put(id, pending == null ? count : pending + count);
+                    scheduleSalesWork();
+                    result.putInt(TrackerContract.EXTRA_QUANTITY, available - count);
+                    journaled = true;
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Failed to journal sale of tracker " + id, e);
+                }
+            }
+        } finally {
+            mSalesLock.readLock().unlock();
+        }
+
+        // Without the journal the sale can't be deferred safely, so make it right away
+        if (!journaled) {
+            return sell(id, count);
+        }
+
+        notifyChange(TrackerEntry.buildChangeUri(id, TrackerContract.CHANGE_UPDATE,
+                Collections.singleton(TrackerEntry.COLUMN_TRACKER_QUANTITY)));
+
+        result.putBoolean(TrackerContract.EXTRA_SOLD, true);
+        return result;
+    }
+
+    /**
+     * Return a copy of the pending sales, or null if there are none.
+     */
+    private Map<Long, Integer> getPendingSales() {
+        synchronized (mPendingSales) {
+            getSalesJournal();
+            return mPendingSales.isEmpty() ? null : new HashMap<>(mPendingSales);
+        }
+    }
+
+    /**
+     * Return the sales journal, opening it on first use. The sales that the journal holds beyond
+     * the last one applied to the table, because the process died before it could apply them,
+     * become pending again. Must be called with {@link #mPendingSales} held.
+     */
+    private SalesJournal getSalesJournal() {
+        if (mSalesJournal != null) {
+            return mSalesJournal;
+        }
+
+        try {
+            SalesJournal journal = new SalesJournal(
+                    new File(getContext().getFilesDir(), SALES_JOURNAL_FILE_NAME));
+            long appliedSequence = DatabaseUtils.longForQuery(mDbHelper.getReadableDatabase(),
+                    "SELECT " + TrackerDbHelper.COLUMN_APPLIED_SEQUENCE + " FROM "
+                            + TrackerDbHelper.SALES_JOURNAL_TABLE_NAME, null);
+            List<SalesJournal.Sale> sales = journal.readAll(appliedSequence);
+            for (SalesJournal.Sale sale : sales) {
+                if (sale.sequence > appliedSequence) {
+                    Integer pending = mPendingSales.get(sale.id);
+                    mPendingSales.put(sale.id, pending == null ? sale.count : pending + sale.count);
+                }
+            }
+            mSalesJournal = journal;
+
+            if (mPendingSales.isEmpty()) {
+                journal.truncate(journal.getLastSequence());
+            } else {
+                Log.i(LOG_TAG, "Replaying sales of " + mPendingSales.size() + " trackers");
+                scheduleSalesWork();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open the sales journal", e);
+        }
+        return mSalesJournal;
+    }
+
+    /**
+     * Schedule a sync of the journal right away, so the sales accepted meanwhile share one, and
+     * the application of the pending sales after a short delay, so they are applied together.
+     * Must be called with {@link #mPendingSales} held.
+     */
+    private void scheduleSalesWork() {
+        if (!mSalesSyncScheduled) {
+            mSalesSyncScheduled = true;
+            mSalesExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    SalesJournal journal;
+                    synchronized (mPendingSales) {
+                        mSalesSyncScheduled = false;
+                        journal = mSalesJournal;
+                    }
+                    try {
+                        journal.sync();
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, "Failed to sync the sales journal", e);
+                    }
+                }
+            });
+        }
+        if (!mSalesFlushScheduled) {
+            mSalesFlushScheduled = true;
+            mSalesExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flushPendingSales();
+                }
+            }, SALES_FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Apply the pending sales to the trackers table, with one update per tracker however many
+     * times it was sold, in a single transaction. The table and the journal stay consistent
+     * whenever the process dies: the transaction also records the last sale it applied, so a
+     * replay skips those.
+     */
+    private void flushPendingSales() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long[] ids;
+
+        // Holding the write lock also keeps two flushes from applying the same sales
+        mSalesLock.writeLock().lock();
+        try {
+            Map<Long, Integer> sales;
+            long lastSequence;
+            synchronized (mPendingSales) {
+                mSalesFlushScheduled = false;
+                if (mSalesJournal == null || mPendingSales.isEmpty()) {
+                    return;
+                }
+                sales = new HashMap<>(mPendingSales);
+                lastSequence = mSalesJournal.getLastSequence();
+            }
+            ids = new long[sales.size()];
+
+            // The sales were checked against the stock when they were accepted, but a write that
+            // didn't wait for them, such as a batch, may have lowered it since. Never take the
+            // stock below zero, and leave a trace of the units that couldn't be taken.
+            for (Map.Entry<Long, Integer> sale : sales.entrySet()) {
+                int quantity = queryQuantity(database, sale.getKey());
+                if (quantity >= 0 && quantity < sale.getValue()) {
+                    Log.w(LOG_TAG, "Tracker " + sale.getKey() + " was oversold by "
+                            + (sale.getValue() - quantity) + " units");
+                }
+            }
+            SQLiteStatement sellStatement = database.compileStatement("UPDATE "
+                    + TrackerEntry.TABLE_NAME + " SET " + TrackerEntry.COLUMN_TRACKER_QUANTITY + " = "
+                    + TrackerEntry.COLUMN_TRACKER_QUANTITY + " - MIN(" + TrackerEntry.COLUMN_TRACKER_QUANTITY
+                    + ", ?) WHERE " + TrackerEntry._ID + " = ?");
+            database.beginTransaction();
+            try {
+                int i = 0;
+                for (Map.Entry<Long, Integer> sale : sales.entrySet()) {
+                    sellStatement.bindLong(1, sale.getValue());
+                    sellStatement.bindLong(2, sale.getKey());
+                    sellStatement.executeUpdateDelete();
+                    ids[i++] = sale.getKey();
+                }
+
+                ContentValues applied = new ContentValues();
+                applied.put(TrackerDbHelper.COLUMN_APPLIED_SEQUENCE, lastSequence);
+                database.update(TrackerDbHelper.SALES_JOURNAL_TABLE_NAME, applied, null, null);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+                sellStatement.close();
+            }
+
+            // The cached rows would show the quantities without the sales once they stop being
+            // pending, so drop them before any query can see that
+            for (long id : ids) {
+                invalidateCaches(id);
+            }
+
+            // The sales are in the table now, so they are not pending anymore. Sales accepted
+            // while the transaction ran stay pending.
+            synchronized (mPendingSales) {
+                for (Map.Entry<Long, Integer> sale : sales.entrySet()) {
+                    int pending = mPendingSales.get(sale.getKey()) - sale.getValue();
+                    if (pending == 0) {
+                        mPendingSales.remove(sale.getKey());
+                    } else {
+                        mPendingSales.put(sale.getKey(), pending);
+                    }
+                }
+                try {
+                    mSalesJournal.truncate(lastSequence);
+                } catch (IOException e) {
+                    // The applied sales are skipped on replay, so the journal can wait
+                    Log.e(LOG_TAG, "Failed to truncate the sales journal", e);
+                }
+            }
+        } finally {
+            mSalesLock.writeLock().unlock();
+        }
+
+        // The quantities shown don't change, unless the stock ran out; let observers check
+        notifyRowChanges(ids, TrackerContract.CHANGE_UPDATE,
+                Collections.singleton(TrackerEntry.COLUMN_TRACKER_QUANTITY));
+    }
+
+    /**
+     * Return the quantity in stock of the given tracker, or -1 if it doesn't exist.
+     */
+    private static int queryQuantity(SQLiteDatabase database, long id) {
+        Cursor cursor = database.query(TrackerEntry.TABLE_NAME,
+                new String[]{TrackerEntry.COLUMN_TRACKER_QUANTITY},
+                TrackerEntry._ID + "=?", new String[]{String.valueOf(id)}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        long startNanos = System.nanoTime();
+        int match = sUriMatcher.match(uri);
+        int rows = -1;
+        long bytes = 0;
+        try {
+            ParcelFileDescriptor file;
+            switch (match) {
+                case TRACKER_IMAGE:
+                    // Images are only written through insert and update, so they can only be read here
+                    if (!"r".equals(mode)) {
+                        throw new IllegalArgumentException("Images can only be opened for reading: " + uri);
+                    }
+                    file = openImage(uri);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Cannot open unknown URI " + uri);
+            }
+            rows = 1;
+            bytes = Math.max(file.getStatSize(), 0);
+            return file;
+        } finally {
+            mMetrics.record(ProviderMetrics.OPERATION_OPEN_FILE, match, startNanos, rows, bytes);
+        }
+    }
+
+    /**
+     * Open the image file of a single tracker, or one of its thumbnails if the URI asks for a size.
+     * The image bytes are streamed straight from the image store and never pass through a Cursor.
+     */
+    private ParcelFileDescriptor openImage(Uri uri) throws FileNotFoundException {
+        // For "content://com.example.android.trackers/trackers/3/image" the ID is the second segment
+        String id = uri.getPathSegments().get(1);
+
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        Cursor cursor = database.query(TrackerEntry.TABLE_NAME,
+                new String[]{TrackerEntry.COLUMN_TRACKER_IMAGE_HASH},
+                TrackerEntry._ID + "=?", new String[]{id}, null, null, null);
+        String hash;
+        try {
+            hash = cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+
+        if (hash == null) {
+            throw new FileNotFoundException("No image for " + uri);
+        }
+
+        File file = mImageStore.getFile(hash);
+        String size = uri.getQueryParameter(TrackerContract.QUERY_PARAMETER_SIZE);
+        if (size != null) {
+            file = mThumbnailCache.get(hash, parseThumbnailSize(uri, size), file);
+            if (file == null) {
+                throw new FileNotFoundException("No thumbnail for " + uri);
+            }
+        }
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    /**
+     * Return the given thumbnail size if it is one of {@link TrackerContract#THUMBNAIL_SIZES}.
+     */
+    private static int parseThumbnailSize(Uri uri, String size) {
+        for (int available : TrackerContract.THUMBNAIL_SIZES) {
+            if (String.valueOf(available).equals(size)) {
+                return available;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported thumbnail size in " + uri);
+    }
+
+    /**
+     * Delete the selected vendors that no tracker references anymore; the others are kept. The
+     * references are looked up through the index on the vendor ID.
+     */
+    private int deleteVendors(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        selection = DatabaseUtils.concatenateWhere(selection, VendorEntry._ID + " NOT IN (SELECT "
+                + TrackerEntry.COLUMN_TRACKER_VENDOR_ID + " FROM " + TrackerEntry.TABLE_NAME + ")");
+        int rowsDeleted;
+        database.beginTransaction();
+        try {
+            rowsDeleted = database.delete(VendorEntry.TABLE_NAME, selection, selectionArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        if (rowsDeleted != 0) {
+            notifyChange(VendorEntry.CONTENT_URI);
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Forget the progress of the selected imports. The imported trackers stay.
+     */
+    private int deleteImports(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        int rowsDeleted = database.delete(ImportEntry.TABLE_NAME, selection, selectionArgs);
+        if (rowsDeleted != 0) {
+            notifyChange(ImportEntry.CONTENT_URI);
+        }
+        return rowsDeleted;
+    }
+
     @Override
     public String getType(Uri uri) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case TRACKERS:
+            case TRACKERS_SEARCH:
                 return TrackerContract.TrackerEntry.CONTENT_LIST_TYPE;
             case TRACKER_ID:
                 return TrackerContract.TrackerEntry.CONTENT_ITEM_TYPE;
+            case TRACKERS_SUMMARY:
+                return SummaryEntry.CONTENT_TYPE;
+            case TRACKERS_REORDER:
+                return ReorderEntry.CONTENT_TYPE;
+            case VENDORS:
+                return VendorEntry.CONTENT_LIST_TYPE;
+            case VENDOR_ID:
+                return VendorEntry.CONTENT_ITEM_TYPE;
+            case VENDOR_TRACKERS:
+                return TrackerEntry.CONTENT_LIST_TYPE;
+            case IMPORTS:
+                return ImportEntry.CONTENT_LIST_TYPE;
+            case IMPORT_ID:
+                return ImportEntry.CONTENT_ITEM_TYPE;
+            case TRACKER_IMAGE:
+                if (uri.getQueryParameter(TrackerContract.QUERY_PARAMETER_SIZE) != null) {
+                    return TrackerContract.TrackerEntry.CONTENT_THUMBNAIL_TYPE;
+                }
+                return TrackerContract.TrackerEntry.CONTENT_IMAGE_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
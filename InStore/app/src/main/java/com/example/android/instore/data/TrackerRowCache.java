@@ -0,0 +1,222 @@
+package com.example.android.instore.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Keeps the most recently read tracker rows in memory, keyed by ID, so reading the same tracker
+ * again doesn't cost a query. The rows are kept whole, with every column of the trackers and the
+ * vendor's e-mail, and any projection of their columns can be served from them.
+ * <p>
+ * The cache is bounded by an estimate of the memory its rows take; the least recently read rows
+ * go first. Whoever writes a tracker has to {@link #invalidate} it, both when it is written and
+ * once the write has committed. A row read from the database is only kept if nothing was
+ * invalidated since the read began (see {@link #getGeneration}), so a read that raced with a
+ * write never leaves an old row behind.
+ */
+class TrackerRowCache {
+
+    /**
+     * Rough cost of a row and of a field beyond their contents, in bytes
+     */
+    private static final int ROW_OVERHEAD = 64;
+
+    private static final int FIELD_OVERHEAD = 16;
+
+    /**
+     * Most bytes the rows may take
+     */
+    private final int mMaxSize;
+
+    /**
+     * The rows, least recently read first. Everything below is guarded by this.
+     */
+    private final LinkedHashMap<Long, Row> mRows = new LinkedHashMap<>(16, 0.75f, true);
+
+    private int mSize;
+
+    /**
+     * Goes up every time rows are invalidated
+     */
+    private long mGeneration;
+
+    private long mHits;
+
+    private long mMisses;
+
+    /**
+     * A single tracker, with every column.
+     */
+    static class Row {
+
+        private final String[] mColumns;
+
+        private final Object[] mValues;
+
+        private final int mSize;
+
+        private Row(String[] columns, Object[] values, int size) {
+            mColumns = columns;
+            mValues = values;
+            mSize = size;
+        }
+
+        /**
+         * Copy the current row of the given cursor.
+         */
+        static Row read(Cursor cursor) {
+            String[] columns = cursor.getColumnNames();
+            Object[] values = new Object[columns.length];
+            int size = ROW_OVERHEAD;
+            for (int i = 0; i < columns.length; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        values[i] = cursor.getLong(i);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        values[i] = cursor.getDouble(i);
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        String string = cursor.getString(i);
+                        values[i] = string;
+                        size += 2 * string.length();
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        byte[] blob = cursor.getBlob(i);
+                        values[i] = blob;
+                        size += blob.length;
+                        break;
+                    default:
+                        values[i] = null;
+                        break;
+                }
+                size += FIELD_OVERHEAD;
+            }
+            return new Row(columns, values, size);
+        }
+
+        /**
+         * Return a cursor over the given columns of the row, or over all of them if the
+         * projection is null. Return null if the projection asks for anything but the columns of
+         * the row, such as an expression, which only the database can compute.
+         */
+        Cursor toCursor(String[] projection) {
+            if (projection == null) {
+                MatrixCursor cursor = new MatrixCursor(mColumns, 1);
+                cursor.addRow(mValues);
+                return cursor;
+            }
+
+            Object[] values = new Object[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                int index = indexOf(mColumns, projection[i]);
+                if (index == -1) {
+                    return null;
+                }
+                values[i] = mValues[index];
+            }
+            MatrixCursor cursor = new MatrixCursor(projection, 1);
+            cursor.addRow(values);
+            return cursor;
+        }
+
+        private static int indexOf(String[] columns, String column) {
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].equalsIgnoreCase(column)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * @param maxSize most bytes the rows may take; 0 turns the cache off
+     */
+    TrackerRowCache(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Return the number to pass to {@link #put} for a row that is about to be read.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Return the cached tracker with the given ID, or null if it isn't cached.
+     */
+    synchronized Row get(long id) {
+        Row row = mRows.get(id);
+        if (row == null) {
+            mMisses++;
+        } else {
+            mHits++;
+        }
+        return row;
+    }
+
+    /**
+     * Keep the given tracker, unless rows were invalidated since the given generation.
+     */
+    synchronized void put(long id, Row row, long generation) {
+        if (generation != mGeneration || row.mSize > mMaxSize) {
+            return;
+        }
+        Row previous = mRows.put(id, row);
+        if (previous != null) {
+            mSize -= previous.mSize;
+        }
+        mSize += row.mSize;
+
+        Iterator<Row> eldest = mRows.values().iterator();
+        while (mSize > mMaxSize) {
+            mSize -= eldest.next().mSize;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drop the tracker with the given ID.
+     */
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        Row row = mRows.remove(id);
+        if (row != null) {
+            mSize -= row.mSize;
+        }
+    }
+
+    /**
+     * Drop every tracker.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mRows.clear();
+        mSize = 0;
+    }
+
+    synchronized long getHits() {
+        return mHits;
+    }
+
+    synchronized long getMisses() {
+        return mMisses;
+    }
+
+    synchronized int getSize() {
+        return mSize;
+    }
+
+    /**
+     * Start counting hits and misses from zero.
+     */
+    synchronized void resetCounts() {
+        mHits = 0;
+        mMisses = 0;
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.android.instore;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Runs the JVM benchmarks of the data layer and records their results.
+ * <p>
+ * Every benchmark is run for a few warmup iterations, so the JIT has compiled the code under test,
+ * and then for a number of measured iterations of several operations each. Each result is
+ * printed and appended as one JSON object per line to the file named by the
+ * {@link #PROPERTY_OUTPUT} system property, so runs can be compared by a script.
+ * <p>
+ * The benchmarks run on Robolectric's SQLite rather than a device's, so their numbers are meant
+ * for comparing two builds on the same machine, not for predicting the latency in a store.
+ */
+public final class BenchmarkHarness {
+
+    /**
+     * System property that enables the benchmarks; they are skipped otherwise
+     */
+    public static final String PROPERTY_ENABLED = "instore.benchmark";
+
+    /**
+     * System property holding the comma-separated catalog sizes to run the benchmarks with
+     */
+    public static final String PROPERTY_ROW_COUNTS = "instore.benchmark.rows";
+
+    /**
+     * System property holding the path of the file the results are appended to
+     */
+    public static final String PROPERTY_OUTPUT = "instore.benchmark.output";
+
+    private static final String DEFAULT_ROW_COUNTS = "1000,10000,100000,1000000";
+
+    private static final int WARMUP_ITERATIONS = 3;
+
+    private static final int MEASURED_ITERATIONS = 10;
+
+    /**
+     * A single operation under test.
+     */
+    public interface Operation {
+
+        /**
+         * Run the operation once. The index counts the calls, warmup included, so operations can
+         * work on a different row every time.
+         */
+        void run(int index) throws Exception;
+    }
+
+    private BenchmarkHarness() {
+    }
+
+    /**
+     * Return whether the benchmarks were asked for.
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(PROPERTY_ENABLED);
+    }
+
+    /**
+     * Return the catalog sizes to run the benchmarks with.
+     */
+    public static int[] getRowCounts() {
+        String[] values = System.getProperty(PROPERTY_ROW_COUNTS, DEFAULT_ROW_COUNTS).split(",");
+        int[] rowCounts = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            rowCounts[i] = Integer.parseInt(values[i].trim());
+        }
+        return rowCounts;
+    }
+
+    /**
+     * Measure the given operation, and record the time per operation.
+     *
+     * @param suite                 name of the benchmark class
+     * @param benchmark             name of the operation
+     * @param rowCount              size of the catalog the operation runs against
+     * @param operationsPerIteration number of times the operation runs per iteration
+     */
+    public static void measure(String suite, String benchmark, int rowCount,
+                               int operationsPerIteration, Operation operation) throws Exception {
+        int index = 0;
+        for (int iteration = 0; iteration < WARMUP_ITERATIONS; iteration++) {
+            for (int i = 0; i < operationsPerIteration; i++) {
+                operation.run(index++);
+            }
+        }
+
+        long[] nanosPerOperation = new long[MEASURED_ITERATIONS];
+        for (int iteration = 0; iteration < MEASURED_ITERATIONS; iteration++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < operationsPerIteration; i++) {
+                operation.run(index++);
+            }
+            nanosPerOperation[iteration] = (System.nanoTime() - start) / operationsPerIteration;
+        }
+
+        Arrays.sort(nanosPerOperation);
+        record(suite, benchmark, rowCount, MEASURED_ITERATIONS, operationsPerIteration,
+                nanosPerOperation[nanosPerOperation.length / 2],
+                nanosPerOperation[0],
+                nanosPerOperation[nanosPerOperation.length - 1]);
+    }
+
+    /**
+     * Measure a single run of an operation that is too expensive to repeat, like filling a whole
+     * catalog.
+     */
+    public static void measureOnce(String suite, String benchmark, int rowCount,
+                                   Operation operation) throws Exception {
+        long start = System.nanoTime();
+        operation.run(0);
+        long nanos = System.nanoTime() - start;
+        record(suite, benchmark, rowCount, 1, 1, nanos, nanos, nanos);
+    }
+
+    private static void record(String suite, String benchmark, int rowCount, int iterations,
+                               int operationsPerIteration, long medianNanos, long minNanos,
+                               long maxNanos) throws IOException {
+        String line = String.format(Locale.US, "{\"suite\":\"%s\",\"benchmark\":\"%s\",\"rows\":%d,"
+                        + "\"iterations\":%d,\"operationsPerIteration\":%d,\"medianNsPerOp\":%d,"
+                        + "\"minNsPerOp\":%d,\"maxNsPerOp\":%d}",
+                suite, benchmark, rowCount, iterations, operationsPerIteration,
+                medianNanos, minNanos, maxNanos);
+        System.out.println(line);
+
+        String output = System.getProperty(PROPERTY_OUTPUT);
+        if (output == null) {
+            return;
+        }
+        File file = new File(output);
+        File directory = file.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        Writer writer = new FileWriter(file, true);
+        try {
+            writer.write(line);
+            writer.write('\n');
+        } finally {
+            writer.close();
+        }
+    }
+}
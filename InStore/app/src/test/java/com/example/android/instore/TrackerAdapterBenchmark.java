@@ -0,0 +1,89 @@
+package com.example.android.instore;
+
+import android.database.MatrixCursor;
+import android.widget.FrameLayout;
+
+import com.example.android.instore.data.TrackerContract.TrackerEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Benchmarks the catalog's bind path on the JVM: copying a cursor into the {@link TrackerAdapter}
+ * and binding its rows into a recycled view holder, for catalogs of every size in
+ * {@link BenchmarkHarness#getRowCounts()}.
+ * <p>
+ * Skipped unless the benchmarks are enabled, see {@link BenchmarkHarness}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TrackerAdapterBenchmark {
+
+    private static final String SUITE = TrackerAdapterBenchmark.class.getSimpleName();
+
+    private static final int BINDS_PER_ITERATION = 1000;
+
+    private static final String[] COLUMNS = {
+            TrackerEntry._ID,
+            TrackerEntry.COLUMN_TRACKER_NAME,
+            TrackerEntry.COLUMN_TRACKER_PRICE,
+            TrackerEntry.COLUMN_TRACKER_QUANTITY,
+            TrackerEntry.COLUMN_TRACKER_IMAGE_HASH
+    };
+
+    @Before
+    public void setUp() {
+        assumeTrue(BenchmarkHarness.isEnabled());
+    }
+
+    @Test
+    public void bindPath() throws Exception {
+        FrameLayout parent = new FrameLayout(RuntimeEnvironment.application);
+
+        for (final int rowCount : BenchmarkHarness.getRowCounts()) {
+            final MatrixCursor cursor = createCursor(rowCount);
+            final TrackerAdapter adapter = new TrackerAdapter(RuntimeEnvironment.application,
+                    new TrackerAdapter.OnTrackerClickListener() {
+                        @Override
+                        public void onTrackerClick(long id) {
+                        }
+                    });
+
+            // The copy swapCursor makes on its background thread, showing the rows without a diff
+            BenchmarkHarness.measure(SUITE, "readRows", rowCount, 1, new BenchmarkHarness.Operation() {
+                @Override
+                public void run(int index) {
+                    adapter.setRows(TrackerAdapter.readRows(cursor));
+                }
+            });
+            assertEquals(rowCount, adapter.getItemCount());
+
+            final TrackerAdapter.ViewHolder holder = adapter.onCreateViewHolder(parent, 0);
+            BenchmarkHarness.measure(SUITE, "onBindViewHolder", rowCount, BINDS_PER_ITERATION,
+                    new BenchmarkHarness.Operation() {
+                        @Override
+                        public void run(int index) {
+                            adapter.onBindViewHolder(holder, index % rowCount);
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Build a synthetic catalog. The rows have no image, so no thumbnail load gets in the way.
+     */
+    private static MatrixCursor createCursor(int rowCount) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            cursor.addRow(new Object[]{i + 1L, "Tracker " + i, 1000L + i % 9000, i % 50, null});
+        }
+        return cursor;
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.android.instore.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.instore.BuildConfig;
+import com.example.android.instore.data.TrackerContract.TrackerEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Tests that a {@link CatalogImporter} imports every valid record once, across an interrupted
+ * run, and reports and skips the records that can't be imported.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class CatalogImporterTest {
+
+    private static final Uri SOURCE = Uri.parse("file:///catalog.csv");
+
+    private static final int CHUNK_SIZE = 10;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private TrackerProvider mProvider;
+
+    private ContentResolver mResolver;
+
+    /**
+     * Numbers of the records reported as rejected
+     */
+    private final List<Integer> mFailedRecords = new ArrayList<>();
+
+    private final CatalogImporter.Listener mListener = new CatalogImporter.Listener() {
+        @Override
+        public void onProgress(int position, int imported, int failed, long bytesRead,
+                               long totalBytes) {
+        }
+
+        @Override
+        public void onRecordFailed(int record, String message) {
+            mFailedRecords.add(record);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(TrackerProvider.class);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void interruptedImportContinuesAfterTheLastChunk() throws IOException {
+        byte[] catalog = createCatalog(100);
+
+        // The file goes away about halfway through
+        shadowOf(mResolver).registerInputStream(SOURCE,
+                new TruncatedInputStream(new ByteArrayInputStream(catalog), catalog.length / 2));
+        try {
+            createImporter().importCatalog(SOURCE);
+            fail("The import should have failed");
+        } catch (IOException expected) {
+            // Whole chunks were committed before it
+        }
+        int committed = queryNames().size();
+        assertEquals(0, committed % CHUNK_SIZE);
+
+        shadowOf(mResolver).registerInputStream(SOURCE, new ByteArrayInputStream(catalog));
+        CatalogImporter.Result result = createImporter().importCatalog(SOURCE);
+        assertEquals(100, result.imported);
+        assertEquals(0, result.failed);
+
+        List<String> names = queryNames();
+        assertEquals(100, names.size());
+        assertEquals(100, new HashSet<>(names).size());
+    }
+
+    @Test
+    public void invalidRecordsAreReportedAndSkipped() throws IOException {
+        String catalog = "name,quantity,price,vendor\n"
+                + "Lamp,3,12.50,lamps@example.com\n"
+                + "Desk,many,100,desks@example.com\n"
+                + ",1,1,nameless@example.com\n"
+                + "\"Chair, oak\",2,\"$1,299\",chairs@example.com\n";
+        shadowOf(mResolver).registerInputStream(SOURCE,
+                new ByteArrayInputStream(catalog.getBytes(UTF_8)));
+
+        CatalogImporter.Result result = createImporter().importCatalog(SOURCE);
+        assertEquals(2, result.imported);
+        assertEquals(2, result.failed);
+        assertEquals(Arrays.asList(2, 3), mFailedRecords);
+        assertEquals(Arrays.asList("Chair, oak", "Lamp"), queryNames());
+    }
+
+    @Test
+    public void trackerTheProviderFailsToInsertDoesNotStopItsChunk() throws IOException {
+        // Make the database refuse one of the trackers, past the checks of the importer
+        TrackerDbHelper dbHelper = new TrackerDbHelper(RuntimeEnvironment.application);
+        try {
+            SQLiteDatabase database = dbHelper.getWritableDatabase();
+            database.execSQL("CREATE TRIGGER refuse_broken BEFORE INSERT ON " + TrackerEntry.TABLE_NAME
+                    + " WHEN new." + TrackerEntry.COLUMN_TRACKER_NAME + " = 'Broken'"
+                    + " BEGIN SELECT RAISE(ABORT, 'refused'); END");
+        } finally {
+            dbHelper.close();
+        }
+
+        String catalog = "name,quantity,price,vendor\n"
+                + "Lamp,3,12.50,lamps@example.com\n"
+                + "Broken,1,1,broken@example.com\n"
+                + "Desk,1,100,desks@example.com\n";
+        shadowOf(mResolver).registerInputStream(SOURCE,
+                new ByteArrayInputStream(catalog.getBytes(UTF_8)));
+
+        CatalogImporter.Result result = createImporter().importCatalog(SOURCE);
+        assertEquals(2, result.imported);
+        assertEquals(1, result.failed);
+        assertEquals(Arrays.asList(2), mFailedRecords);
+        assertEquals(Arrays.asList("Desk", "Lamp"), queryNames());
+    }
+
+    @Test
+    public void malformedFileFailsTheImport() {
+        String catalog = "name,quantity,price,vendor\n"
+                + "\"Lamp,3,12.50,lamps@example.com\n";
+        shadowOf(mResolver).registerInputStream(SOURCE,
+                new ByteArrayInputStream(catalog.getBytes(UTF_8)));
+        try {
+            createImporter().importCatalog(SOURCE);
+            fail("A quote that never ends should fail the import");
+        } catch (IOException expected) {
+            // Not a catalog
+        }
+    }
+
+    private CatalogImporter createImporter() {
+        return new CatalogImporter(mResolver, CHUNK_SIZE, mListener);
+    }
+
+    /**
+     * Return a CSV catalog with the given number of trackers.
+     */
+    private static byte[] createCatalog(int trackers) {
+        StringBuilder catalog = new StringBuilder("name,quantity,price,vendor\n");
+        for (int i = 0; i < trackers; i++) {
+            catalog.append("Tracker ").append(i).append(",").append(i % 50).append(",")
+                    .append(10 + i % 90).append(".50,vendor").append(i % 5).append("@example.com\n");
+        }
+        return catalog.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Return the names of every tracker, in order.
+     */
+    private List<String> queryNames() {
+        List<String> names = new ArrayList<>();
+        Cursor cursor = mProvider.query(TrackerEntry.CONTENT_URI,
+                new String[]{TrackerEntry.COLUMN_TRACKER_NAME}, null, null,
+                TrackerEntry.COLUMN_TRACKER_NAME);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    /**
+     * Hands out a few bytes per read, and fails once the given number of bytes was read, like a
+     * file on a storage that went away.
+     */
+    private static class TruncatedInputStream extends FilterInputStream {
+
+        private static final int MAX_READ = 64;
+
+        private int mRemaining;
+
+        TruncatedInputStream(InputStream in, int length) {
+            super(in);
+            mRemaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (mRemaining == 0) {
+                throw new IOException("The file went away");
+            }
+            int read = super.read(buffer, offset, Math.min(Math.min(count, MAX_READ), mRemaining));
+            if (read > 0) {
+                mRemaining -= read;
+            }
+            return read;
+        }
+    }
+}
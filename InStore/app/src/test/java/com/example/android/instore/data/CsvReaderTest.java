@@ -0,0 +1,126 @@
+package com.example.android.instore.data;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the parsing of {@link CsvReader}, including the malformed input it has to reject.
+ */
+public class CsvReaderTest {
+
+    @Test
+    public void readsPlainRecords() throws IOException {
+        CsvReader reader = new CsvReader(new StringReader("name,quantity\nLamp,3\nDesk,1"));
+        assertRecord(reader, "name", "quantity");
+        assertRecord(reader, "Lamp", "3");
+        assertRecord(reader, "Desk", "1");
+        assertEnd(reader);
+    }
+
+    @Test
+    public void quotedFieldsHoldSeparatorsAndDoubledQuotes() throws IOException {
+        CsvReader reader = new CsvReader(new StringReader(
+                "\"Lamp, brass\",\"12 \"\"inch\"\"\",\"\"\n"));
+        assertRecord(reader, "Lamp, brass", "12 \"inch\"", "");
+        assertEnd(reader);
+    }
+
+    @Test
+    public void quotedFieldsHoldLineBreaks() throws IOException {
+        CsvReader reader = new CsvReader(new StringReader(
+                "name,notes\r\n\"Lamp\",\"first line\r\nsecond line\"\r\nDesk,none\r\n"));
+        assertRecord(reader, "name", "notes");
+        assertRecord(reader, "Lamp", "first line\r\nsecond line");
+        assertEquals(2, reader.getRecordLine());
+        assertRecord(reader, "Desk", "none");
+        assertEquals(4, reader.getRecordLine());
+        assertEnd(reader);
+    }
+
+    @Test
+    public void skipsBlankLinesAndTheByteOrderMark() throws IOException {
+        CsvReader reader = new CsvReader(new StringReader("\uFEFFname\n\n\r\nLamp\r\r"));
+        assertRecord(reader, "name");
+        assertRecord(reader, "Lamp");
+        assertEquals(4, reader.getRecordLine());
+        assertEnd(reader);
+    }
+
+    @Test
+    public void keepsEmptyFields() throws IOException {
+        CsvReader reader = new CsvReader(new StringReader(",Lamp,,\n"));
+        assertRecord(reader, "", "Lamp", "", "");
+        assertEnd(reader);
+    }
+
+    @Test
+    public void toleratesTextAfterTheClosingQuote() throws IOException {
+        CsvReader reader = new CsvReader(new StringReader("\"Lamp\" 2,3\n"));
+        assertRecord(reader, "Lamp 2", "3");
+        assertEnd(reader);
+    }
+
+    @Test
+    public void rejectsAQuoteThatNeverEnds() throws IOException {
+        CsvReader reader = new CsvReader(new StringReader("name\n\"Lamp,3\nDesk,1\n"));
+        assertRecord(reader, "name");
+        try {
+            reader.readRecord(new ArrayList<String>());
+            fail("An unterminated quote should be rejected");
+        } catch (IOException expected) {
+            // The quote opened on line 2
+        }
+    }
+
+    @Test
+    public void rejectsAFieldThatIsTooLong() {
+        char[] field = new char[CsvReader.MAX_FIELD_LENGTH + 1];
+        Arrays.fill(field, 'a');
+        CsvReader reader = new CsvReader(new StringReader(new String(field)));
+        try {
+            reader.readRecord(new ArrayList<String>());
+            fail("A field over the limit should be rejected");
+        } catch (IOException expected) {
+            // Not a catalog
+        }
+    }
+
+    @Test
+    public void rejectsARecordWithTooManyFields() throws IOException {
+        char[] separators = new char[CsvReader.MAX_FIELDS];
+        Arrays.fill(separators, ',');
+        CsvReader reader = new CsvReader(new StringReader(
+                new String(separators, 0, CsvReader.MAX_FIELDS - 1) + "\n"
+                        + new String(separators) + "\n"));
+
+        List<String> fields = new ArrayList<>();
+        assertTrue(reader.readRecord(fields));
+        assertEquals(CsvReader.MAX_FIELDS, fields.size());
+        try {
+            reader.readRecord(fields);
+            fail("A record over the limit should be rejected");
+        } catch (IOException expected) {
+            // Not a catalog
+        }
+    }
+
+    private static void assertRecord(CsvReader reader, String... expected) throws IOException {
+        List<String> fields = new ArrayList<>();
+        assertTrue(reader.readRecord(fields));
+        assertEquals(Arrays.asList(expected), fields);
+    }
+
+    private static void assertEnd(CsvReader reader) throws IOException {
+        assertFalse(reader.readRecord(new ArrayList<String>()));
+    }
+}
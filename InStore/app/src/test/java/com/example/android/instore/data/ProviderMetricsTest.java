@@ -0,0 +1,81 @@
+package com.example.android.instore.data;
+
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Bundle;
+
+import com.example.android.instore.BuildConfig;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the {@link ProviderMetrics} keep every kind of URI apart, and that a
+ * {@link MeteredCursor} records its query once it is read.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class ProviderMetricsTest {
+
+    private static final int TRACKERS = 100;
+
+    private static final int TRACKER_ID = 101;
+
+    private final ProviderMetrics mMetrics = new ProviderMetrics(
+            new int[]{TRACKERS, TRACKER_ID}, new String[]{"trackers", "trackers/#"});
+
+    @Test
+    public void unmatchedUrisAreCountedApart() {
+        mMetrics.record(ProviderMetrics.OPERATION_QUERY, TRACKERS, System.nanoTime(), 3, 0);
+        mMetrics.record(ProviderMetrics.OPERATION_QUERY, UriMatcher.NO_MATCH, System.nanoTime(), -1, 0);
+        mMetrics.record(ProviderMetrics.OPERATION_QUERY, 999, System.nanoTime(), -1, 0);
+
+        Bundle figures = mMetrics.read(false);
+        assertEquals(Arrays.asList("query trackers", "query " + ProviderMetrics.UNMATCHED_NAME),
+                Arrays.asList(figures.getStringArray(TrackerContract.EXTRA_METRICS_NAMES)));
+        assertArrayEquals(new long[]{1, 2}, figures.getLongArray(TrackerContract.EXTRA_METRICS_COUNTS));
+        assertArrayEquals(new long[]{0, 2}, figures.getLongArray(TrackerContract.EXTRA_METRICS_ERRORS));
+    }
+
+    @Test
+    public void queryIsRecordedOnceItsRowsAreRead() {
+        MatrixCursor rows = new MatrixCursor(new String[]{"name"});
+        rows.addRow(new Object[]{"Lamp"});
+        rows.addRow(new Object[]{"Desk"});
+        Cursor cursor = new MeteredCursor(rows, mMetrics, TRACKER_ID, System.nanoTime());
+
+        // Nothing is recorded while the cursor lies unused
+        assertEquals(0, mMetrics.read(false).getStringArray(TrackerContract.EXTRA_METRICS_NAMES).length);
+
+        while (cursor.moveToNext()) {
+            cursor.getString(0);
+        }
+        assertEquals(2, cursor.getCount());
+        cursor.close();
+
+        Bundle figures = mMetrics.read(false);
+        assertArrayEquals(new String[]{"query trackers/#"},
+                figures.getStringArray(TrackerContract.EXTRA_METRICS_NAMES));
+        assertArrayEquals(new long[]{1}, figures.getLongArray(TrackerContract.EXTRA_METRICS_COUNTS));
+        assertArrayEquals(new long[]{2}, figures.getLongArray(TrackerContract.EXTRA_METRICS_ROWS));
+    }
+
+    @Test
+    public void cursorClosedUnreadIsRecordedWithoutRows() {
+        MatrixCursor rows = new MatrixCursor(new String[]{"name"});
+        rows.addRow(new Object[]{"Lamp"});
+        new MeteredCursor(rows, mMetrics, TRACKERS, System.nanoTime()).close();
+
+        Bundle figures = mMetrics.read(false);
+        assertArrayEquals(new long[]{1}, figures.getLongArray(TrackerContract.EXTRA_METRICS_COUNTS));
+        assertArrayEquals(new long[]{0}, figures.getLongArray(TrackerContract.EXTRA_METRICS_ROWS));
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.android.instore.data;
+
+import com.example.android.instore.BuildConfig;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the {@link SalesJournal} gives back what was appended, across reopening the file
+ * and across a crash in the middle of an append.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class SalesJournalTest {
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void appendedSalesAreReadBackInOrder() throws IOException {
+        File file = mFolder.newFile();
+        SalesJournal journal = new SalesJournal(file);
+        assertEquals(0, journal.readAll(0).size());
+        assertEquals(1, journal.append(7, 2));
+        assertEquals(2, journal.append(8, 1));
+        assertEquals(3, journal.append(7, 5));
+        journal.sync();
+
+        List<SalesJournal.Sale> sales = new SalesJournal(file).readAll(0);
+        assertEquals(3, sales.size());
+        assertSale(sales.get(0), 1, 7, 2);
+        assertSale(sales.get(1), 2, 8, 1);
+        assertSale(sales.get(2), 3, 7, 5);
+    }
+
+    @Test
+    public void replayContinuesTheSequenceAfterTheLastRecord() throws IOException {
+        File file = mFolder.newFile();
+        SalesJournal journal = new SalesJournal(file);
+        journal.readAll(0);
+        journal.append(7, 2);
+        journal.append(8, 1);
+
+        // The reopened journal hands out the numbers after the ones in the file
+        SalesJournal reopened = new SalesJournal(file);
+        assertEquals(2, reopened.readAll(1).size());
+        assertEquals(2, reopened.getLastSequence());
+        assertEquals(3, reopened.append(9, 4));
+    }
+
+    @Test
+    public void sequenceContinuesAfterTheAppliedOnesOnceTruncated() throws IOException {
+        File file = mFolder.newFile();
+        SalesJournal journal = new SalesJournal(file);
+        journal.readAll(0);
+        journal.append(7, 2);
+        journal.append(8, 1);
+        journal.truncate(2);
+        assertEquals(0, file.length());
+
+        // The table remembers that sale 2 was applied, so the numbers go on from there
+        SalesJournal reopened = new SalesJournal(file);
+        assertEquals(0, reopened.readAll(2).size());
+        assertEquals(3, reopened.append(9, 4));
+    }
+
+    @Test
+    public void truncateKeepsSalesAppendedAfterTheAppliedOnes() throws IOException {
+        File file = mFolder.newFile();
+        SalesJournal journal = new SalesJournal(file);
+        journal.readAll(0);
+        journal.append(7, 2);
+        journal.append(8, 1);
+        journal.truncate(1);
+
+        List<SalesJournal.Sale> sales = new SalesJournal(file).readAll(1);
+        assertEquals(2, sales.size());
+    }
+
+    @Test
+    public void tornRecordIsDroppedOnReplay() throws IOException {
+        File file = mFolder.newFile();
+        SalesJournal journal = new SalesJournal(file);
+        journal.readAll(0);
+        journal.append(7, 2);
+        journal.append(8, 1);
+
+        // The process died halfway through writing a third record
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        try {
+            raw.seek(raw.length());
+            raw.write(new byte[]{0, 0, 0, 0, 0, 0, 0, 3, 0, 0, 0});
+        } finally {
+            raw.close();
+        }
+
+        SalesJournal replayed = new SalesJournal(file);
+        List<SalesJournal.Sale> sales = replayed.readAll(0);
+        assertEquals(2, sales.size());
+        assertEquals(3, replayed.append(9, 4));
+
+        sales = new SalesJournal(file).readAll(0);
+        assertEquals(3, sales.size());
+        assertSale(sales.get(2), 3, 9, 4);
+    }
+
+    @Test
+    public void recordWithABadChecksumEndsTheReplay() throws IOException {
+        File file = mFolder.newFile();
+        SalesJournal journal = new SalesJournal(file);
+        journal.readAll(0);
+        journal.append(7, 2);
+        journal.append(8, 1);
+        journal.append(9, 4);
+
+        // Damage the count of the second record
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        try {
+            raw.seek(24 + 16);
+            raw.writeInt(1000);
+        } finally {
+            raw.close();
+        }
+
+        List<SalesJournal.Sale> sales = new SalesJournal(file).readAll(0);
+        assertEquals(1, sales.size());
+        assertSale(sales.get(0), 1, 7, 2);
+        assertEquals(24, file.length());
+    }
+
+    private static void assertSale(SalesJournal.Sale sale, long sequence, long id, int count) {
+        assertEquals(sequence, sale.sequence);
+        assertEquals(id, sale.id);
+        assertEquals(count, sale.count);
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.android.instore.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.instore.BuildConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that the {@link SchemaMigrator} runs the steps in order, that a background step that was
+ * cut short continues where it left off, and that a table rebuilt in chunks ends up with every
+ * write made while it was rebuilt.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class SchemaMigratorTest {
+
+    /**
+     * Name of the background step of the tests
+     */
+    private static final String STEP_NAME = "chunks";
+
+    /**
+     * Number of chunks of the background step
+     */
+    private static final int CHUNKS = 5;
+
+    private SQLiteDatabase mDb;
+
+    /**
+     * What the steps did, in order
+     */
+    private final List<String> mEvents = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mDb = SQLiteDatabase.create(null);
+        mDb.execSQL("CREATE TABLE chunks (position INTEGER NOT NULL)");
+        SchemaMigrator.createMigrationsTable(mDb);
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+    }
+
+    @Test
+    public void backgroundStepResumesWhereTheProcessDied() throws InterruptedException {
+        markPending(0);
+        try {
+            createMigrator(3).runPending(mDb);
+            fail("The step should have died");
+        } catch (IllegalStateException expected) {
+            // As if the process died in the middle of the chunk
+        }
+
+        // The chunk that died was rolled back, the ones before it stay
+        assertEquals(Arrays.asList(0L, 1L, 2L), queryChunks());
+        assertEquals(Collections.singletonList(STEP_NAME), createMigrator(-1).getPending(mDb));
+
+        createMigrator(-1).runPending(mDb);
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L), queryChunks());
+        assertEquals(Collections.<String>emptyList(), createMigrator(-1).getPending(mDb));
+    }
+
+    @Test
+    public void pendingStepIsFinishedBeforeTheNextStep() {
+        // Left pending by an earlier upgrade to version 2, which got through two chunks
+        markPending(2);
+        createMigrator(-1).upgrade(mDb, 2);
+
+        assertEquals(Arrays.asList("chunk 2", "chunk 3", "chunk 4", "step 3"), mEvents);
+        assertEquals(Arrays.asList(2L, 3L, 4L), queryChunks());
+        assertEquals(Collections.<String>emptyList(), createMigrator(-1).getPending(mDb));
+    }
+
+    @Test
+    public void backgroundStepIsFinishedBeforeALaterStepOfTheSameUpgrade() {
+        createMigrator(-1).upgrade(mDb, 1);
+
+        assertEquals(Arrays.asList("step 2", "chunk 0", "chunk 1", "chunk 2", "chunk 3", "chunk 4",
+                "step 3"), mEvents);
+        assertEquals(Collections.<String>emptyList(), createMigrator(-1).getPending(mDb));
+    }
+
+    @Test
+    public void lastBackgroundStepIsLeftPendingWithoutWriteAheadLogging() {
+        new SchemaMigrator(createBackgroundStep(-1)).upgrade(mDb, 1);
+
+        // Only the quick part ran inside the upgrade
+        assertEquals(Collections.singletonList("step 2"), mEvents);
+        assertEquals(Collections.singletonList(STEP_NAME), createMigrator(-1).getPending(mDb));
+    }
+
+    @Test
+    public void rebuiltTableKeepsTheWritesMadeBetweenChunks() {
+        mDb.execSQL("CREATE TABLE items (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL)");
+        for (int i = 1; i <= 10; i++) {
+            mDb.execSQL("INSERT INTO items (name) VALUES ('item " + i + "')");
+        }
+        SchemaMigrator.TableRebuildStep step = new SchemaMigrator.TableRebuildStep(2, "items_by_name",
+                "items", "_id", 3 /* chunkRows */) {
+            @Override
+            void createCopy(SQLiteDatabase db, String copy) {
+                db.execSQL("CREATE TABLE " + copy
+                        + " (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL)");
+                db.execSQL("CREATE INDEX items_by_name ON " + copy + " (name)");
+            }
+
+            @Override
+            String[] getColumns() {
+                return new String[]{"_id", "name"};
+            }
+
+            @Override
+            void replaceTable(SQLiteDatabase db, String copy) {
+                db.execSQL("DROP TABLE items");
+                db.execSQL("ALTER TABLE " + copy + " RENAME TO items");
+            }
+        };
+        step.migrate(mDb);
+
+        // The first chunk copies items 1 to 3, and the app keeps writing in between chunks
+        long position = step.migrateChunk(mDb, 0);
+        assertEquals(4, position);
+        mDb.execSQL("UPDATE items SET name = 'lamp' WHERE _id = 2");
+        mDb.execSQL("UPDATE items SET name = 'desk' WHERE _id = 8");
+        mDb.execSQL("DELETE FROM items WHERE _id IN (3, 9)");
+        mDb.execSQL("INSERT INTO items (name) VALUES ('chair')");
+        position = step.migrateChunk(mDb, position);
+        mDb.execSQL("UPDATE items SET name = 'shelf' WHERE _id = 5");
+        while (position != SchemaMigrator.DONE) {
+            position = step.migrateChunk(mDb, position);
+        }
+
+        assertEquals(Arrays.asList("1 item 1", "2 lamp", "4 item 4", "5 shelf", "6 item 6",
+                "7 item 7", "8 desk", "10 item 10", "11 chair"), queryItems());
+        assertEquals(0, DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM sqlite_master"
+                + " WHERE name LIKE 'items_copy%'", null));
+        assertEquals("items", DatabaseUtils.stringForQuery(mDb,
+                "SELECT tbl_name FROM sqlite_master WHERE name = 'items_by_name'", null));
+
+        // IDs keep counting up from the rows that were deleted
+        mDb.execSQL("DELETE FROM items WHERE _id = 11");
+        mDb.execSQL("INSERT INTO items (name) VALUES ('stool')");
+        assertEquals(12, DatabaseUtils.longForQuery(mDb,
+                "SELECT _id FROM items WHERE name = 'stool'", null));
+    }
+
+    /**
+     * Return a migrator with a quick step to version 3 after a background step to version 2.
+     *
+     * @param diesAt the chunk the background step throws in, or -1 to let it finish
+     */
+    private SchemaMigrator createMigrator(int diesAt) {
+        return new SchemaMigrator(
+                createBackgroundStep(diesAt),
+                new SchemaMigrator.Step(3) {
+                    @Override
+                    void migrate(SQLiteDatabase db) {
+                        mEvents.add("step 3");
+                    }
+                });
+    }
+
+    /**
+     * Return a background step to version 2, which records every chunk it runs.
+     *
+     * @param diesAt the chunk the step throws in, or -1 to let it finish
+     */
+    private SchemaMigrator.BackgroundStep createBackgroundStep(final int diesAt) {
+        return new SchemaMigrator.BackgroundStep(2, STEP_NAME) {
+            @Override
+            void migrate(SQLiteDatabase db) {
+                mEvents.add("step 2");
+            }
+
+            @Override
+            long migrateChunk(SQLiteDatabase db, long position) {
+                mEvents.add("chunk " + position);
+                ContentValues values = new ContentValues();
+                values.put("position", position);
+                db.insert("chunks", null, values);
+                if (position == diesAt) {
+                    throw new IllegalStateException("Died in chunk " + position);
+                }
+                return position + 1 < CHUNKS ? position + 1 : SchemaMigrator.DONE;
+            }
+        };
+    }
+
+    private void markPending(long position) {
+        ContentValues values = new ContentValues();
+        values.put(SchemaMigrator.COLUMN_NAME, STEP_NAME);
+        values.put(SchemaMigrator.COLUMN_POSITION, position);
+        mDb.insert(SchemaMigrator.MIGRATIONS_TABLE_NAME, null, values);
+    }
+
+    private List<String> queryItems() {
+        List<String> items = new ArrayList<>();
+        Cursor cursor = mDb.rawQuery("SELECT _id, name FROM items ORDER BY _id", null);
+        try {
+            while (cursor.moveToNext()) {
+                items.add(cursor.getLong(0) + " " + cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return items;
+    }
+
+    private List<Long> queryChunks() {
+        List<Long> chunks = new ArrayList<>();
+        Cursor cursor = mDb.rawQuery("SELECT position FROM chunks ORDER BY position", null);
+        try {
+            while (cursor.moveToNext()) {
+                chunks.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return chunks;
+    }
+}
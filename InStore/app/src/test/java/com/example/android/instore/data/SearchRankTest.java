@@ -0,0 +1,56 @@
+package com.example.android.instore.data;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the scores {@link SearchRank} computes from matchinfo().
+ */
+public class SearchRankTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void rareWordsScoreHigher() {
+        // Found once in this row, out of once and out of ten times in the whole index
+        double rare = SearchRank.score(matchinfo(1, 1, 1, 1, 1));
+        double common = SearchRank.score(matchinfo(1, 1, 1, 10, 10));
+        assertEquals(1.0, rare, DELTA);
+        assertEquals(0.1, common, DELTA);
+        assertTrue(rare > common);
+    }
+
+    @Test
+    public void everyMatchedWordAddsToTheScore() {
+        // Two words; the second one is not in this row
+        assertEquals(0.5, SearchRank.score(matchinfo(2, 1, 1, 2, 2, 0, 4, 4)), DELTA);
+        assertEquals(0.75, SearchRank.score(matchinfo(2, 1, 1, 2, 2, 1, 4, 4)), DELTA);
+    }
+
+    @Test
+    public void rejectsMatchinfoOfAnotherFormat() {
+        try {
+            SearchRank.score(matchinfo(2, 1, 1, 2, 2));
+            fail("matchinfo() without the hits of every phrase should be rejected");
+        } catch (IllegalArgumentException expected) {
+            // Not "pcx"
+        }
+    }
+
+    /**
+     * Return the given values as matchinfo() returns them.
+     */
+    private static byte[] matchinfo(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4).order(ByteOrder.nativeOrder());
+        for (int value : values) {
+            buffer.putInt(value);
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.android.instore.data;
+
+import com.example.android.instore.BuildConfig;
+import com.example.android.instore.data.TrackerContract.TrackerEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the conversion of typed prices into cents.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TrackerContractTest {
+
+    @Test
+    public void parsesTypedPricesIntoCents() {
+        assertEquals(12900, TrackerEntry.parsePrice("129"));
+        assertEquals(1250, TrackerEntry.parsePrice("$12.50"));
+        assertEquals(129999, TrackerEntry.parsePrice("1,299.99"));
+        assertEquals(Long.MAX_VALUE, TrackerEntry.parsePrice("92233720368547758.07"));
+    }
+
+    @Test
+    public void rejectsPricesTooLargeToStore() {
+        try {
+            TrackerEntry.parsePrice("92233720368547758.08");
+            fail("A price past the largest number of cents should be rejected, not wrapped around");
+        } catch (NumberFormatException expected) {
+            // Reported like any other invalid price
+        }
+    }
+}
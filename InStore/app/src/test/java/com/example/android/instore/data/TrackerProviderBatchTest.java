@@ -0,0 +1,123 @@
+package com.example.android.instore.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.net.Uri;
+
+import com.example.android.instore.BuildConfig;
+import com.example.android.instore.data.TrackerContract.TrackerEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that a batch of writes either commits as reported or fails loudly, and never rolls back
+ * behind the caller's back.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TrackerProviderBatchTest {
+
+    /**
+     * A well-formed hash of an image that is not in the image store
+     */
+    private static final String MISSING_IMAGE_HASH =
+            "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+
+    private TrackerProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(TrackerProvider.class);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void missingImageFailsTheBulkInsert() {
+        ContentValues broken = newTracker("Desk");
+        broken.put(TrackerEntry.COLUMN_TRACKER_IMAGE_HASH, MISSING_IMAGE_HASH);
+        try {
+            mProvider.bulkInsert(TrackerEntry.CONTENT_URI,
+                    new ContentValues[]{newTracker("Lamp"), broken, newTracker("Chair")});
+            fail("A tracker whose image is missing should fail the batch");
+        } catch (SQLException expected) {
+            // The importer retries the chunk row by row
+        }
+        assertEquals(0, queryNames().size());
+
+        // The provider is still usable, and the rows without the broken image can be inserted
+        assertEquals(2, mProvider.bulkInsert(TrackerEntry.CONTENT_URI,
+                new ContentValues[]{newTracker("Lamp"), newTracker("Chair")}));
+        assertEquals(Arrays.asList("Chair", "Lamp"), queryNames());
+    }
+
+    @Test
+    public void bulkInsertCountsTheRowsThatWerePersisted() {
+        Uri lampUri = mProvider.insert(TrackerEntry.CONTENT_URI, newTracker("Lamp"));
+
+        // The second row reuses the ID of the lamp, so it is not inserted
+        ContentValues duplicate = newTracker("Desk");
+        duplicate.put(TrackerEntry._ID, ContentUris.parseId(lampUri));
+        int rowsInserted = mProvider.bulkInsert(TrackerEntry.CONTENT_URI,
+                new ContentValues[]{newTracker("Chair"), duplicate, newTracker("Shelf")});
+
+        assertEquals(2, rowsInserted);
+        assertEquals(Arrays.asList("Chair", "Lamp", "Shelf"), queryNames());
+    }
+
+    @Test
+    public void missingImageFailsASingleUpdate() {
+        mProvider.insert(TrackerEntry.CONTENT_URI, newTracker("Lamp"));
+        ContentValues values = new ContentValues();
+        values.put(TrackerEntry.COLUMN_TRACKER_IMAGE_HASH, MISSING_IMAGE_HASH);
+        try {
+            mProvider.update(TrackerEntry.CONTENT_URI, values, null, null);
+            fail("An image that is missing should fail the update");
+        } catch (SQLException expected) {
+            // Nothing was written
+        }
+        assertEquals(Arrays.asList("Lamp"), queryNames());
+    }
+
+    private static ContentValues newTracker(String name) {
+        ContentValues values = new ContentValues();
+        values.put(TrackerEntry.COLUMN_TRACKER_NAME, name);
+        values.put(TrackerEntry.COLUMN_TRACKER_QUANTITY, 1);
+        values.put(TrackerEntry.COLUMN_TRACKER_PRICE, 1000);
+        values.put(TrackerEntry.COLUMN_TRACKER_VENDOR, "lamps@example.com");
+        return values;
+    }
+
+    private List<String> queryNames() {
+        List<String> names = new ArrayList<>();
+        Cursor cursor = mProvider.query(TrackerEntry.CONTENT_URI,
+                new String[]{TrackerEntry.COLUMN_TRACKER_NAME}, null, null,
+                TrackerEntry.COLUMN_TRACKER_NAME);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+}
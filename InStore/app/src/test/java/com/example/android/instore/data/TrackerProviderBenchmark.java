@@ -0,0 +1,229 @@
+package com.example.android.instore.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.instore.BenchmarkHarness;
+import com.example.android.instore.BuildConfig;
+import com.example.android.instore.data.TrackerContract.TrackerEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Benchmarks the data path of {@link TrackerProvider} on the JVM: inserts, page, search and
+ * summary queries, updates, sales and deletes, against synthetic catalogs of every size in
+ * {@link BenchmarkHarness#getRowCounts()}.
+ * <p>
+ * Skipped unless the benchmarks are enabled, see {@link BenchmarkHarness}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TrackerProviderBenchmark {
+
+    private static final String SUITE = TrackerProviderBenchmark.class.getSimpleName();
+
+    private static final int OPERATIONS_PER_ITERATION = 100;
+
+    private static final int PAGE_SIZE = 50;
+
+    private static final String[] PROJECTION = {
+            TrackerEntry._ID,
+            TrackerEntry.COLUMN_TRACKER_NAME,
+            TrackerEntry.COLUMN_TRACKER_PRICE,
+            TrackerEntry.COLUMN_TRACKER_QUANTITY,
+            TrackerEntry.COLUMN_TRACKER_IMAGE_HASH
+    };
+
+    private TrackerProvider mProvider;
+
+    @Before
+    public void setUp() {
+        assumeTrue(BenchmarkHarness.isEnabled());
+        mProvider = Robolectric.setupContentProvider(TrackerProvider.class);
+    }
+
+    @After
+    public void tearDown() {
+        if (mProvider != null) {
+            mProvider.shutdown();
+        }
+    }
+
+    @Test
+    public void dataPath() throws Exception {
+        for (final int rowCount : BenchmarkHarness.getRowCounts()) {
+            mProvider.delete(TrackerEntry.CONTENT_URI, null, null);
+
+            BenchmarkHarness.measureOnce(SUITE, "bulkInsert", rowCount, new BenchmarkHarness.Operation() {
+                @Override
+                public void run(int index) {
+                    assertEquals(rowCount, mProvider.bulkInsert(TrackerEntry.CONTENT_URI, createRows(rowCount)));
+                }
+            });
+            final long[] ids = queryIds();
+            final Random random = new Random(rowCount);
+
+            final List<Long> insertedIds = new ArrayList<>();
+            BenchmarkHarness.measure(SUITE, "insert", rowCount, OPERATIONS_PER_ITERATION,
+                    new BenchmarkHarness.Operation() {
+                        @Override
+                        public void run(int index) {
+                            Uri uri = mProvider.insert(TrackerEntry.CONTENT_URI, createRow(rowCount + index));
+                            insertedIds.add(ContentUris.parseId(uri));
+                        }
+                    });
+
+            BenchmarkHarness.measure(SUITE, "queryFirstPage", rowCount, OPERATIONS_PER_ITERATION,
+                    new BenchmarkHarness.Operation() {
+                        @Override
+                        public void run(int index) {
+                            readAll(mProvider.query(
+                                    TrackerEntry.buildPageUri(TrackerEntry.COLUMN_TRACKER_NAME, PAGE_SIZE),
+                                    PROJECTION, null, null, null));
+                        }
+                    });
+
+            BenchmarkHarness.measure(SUITE, "queryDeepPage", rowCount, OPERATIONS_PER_ITERATION,
+                    new BenchmarkHarness.Operation() {
+                        @Override
+                        public void run(int index) {
+                            Uri pageUri = TrackerEntry.buildPageUri(TrackerEntry.COLUMN_TRACKER_NAME, PAGE_SIZE);
+                            readAll(mProvider.query(TrackerEntry.buildNextPageUri(pageUri,
+                                    "Tracker " + (rowCount / 2), 0), PROJECTION, null, null, null));
+                        }
+                    });
+
+            BenchmarkHarness.measure(SUITE, "querySearch", rowCount, OPERATIONS_PER_ITERATION,
+                    new BenchmarkHarness.Operation() {
+                        @Override
+                        public void run(int index) {
+                            readAll(mProvider.query(TrackerEntry.buildSearchUri(
+                                    String.valueOf(random.nextInt(rowCount)), 100),
+                                    PROJECTION, null, null, null));
+                        }
+                    });
+
+            BenchmarkHarness.measure(SUITE, "queryById", rowCount, OPERATIONS_PER_ITERATION,
+                    new BenchmarkHarness.Operation() {
+                        @Override
+                        public void run(int index) {
+                            readAll(mProvider.query(ContentUris.withAppendedId(TrackerEntry.CONTENT_URI,
+                                    ids[random.nextInt(ids.length)]), PROJECTION, null, null, null));
+                        }
+                    });
+
+            BenchmarkHarness.measure(SUITE, "querySummary", rowCount, OPERATIONS_PER_ITERATION,
+                    new BenchmarkHarness.Operation() {
+                        @Override
+                        public void run(int index) {
+                            readAll(mProvider.query(TrackerContract.SummaryEntry.CONTENT_URI,
+                                    null, null, null, null));
+                        }
+                    });
+
+            BenchmarkHarness.measure(SUITE, "update", rowCount, OPERATIONS_PER_ITERATION,
+                    new BenchmarkHarness.Operation() {
+                        @Override
+                        public void run(int index) {
+                            ContentValues values = new ContentValues();
+                            values.put(TrackerEntry.COLUMN_TRACKER_PRICE, 1000 + random.nextInt(9000));
+                            mProvider.update(ContentUris.withAppendedId(TrackerEntry.CONTENT_URI,
+                                    ids[random.nextInt(ids.length)]), values, null, null);
+                        }
+                    });
+
+            BenchmarkHarness.measure(SUITE, "sell", rowCount, OPERATIONS_PER_ITERATION,
+                    new BenchmarkHarness.Operation() {
+                        @Override
+                        public void run(int index) {
+                            Bundle extras = new Bundle();
+                            extras.putLong(TrackerContract.EXTRA_ID, ids[random.nextInt(ids.length)]);
+                            mProvider.call(TrackerContract.METHOD_SELL, null, extras);
+                        }
+                    });
+
+            BenchmarkHarness.measure(SUITE, "recordSale", rowCount, OPERATIONS_PER_ITERATION,
+                    new BenchmarkHarness.Operation() {
+                        @Override
+                        public void run(int index) {
+                            Bundle extras = new Bundle();
+                            extras.putLong(TrackerContract.EXTRA_ID, ids[random.nextInt(ids.length)]);
+                            mProvider.call(TrackerContract.METHOD_RECORD_SALE, null, extras);
+                        }
+                    });
+
+            // Delete the trackers the insert benchmark added, one at a time
+            BenchmarkHarness.measure(SUITE, "delete", rowCount, OPERATIONS_PER_ITERATION,
+                    new BenchmarkHarness.Operation() {
+                        @Override
+                        public void run(int index) {
+                            mProvider.delete(ContentUris.withAppendedId(TrackerEntry.CONTENT_URI,
+                                    insertedIds.get(index)), null, null);
+                        }
+                    });
+        }
+    }
+
+    private long[] queryIds() {
+        Cursor cursor = mProvider.query(TrackerEntry.CONTENT_URI, new String[]{TrackerEntry._ID},
+                null, null, null);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Step through every row, which is what actually runs the query.
+     */
+    private static void readAll(Cursor cursor) {
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Build a synthetic catalog with the given number of rows.
+     */
+    static ContentValues[] createRows(int rowCount) {
+        ContentValues[] rows = new ContentValues[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            rows[i] = createRow(i);
+        }
+        return rows;
+    }
+
+    static ContentValues createRow(int i) {
+        ContentValues values = new ContentValues();
+        values.put(TrackerEntry.COLUMN_TRACKER_NAME, "Tracker " + i);
+        values.put(TrackerEntry.COLUMN_TRACKER_QUANTITY, 1000000);
+        values.put(TrackerEntry.COLUMN_TRACKER_PRICE, 1000 + i % 9000);
+        values.put(TrackerEntry.COLUMN_TRACKER_VENDOR, "vendor" + (i % 20) + "@example.com");
+        return values;
+    }
+}
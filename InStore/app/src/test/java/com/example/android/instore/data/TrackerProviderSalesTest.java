@@ -0,0 +1,151 @@
+package com.example.android.instore.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.instore.BuildConfig;
+import com.example.android.instore.data.TrackerContract.TrackerEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests how the sales accepted with {@link TrackerContract#METHOD_RECORD_SALE}, which are only
+ * journaled at first, meet the other writes of the stock.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TrackerProviderSalesTest {
+
+    private TrackerProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(TrackerProvider.class);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void savingTheQuantityShownDoesNotSubtractPendingSalesTwice() {
+        Uri trackerUri = insertTracker(10);
+        assertEquals(true, recordSale(trackerUri, 2).getBoolean(TrackerContract.EXTRA_SOLD));
+        assertEquals(8, queryQuantity(trackerUri));
+
+        // The editor saves the quantity it shows, which is net of the pending sale
+        ContentValues values = new ContentValues();
+        values.put(TrackerEntry.COLUMN_TRACKER_QUANTITY, 8);
+        assertEquals(1, mProvider.update(trackerUri, values, null, null));
+
+        // Selling applies whatever is still pending first
+        assertEquals(7, sell(trackerUri, 1).getInt(TrackerContract.EXTRA_QUANTITY));
+    }
+
+    @Test
+    public void recordSaleChecksTheStockNetOfPendingSales() {
+        Uri trackerUri = insertTracker(3);
+        Bundle first = recordSale(trackerUri, 2);
+        assertEquals(true, first.getBoolean(TrackerContract.EXTRA_SOLD));
+        assertEquals(1, first.getInt(TrackerContract.EXTRA_QUANTITY));
+
+        // Only one unit is left once the first sale is counted
+        Bundle second = recordSale(trackerUri, 2);
+        assertEquals(false, second.getBoolean(TrackerContract.EXTRA_SOLD));
+        assertEquals(1, second.getInt(TrackerContract.EXTRA_QUANTITY));
+        assertEquals(1, queryQuantity(trackerUri));
+
+        assertEquals(true, recordSale(trackerUri, 1).getBoolean(TrackerContract.EXTRA_SOLD));
+        assertEquals(0, queryQuantity(trackerUri));
+    }
+
+    @Test
+    public void recordSaleOfAMissingTrackerIsNotSold() {
+        Uri trackerUri = insertTracker(3);
+        mProvider.delete(trackerUri, null, null);
+        assertEquals(false, recordSale(trackerUri, 1).getBoolean(TrackerContract.EXTRA_SOLD));
+    }
+
+    @Test
+    public void nextPageStartsAfterTheStoredQuantity() {
+        insertTracker(5);
+        Uri soldUri = insertTracker(6);
+        Uri lastUri = insertTracker(7);
+        recordSale(soldUri, 2);
+
+        Uri firstPageUri = TrackerEntry.buildPageUri(TrackerEntry.COLUMN_TRACKER_QUANTITY, 2);
+        String[] projection = {TrackerEntry._ID, TrackerEntry.COLUMN_TRACKER_QUANTITY,
+                TrackerEntry.COLUMN_PAGE_KEY};
+        Cursor firstPage = mProvider.query(firstPageUri, projection, null, null, null);
+        String afterKey;
+        long afterId;
+        try {
+            assertEquals(true, firstPage.moveToLast());
+            assertEquals(ContentUris.parseId(soldUri), firstPage.getLong(0));
+
+            // The quantity shown is net of the sale, the page key is what the table holds
+            assertEquals(4, firstPage.getInt(1));
+            assertEquals("6", firstPage.getString(2));
+            afterKey = firstPage.getString(2);
+            afterId = firstPage.getLong(0);
+        } finally {
+            firstPage.close();
+        }
+
+        Cursor nextPage = mProvider.query(TrackerEntry.buildNextPageUri(firstPageUri, afterKey, afterId),
+                projection, null, null, null);
+        try {
+            assertEquals(1, nextPage.getCount());
+            nextPage.moveToFirst();
+            assertEquals(ContentUris.parseId(lastUri), nextPage.getLong(0));
+        } finally {
+            nextPage.close();
+        }
+    }
+
+    private Uri insertTracker(int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(TrackerEntry.COLUMN_TRACKER_NAME, "Tracker");
+        values.put(TrackerEntry.COLUMN_TRACKER_QUANTITY, quantity);
+        values.put(TrackerEntry.COLUMN_TRACKER_PRICE, 1000);
+        values.put(TrackerEntry.COLUMN_TRACKER_VENDOR, "vendor@example.com");
+        return mProvider.insert(TrackerEntry.CONTENT_URI, values);
+    }
+
+    private Bundle recordSale(Uri trackerUri, int count) {
+        Bundle extras = new Bundle();
+        extras.putLong(TrackerContract.EXTRA_ID, ContentUris.parseId(trackerUri));
+        extras.putInt(TrackerContract.EXTRA_COUNT, count);
+        return mProvider.call(TrackerContract.METHOD_RECORD_SALE, null, extras);
+    }
+
+    private Bundle sell(Uri trackerUri, int count) {
+        Bundle extras = new Bundle();
+        extras.putLong(TrackerContract.EXTRA_ID, ContentUris.parseId(trackerUri));
+        extras.putInt(TrackerContract.EXTRA_COUNT, count);
+        return mProvider.call(TrackerContract.METHOD_SELL, null, extras);
+    }
+
+    private int queryQuantity(Uri trackerUri) {
+        Cursor cursor = mProvider.query(trackerUri,
+                new String[]{TrackerEntry.COLUMN_TRACKER_QUANTITY}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.android.instore.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.instore.BuildConfig;
+import com.example.android.instore.data.TrackerContract.TrackerEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that quantities and prices must be whole numbers, whatever type they are given as.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TrackerProviderValidationTest {
+
+    private TrackerProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(TrackerProvider.class);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void fractionalPriceIsRejected() {
+        ContentValues values = newTracker();
+        values.put(TrackerEntry.COLUMN_TRACKER_PRICE, 12.5);
+        try {
+            mProvider.insert(TrackerEntry.CONTENT_URI, values);
+            fail("A price of 12.5 cents should be rejected, not cut to 12");
+        } catch (IllegalArgumentException expected) {
+            // The price is in cents
+        }
+    }
+
+    @Test
+    public void fractionalQuantityIsRejectedOnUpdate() {
+        Uri trackerUri = mProvider.insert(TrackerEntry.CONTENT_URI, newTracker());
+        ContentValues values = new ContentValues();
+        values.put(TrackerEntry.COLUMN_TRACKER_QUANTITY, 2.5f);
+        try {
+            mProvider.update(trackerUri, values, null, null);
+            fail("A quantity of 2.5 should be rejected");
+        } catch (IllegalArgumentException expected) {
+            // Units can't be split
+        }
+        assertEquals(1, queryLong(trackerUri, TrackerEntry.COLUMN_TRACKER_QUANTITY));
+    }
+
+    @Test
+    public void wholePriceGivenAsDoubleIsStoredAsInteger() {
+        ContentValues values = newTracker();
+        values.put(TrackerEntry.COLUMN_TRACKER_PRICE, 1299.0);
+        Uri trackerUri = mProvider.insert(TrackerEntry.CONTENT_URI, values);
+        assertEquals(1299, queryLong(trackerUri, TrackerEntry.COLUMN_TRACKER_PRICE));
+    }
+
+    private static ContentValues newTracker() {
+        ContentValues values = new ContentValues();
+        values.put(TrackerEntry.COLUMN_TRACKER_NAME, "Lamp");
+        values.put(TrackerEntry.COLUMN_TRACKER_QUANTITY, 1);
+        values.put(TrackerEntry.COLUMN_TRACKER_PRICE, 1000);
+        values.put(TrackerEntry.COLUMN_TRACKER_VENDOR, "lamps@example.com");
+        return values;
+    }
+
+    private long queryLong(Uri trackerUri, String column) {
+        Cursor cursor = mProvider.query(trackerUri, new String[]{column}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
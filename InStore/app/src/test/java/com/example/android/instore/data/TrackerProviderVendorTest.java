@@ -0,0 +1,97 @@
+package com.example.android.instore.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.instore.BuildConfig;
+import com.example.android.instore.data.TrackerContract.TrackerEntry;
+import com.example.android.instore.data.TrackerContract.VendorEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that trackers can be selected and sorted by the e-mail of their vendor, which lives in
+ * the vendors table, whatever columns are asked for.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TrackerProviderVendorTest {
+
+    private static final String[] NAME_PROJECTION = {TrackerEntry.COLUMN_TRACKER_NAME};
+
+    private TrackerProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(TrackerProvider.class);
+        insertTracker("Lamp", "lamps@example.com");
+        insertTracker("Desk", "desks@example.com");
+        insertTracker("Chair", "lamps@example.com");
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void selectsByVendorWithoutTheVendorColumn() {
+        assertEquals(Arrays.asList("Chair", "Lamp"), queryNames(TrackerEntry.CONTENT_URI,
+                TrackerEntry.COLUMN_TRACKER_VENDOR + "=?", new String[]{"lamps@example.com"},
+                TrackerEntry.COLUMN_TRACKER_NAME));
+    }
+
+    @Test
+    public void sortsByVendorWithoutTheVendorColumn() {
+        assertEquals(Arrays.asList("Desk", "Chair", "Lamp"), queryNames(TrackerEntry.CONTENT_URI,
+                null, null, TrackerEntry.COLUMN_TRACKER_VENDOR + ", " + TrackerEntry.COLUMN_TRACKER_NAME));
+    }
+
+    @Test
+    public void renamedVendorShowsInTheSelection() {
+        ContentValues values = new ContentValues();
+        values.put(VendorEntry.COLUMN_VENDOR_EMAIL, "lighting@example.com");
+        assertEquals(1, mProvider.update(VendorEntry.CONTENT_URI, values,
+                VendorEntry.COLUMN_VENDOR_EMAIL + "=?", new String[]{"lamps@example.com"}));
+
+        assertEquals(Arrays.asList("Chair", "Lamp"), queryNames(TrackerEntry.CONTENT_URI,
+                TrackerEntry.COLUMN_TRACKER_VENDOR + "=?", new String[]{"lighting@example.com"},
+                TrackerEntry.COLUMN_TRACKER_NAME));
+    }
+
+    private void insertTracker(String name, String vendor) {
+        ContentValues values = new ContentValues();
+        values.put(TrackerEntry.COLUMN_TRACKER_NAME, name);
+        values.put(TrackerEntry.COLUMN_TRACKER_QUANTITY, 1);
+        values.put(TrackerEntry.COLUMN_TRACKER_PRICE, 1000);
+        values.put(TrackerEntry.COLUMN_TRACKER_VENDOR, vendor);
+        mProvider.insert(TrackerEntry.CONTENT_URI, values);
+    }
+
+    private List<String> queryNames(Uri uri, String selection, String[] selectionArgs,
+                                    String sortOrder) {
+        List<String> names = new ArrayList<>();
+        Cursor cursor = mProvider.query(uri, NAME_PROJECTION, selection, selectionArgs, sortOrder);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+}